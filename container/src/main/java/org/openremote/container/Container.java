@@ -25,6 +25,7 @@ import com.fasterxml.jackson.annotation.PropertyAccessor;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
 import org.openremote.container.concurrent.ContainerThreads;
 import org.openremote.container.json.ModelValueModule;
 import org.openremote.container.util.LogUtil;
@@ -45,7 +46,8 @@ import static org.openremote.container.util.MapAccess.getBoolean;
  * in {@link org.openremote.container.util.MapAccess}. Consider using {@link #DEV_MODE}
  * to distinguish between development and production environments.
  * <p>
- * Read and write JSON with a sensible mapper configuration using {@link #JSON}.
+ * Read and write JSON with a sensible mapper configuration using {@link #JSON}, the binary
+ * {@link #CBOR} mapper has the same configuration.
  */
 public class Container {
 
@@ -59,15 +61,21 @@ public class Container {
     public static final String DEV_MODE = "DEV_MODE";
     public static final boolean DEV_MODE_DEFAULT = true;
 
-    public static final ObjectMapper JSON = new ObjectMapper()
-        .setSerializationInclusion(JsonInclude.Include.NON_NULL)
-        .configure(SerializationFeature.WRITE_NULL_MAP_VALUES, false)
-        .configure(SerializationFeature.WRITE_EMPTY_JSON_ARRAYS, false)
-        .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
-        .setVisibility(PropertyAccessor.ALL, JsonAutoDetect.Visibility.NONE)
-        .setVisibility(PropertyAccessor.FIELD, JsonAutoDetect.Visibility.ANY)
-        .setVisibility(PropertyAccessor.CREATOR, JsonAutoDetect.Visibility.ANY)
-        .registerModule(new ModelValueModule());
+    public static final ObjectMapper JSON = configureMapper(new ObjectMapper());
+
+    public static final ObjectMapper CBOR = configureMapper(new ObjectMapper(new CBORFactory()));
+
+    protected static ObjectMapper configureMapper(ObjectMapper mapper) {
+        return mapper
+            .setSerializationInclusion(JsonInclude.Include.NON_NULL)
+            .configure(SerializationFeature.WRITE_NULL_MAP_VALUES, false)
+            .configure(SerializationFeature.WRITE_EMPTY_JSON_ARRAYS, false)
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
+            .setVisibility(PropertyAccessor.ALL, JsonAutoDetect.Visibility.NONE)
+            .setVisibility(PropertyAccessor.FIELD, JsonAutoDetect.Visibility.ANY)
+            .setVisibility(PropertyAccessor.CREATOR, JsonAutoDetect.Visibility.ANY)
+            .registerModule(new ModelValueModule());
+    }
 
     protected final Map<String, String> config = new HashMap<>();
     protected final boolean devMode;
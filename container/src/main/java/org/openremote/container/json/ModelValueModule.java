@@ -22,6 +22,7 @@ package org.openremote.container.json;
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.Version;
+import com.fasterxml.jackson.core.json.JsonGeneratorImpl;
 import com.fasterxml.jackson.databind.DeserializationContext;
 import com.fasterxml.jackson.databind.JsonSerializer;
 import com.fasterxml.jackson.databind.SerializerProvider;
@@ -33,6 +34,9 @@ import java.io.IOException;
 
 public class ModelValueModule extends SimpleModule {
 
+    // Largest integer a double represents exactly
+    protected static final double MAX_SAFE_INTEGER = 9007199254740991d;
+
     private static class ValueJsonDeserializer<T extends Value> extends StdDeserializer<T> {
 
         public ValueJsonDeserializer() {
@@ -52,16 +56,63 @@ public class ModelValueModule extends SimpleModule {
     }
 
     private static class ValueJsonSerializer extends JsonSerializer<Value> {
+
         @Override
         public void serialize(Value value, JsonGenerator gen, SerializerProvider serializers) throws IOException {
             if (value != null) {
-                try {
-                    gen.writeRawValue(value.toJson());
-                } catch (ValueException ex) {
-                    throw new IOException(ex);
+                // Only JSON text can embed the raw JSON of the value, other formats (e.g. CBOR) get the value's tokens
+                if (gen instanceof JsonGeneratorImpl) {
+                    try {
+                        gen.writeRawValue(value.toJson());
+                    } catch (ValueException ex) {
+                        throw new IOException(ex);
+                    }
+                } else {
+                    write(value, gen);
                 }
             }
         }
+
+        protected void write(Value value, JsonGenerator gen) throws IOException {
+            if (value == null) {
+                gen.writeNull();
+                return;
+            }
+            switch (value.getType()) {
+                case OBJECT:
+                    ObjectValue objectValue = (ObjectValue) value;
+                    gen.writeStartObject();
+                    for (String key : objectValue.keys()) {
+                        gen.writeFieldName(key);
+                        write(objectValue.get(key).orElse(null), gen);
+                    }
+                    gen.writeEndObject();
+                    break;
+                case ARRAY:
+                    ArrayValue arrayValue = (ArrayValue) value;
+                    gen.writeStartArray();
+                    for (int i = 0; i < arrayValue.length(); i++) {
+                        write(arrayValue.get(i).orElse(null), gen);
+                    }
+                    gen.writeEndArray();
+                    break;
+                case STRING:
+                    gen.writeString(((StringValue) value).getString());
+                    break;
+                case NUMBER:
+                    double number = ((NumberValue) value).getNumber();
+                    // Integral numbers are written as integers, like JSON text without fraction is read
+                    if (number == Math.rint(number) && Math.abs(number) <= MAX_SAFE_INTEGER) {
+                        gen.writeNumber((long) number);
+                    } else {
+                        gen.writeNumber(number);
+                    }
+                    break;
+                case BOOLEAN:
+                    gen.writeBoolean(((BooleanValue) value).getBoolean());
+                    break;
+            }
+        }
     }
 
     @SuppressWarnings("unchecked")
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2017, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.container.message;
+
+import org.apache.camel.Endpoint;
+import org.apache.camel.component.seda.SedaComponent;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+/**
+ * A SEDA component with queue sizes and consumer counts configured by queue name, instead of in the endpoint URIs.
+ * <p>
+ * Producers and consumers of a queue often use the same URI constant, defined in code. Services can configure the
+ * queues they own in their <code>init()</code>, before the Camel context is started and the queues are created. An
+ * explicit <code>size</code> or <code>concurrentConsumers</code> parameter in an endpoint URI has precedence.
+ */
+public class ConfigurableSedaComponent extends SedaComponent {
+
+    private static final Logger LOG = Logger.getLogger(ConfigurableSedaComponent.class.getName());
+
+    public static final String NAME = "seda";
+
+    final protected Map<String, Integer> queueSizes = new ConcurrentHashMap<>();
+    final protected Map<String, Integer> queueConsumers = new ConcurrentHashMap<>();
+
+    /**
+     * @param queueName The name of the queue, e.g. <code>MyQueue</code> for <code>seda://MyQueue?...</code>.
+     */
+    public void setQueueSize(String queueName, int size) {
+        queueSizes.put(queueName, size);
+    }
+
+    /**
+     * @param queueName The name of the queue, e.g. <code>MyQueue</code> for <code>seda://MyQueue?...</code>.
+     */
+    public void setQueueConsumers(String queueName, int consumers) {
+        queueConsumers.put(queueName, consumers);
+    }
+
+    /**
+     * @return The name of the queue in the given SEDA endpoint URI.
+     */
+    public static String getQueueName(String uri) {
+        String name = uri.startsWith(NAME + "://") ? uri.substring(NAME.length() + 3) : uri;
+        name = name.startsWith(NAME + ":") ? name.substring(NAME.length() + 1) : name;
+        int parameters = name.indexOf('?');
+        return parameters >= 0 ? name.substring(0, parameters) : name;
+    }
+
+    @Override
+    protected Endpoint createEndpoint(String uri, String remaining, Map<String, Object> parameters) throws Exception {
+        String queueName = getQueueName(remaining);
+        Integer size = queueSizes.get(queueName);
+        if (size != null && !parameters.containsKey("size")) {
+            parameters.put("size", size);
+        }
+        Integer consumers = queueConsumers.get(queueName);
+        if (consumers != null && !parameters.containsKey("concurrentConsumers")) {
+            parameters.put("concurrentConsumers", consumers);
+        }
+        if (size != null || consumers != null) {
+            LOG.fine("Configured queue '" + queueName + "', size: " + size + ", consumers: " + consumers);
+        }
+        return super.createEndpoint(uri, remaining, parameters);
+    }
+}
@@ -34,11 +34,13 @@ import org.openremote.container.concurrent.ContainerScheduledExecutor;
 import org.openremote.container.web.DefaultWebsocketComponent;
 import org.openremote.container.web.WebService;
 import org.openremote.container.web.socket.WebsocketComponent;
+import org.openremote.container.web.socket.WebsocketSessionQueue;
 
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
 
+import static org.openremote.container.util.MapAccess.getInteger;
 import static org.openremote.container.util.MapAccess.getString;
 
 public class MessageBrokerSetupService implements ContainerService {
@@ -48,7 +50,20 @@ public class MessageBrokerSetupService implements ContainerService {
     public static final String MESSAGE_SESSION_ALLOWED_ORIGIN = "MESSAGE_SESSION_ALLOWED_ORIGIN";
     public static final String MESSAGE_SESSION_ALLOWED_ORIGIN_DEFAULT = null;
 
+    /**
+     * Maximum number of outbound messages queued for a websocket session.
+     */
+    public static final String WEBSOCKET_SESSION_QUEUE_SIZE = "WEBSOCKET_SESSION_QUEUE_SIZE";
+    public static final int WEBSOCKET_SESSION_QUEUE_SIZE_DEFAULT = WebsocketComponent.SESSION_QUEUE_SIZE_DEFAULT;
+
+    /**
+     * What happens when the outbound queue of a websocket session is full, see {@link WebsocketSessionQueue.OverflowPolicy}.
+     */
+    public static final String WEBSOCKET_SESSION_OVERFLOW_POLICY = "WEBSOCKET_SESSION_OVERFLOW_POLICY";
+    public static final String WEBSOCKET_SESSION_OVERFLOW_POLICY_DEFAULT = WebsocketSessionQueue.OverflowPolicy.COALESCE.name();
+
     protected MessageBrokerContext context;
+    protected ConfigurableSedaComponent sedaComponent;
 
     @Override
     public void init(Container container) throws Exception {
@@ -129,8 +144,17 @@ public class MessageBrokerSetupService implements ContainerService {
             container.getService(WebService.class),
             allowedOrigin
         );
+        websocketComponent.setSessionQueueSize(
+            getInteger(container.getConfig(), WEBSOCKET_SESSION_QUEUE_SIZE, WEBSOCKET_SESSION_QUEUE_SIZE_DEFAULT)
+        );
+        websocketComponent.setSessionOverflowPolicy(WebsocketSessionQueue.OverflowPolicy.valueOf(
+            getString(container.getConfig(), WEBSOCKET_SESSION_OVERFLOW_POLICY, WEBSOCKET_SESSION_OVERFLOW_POLICY_DEFAULT)
+        ));
 
         context.addComponent(WebsocketComponent.NAME, websocketComponent);
+
+        sedaComponent = new ConfigurableSedaComponent();
+        context.addComponent(ConfigurableSedaComponent.NAME, sedaComponent);
     }
 
     @Override
@@ -158,6 +182,13 @@ public class MessageBrokerSetupService implements ContainerService {
         return context;
     }
 
+    /**
+     * Configure the size and consumers of queues in <code>init()</code>, before the queues are created.
+     */
+    public ConfigurableSedaComponent getSedaComponent() {
+        return sedaComponent;
+    }
+
     @Override
     public String toString() {
         return getClass().getSimpleName() + "{" +
@@ -66,6 +66,7 @@ public class WebsocketAdapter extends Endpoint {
             exchange.getIn().setHeader(WebsocketConstants.SESSION_CLOSE, true);
         });
         consumer.getEndpoint().getWebsocketSessions().remove(session);
+        consumer.getEndpoint().getComponent().removeSessionQueue(session);
     }
 
     @Override
@@ -78,6 +79,7 @@ public class WebsocketAdapter extends Endpoint {
             exchange.getIn().setHeader(WebsocketConstants.SESSION_CLOSE_ERROR, true);
         });
         consumer.getEndpoint().getWebsocketSessions().remove(session);
+        consumer.getEndpoint().getComponent().removeSessionQueue(session);
     }
 
     protected AuthContext getHandshakeAuth(Session session) {
@@ -23,8 +23,12 @@ import org.apache.camel.Endpoint;
 import org.apache.camel.impl.UriEndpointComponent;
 import org.apache.camel.util.ServiceHelper;
 
+import javax.websocket.Session;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 
 public abstract class WebsocketComponent extends UriEndpointComponent {
@@ -33,8 +37,16 @@ public abstract class WebsocketComponent extends UriEndpointComponent {
 
     public static final String NAME = "websocket";
 
+    public static final int SESSION_QUEUE_SIZE_DEFAULT = 1000;
+
     final protected Map<String, WebsocketConsumer> consumers = new HashMap<>();
     final protected WebsocketSessions websocketSessions;
+    final protected Map<String, WebsocketSessionQueue> sessionQueues = new ConcurrentHashMap<>();
+    // Messages dropped by sessions which have been closed
+    final protected AtomicLong closedSessionsDroppedCount = new AtomicLong();
+    final protected AtomicLong encodedCount = new AtomicLong();
+    protected int sessionQueueSize = SESSION_QUEUE_SIZE_DEFAULT;
+    protected WebsocketSessionQueue.OverflowPolicy sessionOverflowPolicy = WebsocketSessionQueue.OverflowPolicy.COALESCE;
 
     public WebsocketComponent() {
         super(WebsocketEndpoint.class);
@@ -58,6 +70,8 @@ public abstract class WebsocketComponent extends UriEndpointComponent {
     protected void doStop() throws Exception {
         super.doStop();
         ServiceHelper.stopService(getWebsocketSessions());
+        sessionQueues.values().forEach(WebsocketSessionQueue::close);
+        sessionQueues.clear();
         undeploy();
     }
 
@@ -69,6 +83,67 @@ public abstract class WebsocketComponent extends UriEndpointComponent {
         return consumers;
     }
 
+    public int getSessionQueueSize() {
+        return sessionQueueSize;
+    }
+
+    public void setSessionQueueSize(int sessionQueueSize) {
+        this.sessionQueueSize = sessionQueueSize;
+    }
+
+    public WebsocketSessionQueue.OverflowPolicy getSessionOverflowPolicy() {
+        return sessionOverflowPolicy;
+    }
+
+    /**
+     * Sets the overflow policy of new sessions, use {@link WebsocketSessionQueue#setOverflowPolicy} to
+     * change the policy of a connected session.
+     */
+    public void setSessionOverflowPolicy(WebsocketSessionQueue.OverflowPolicy sessionOverflowPolicy) {
+        this.sessionOverflowPolicy = sessionOverflowPolicy;
+    }
+
+    /**
+     * @return The outbound queue of the session, created on first use, or <code>null</code> if the session is
+     * closed or no longer registered.
+     */
+    public WebsocketSessionQueue getSessionQueue(Session session) {
+        // Sessions are unregistered before their queue is removed, a closed session doesn't get a new queue
+        return sessionQueues.computeIfAbsent(
+            session.getId(), id -> session.isOpen() && getWebsocketSessions().get(id) == session
+                ? new WebsocketSessionQueue(session, sessionQueueSize, sessionOverflowPolicy)
+                : null
+        );
+    }
+
+    public void removeSessionQueue(Session session) {
+        WebsocketSessionQueue sessionQueue = sessionQueues.remove(session.getId());
+        if (sessionQueue != null) {
+            sessionQueue.close();
+            closedSessionsDroppedCount.addAndGet(sessionQueue.getDroppedCount());
+        }
+    }
+
+    public Collection<WebsocketSessionQueue> getSessionQueues() {
+        return sessionQueues.values();
+    }
+
+    /**
+     * @return The number of messages dropped by all sessions since startup.
+     */
+    public long getDroppedCount() {
+        return closedSessionsDroppedCount.get()
+            + sessionQueues.values().stream().mapToLong(WebsocketSessionQueue::getDroppedCount).sum();
+    }
+
+    /**
+     * @return The number of messages encoded for sending since startup, a message sent to several sessions is
+     * encoded once.
+     */
+    public long getEncodedCount() {
+        return encodedCount.get();
+    }
+
     synchronized public void connect(WebsocketConsumer consumer) {
         String resourceUri = consumer.getEndpoint().getResourceUri();
         if (consumers.containsKey(resourceUri)) {
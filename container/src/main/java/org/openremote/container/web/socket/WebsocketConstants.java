@@ -24,6 +24,8 @@ public interface WebsocketConstants {
     int SESSION_MAX_IDLE_TIMEOUT_SECONDS = 300;
     String SESSION = "websocket.session";
     String SESSION_KEY = "websocket.sessionKey";
+    String SESSION_KEYS = "websocket.sessionKeys";
+    String COALESCE_KEY = "websocket.coalesceKey";
     String SEND_TO_ALL = "websocket.sendToAll";
     String HANDSHAKE_AUTH = "websocket.auth";
     String SESSION_OPEN = "websocket.sessionOpen";
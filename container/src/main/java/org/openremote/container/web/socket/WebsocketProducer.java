@@ -25,7 +25,9 @@ import org.apache.camel.Message;
 import org.apache.camel.impl.DefaultProducer;
 
 import javax.websocket.Session;
-import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -50,13 +52,25 @@ public class WebsocketProducer extends DefaultProducer {
         if (!(message == null || message instanceof String || message instanceof byte[])) {
             message = in.getMandatoryBody(String.class);
         }
+        Object coalesceKey = in.getHeader(WebsocketConstants.COALESCE_KEY);
         if (isSendToAllSet(in)) {
-            sendToAll(message, exchange);
+            sendToAll(message, coalesceKey, exchange);
+        } else if (in.getHeader(WebsocketConstants.SESSION_KEYS) != null) {
+            // The message has been converted once, the same text is sent to every session
+            Collection<?> sessionKeys = in.getHeader(WebsocketConstants.SESSION_KEYS, Collection.class);
+            Collection<Session> sessions = new ArrayList<>(sessionKeys.size());
+            for (Object sessionKey : sessionKeys) {
+                Session websocket = getEndpoint().getComponent().getWebsocketSessions().get(sessionKey.toString());
+                if (websocket != null) {
+                    sessions.add(websocket);
+                }
+            }
+            sendToSessions(sessions, message, coalesceKey, exchange);
         } else {
             String sessionKey = in.getHeader(WebsocketConstants.SESSION_KEY, String.class);
             if (sessionKey != null) {
                 Session websocket = getEndpoint().getComponent().getWebsocketSessions().get(sessionKey);
-                sendMessage(websocket, message);
+                sendMessage(websocket, message, encode(message), coalesceKey);
             } else {
                 throw new IllegalArgumentException("Failed to send message to Websocket session; session key not set.");
             }
@@ -72,15 +86,21 @@ public class WebsocketProducer extends DefaultProducer {
         return value == null ? false : value;
     }
 
-    protected void sendToAll(Object message, Exchange exchange) throws Exception {
+    protected void sendToAll(Object message, Object coalesceKey, Exchange exchange) throws Exception {
         Collection<Session> sessions = getEndpoint().getComponent().getWebsocketSessions().getAll();
         if (LOG.isLoggable(Level.FINE))
             LOG.fine("Sending to all sessions (" + sessions.size() + "): " + message);
+        sendToSessions(sessions, message, coalesceKey, exchange);
+    }
+
+    protected void sendToSessions(Collection<Session> sessions, Object message, Object coalesceKey, Exchange exchange) throws Exception {
+        // Encode text only once for all sessions, binary messages are shared as they are
+        ByteBuffer encodedText = encode(message);
 
         Exception exception = null;
         for (Session session : sessions) {
             try {
-                sendMessage(session, message);
+                sendMessage(session, message, encodedText, coalesceKey);
             } catch (Exception e) {
                 if (exception == null) {
                     exception = new CamelExchangeException("Failed to deliver message to one or more recipients.", exchange, e);
@@ -92,13 +112,28 @@ public class WebsocketProducer extends DefaultProducer {
         }
     }
 
-    protected void sendMessage(Session session, Object message) throws IOException {
-        if (session != null && session.isOpen()) {
+    /**
+     * Queues the message in the outbound queue of the session, this doesn't block on slow sessions.
+     */
+    protected void sendMessage(Session session, Object message, ByteBuffer encodedText, Object coalesceKey) {
+        WebsocketSessionQueue sessionQueue = session != null ? getEndpoint().getComponent().getSessionQueue(session) : null;
+        if (sessionQueue != null) {
             if (message instanceof String) {
-                if (LOG.isLoggable(Level.FINE))
-                    LOG.fine("Sending to session " + session.getId() + ": " + message);
-                session.getBasicRemote().sendText((String) message);
+                sessionQueue.offer((String) message, encodedText, coalesceKey);
+            } else if (message instanceof byte[]) {
+                sessionQueue.offerBinary(encodedText, coalesceKey);
             }
         }
     }
+
+    protected ByteBuffer encode(Object message) {
+        ByteBuffer encoded = null;
+        if (message instanceof String)
+            encoded = ByteBuffer.wrap(((String) message).getBytes(StandardCharsets.UTF_8)).asReadOnlyBuffer();
+        if (message instanceof byte[])
+            encoded = ByteBuffer.wrap((byte[]) message).asReadOnlyBuffer();
+        if (encoded != null)
+            getEndpoint().getComponent().encodedCount.incrementAndGet();
+        return encoded;
+    }
 }
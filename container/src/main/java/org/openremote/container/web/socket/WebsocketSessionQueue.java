@@ -0,0 +1,330 @@
+/*
+ * Copyright 2017, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.container.web.socket;
+
+import io.undertow.websockets.core.WebSocketCallback;
+import io.undertow.websockets.core.WebSocketChannel;
+import io.undertow.websockets.core.WebSockets;
+import io.undertow.websockets.jsr.UndertowSession;
+
+import javax.websocket.CloseReason;
+import javax.websocket.Session;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Bounded outbound message queue of a websocket session, drained with non-blocking writes. At most one
+ * message of a session is written at a time, a slow session doesn't block the sender or other sessions.
+ * <p>
+ * When the queue is full, the {@link OverflowPolicy} of the session decides what happens with the new message.
+ */
+public class WebsocketSessionQueue {
+
+    private static final Logger LOG = Logger.getLogger(WebsocketSessionQueue.class.getName());
+
+    public enum OverflowPolicy {
+        /**
+         * Remove the oldest queued message.
+         */
+        DROP_OLDEST,
+        /**
+         * Remove a queued message with the same coalesce key (e.g. the attribute of an event), the queued message
+         * is outdated by the new message. If there is no such message, remove the oldest queued message. The new
+         * message is queued last, so messages are still written in the order they were offered.
+         */
+        COALESCE,
+        /**
+         * Close the session, the client has to reconnect.
+         */
+        DISCONNECT
+    }
+
+    protected static class Outbound {
+        final Object coalesceKey;
+        final String text;
+        // The encoded text or the binary message
+        final ByteBuffer data;
+        final boolean binary;
+
+        Outbound(Object coalesceKey, String text, ByteBuffer data, boolean binary) {
+            this.coalesceKey = coalesceKey;
+            this.text = text;
+            this.data = data;
+            this.binary = binary;
+        }
+    }
+
+    final protected Session session;
+    final protected int capacity;
+    protected volatile OverflowPolicy overflowPolicy;
+
+    final protected Deque<Outbound> queue = new ArrayDeque<>();
+    // The last queued message of each key, outdated by a newer message with the same key on overflow
+    final protected Map<Object, Outbound> coalescable = new HashMap<>();
+    protected boolean sending;
+    protected boolean draining;
+    protected boolean closed;
+    protected int maxDepth;
+
+    final protected AtomicLong queuedCount = new AtomicLong();
+    final protected AtomicLong sentCount = new AtomicLong();
+    final protected AtomicLong coalescedCount = new AtomicLong();
+    final protected AtomicLong droppedCount = new AtomicLong();
+
+    public WebsocketSessionQueue(Session session, int capacity, OverflowPolicy overflowPolicy) {
+        this.session = session;
+        this.capacity = capacity;
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    public Session getSession() {
+        return session;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * Queues the text message and starts writing if the session is idle.
+     *
+     * @param encodedText The UTF-8 encoded text if it's already available, shared by sessions and not modified.
+     * @param coalesceKey Messages with the same key replace each other while queued, optional.
+     * @return <code>false</code> if the message was dropped or the session was disconnected.
+     */
+    public boolean offer(String text, ByteBuffer encodedText, Object coalesceKey) {
+        return enqueue(text, encodedText, false, coalesceKey);
+    }
+
+    /**
+     * Queues the binary message and starts writing if the session is idle.
+     *
+     * @param data        The message, shared by sessions and not modified.
+     * @param coalesceKey Messages with the same key replace each other while queued, optional.
+     * @return <code>false</code> if the message was dropped or the session was disconnected.
+     */
+    public boolean offerBinary(ByteBuffer data, Object coalesceKey) {
+        return enqueue(null, data, true, coalesceKey);
+    }
+
+    protected boolean enqueue(String text, ByteBuffer data, boolean binary, Object coalesceKey) {
+        boolean disconnect = false;
+        synchronized (this) {
+            if (closed || !session.isOpen()) {
+                droppedCount.incrementAndGet();
+                return false;
+            }
+            queuedCount.incrementAndGet();
+            if (queue.size() >= capacity) {
+                Outbound outdated = coalesceKey != null && overflowPolicy == OverflowPolicy.COALESCE
+                    ? coalescable.remove(coalesceKey)
+                    : null;
+                if (outdated != null) {
+                    queue.removeFirstOccurrence(outdated);
+                    coalescedCount.incrementAndGet();
+                } else if (overflowPolicy == OverflowPolicy.DISCONNECT) {
+                    closed = true;
+                    droppedCount.addAndGet(queue.size() + 1);
+                    queue.clear();
+                    coalescable.clear();
+                    disconnect = true;
+                } else {
+                    Outbound dropped = queue.pollFirst();
+                    if (dropped.coalesceKey != null) {
+                        coalescable.remove(dropped.coalesceKey, dropped);
+                    }
+                    droppedCount.incrementAndGet();
+                    if (LOG.isLoggable(Level.FINE))
+                        LOG.fine("Outbound queue of websocket session " + session.getId() + " is full, dropped oldest message");
+                }
+            }
+            if (!disconnect) {
+                Outbound outbound = new Outbound(coalesceKey, text, data, binary);
+                queue.addLast(outbound);
+                if (coalesceKey != null) {
+                    coalescable.put(coalesceKey, outbound);
+                }
+                maxDepth = Math.max(maxDepth, queue.size());
+            }
+        }
+        if (disconnect) {
+            LOG.warning("Outbound queue of websocket session " + session.getId() + " is full, disconnecting");
+            try {
+                session.close(new CloseReason(CloseReason.CloseCodes.TRY_AGAIN_LATER, "Outbound queue overflow"));
+            } catch (IOException ex) {
+                LOG.log(Level.FINE, "Closing websocket session failed: " + session.getId(), ex);
+            }
+            return false;
+        }
+        drain();
+        return true;
+    }
+
+    /**
+     * Discards all queued messages, no further messages are accepted.
+     */
+    public synchronized void close() {
+        closed = true;
+        droppedCount.addAndGet(queue.size());
+        queue.clear();
+        coalescable.clear();
+    }
+
+    public synchronized int getDepth() {
+        return queue.size();
+    }
+
+    public synchronized int getMaxDepth() {
+        return maxDepth;
+    }
+
+    public long getQueuedCount() {
+        return queuedCount.get();
+    }
+
+    public long getSentCount() {
+        return sentCount.get();
+    }
+
+    public long getCoalescedCount() {
+        return coalescedCount.get();
+    }
+
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * Writes queued messages until the queue is empty or a write didn't complete immediately, the completion
+     * of that write continues draining.
+     */
+    protected void drain() {
+        synchronized (this) {
+            if (draining)
+                return;
+            draining = true;
+        }
+        try {
+            while (true) {
+                Outbound next;
+                synchronized (this) {
+                    if (sending || closed || queue.isEmpty()) {
+                        draining = false;
+                        return;
+                    }
+                    next = queue.pollFirst();
+                    if (next.coalesceKey != null) {
+                        coalescable.remove(next.coalesceKey, next);
+                    }
+                    sending = true;
+                }
+                // The completion might be called on this thread, before send() returns
+                send(next);
+            }
+        } catch (RuntimeException ex) {
+            synchronized (this) {
+                draining = false;
+            }
+            throw ex;
+        }
+    }
+
+    protected void send(Outbound outbound) {
+        if (LOG.isLoggable(Level.FINE))
+            LOG.fine("Sending to session " + session.getId() + ": "
+                + (outbound.binary ? "binary message of " + outbound.data.remaining() + " bytes" : outbound.text));
+        try {
+            if (outbound.binary && session instanceof UndertowSession) {
+                WebSockets.sendBinary(
+                    outbound.data.duplicate(), ((UndertowSession) session).getWebSocketChannel(), createCallback()
+                );
+            } else if (outbound.binary) {
+                session.getAsyncRemote().sendBinary(
+                    outbound.data.duplicate(),
+                    result -> onSent(result.isOK() ? null : result.getException())
+                );
+            } else if (outbound.data != null && session instanceof UndertowSession) {
+                // Write the shared UTF-8 bytes, without encoding the text again
+                WebSockets.sendText(
+                    outbound.data.duplicate(), ((UndertowSession) session).getWebSocketChannel(), createCallback()
+                );
+            } else {
+                session.getAsyncRemote().sendText(
+                    outbound.text,
+                    result -> onSent(result.isOK() ? null : result.getException())
+                );
+            }
+        } catch (Exception ex) {
+            onSent(ex);
+        }
+    }
+
+    protected WebSocketCallback<Void> createCallback() {
+        return new WebSocketCallback<Void>() {
+            @Override
+            public void complete(WebSocketChannel channel, Void context) {
+                onSent(null);
+            }
+
+            @Override
+            public void onError(WebSocketChannel channel, Void context, Throwable throwable) {
+                onSent(throwable);
+            }
+        };
+    }
+
+    protected void onSent(Throwable error) {
+        if (error == null) {
+            sentCount.incrementAndGet();
+        } else {
+            droppedCount.incrementAndGet();
+            LOG.log(Level.FINE, "Sending to websocket session failed: " + session.getId(), error);
+        }
+        synchronized (this) {
+            sending = false;
+        }
+        drain();
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{" +
+            "session=" + session.getId() +
+            ", overflowPolicy=" + overflowPolicy +
+            ", depth=" + getDepth() +
+            ", maxDepth=" + getMaxDepth() +
+            ", queued=" + getQueuedCount() +
+            ", sent=" + getSentCount() +
+            ", coalesced=" + getCoalescedCount() +
+            ", dropped=" + getDroppedCount() +
+            '}';
+    }
+}
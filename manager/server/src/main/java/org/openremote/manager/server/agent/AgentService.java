@@ -57,6 +57,7 @@ import static org.openremote.agent.protocol.Protocol.ACTUATOR_TOPIC;
 import static org.openremote.agent.protocol.Protocol.SENSOR_QUEUE;
 import static org.openremote.container.persistence.PersistenceEvent.PERSISTENCE_TOPIC;
 import static org.openremote.manager.server.asset.AssetProcessingService.ASSET_QUEUE;
+import static org.openremote.manager.server.asset.AssetProcessingService.HEADER_QUEUE_TIME;
 import static org.openremote.manager.server.asset.AssetRoute.isPersistenceEventForAssetType;
 import static org.openremote.manager.server.asset.AssetRoute.isPersistenceEventForEntityType;
 import static org.openremote.model.asset.AssetAttribute.attributesFromJson;
@@ -166,6 +167,7 @@ public class AgentService extends RouteBuilder implements ContainerService, Cons
             .routeId("FromSensorUpdates")
             .filter(body().isInstanceOf(AttributeEvent.class))
             .setHeader(HEADER_SOURCE, () -> AttributeEvent.Source.SENSOR)
+            .setHeader(HEADER_QUEUE_TIME, System::nanoTime)
             .to(ASSET_QUEUE);
     }
 
@@ -215,11 +215,8 @@ public class AssetAttributeLinkingService implements ContainerService, Consumer<
     }
 
     protected static Value getCurrentValue(AttributeRef attributeRef, AssetStorageService assetStorageService) throws NoSuchElementException {
-        ServerAsset asset = assetStorageService.find(
-            new AssetQuery()
-                .id(attributeRef.getEntityId())
-                .select(new AbstractAssetQuery.Select(AbstractAssetQuery.Include.ALL, false, false, attributeRef.getAttributeName()))
-        );
+        // Served from the asset cache, the linked asset is usually one that is frequently updated
+        ServerAsset asset = assetStorageService.find(attributeRef.getEntityId(), true);
 
         Optional<AssetAttribute> attribute;
         if (asset == null || !(attribute = asset.getAttribute(attributeRef.getAttributeName())).isPresent()) {
@@ -0,0 +1,369 @@
+/*
+ * Copyright 2017, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.server.asset;
+
+import org.hibernate.Session;
+import org.openremote.container.persistence.PersistenceService;
+import org.openremote.model.asset.AssetAttribute;
+import org.openremote.model.value.Value;
+import org.openremote.model.value.Values;
+import org.postgresql.util.PGobject;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Write-behind stage for attribute values: Values are collected per asset and repeated writes of the
+ * same attribute are coalesced, the last value wins. A flush stores all pending values of an asset
+ * with a single update statement, the updates of all assets are executed as one JDBC batch in one
+ * transaction.
+ * <p>
+ * Flushes are serialized, so an older value can never overwrite a newer value in the database.
+ */
+public class AssetAttributeWriter {
+
+    private static final Logger LOG = Logger.getLogger(AssetAttributeWriter.class.getName());
+
+    /**
+     * Merges a patch of <code>{"attributeName": {"value": ..., "valueTimestamp": ...}}</code> into the
+     * existing attributes of an asset, attributes which no longer exist are ignored.
+     */
+    protected static final String UPDATE_ATTRIBUTE_VALUES =
+        "update ASSET A set ATTRIBUTES = A.ATTRIBUTES || coalesce((" +
+            " select jsonb_object_agg(P.KEY, (A.ATTRIBUTES -> P.KEY) || P.VALUE)" +
+            " from jsonb_each(?) P" +
+            " where A.ATTRIBUTES -> P.KEY is not null" +
+            "), '{}'::jsonb)" +
+            " where A.ID = ?";
+
+    /**
+     * Stores the patch only if all patched attributes of the asset exist, so the updated row count shows that
+     * an attribute is missing.
+     */
+    protected static final String UPDATE_EXISTING_ATTRIBUTE_VALUES =
+        UPDATE_ATTRIBUTE_VALUES + " and not exists (" +
+            " select 1 from unnest(?) as N(NAME) where A.ATTRIBUTES -> N.NAME is null" +
+            ")";
+
+    /**
+     * Stores the patch of a single attribute, no rows are updated if the attribute doesn't exist.
+     */
+    protected static final String UPDATE_ATTRIBUTE_VALUE =
+        UPDATE_ATTRIBUTE_VALUES + " and A.ATTRIBUTES -> ? is not null";
+
+    /**
+     * The pairs of asset identifier and attribute name which don't exist in the database.
+     */
+    protected static final String SELECT_MISSING_ATTRIBUTES =
+        "select P.ID, P.NAME from unnest(?, ?) as P(ID, NAME)" +
+            " left outer join ASSET A on A.ID = P.ID" +
+            " where A.ATTRIBUTES -> P.NAME is null";
+
+    protected static class PendingValue {
+        final Value value;
+        final long timestamp;
+
+        PendingValue(Value value, long timestamp) {
+            this.value = value;
+            this.timestamp = timestamp;
+        }
+    }
+
+    final protected PersistenceService persistenceService;
+
+    // Pending values of each asset, in order of first write
+    final protected Map<String, Map<String, PendingValue>> pending = new LinkedHashMap<>();
+
+    // Values taken from pending but not yet committed, visible to readers until the flush is done
+    final protected Map<String, Map<String, PendingValue>> flushing = new HashMap<>();
+
+    final protected ReentrantLock flushLock = new ReentrantLock();
+
+    final protected AtomicLong writtenCount = new AtomicLong();
+    final protected AtomicLong coalescedCount = new AtomicLong();
+    final protected AtomicLong storedCount = new AtomicLong();
+    final protected AtomicLong batchCount = new AtomicLong();
+
+    public AssetAttributeWriter(PersistenceService persistenceService) {
+        this.persistenceService = persistenceService;
+    }
+
+    /**
+     * Queues the attribute value until the next flush, replacing any pending value of the attribute.
+     *
+     * @return <code>false</code> if the attribute name is invalid and the value can't be stored.
+     */
+    public boolean write(String assetId, String attributeName, Value value, long timestamp) {
+        // Check we don't have a SQL injection hole in attribute name!
+        if (!AssetAttribute.ATTRIBUTE_NAME_VALIDATOR.test(attributeName)) {
+            LOG.fine(
+                "Invalid attribute name (must match '" + AssetAttribute.ATTRIBUTE_NAME_PATTERN + "'): " + attributeName
+            );
+            return false;
+        }
+        synchronized (pending) {
+            PendingValue previous = pending
+                .computeIfAbsent(assetId, id -> new LinkedHashMap<>())
+                .put(attributeName, new PendingValue(value, timestamp));
+            if (previous != null)
+                coalescedCount.incrementAndGet();
+        }
+        writtenCount.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Synchronously stores the attribute value, after any pending values of the asset.
+     *
+     * @return <code>false</code> if the attribute name is invalid or the attribute doesn't exist.
+     */
+    public boolean writeNow(String assetId, String attributeName, Value value, long timestamp) {
+        if (!AssetAttribute.ATTRIBUTE_NAME_VALIDATOR.test(attributeName)) {
+            LOG.fine(
+                "Invalid attribute name (must match '" + AssetAttribute.ATTRIBUTE_NAME_PATTERN + "'): " + attributeName
+            );
+            return false;
+        }
+        flushLock.lock();
+        try {
+            flush(assetId);
+            Map<String, PendingValue> assetValues = Collections.singletonMap(attributeName, new PendingValue(value, timestamp));
+            int updatedRows = persistenceService.doReturningTransaction(entityManager ->
+                entityManager.unwrap(Session.class).doReturningWork(connection -> {
+                    try (PreparedStatement statement = connection.prepareStatement(UPDATE_ATTRIBUTE_VALUE)) {
+                        statement.setObject(1, createJsonbPatch(assetValues));
+                        statement.setString(2, assetId);
+                        statement.setString(3, attributeName);
+                        return statement.executeUpdate();
+                    }
+                })
+            );
+            writtenCount.incrementAndGet();
+            if (updatedRows == 1) {
+                storedCount.incrementAndGet();
+            }
+            LOG.fine("Stored asset '" + assetId + "' attribute '" + attributeName + "' value, affected rows: " + updatedRows);
+            return updatedRows == 1;
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * Replaces the attribute values of the given asset, loaded from the database, with the values
+     * which have not been committed yet.
+     */
+    public void applyPending(ServerAsset asset) {
+        if (asset == null || asset.getId() == null)
+            return;
+        synchronized (pending) {
+            applyPending(asset, flushing.get(asset.getId()));
+            applyPending(asset, pending.get(asset.getId()));
+        }
+    }
+
+    /**
+     * Discards all pending values of the given asset.
+     */
+    public void discard(String assetId) {
+        synchronized (pending) {
+            pending.remove(assetId);
+        }
+    }
+
+    /**
+     * Synchronously stores all pending values.
+     */
+    public void flush() {
+        flushLock.lock();
+        try {
+            Map<String, Map<String, PendingValue>> values;
+            synchronized (pending) {
+                if (pending.isEmpty())
+                    return;
+                values = new LinkedHashMap<>(pending);
+                pending.clear();
+                flushing.putAll(values);
+            }
+            store(values);
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * Synchronously stores all pending values of the given asset.
+     */
+    public void flush(String assetId) {
+        flushLock.lock();
+        try {
+            Map<String, Map<String, PendingValue>> values;
+            synchronized (pending) {
+                Map<String, PendingValue> assetValues = pending.remove(assetId);
+                if (assetValues == null)
+                    return;
+                values = Collections.singletonMap(assetId, assetValues);
+                flushing.putAll(values);
+            }
+            store(values);
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    public int getPendingCount() {
+        synchronized (pending) {
+            return pending.values().stream().mapToInt(Map::size).sum();
+        }
+    }
+
+    protected void store(Map<String, Map<String, PendingValue>> values) {
+        try {
+            int[] updatedRows = persistenceService.doReturningTransaction(entityManager ->
+                entityManager.unwrap(Session.class).doReturningWork(connection -> {
+                    List<String> assetIds = new ArrayList<>(values.keySet());
+                    int[] rows;
+                    try (PreparedStatement statement = connection.prepareStatement(UPDATE_EXISTING_ATTRIBUTE_VALUES)) {
+                        for (String assetId : assetIds) {
+                            Map<String, PendingValue> assetValues = values.get(assetId);
+                            statement.setObject(1, createJsonbPatch(assetValues));
+                            statement.setString(2, assetId);
+                            statement.setArray(3, connection.createArrayOf("text", assetValues.keySet().toArray()));
+                            statement.addBatch();
+                        }
+                        rows = statement.executeBatch();
+                    }
+
+                    // Only if an asset or attribute has been removed, store the values of the remaining attributes
+                    Map<String, Map<String, PendingValue>> incomplete = new LinkedHashMap<>();
+                    for (int i = 0; i < rows.length; i++) {
+                        if (rows[i] == 0) {
+                            incomplete.put(assetIds.get(i), values.get(assetIds.get(i)));
+                        }
+                    }
+                    if (!incomplete.isEmpty()) {
+                        logMissingAttributes(connection, incomplete);
+                        try (PreparedStatement statement = connection.prepareStatement(UPDATE_ATTRIBUTE_VALUES)) {
+                            for (Map.Entry<String, Map<String, PendingValue>> assetValues : incomplete.entrySet()) {
+                                statement.setObject(1, createJsonbPatch(assetValues.getValue()));
+                                statement.setString(2, assetValues.getKey());
+                                statement.addBatch();
+                            }
+                            statement.executeBatch();
+                        }
+                    }
+                    return rows;
+                })
+            );
+            batchCount.incrementAndGet();
+            for (Map<String, PendingValue> assetValues : values.values()) {
+                storedCount.addAndGet(assetValues.size());
+            }
+            LOG.fine("Stored pending attribute values of assets: " + values.size() + ", affected rows: " + Arrays.stream(updatedRows).sum());
+        } catch (Exception ex) {
+            // Retry on next flush, unless there is a newer value
+            LOG.log(Level.WARNING, "Storing attribute values of assets failed: " + values.size(), ex);
+            synchronized (pending) {
+                values.forEach((assetId, assetValues) -> {
+                    Map<String, PendingValue> retry = pending.computeIfAbsent(assetId, id -> new LinkedHashMap<>());
+                    assetValues.forEach(retry::putIfAbsent);
+                });
+            }
+        } finally {
+            synchronized (pending) {
+                flushing.keySet().removeAll(values.keySet());
+            }
+        }
+    }
+
+    /**
+     * Values of attributes which have been removed since they were written can't be stored, report them. Only
+     * called for assets where the update of existing attributes didn't update a row.
+     */
+    protected void logMissingAttributes(Connection connection, Map<String, Map<String, PendingValue>> values) throws SQLException {
+        List<String> assetIds = new ArrayList<>();
+        List<String> attributeNames = new ArrayList<>();
+        values.forEach((assetId, assetValues) -> assetValues.keySet().forEach(attributeName -> {
+            assetIds.add(assetId);
+            attributeNames.add(attributeName);
+        }));
+        try (PreparedStatement statement = connection.prepareStatement(SELECT_MISSING_ATTRIBUTES)) {
+            statement.setArray(1, connection.createArrayOf("text", assetIds.toArray()));
+            statement.setArray(2, connection.createArrayOf("text", attributeNames.toArray()));
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    LOG.warning("Can't store value of missing attribute '" + rs.getString(2) + "' of asset: " + rs.getString(1));
+                }
+            }
+        }
+    }
+
+    protected PGobject createJsonbPatch(Map<String, PendingValue> assetValues) throws SQLException {
+        PGobject pgJsonPatch = new PGobject();
+        pgJsonPatch.setType("jsonb");
+        pgJsonPatch.setValue(createPatch(assetValues));
+        return pgJsonPatch;
+    }
+
+    protected String createPatch(Map<String, PendingValue> assetValues) {
+        StringBuilder patch = new StringBuilder("{");
+        assetValues.forEach((attributeName, pendingValue) -> {
+            if (patch.length() > 1)
+                patch.append(",");
+            patch.append(Values.create(attributeName).toJson())
+                .append(":{\"value\":")
+                // Careful, a JSON null clears the value, a missing field would keep the old value
+                .append(pendingValue.value == null ? "null" : pendingValue.value.toJson())
+                .append(",\"valueTimestamp\":")
+                .append(pendingValue.timestamp)
+                .append("}");
+        });
+        return patch.append("}").toString();
+    }
+
+    protected void applyPending(ServerAsset asset, Map<String, PendingValue> assetValues) {
+        if (assetValues == null)
+            return;
+        assetValues.forEach((attributeName, pendingValue) ->
+            asset.getAttribute(attributeName).ifPresent(attribute -> {
+                attribute.setValue(pendingValue.value, pendingValue.timestamp);
+                asset.getAttributes().put(attributeName, attribute.getObjectValue());
+            })
+        );
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{" +
+            "written=" + writtenCount.get() +
+            ", coalesced=" + coalescedCount.get() +
+            ", stored=" + storedCount.get() +
+            ", batches=" + batchCount.get() +
+            ", pending=" + getPendingCount() +
+            '}';
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2017, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.server.asset;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.Striped;
+import org.openremote.model.asset.AssetAttribute;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+/**
+ * A bounded, write-through cache of completely loaded assets (including path and attributes), keyed by
+ * asset identifier.
+ * <p>
+ * Cached instances are never handed out, callers always receive a copy they can modify. Loading, writing and
+ * invalidating the same asset is serialized with striped locks, so a concurrent database read can not put
+ * stale state into the cache after the asset was updated or invalidated.
+ */
+public class AssetCache {
+
+    private static final Logger LOG = Logger.getLogger(AssetCache.class.getName());
+
+    protected final Cache<String, ServerAsset> cache;
+    protected final Striped<Lock> locks = Striped.lock(64);
+    // Incremented when all entries are invalidated, loads which overlap can't be cached
+    protected final AtomicLong generation = new AtomicLong();
+
+    public AssetCache(int maximumSize) {
+        LOG.info("Caching a maximum of " + maximumSize + " assets");
+        this.cache = CacheBuilder.newBuilder()
+            .maximumSize(maximumSize)
+            .recordStats()
+            .build();
+    }
+
+    /**
+     * @return A copy of the cached asset or, on cache miss, the asset returned by the loader.
+     */
+    public ServerAsset get(String assetId, Supplier<ServerAsset> loader) {
+        ServerAsset asset = cache.getIfPresent(assetId);
+        if (asset != null)
+            return ServerAsset.copy(asset);
+
+        Lock lock = locks.get(assetId);
+        lock.lock();
+        try {
+            // Another thread might have loaded it while we waited (don't count this as a hit or miss)
+            asset = cache.asMap().get(assetId);
+            if (asset != null)
+                return ServerAsset.copy(asset);
+
+            long loadGeneration = generation.get();
+            asset = loader.get();
+            if (asset != null && loadGeneration == generation.get()) {
+                cache.put(assetId, ServerAsset.copy(asset));
+            }
+            return asset;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Executes the writer while holding the lock of the asset, then discards any cached state of the asset.
+     */
+    public <R> R invalidateAfter(String assetId, Supplier<R> writer) {
+        if (assetId == null)
+            return writer.get();
+
+        Lock lock = locks.get(assetId);
+        lock.lock();
+        try {
+            return writer.get();
+        } finally {
+            cache.invalidate(assetId);
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Executes the writer while holding the lock of the asset and if it succeeds, replaces the
+     * cached attribute with a copy of the given attribute.
+     */
+    public boolean writeAttribute(String assetId, AssetAttribute attribute, BooleanSupplier writer) {
+        Lock lock = locks.get(assetId);
+        lock.lock();
+        try {
+            if (!writer.getAsBoolean())
+                return false;
+            ServerAsset asset = cache.asMap().get(assetId);
+            String attributeName = attribute.getName().orElse(null);
+            if (asset != null && attributeName != null && asset.hasAttribute(attributeName)) {
+                asset.getAttributes().put(attributeName, attribute.getObjectValue().deepCopy());
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void invalidate(String assetId) {
+        Lock lock = locks.get(assetId);
+        lock.lock();
+        try {
+            cache.invalidate(assetId);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void invalidateAll() {
+        generation.incrementAndGet();
+        cache.invalidateAll();
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    public CacheStats getStats() {
+        return cache.stats();
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{" +
+            "size=" + size() +
+            ", stats=" + getStats() +
+            '}';
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2017, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.server.asset;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.openremote.model.attribute.AttributeEvent;
+import org.openremote.model.value.ObjectValue;
+import org.openremote.model.value.Values;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters and latency histograms of the stages of attribute event processing, per stage and per
+ * {@link AttributeEvent.Source}. Latencies are recorded in nanoseconds and reported in microseconds.
+ * <p>
+ * Recording is wait-free, so this can be used on the hot path of all asset queue lanes.
+ */
+public class AssetProcessingMetrics {
+
+    public static final String STAGE_QUEUE = "queue";
+    public static final String STAGE_EXTRACT = "extract";
+    public static final String STAGE_VALIDATE = "validate";
+    public static final String STAGE_VALIDATE_SOURCE = "validateSource";
+    // Followed by the simple class name of the processor
+    public static final String STAGE_PROCESSOR_PREFIX = "processor.";
+    public static final String STAGE_TOTAL = "total";
+
+    public static final String SOURCE_UNKNOWN = "UNKNOWN";
+
+    // Longer latencies are recorded as this value
+    public static final long HIGHEST_TRACKABLE_NANOS = TimeUnit.MINUTES.toNanos(1);
+    public static final int SIGNIFICANT_DIGITS = 2;
+
+    public static class Stage {
+        final protected Histogram histogram = new ConcurrentHistogram(HIGHEST_TRACKABLE_NANOS, SIGNIFICANT_DIGITS);
+        final protected AtomicLong errorCount = new AtomicLong();
+
+        public void record(long nanos) {
+            histogram.recordValue(Math.min(Math.max(nanos, 0), HIGHEST_TRACKABLE_NANOS));
+        }
+
+        public void recordError() {
+            errorCount.incrementAndGet();
+        }
+
+        public long getCount() {
+            return histogram.getTotalCount();
+        }
+
+        public long getErrorCount() {
+            return errorCount.get();
+        }
+
+        public Histogram getHistogram() {
+            return histogram.copy();
+        }
+
+        public ObjectValue toValue() {
+            Histogram snapshot = getHistogram();
+            return Values.createObject()
+                .put("count", snapshot.getTotalCount())
+                .put("errors", getErrorCount())
+                .put("mean", toMicros(snapshot.getMean()))
+                .put("p50", toMicros(snapshot.getValueAtPercentile(50)))
+                .put("p90", toMicros(snapshot.getValueAtPercentile(90)))
+                .put("p99", toMicros(snapshot.getValueAtPercentile(99)))
+                .put("p999", toMicros(snapshot.getValueAtPercentile(99.9)))
+                .put("max", toMicros(snapshot.getMaxValue()));
+        }
+
+        protected static double toMicros(double nanos) {
+            return Math.round(nanos / 100d) / 10d;
+        }
+    }
+
+    // Stage name -> source -> stage metrics
+    final protected ConcurrentMap<String, ConcurrentMap<String, Stage>> stages = new ConcurrentHashMap<>();
+
+    public Stage getStage(String stage, AttributeEvent.Source source) {
+        return stages
+            .computeIfAbsent(stage, name -> new ConcurrentHashMap<>())
+            .computeIfAbsent(source != null ? source.name() : SOURCE_UNKNOWN, name -> new Stage());
+    }
+
+    public void record(String stage, AttributeEvent.Source source, long nanos) {
+        getStage(stage, source).record(nanos);
+    }
+
+    public void recordError(String stage, AttributeEvent.Source source) {
+        getStage(stage, source).recordError();
+    }
+
+    /**
+     * @return The metrics of all stages which have been recorded, in the shape <code>{stage: {source: {count, errors,
+     * mean, p50, p90, p99, p999, max}}}</code>.
+     */
+    public ObjectValue toValue() {
+        ObjectValue value = Values.createObject();
+        new TreeMap<>(stages).forEach((stage, sources) -> {
+            ObjectValue stageValue = Values.createObject();
+            for (Map.Entry<String, Stage> entry : new TreeMap<>(sources).entrySet()) {
+                stageValue.put(entry.getKey(), entry.getValue().toValue());
+            }
+            value.put(stage, stageValue);
+        });
+        return value;
+    }
+
+    public void reset() {
+        stages.clear();
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{" +
+            "stages=" + stages.keySet() +
+            '}';
+    }
+}
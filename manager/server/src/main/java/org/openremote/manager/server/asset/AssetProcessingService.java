@@ -20,17 +20,24 @@
 package org.openremote.manager.server.asset;
 
 import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
 import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.component.seda.SedaEndpoint;
+import org.apache.camel.model.RouteDefinition;
 import org.openremote.agent.protocol.Protocol;
 import org.openremote.container.Container;
 import org.openremote.container.ContainerService;
+import org.openremote.container.message.ConfigurableSedaComponent;
 import org.openremote.container.message.MessageBrokerService;
 import org.openremote.container.message.MessageBrokerSetupService;
 import org.openremote.container.security.AuthContext;
 import org.openremote.container.timer.TimerService;
+import org.openremote.container.web.WebService;
+import org.openremote.container.web.socket.WebsocketComponent;
 import org.openremote.manager.server.agent.AgentService;
 import org.openremote.manager.server.datapoint.AssetDatapointService;
 import org.openremote.manager.server.event.ClientEventService;
+import org.openremote.manager.server.metrics.MetricsResourceImpl;
 import org.openremote.manager.server.rules.RulesService;
 import org.openremote.manager.server.security.ManagerIdentityService;
 import org.openremote.manager.shared.asset.AssetProcessingException;
@@ -40,13 +47,20 @@ import org.openremote.model.Constants;
 import org.openremote.model.asset.*;
 import org.openremote.model.attribute.AttributeEvent;
 import org.openremote.model.attribute.AttributeEvent.Source;
+import org.openremote.model.value.ObjectValue;
+import org.openremote.model.value.Values;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import static org.openremote.container.message.ConfigurableSedaComponent.getQueueName;
+import static org.openremote.container.util.MapAccess.getInteger;
+import static org.openremote.manager.server.asset.AssetProcessingMetrics.*;
 import static org.openremote.manager.server.asset.AssetRoute.*;
 import static org.openremote.manager.server.event.ClientEventService.CLIENT_EVENT_TOPIC;
 import static org.openremote.model.attribute.AttributeEvent.HEADER_SOURCE;
@@ -128,9 +142,31 @@ public class AssetProcessingService extends RouteBuilder implements ContainerSer
 
     private static final Logger LOG = Logger.getLogger(AssetProcessingService.class.getName());
 
-    // TODO: Some of these options should be configurable depending on expected load etc.
-    // Message topic for communicating individual asset attribute changes
-    public static final String ASSET_QUEUE = "seda://AssetQueue?waitForTaskToComplete=IfReplyExpected&timeout=10000&purgeWhenStopping=true&discardIfNoConsumers=false&size=1000";
+    // Message queue for communicating individual asset attribute changes, the size is configured in init()
+    public static final String ASSET_QUEUE = "seda://AssetQueue?waitForTaskToComplete=IfReplyExpected&timeout=10000&purgeWhenStopping=true&discardIfNoConsumers=false";
+
+    // Lanes of the partitioned asset queue, the lane number is appended to the name
+    public static final String ASSET_QUEUE_LANE = "seda://AssetQueueLane";
+    public static final String ASSET_QUEUE_LANE_OPTIONS = "waitForTaskToComplete=IfReplyExpected&timeout=10000&purgeWhenStopping=true&discardIfNoConsumers=false&blockWhenFull=true";
+    public static final String HEADER_ASSET_QUEUE_LANE = AssetProcessingService.class.getName() + ".assetQueueLane";
+
+    // The System.nanoTime() when an attribute event was sent to the asset queue, for metrics
+    public static final String HEADER_QUEUE_TIME = AssetProcessingService.class.getName() + ".queueTime";
+
+    /**
+     * Maximum number of attribute events waiting in {@link #ASSET_QUEUE}, and in each of its lanes if it's partitioned.
+     */
+    public static final String ASSET_QUEUE_SIZE = "ASSET_QUEUE_SIZE";
+    public static final int ASSET_QUEUE_SIZE_DEFAULT = 1000;
+
+    /**
+     * If greater than <code>1</code>, attribute events are distributed by asset identifier to this number of lanes,
+     * which are processed in parallel. The events of an asset are always processed in the same lane, in order. A
+     * request/reply exchange (e.g. an attribute write through the REST API) blocks the distribution until it has
+     * been processed.
+     */
+    public static final String ASSET_QUEUE_LANES = "ASSET_QUEUE_LANES";
+    public static final int ASSET_QUEUE_LANES_DEFAULT = 1;
 
     protected TimerService timerService;
     protected ManagerIdentityService identityService;
@@ -141,8 +177,10 @@ public class AssetProcessingService extends RouteBuilder implements ContainerSer
     protected AssetAttributeLinkingService assetAttributeLinkingService;
     protected MessageBrokerService messageBrokerService;
     protected ClientEventService clientEventService;
+    protected int assetQueueLanes;
+    final protected AssetProcessingMetrics metrics = new AssetProcessingMetrics();
     // Used in testing to detect if initial/startup processing has completed
-    protected long lastProcessedEventTimestamp = System.currentTimeMillis();
+    protected volatile long lastProcessedEventTimestamp = System.currentTimeMillis();
 
     final protected List<Consumer<AssetState>> processors = new ArrayList<>();
 
@@ -180,7 +218,7 @@ public class AssetProcessingService extends RouteBuilder implements ContainerSer
 
                 // Client can subscribe to several assets
                 for (String assetId : filter.getEntityId()) {
-                    Asset asset = assetStorageService.find(assetId);
+                    Asset asset = assetStorageService.find(assetId, true);
                     // If the asset doesn't exist, subscription must fail
                     if (asset == null)
                         return false;
@@ -205,6 +243,28 @@ public class AssetProcessingService extends RouteBuilder implements ContainerSer
         processors.add(assetDatapointService);
         processors.add(assetAttributeLinkingService);
 
+        int assetQueueSize = getInteger(container.getConfig(), ASSET_QUEUE_SIZE, ASSET_QUEUE_SIZE_DEFAULT);
+        assetQueueLanes = Math.max(1, getInteger(container.getConfig(), ASSET_QUEUE_LANES, ASSET_QUEUE_LANES_DEFAULT));
+        ConfigurableSedaComponent sedaComponent = container.getService(MessageBrokerSetupService.class).getSedaComponent();
+        sedaComponent.setQueueSize(getQueueName(ASSET_QUEUE), assetQueueSize);
+        sedaComponent.setQueueConsumers(getQueueName(ASSET_QUEUE), 1);
+        if (assetQueueLanes > 1) {
+            LOG.info("Processing attribute events in lanes: " + assetQueueLanes);
+            for (int i = 0; i < assetQueueLanes; i++) {
+                sedaComponent.setQueueSize(getQueueName(getAssetQueueLaneUri(i)), assetQueueSize);
+                sedaComponent.setQueueConsumers(getQueueName(getAssetQueueLaneUri(i)), 1);
+            }
+        }
+
+        container.getService(WebService.class).getApiSingletons().add(
+            new MetricsResourceImpl(
+                this,
+                assetStorageService,
+                container.getService(MessageBrokerSetupService.class).getContext().getComponent(WebsocketComponent.NAME, WebsocketComponent.class),
+                container.getService(ManagerIdentityService.class)
+            )
+        );
+
         container.getService(MessageBrokerSetupService.class).getContext().addRoutes(this);
     }
 
@@ -226,20 +286,74 @@ public class AssetProcessingService extends RouteBuilder implements ContainerSer
             .routeId("FromClientUpdates")
             .filter(body().isInstanceOf(AttributeEvent.class))
             .setHeader(HEADER_SOURCE, () -> CLIENT)
+            .setHeader(HEADER_QUEUE_TIME, System::nanoTime)
             .to(ASSET_QUEUE);
 
-        // Process attribute events
-        from(ASSET_QUEUE)
-            .routeId("AssetUpdates")
+        if (assetQueueLanes > 1) {
+            // Distribute attribute events by asset, the events of an asset are processed in order
+            from(ASSET_QUEUE)
+                .routeId("AssetQueueLanes")
+                .filter(body().isInstanceOf(AttributeEvent.class))
+                .process(exchange -> exchange.getIn().setHeader(
+                    HEADER_ASSET_QUEUE_LANE,
+                    getAssetQueueLane(exchange.getIn().getBody(AttributeEvent.class).getEntityId())
+                ))
+                .toD(ASSET_QUEUE_LANE + "${header." + HEADER_ASSET_QUEUE_LANE + "}?" + ASSET_QUEUE_LANE_OPTIONS);
+
+            for (int i = 0; i < assetQueueLanes; i++) {
+                configureAssetUpdates(from(getAssetQueueLaneUri(i)).routeId("AssetUpdates" + i));
+            }
+        } else {
+            configureAssetUpdates(from(ASSET_QUEUE).routeId("AssetUpdates"));
+        }
+    }
+
+    public int getAssetQueueLanes() {
+        return assetQueueLanes;
+    }
+
+    public AssetProcessingMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return The number of attribute events waiting in the asset queue and its lanes, by queue name.
+     */
+    public ObjectValue getQueueSizes() {
+        ObjectValue queueSizes = Values.createObject();
+        queueSizes.put(getQueueName(ASSET_QUEUE), getContext().getEndpoint(ASSET_QUEUE, SedaEndpoint.class).getCurrentQueueSize());
+        if (assetQueueLanes > 1) {
+            for (int i = 0; i < assetQueueLanes; i++) {
+                String laneUri = getAssetQueueLaneUri(i);
+                queueSizes.put(getQueueName(laneUri), getContext().getEndpoint(laneUri, SedaEndpoint.class).getCurrentQueueSize());
+            }
+        }
+        return queueSizes;
+    }
+
+    protected int getAssetQueueLane(String assetId) {
+        return assetId != null ? Math.floorMod(assetId.hashCode(), assetQueueLanes) : 0;
+    }
+
+    protected String getAssetQueueLaneUri(int lane) {
+        return ASSET_QUEUE_LANE + lane + "?" + ASSET_QUEUE_LANE_OPTIONS;
+    }
+
+    /**
+     * Process attribute events
+     */
+    protected void configureAssetUpdates(RouteDefinition route) {
+        route
             .filter(body().isInstanceOf(AttributeEvent.class))
+            .process(this::recordQueueTime)
             .doTry()
-            .process(extractAttributeEventDetails(assetStorageService))
-            .process(validateAttributeEvent())
+            .process(timed(STAGE_EXTRACT, extractAttributeEventDetails(assetStorageService)))
+            .process(timed(STAGE_VALIDATE, validateAttributeEvent()))
             .choice()
             .when(header(HEADER_SOURCE).isEqualTo(CLIENT))
-            .process(validateAttributeEventFromClient(assetStorageService, identityService))
+            .process(timed(STAGE_VALIDATE_SOURCE, validateAttributeEventFromClient(assetStorageService, identityService)))
             .when(header(HEADER_SOURCE).isEqualTo(Source.SENSOR))
-            .process(validateAttributeEventFromSensor(agentService))
+            .process(timed(STAGE_VALIDATE_SOURCE, validateAttributeEventFromSensor(agentService)))
             .end()
             .process(buildAssetState(timerService))
             .process(this::processAssetState)
@@ -248,6 +362,34 @@ public class AssetProcessingService extends RouteBuilder implements ContainerSer
             .process(handleAssetProcessingException(LOG));
     }
 
+    protected void recordQueueTime(Exchange exchange) {
+        Long queueTime = exchange.getIn().getHeader(HEADER_QUEUE_TIME, Long.class);
+        if (queueTime != null) {
+            metrics.record(STAGE_QUEUE, getSource(exchange), System.nanoTime() - queueTime);
+        }
+    }
+
+    /**
+     * Records the latency of the processor in the metrics of the given stage, and an error if it throws.
+     */
+    protected Processor timed(String stage, Processor processor) {
+        return exchange -> {
+            long start = System.nanoTime();
+            try {
+                processor.process(exchange);
+            } catch (Exception ex) {
+                metrics.recordError(stage, getSource(exchange));
+                throw ex;
+            } finally {
+                metrics.record(stage, getSource(exchange), System.nanoTime() - start);
+            }
+        };
+    }
+
+    protected static Source getSource(Exchange exchange) {
+        return exchange.getIn().getHeader(HEADER_SOURCE, () -> null, Source.class);
+    }
+
     /**
      * Send internal attribute change events into the {@link #ASSET_QUEUE}.
      */
@@ -259,7 +401,10 @@ public class AssetProcessingService extends RouteBuilder implements ContainerSer
         if (attributeEvent.getTimestamp() <= 0) {
             attributeEvent.setTimestamp(timerService.getCurrentTimeMillis());
         }
-        messageBrokerService.getProducerTemplate().sendBodyAndHeader(ASSET_QUEUE, attributeEvent, HEADER_SOURCE, source);
+        Map<String, Object> headers = new HashMap<>();
+        headers.put(HEADER_SOURCE, source);
+        headers.put(HEADER_QUEUE_TIME, System.nanoTime());
+        messageBrokerService.getProducerTemplate().sendBodyAndHeaders(ASSET_QUEUE, attributeEvent, headers);
     }
 
     /**
@@ -269,12 +414,15 @@ public class AssetProcessingService extends RouteBuilder implements ContainerSer
      */
     protected void processAssetState(Exchange exchange) {
         AssetState assetState = exchange.getIn().getHeader(HEADER_ASSET_STATE, AssetState.class);
+        Source source = getSource(exchange);
         LOG.fine(">>> Processing start: " + assetState);
         // Need to record time here otherwise an infinite loop generated inside one of the processors means the timestamp
         // is not updated so tests can't then detect the problem.
         lastProcessedEventTimestamp = System.currentTimeMillis();
         processorLoop:
         for (Consumer<AssetState> processor : processors) {
+            String stage = getProcessorStage(processor);
+            long start = System.nanoTime();
             try {
                 LOG.fine("==> Processor " + processor + " accepts: " + assetState);
                 processor.accept(assetState);
@@ -283,6 +431,10 @@ public class AssetProcessingService extends RouteBuilder implements ContainerSer
                 assetState.setProcessingStatus(AssetState.ProcessingStatus.ERROR);
                 assetState.setError(t);
             }
+            metrics.record(stage, source, System.nanoTime() - start);
+            if (assetState.getProcessingStatus() == AssetState.ProcessingStatus.ERROR) {
+                metrics.recordError(stage, source);
+            }
 
             switch (assetState.getProcessingStatus()) {
                 case COMPLETED:
@@ -302,9 +454,17 @@ public class AssetProcessingService extends RouteBuilder implements ContainerSer
                 assetState.getId(), assetState.getAttributeName(), assetState.getValue(), timerService.getCurrentTimeMillis()
             ));
         }
+        Long queueTime = exchange.getIn().getHeader(HEADER_QUEUE_TIME, Long.class);
+        if (queueTime != null) {
+            metrics.record(STAGE_TOTAL, source, System.nanoTime() - queueTime);
+        }
         LOG.fine("<<< Processing complete: " + assetState);
     }
 
+    protected String getProcessorStage(Consumer<AssetState> processor) {
+        return STAGE_PROCESSOR_PREFIX + processor.getClass().getSimpleName();
+    }
+
     @Override
     public String toString() {
         return getClass().getSimpleName() + "{" +
@@ -273,6 +273,7 @@ public class AssetResourceImpl extends ManagerWebResource implements AssetResour
                 Map<String, Object> headers = new HashMap<>();
                 headers.put(AttributeEvent.HEADER_SOURCE, CLIENT);
                 headers.put(Constants.AUTH_CONTEXT, getAuthContext());
+                headers.put(AssetProcessingService.HEADER_QUEUE_TIME, System.nanoTime());
                 Object result = messageBrokerService.getProducerTemplate().requestBodyAndHeaders(
                     AssetProcessingService.ASSET_QUEUE, event, headers
                 );
@@ -19,6 +19,7 @@
  */
 package org.openremote.manager.server.asset;
 
+import com.google.common.cache.CacheStats;
 import org.apache.camel.builder.RouteBuilder;
 import org.hibernate.Session;
 import org.hibernate.jdbc.AbstractReturningWork;
@@ -31,6 +32,7 @@ import org.openremote.container.persistence.PersistenceService;
 import org.openremote.container.security.AuthContext;
 import org.openremote.container.timer.TimerService;
 import org.openremote.container.web.WebService;
+import org.openremote.manager.server.concurrent.ManagerExecutorService;
 import org.openremote.manager.server.event.ClientEventService;
 import org.openremote.manager.server.security.ManagerIdentityService;
 import org.openremote.manager.shared.security.ClientRole;
@@ -41,6 +43,7 @@ import org.openremote.model.ValidationFailure;
 import org.openremote.model.asset.*;
 import org.openremote.model.attribute.AttributeEvent;
 import org.openremote.model.util.TextUtil;
+import org.openremote.model.value.ArrayValue;
 import org.openremote.model.value.ObjectValue;
 import org.openremote.model.value.Value;
 import org.openremote.model.value.Values;
@@ -49,11 +52,13 @@ import org.postgresql.util.PGobject;
 import javax.persistence.EntityManager;
 import java.sql.*;
 import java.util.*;
+import java.util.concurrent.ScheduledFuture;
 import java.util.function.Consumer;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
 import static org.openremote.container.persistence.PersistenceEvent.PERSISTENCE_TOPIC;
+import static org.openremote.container.util.MapAccess.getInteger;
 import static org.openremote.manager.server.asset.AssetRoute.isPersistenceEventForEntityType;
 import static org.openremote.manager.server.event.ClientEventService.CLIENT_EVENT_TOPIC;
 import static org.openremote.manager.server.event.ClientEventService.getSessionKey;
@@ -78,10 +83,40 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
 
     private static final Logger LOG = Logger.getLogger(AssetStorageService.class.getName());
 
+    /**
+     * Maximum number of completely loaded assets kept in memory, see {@link AssetCache}.
+     */
+    public static final String ASSET_CACHE_MAX_SIZE = "ASSET_CACHE_MAX_SIZE";
+    public static final int ASSET_CACHE_MAX_SIZE_DEFAULT = 10000;
+
+    /**
+     * Attribute values are collected and coalesced for this time window before they are stored in
+     * the database, see {@link AssetAttributeWriter}. If <code>0</code>, values are stored immediately.
+     * <p>
+     * With a window, only {@link #find(String, boolean)} of completely loaded assets returns pending values,
+     * queries return the stored values. Pending values are lost if the process is killed, and values of
+     * attributes which have been removed in the meantime are only logged.
+     */
+    public static final String ASSET_ATTRIBUTE_WRITE_WINDOW_MILLIS = "ASSET_ATTRIBUTE_WRITE_WINDOW_MILLIS";
+    public static final int ASSET_ATTRIBUTE_WRITE_WINDOW_MILLIS_DEFAULT = 0;
+
+    /**
+     * Number of rows fetched from the database at a time when query results are streamed, see
+     * {@link #findAll(AbstractAssetQuery, Consumer)}.
+     */
+    public static final String ASSET_QUERY_FETCH_SIZE = "ASSET_QUERY_FETCH_SIZE";
+    public static final int ASSET_QUERY_FETCH_SIZE_DEFAULT = 500;
+
     protected TimerService timerService;
     protected PersistenceService persistenceService;
     protected ManagerIdentityService managerIdentityService;
     protected ClientEventService clientEventService;
+    protected ManagerExecutorService executorService;
+    protected AssetCache assetCache;
+    protected AssetAttributeWriter attributeWriter;
+    protected int attributeWriteWindowMillis;
+    protected int queryFetchSize;
+    protected ScheduledFuture<?> attributeWriterFlush;
     protected static final String protectedAssetMetaClause; // Maybe these should be in the DB
 
     static {
@@ -105,6 +140,15 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
         persistenceService = container.getService(PersistenceService.class);
         managerIdentityService = container.getService(ManagerIdentityService.class);
         clientEventService = container.getService(ClientEventService.class);
+        assetCache = new AssetCache(
+            getInteger(container.getConfig(), ASSET_CACHE_MAX_SIZE, ASSET_CACHE_MAX_SIZE_DEFAULT)
+        );
+        executorService = container.getService(ManagerExecutorService.class);
+        attributeWriter = new AssetAttributeWriter(persistenceService);
+        attributeWriteWindowMillis = getInteger(
+            container.getConfig(), ASSET_ATTRIBUTE_WRITE_WINDOW_MILLIS, ASSET_ATTRIBUTE_WRITE_WINDOW_MILLIS_DEFAULT
+        );
+        queryFetchSize = getInteger(container.getConfig(), ASSET_QUERY_FETCH_SIZE, ASSET_QUERY_FETCH_SIZE_DEFAULT);
 
         clientEventService.addSubscriptionAuthorizer((auth, subscription) -> {
             if (!subscription.isEventType(AssetTreeModifiedEvent.class))
@@ -151,11 +195,24 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
 
     @Override
     public void start(Container container) throws Exception {
+        if (attributeWriteWindowMillis > 0) {
+            LOG.info("Storing attribute values every " + attributeWriteWindowMillis + "ms");
+            attributeWriterFlush = executorService.scheduleWithFixedDelay(
+                attributeWriter::flush, attributeWriteWindowMillis, attributeWriteWindowMillis
+            );
+        }
     }
 
     @Override
     public void stop(Container container) throws Exception {
-
+        if (attributeWriterFlush != null) {
+            attributeWriterFlush.cancel(false);
+            attributeWriterFlush = null;
+        }
+        // Store whatever is still pending before the database is gone
+        attributeWriter.flush();
+        LOG.info("Attribute writer statistics: " + attributeWriter);
+        LOG.info("Asset cache statistics: " + assetCache);
     }
 
     @Override
@@ -166,12 +223,20 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
         Value value = assetState.getAttribute().getValue().orElse(null);
         // If there is no timestamp, use system time (0 or -1 are "no timestamp")
         Optional<Long> timestamp = assetState.getAttribute().getValueTimestamp();
-        String valueTimestamp = Long.toString(
-            timestamp.map(ts -> ts > 0 ? ts : timerService.getCurrentTimeMillis())
-                .orElseGet(() -> timerService.getCurrentTimeMillis())
-        );
-        if (!storeAttributeValue(assetId, attributeName, value, valueTimestamp)) {
-            throw new RuntimeException("Database update failed, no rows updated");
+        long valueTimestamp = timestamp.map(ts -> ts > 0 ? ts : timerService.getCurrentTimeMillis())
+            .orElseGet(() -> timerService.getCurrentTimeMillis());
+
+        // Write-through, the cached attribute must have the stored value and timestamp
+        AssetAttribute storedAttribute = assetState.getAttribute().deepCopy();
+        storedAttribute.setValueTimestamp(valueTimestamp);
+
+        if (!assetCache.writeAttribute(
+            assetId,
+            storedAttribute,
+            () -> attributeWriteWindowMillis > 0
+                ? attributeWriter.write(assetId, attributeName, value, valueTimestamp)
+                : attributeWriter.writeNow(assetId, attributeName, value, valueTimestamp))) {
+            throw new RuntimeException("Database update failed, no rows updated for attribute: " + attributeName);
         }
     }
 
@@ -182,7 +247,17 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
         from(PERSISTENCE_TOPIC)
             .routeId("AssetPersistenceChanges")
             .filter(isPersistenceEventForEntityType(ServerAsset.class))
-            .process(exchange -> publishModificationEvents(exchange.getIn().getBody(PersistenceEvent.class)));
+            .process(exchange -> {
+                PersistenceEvent<ServerAsset> persistenceEvent = exchange.getIn().getBody(PersistenceEvent.class);
+                invalidateCachedAssets(persistenceEvent);
+                publishModificationEvents(persistenceEvent);
+            });
+
+        // If any tenant was modified in the database, the cached tenant details of assets are stale
+        from(PERSISTENCE_TOPIC)
+            .routeId("AssetCacheTenantChanges")
+            .filter(isPersistenceEventForEntityType(Tenant.class))
+            .process(exchange -> assetCache.invalidateAll());
 
         // React if a client wants to read attribute state
         from(CLIENT_EVENT_TOPIC)
@@ -230,12 +305,21 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
     }
 
     /**
-     * @param loadComplete If the whole asset data (including path and attributes) should be loaded.
+     * @param loadComplete If the whole asset data (including path and attributes) should be loaded, a
+     *                     completely loaded asset is served from the {@link AssetCache}.
      */
     public ServerAsset find(String assetId, boolean loadComplete) {
         if (assetId == null)
             throw new IllegalArgumentException("Can't query null asset identifier");
-        return find(new AssetQuery().select(new AssetQuery.Select(loadComplete ? AssetQuery.Include.ALL : AssetQuery.Include.ALL_EXCEPT_PATH_AND_ATTRIBUTES, false)).id(assetId));
+        if (loadComplete) {
+            return assetCache.get(assetId, () -> {
+                ServerAsset asset = find(new AssetQuery().select(new AssetQuery.Select(AssetQuery.Include.ALL, false)).id(assetId));
+                // The database might not have the latest attribute values yet
+                attributeWriter.applyPending(asset);
+                return asset;
+            });
+        }
+        return find(new AssetQuery().select(new AssetQuery.Select(AssetQuery.Include.ALL_EXCEPT_PATH_AND_ATTRIBUTES, false)).id(assetId));
     }
 
     /**
@@ -245,6 +329,8 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
     public ServerAsset find(String assetId, boolean loadComplete, boolean filterProtected) {
         if (assetId == null)
             throw new IllegalArgumentException("Can't query null asset identifier");
+        if (!filterProtected)
+            return find(assetId, loadComplete);
         return find(new AssetQuery().select(new AssetQuery.Select(loadComplete ? AssetQuery.Include.ALL : AssetQuery.Include.ALL_EXCEPT_PATH_AND_ATTRIBUTES, filterProtected)).id(assetId));
     }
 
@@ -256,6 +342,17 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
         return persistenceService.doReturningTransaction(em -> findAll(em, query));
     }
 
+    /**
+     * Streams the result of the query to the consumer, the rows are fetched from the database in batches
+     * of {@link #ASSET_QUERY_FETCH_SIZE} instead of loading the whole result into memory. The consumer is
+     * called within the database transaction, it should not block.
+     *
+     * @return The number of assets passed to the consumer.
+     */
+    public int findAll(AbstractAssetQuery query, Consumer<ServerAsset> consumer) {
+        return persistenceService.doReturningTransaction(em -> findAll(em, query, queryFetchSize, consumer));
+    }
+
     public List<String> findNames(String... ids) {
         // TODO: Do this in a loop in reasonably sized batches
         return persistenceService.doReturningTransaction(em -> {
@@ -308,110 +405,155 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
      * @throws IllegalArgumentException if the realm or parent is illegal, or other asset constraint is violated.
      */
     public ServerAsset merge(ServerAsset asset, boolean overrideVersion, String userName) {
-        return persistenceService.doReturningTransaction(em -> {
+        // Cached descendants carry the name, parent and realm of this asset in their details
+        final boolean[] treeModified = {false};
 
-            // Update all empty attribute timestamps with server-time (a caller which doesn't have a
-            // reliable time source such as a browser should clear the timestamp when setting an attribute
-            // value).
-            asset.getAttributesStream().forEach(attribute -> {
-                Optional<Long> timestamp = attribute.getValueTimestamp();
-                if (!timestamp.isPresent() || timestamp.get() <= 0) {
-                    attribute.setValueTimestamp(timerService.getCurrentTimeMillis());
-                }
-            });
+        // Cached state must be discarded before any reader is notified of the committed change
+        ServerAsset updatedAsset = assetCache.invalidateAfter(asset.getId(), () -> {
 
-            // Validate parent
-            if (asset.getParentId() != null) {
-                // If this is a not a root asset...
-                ServerAsset parent = find(em, asset.getParentId(), true, false);
-                // .. the parent must exist
-                if (parent == null)
-                    throw new IllegalStateException("Parent not found: " + asset.getParentId());
-                // ... the parent can not be a child of the asset
-                if (parent.pathContains(asset.getId()))
-                    throw new IllegalStateException("Invalid parent");
-
-                // ... and if we don't have a realm identifier, use the parent's
-                if (asset.getRealmId() == null)
-                    asset.setRealmId(parent.getRealmId());
-            }
+            // Attribute values written before this merge must not overwrite the merged state later
+            if (asset.getId() != null)
+                attributeWriter.flush(asset.getId());
 
-            //TODO if parent and realm are provided, they should match!
+            return persistenceService.doReturningTransaction(em -> {
 
-            // Validate realm
-            if (!managerIdentityService.getIdentityProvider().isActiveTenant(asset.getRealmId())) {
-                throw new IllegalStateException("Realm not found/active: " + asset.getRealmId());
-            }
+                // Update all empty attribute timestamps with server-time (a caller which doesn't have a
+                // reliable time source such as a browser should clear the timestamp when setting an attribute
+                // value).
+                asset.getAttributesStream().forEach(attribute -> {
+                    Optional<Long> timestamp = attribute.getValueTimestamp();
+                    if (!timestamp.isPresent() || timestamp.get() <= 0) {
+                        attribute.setValueTimestamp(timerService.getCurrentTimeMillis());
+                    }
+                });
 
-            // Validate attributes
-            int invalid = 0;
-            for (AssetAttribute attribute : asset.getAttributesList()) {
-                List<ValidationFailure> validationFailures = attribute.getValidationFailures();
-                if (!validationFailures.isEmpty()) {
-                    LOG.warning("Validation failure(s) " + validationFailures + ", can't store: " + attribute);
-                    invalid++;
+                // Validate parent
+                if (asset.getParentId() != null) {
+                    // If this is a not a root asset...
+                    ServerAsset parent = find(em, asset.getParentId(), true, false);
+                    // .. the parent must exist
+                    if (parent == null)
+                        throw new IllegalStateException("Parent not found: " + asset.getParentId());
+                    // ... the parent can not be a child of the asset
+                    if (parent.pathContains(asset.getId()))
+                        throw new IllegalStateException("Invalid parent");
+
+                    // ... and if we don't have a realm identifier, use the parent's
+                    if (asset.getRealmId() == null)
+                        asset.setRealmId(parent.getRealmId());
                 }
-            }
-            if (invalid > 0) {
-                throw new IllegalStateException("Storing asset failed, invalid attributes: " + invalid);
-            }
 
+                //TODO if parent and realm are provided, they should match!
 
-            // If this is real merge and desired, copy the persistent version number over the detached
-            // version, so the detached state always wins and this update will go through and ignore
-            // concurrent updates
-            if (asset.getId() != null && overrideVersion) {
-                ServerAsset existing = em.find(ServerAsset.class, asset.getId());
-                if (existing != null) {
+                // Validate realm
+                if (!managerIdentityService.getIdentityProvider().isActiveTenant(asset.getRealmId())) {
+                    throw new IllegalStateException("Realm not found/active: " + asset.getRealmId());
+                }
+
+                // Validate attributes
+                int invalid = 0;
+                for (AssetAttribute attribute : asset.getAttributesList()) {
+                    List<ValidationFailure> validationFailures = attribute.getValidationFailures();
+                    if (!validationFailures.isEmpty()) {
+                        LOG.warning("Validation failure(s) " + validationFailures + ", can't store: " + attribute);
+                        invalid++;
+                    }
+                }
+                if (invalid > 0) {
+                    throw new IllegalStateException("Storing asset failed, invalid attributes: " + invalid);
+                }
+
+
+                ServerAsset existing = asset.getId() != null ? em.find(ServerAsset.class, asset.getId()) : null;
+
+                // If this is real merge and desired, copy the persistent version number over the detached
+                // version, so the detached state always wins and this update will go through and ignore
+                // concurrent updates
+                if (existing != null && overrideVersion) {
                     asset.setVersion(existing.getVersion());
                 }
-            }
 
-            // If username present
-            User user = null;
-            if (!TextUtil.isNullOrEmpty(userName)) {
-                user = managerIdentityService.getIdentityProvider().getUser(asset.getRealmId(), userName);
-                if (user == null) {
-                    throw new IllegalStateException("User not found: " + userName);
+                if (existing != null) {
+                    treeModified[0] = !Objects.equals(existing.getName(), asset.getName())
+                        || !Objects.equals(existing.getParentId(), asset.getParentId())
+                        || !Objects.equals(existing.getRealmId(), asset.getRealmId());
                 }
-            }
 
-            LOG.fine("Storing: " + asset);
+                // If username present
+                User user = null;
+                if (!TextUtil.isNullOrEmpty(userName)) {
+                    user = managerIdentityService.getIdentityProvider().getUser(asset.getRealmId(), userName);
+                    if (user == null) {
+                        throw new IllegalStateException("User not found: " + userName);
+                    }
+                }
 
-            ServerAsset updatedAsset = em.merge(asset);
+                LOG.fine("Storing: " + asset);
 
-            if (user != null) {
-                em.merge(new UserAsset(user.getId(), updatedAsset.getId()));
-            }
+                ServerAsset mergedAsset = em.merge(asset);
+
+                if (user != null) {
+                    em.merge(new UserAsset(user.getId(), mergedAsset.getId()));
+                }
 
-            return updatedAsset;
+                return mergedAsset;
+            });
         });
+
+        if (treeModified[0]) {
+            assetCache.invalidateAll();
+        }
+
+        return updatedAsset;
     }
 
     /**
      * @return <code>true</code> if the asset was deleted, false if the asset still has children and can't be deleted.
      */
     public boolean delete(String assetId) {
-        return persistenceService.doReturningTransaction(em -> {
-            Asset asset = em.find(ServerAsset.class, assetId);
-            if (asset != null) {
-                List<ServerAsset> children = findAll(em, new AssetQuery()
-                    .parent(new AssetQuery.ParentPredicate(asset.getId()))
-                );
-                if (children.size() > 0)
-                    return false;
-                LOG.fine("Removing: " + asset);
-                em.remove(asset);
-            }
-            return true;
+        return assetCache.invalidateAfter(assetId, () -> {
+
+            // The asset might not be deleted if it has children, keep its attribute values
+            attributeWriter.flush(assetId);
+
+            return persistenceService.doReturningTransaction(em -> {
+                Asset asset = em.find(ServerAsset.class, assetId);
+                if (asset != null) {
+                    List<ServerAsset> children = findAll(em, new AssetQuery()
+                        .parent(new AssetQuery.ParentPredicate(asset.getId()))
+                    );
+                    if (children.size() > 0)
+                        return false;
+                    LOG.fine("Removing: " + asset);
+                    em.remove(asset);
+                }
+                return true;
+            });
         });
     }
 
+    /**
+     * Synchronously stores all attribute values which are pending in the write-behind stage.
+     */
+    public void flushAttributeValues() {
+        attributeWriter.flush();
+    }
+
+    public CacheStats getAssetCacheStats() {
+        return assetCache.getStats();
+    }
+
+    public long getAssetCacheSize() {
+        return assetCache.size();
+    }
+
     public boolean isUserAsset(String userId, String assetId) {
-        return persistenceService.doReturningTransaction(entityManager -> {
-            UserAsset userAsset = entityManager.find(UserAsset.class, new UserAsset(userId, assetId));
-            return userAsset != null;
-        });
+        return managerIdentityService.getAuthorizationCache().isUserAsset(userId, assetId, () ->
+            persistenceService.doReturningTransaction(entityManager -> {
+                UserAsset userAsset = entityManager.find(UserAsset.class, new UserAsset(userId, assetId));
+                return userAsset != null;
+            })
+        );
     }
 
     public void storeUserAsset(String userId, String assetId) {
@@ -419,6 +561,7 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
             UserAsset userAsset = new UserAsset(userId, assetId);
             entityManager.merge(userAsset);
         });
+        managerIdentityService.getAuthorizationCache().invalidateUserAsset(userId, assetId);
     }
 
     /* ####################################################################################### */
@@ -454,21 +597,34 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
     }
 
     protected List<ServerAsset> findAll(EntityManager em, AbstractAssetQuery query) {
+        List<ServerAsset> result = new ArrayList<>();
+        findAll(em, query, 0, result::add);
+        return result;
+    }
+
+    /**
+     * @param fetchSize The JDBC fetch size, use <code>0</code> to fetch all rows at once.
+     */
+    protected int findAll(EntityManager em, AbstractAssetQuery query, int fetchSize, Consumer<ServerAsset> consumer) {
         PreparedAssetQuery querySql = buildQuery(query);
 
-        return em.unwrap(Session.class).doReturningWork(new AbstractReturningWork<List<ServerAsset>>() {
+        return em.unwrap(Session.class).doReturningWork(new AbstractReturningWork<Integer>() {
             @Override
-            public List<ServerAsset> execute(Connection connection) throws SQLException {
+            public Integer execute(Connection connection) throws SQLException {
                 LOG.fine("Executing: " + querySql.querySql);
-                PreparedStatement st = connection.prepareStatement(querySql.querySql);
-                querySql.apply(st);
-
-                try (ResultSet rs = st.executeQuery()) {
-                    List<ServerAsset> result = new ArrayList<>();
-                    while (rs.next()) {
-                        result.add(mapResultTuple(query, rs));
+                try (PreparedStatement st = connection.prepareStatement(querySql.querySql)) {
+                    // The driver only uses a cursor for forward-only result sets in a transaction
+                    st.setFetchSize(fetchSize);
+                    querySql.apply(st);
+
+                    try (ResultSet rs = st.executeQuery()) {
+                        int count = 0;
+                        while (rs.next()) {
+                            consumer.accept(mapResultTuple(query, rs));
+                            count++;
+                        }
+                        return count;
                     }
-                    return result;
                 }
             }
         });
@@ -476,35 +632,18 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
 
     protected PreparedAssetQuery buildQuery(AbstractAssetQuery query) {
         StringBuilder sb = new StringBuilder();
-        boolean recursive = query.select.recursive;
         List<ParameterBinder> binders = new ArrayList<>();
-        sb.append(buildSelectString(query, 1, binders));
+        sb.append(buildSelectString(query, binders));
         sb.append(buildFromString(query, 1));
         sb.append(buildWhereClause(query, 1, binders));
-
-        if (recursive) {
-            sb.insert(0, "WITH RECURSIVE top_level_assets AS ((");
-            sb.append(") UNION (");
-            sb.append(buildSelectString(query, 2, binders));
-            sb.append(buildFromString(query, 2));
-            sb.append(buildWhereClause(query, 2, binders));
-            sb.append("))");
-            sb.append(buildSelectString(query, 3, binders));
-            sb.append(buildFromString(query, 3));
-            sb.append(buildWhereClause(query, 3, binders));
-        }
-
-        sb.append(buildOrderByString(query));
+        sb.append(buildOrderByString(query, binders));
+        sb.append(buildLimitString(query, binders));
         return new PreparedAssetQuery(sb.toString(), binders);
     }
 
-    protected String buildSelectString(AbstractAssetQuery query, int level, List<ParameterBinder> binders) {
-        // level = 1 is main query select
-        // level = 2 is union select
-        // level = 3 is CTE select
+    protected String buildSelectString(AbstractAssetQuery query, List<ParameterBinder> binders) {
         StringBuilder sb = new StringBuilder();
         AssetQuery.Include include = query.select.include;
-        boolean recursive = query.select.recursive;
         boolean includeMainProperties = include == AssetQuery.Include.ALL ||
             include == AssetQuery.Include.ALL_EXCEPT_PATH ||
             include == AssetQuery.Include.ALL_EXCEPT_PATH_AND_ATTRIBUTES;
@@ -524,28 +663,19 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
             case ALL:
                 sb.append(", A.OBJ_VERSION as OBJ_VERSION, A.LOCATION as LOCATION");
                 sb.append(", P.NAME as PARENT_NAME, P.ASSET_TYPE as PARENT_TYPE");
-                if (!recursive || level == 3) {
-                    sb.append(", R.NAME as TENANT_NAME, RA.VALUE as TENANT_DISPLAY_NAME");
-                }
+                sb.append(", R.NAME as TENANT_NAME, RA.VALUE as TENANT_DISPLAY_NAME");
                 break;
         }
 
-        if (!recursive || level == 3) {
-            if (include == AssetQuery.Include.ALL) {
-                sb.append(", get_asset_tree_path(A.ID) as PATH");
-            } else {
-                sb.append(", NULL as PATH");
-            }
+        if (include == AssetQuery.Include.ALL) {
+            sb.append(", A.PATH as PATH");
+        } else {
+            sb.append(", NULL as PATH");
         }
 
         if (include != AssetQuery.Include.ALL_EXCEPT_PATH_AND_ATTRIBUTES) {
-
-            if (recursive && level != 3) {
-                sb.append(", A.ATTRIBUTES as ATTRIBUTES");
-            } else {
-                boolean namesOnly = include == AssetQuery.Include.ONLY_ID_AND_NAME_AND_ATTRIBUTE_NAMES;
-                sb.append(buildAttributeSelect(query.select.attributeNames, query.select.filterProtected, namesOnly, binders));
-            }
+            boolean namesOnly = include == AssetQuery.Include.ONLY_ID_AND_NAME_AND_ATTRIBUTE_NAMES;
+            sb.append(buildAttributeSelect(query.select.attributeNames, query.select.filterProtected, namesOnly, binders));
         } else {
             sb.append(", NULL as ATTRIBUTES");
         }
@@ -616,105 +746,261 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
 
     protected String buildFromString(AbstractAssetQuery query, int level) {
         // level = 1 is main query
-        // level = 2 is union
-        // level = 3 is CTE
+        // level = 2 is the sub-query selecting the top level assets of a recursive query
         StringBuilder sb = new StringBuilder();
         boolean recursive = query.select.recursive;
 
-        if (level == 1) {
-            sb.append(" from ASSET A ");
-        } else if (level == 2) {
-            sb.append(" from top_level_assets P ");
-            sb.append("join ASSET A on A.PARENT_ID = P.ID ");
-        } else {
-            sb.append(" from top_level_assets A ");
+        sb.append(" from ASSET A ");
+
+        if (level == 2) {
+            if (query.parentPredicate != null && !query.parentPredicate.noParent) {
+                sb.append("cross join ASSET P ");
+            }
+            return sb.toString();
         }
 
         boolean includeRealmInfo = query.select.include != AssetQuery.Include.ONLY_ID_AND_NAME &&
             query.select.include != AssetQuery.Include.ONLY_ID_AND_NAME_AND_ATTRIBUTE_NAMES &&
             query.select.include != AssetQuery.Include.ONLY_ID_AND_NAME_AND_ATTRIBUTES;
 
-        if ((!recursive || level == 3) && (includeRealmInfo || query.tenantPredicate != null)) {
+        if (includeRealmInfo || query.tenantPredicate != null) {
             sb.append("join REALM R on R.ID = A.REALM_ID ");
             sb.append("join REALM_ATTRIBUTE RA on RA.REALM_ID = R.ID and RA.NAME = 'displayName' ");
         }
 
-        if ((!recursive || level == 3) && query.id == null && query.userId != null) {
+        if ((recursive || query.id == null) && query.userId != null) {
             sb.append("cross join USER_ASSET ua ");
         }
 
-        if (level == 1) {
-            if (query.parentPredicate != null && !query.parentPredicate.noParent) {
-                sb.append("cross join ASSET P ");
-            } else {
-                sb.append("left outer join ASSET P on A.PARENT_ID = P.ID ");
-            }
+        if (!recursive && query.parentPredicate != null && !query.parentPredicate.noParent) {
+            sb.append("cross join ASSET P ");
+        } else {
+            sb.append("left outer join ASSET P on A.PARENT_ID = P.ID ");
         }
 
         return sb.toString();
     }
 
-    protected String buildOrderByString(AbstractAssetQuery query) {
+    protected String buildOrderByString(AbstractAssetQuery query, List<ParameterBinder> binders) {
         StringBuilder sb = new StringBuilder();
 
         if (query.id != null && !query.select.recursive) {
             return sb.toString();
         }
 
-        if (query.orderBy != null && query.orderBy.property != null) {
-            sb.append(" order by ");
+        List<String> orderByColumns = new ArrayList<>();
+        if (isFuzzyNameMatch(query)) {
+            // Most similar names first
+            orderByColumns.add("similarity(A.NAME, ?) desc ");
+            final int pos = binders.size() + 1;
+            binders.add(st -> st.setString(pos, query.namePredicate.value));
+        }
+        if (query.locationPredicate instanceof AssetQuery.NearestPredicate) {
+            // Nearest first, in meters like the radius, a leading distance operator can be answered with the
+            // ASSET_LOCATION_GEOGRAPHY_INDEX
+            AssetQuery.NearestPredicate nearestPredicate = (AssetQuery.NearestPredicate) query.locationPredicate;
+            orderByColumns.add("geography(A.LOCATION) <-> geography(ST_MakePoint(?, ?)) ");
+            addDoubleBinders(binders, nearestPredicate.lng, nearestPredicate.lat);
+        }
+        String orderByColumn = getOrderByColumn(query, "A");
+        String direction = query.orderBy != null && query.orderBy.descending ? "desc " : "asc ";
+        if (orderByColumn != null) {
+            orderByColumns.add(orderByColumn + " " + direction);
+        }
+        // Pages need a total order, the asset identifier breaks ties
+        if (query.page != null) {
+            orderByColumns.add("A.ID " + direction);
+        }
+        if (!orderByColumns.isEmpty()) {
+            sb.append(" order by ").append(String.join(", ", orderByColumns));
+        }
 
-            switch (query.orderBy.property) {
-                case CREATED_ON:
-                    sb.append(" A.CREATED_ON ");
-                    break;
-                case ASSET_TYPE:
-                    sb.append(" A.ASSET_TYPE ");
-                    break;
-                case NAME:
-                    sb.append(" A.NAME ");
-                    break;
-                case PARENT_ID:
-                    sb.append(" A.PARENT_ID ");
-                    break;
-                case REALM_ID:
-                    sb.append(" A.REALM_ID ");
-                    break;
+        return sb.toString();
+    }
+
+    protected boolean isFuzzyNameMatch(AbstractAssetQuery query) {
+        return query.namePredicate != null
+            && query.namePredicate.match == AssetQuery.Match.FUZZY
+            && query.namePredicate.value != null;
+    }
+
+    /**
+     * {@link AssetQuery.Match#FUZZY} is only supported for asset names, other predicates compare it like
+     * {@link AssetQuery.Match#EXACT} and not as a pattern.
+     */
+    protected static boolean isExactMatch(AssetQuery.Match match) {
+        return match == AssetQuery.Match.EXACT || match == AssetQuery.Match.FUZZY;
+    }
+
+    protected String getOrderByColumn(AbstractAssetQuery query, String alias) {
+        if (query.orderBy == null || query.orderBy.property == null)
+            return null;
+        switch (query.orderBy.property) {
+            case CREATED_ON:
+                return alias + ".CREATED_ON";
+            case ASSET_TYPE:
+                return alias + ".ASSET_TYPE";
+            case NAME:
+                return alias + ".NAME";
+            case PARENT_ID:
+                // Root assets first, a null value can't be compared with the page cursor
+                return "coalesce(" + alias + ".PARENT_ID, '')";
+            case REALM_ID:
+                return alias + ".REALM_ID";
+        }
+        return null;
+    }
+
+    protected String buildLimitString(AbstractAssetQuery query, List<ParameterBinder> binders) {
+        int limit = query.page != null && query.page.size > 0 ? query.page.size : 0;
+        if (query.locationPredicate instanceof AssetQuery.NearestPredicate) {
+            int count = ((AssetQuery.NearestPredicate) query.locationPredicate).count;
+            if (count > 0 && (limit == 0 || count < limit)) {
+                limit = count;
             }
-            sb.append(query.orderBy.descending ? "desc " : "asc ");
         }
+        if (limit == 0)
+            return "";
+        final int pos = binders.size() + 1;
+        final int value = limit;
+        binders.add(st -> st.setInt(pos, value));
+        return " limit ?";
+    }
 
+    /**
+     * Selects the assets following the page cursor asset, in the order of {@link #buildOrderByString}.
+     */
+    protected String buildPageCursorClause(AbstractAssetQuery query, List<ParameterBinder> binders) {
+        if (isFuzzyNameMatch(query)) {
+            throw new IllegalStateException("Page cursor not supported for fuzzy name match, only page size");
+        }
+        if (query.locationPredicate instanceof AssetQuery.NearestPredicate) {
+            throw new IllegalStateException("Page cursor not supported for nearest location, only page size");
+        }
+        StringBuilder sb = new StringBuilder();
+        String orderByColumn = getOrderByColumn(query, "A");
+        String operator = query.orderBy != null && query.orderBy.descending ? " < " : " > ";
+        if (orderByColumn != null) {
+            sb.append(" and (").append(orderByColumn).append(", A.ID)").append(operator);
+            sb.append("(select ").append(getOrderByColumn(query, "C")).append(", C.ID from ASSET C where C.ID = ?)");
+        } else {
+            sb.append(" and A.ID").append(operator).append("?");
+        }
+        final int pos = binders.size() + 1;
+        binders.add(st -> st.setString(pos, query.page.after));
         return sb.toString();
     }
 
     protected String buildWhereClause(AbstractAssetQuery query, int level, List<ParameterBinder> binders) {
         // level = 1 is main query
-        // level = 2 is union
-        // level = 3 is CTE
+        // level = 2 is the sub-query selecting the top level assets of a recursive query
         StringBuilder sb = new StringBuilder();
         boolean recursive = query.select.recursive;
         sb.append(" where true");
 
+        if (level == 1 && recursive) {
+            // The top level assets and all their descendants, which have a top level asset in their path
+            sb.append(" and A.PATH && array(select text(A.ID)");
+            sb.append(buildFromString(query, 2));
+            sb.append(buildWhereClause(query, 2, binders));
+            sb.append(")");
+        } else {
+            sb.append(buildTopLevelWhereClause(query, binders));
+        }
+
         if (level == 2) {
             return sb.toString();
         }
 
-        if (level == 1 && query.id != null) {
+        if (query.tenantPredicate != null && query.tenantPredicate.realmId != null) {
+            sb.append(" and R.ID = ?");
+            final int pos = binders.size() + 1;
+            binders.add(st -> st.setString(pos, query.tenantPredicate.realmId));
+        } else if (query.tenantPredicate != null && query.tenantPredicate.realm != null) {
+            sb.append(" and R.NAME = ?");
+            final int pos = binders.size() + 1;
+            binders.add(st -> st.setString(pos, query.tenantPredicate.realm));
+        }
+
+        if (query.userId != null) {
+            sb.append(" and ua.ASSET_ID = a.ID and ua.USER_ID = ?");
+            final int pos = binders.size() + 1;
+            binders.add(st -> st.setString(pos, query.userId));
+        }
+
+        if (query.type != null) {
+            sb.append(query.type.caseSensitive ? " and A.ASSET_TYPE" : " and upper(A.ASSET_TYPE)");
+            sb.append(isExactMatch(query.type.match) ? " = ? " : " like ? ");
+            final int pos = binders.size() + 1;
+            binders.add(st -> st.setString(pos, query.type.prepareValue()));
+        }
+
+        if (query.locationPredicate != null) {
+            sb.append(buildLocationFilter(query.locationPredicate, binders));
+        }
+
+        if (query.attributeMetaPredicate != null) {
+            sb.append(buildAttributeMetaIndexFilter(query.attributeMetaPredicate, binders));
+            String attributeMetaFilter = buildAttributeMetaFilter(query.attributeMetaPredicate, binders);
+
+            if (attributeMetaFilter.length() > 0) {
+                sb.append(" and A.ID in (select A.ID from");
+                sb.append(" jsonb_each(A.ATTRIBUTES) as AX,");
+                sb.append(" jsonb_array_elements(AX.VALUE #> '{meta}') as AM");
+                sb.append(" where true");
+                sb.append(attributeMetaFilter);
+                sb.append(")");
+            }
+        }
+
+        if (query.attributePredicateArray != null && query.attributePredicateArray.predicates != null) {
+            for (AssetQuery.AttributePredicate attributePredicate : query.attributePredicateArray.predicates) {
+                sb.append(buildAttributeIndexFilter(attributePredicate, binders));
+                StringBuilder attributeFilterBuilder = new StringBuilder();
+                attributeFilterBuilder.append(buildAttributeFilter(attributePredicate, binders));
+
+                if (attributeFilterBuilder.length() > 0) {
+                    sb.append(" and A.ID in (select A.ID from");
+                    sb.append(" jsonb_each(A.ATTRIBUTES) as AX");
+                    sb.append(" where true");
+                    sb.append(attributeFilterBuilder.toString());
+                    sb.append(")");
+                }
+            }
+        }
+
+        if (query.page != null && query.page.after != null) {
+            sb.append(buildPageCursorClause(query, binders));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * The predicates selecting the assets of a query, or the top level assets of a recursive query.
+     */
+    protected String buildTopLevelWhereClause(AbstractAssetQuery query, List<ParameterBinder> binders) {
+        StringBuilder sb = new StringBuilder();
+
+        if (query.id != null) {
             sb.append(" and A.ID = ?");
             final int pos = binders.size() + 1;
             binders.add(st -> st.setString(pos, query.id));
         }
 
-        if (level == 1 && query.namePredicate != null) {
+        if (isFuzzyNameMatch(query)) {
+            // Trigram similarity above the pg_trgm.similarity_threshold, can use the ASSET_NAME_TRGM_INDEX
+            sb.append(" and A.NAME % ?");
+            final int pos = binders.size() + 1;
+            binders.add(st -> st.setString(pos, query.namePredicate.value));
+        } else if (query.namePredicate != null) {
             sb.append(query.namePredicate.caseSensitive ? " and A.NAME " : " and upper(A.NAME)");
-            sb.append(query.namePredicate.match == AssetQuery.Match.EXACT ? " = ?" : " like ?");
+            sb.append(isExactMatch(query.namePredicate.match) ? " = ?" : " like ?");
             final int pos = binders.size() + 1;
             binders.add(st -> st.setString(pos, query.namePredicate.prepareValue()));
         }
 
         if (query.parentPredicate != null) {
-            // Can only restrict recursive query parent by asset type
-            if (level == 1 && query.parentPredicate.id != null) {
+            if (query.parentPredicate.id != null) {
                 sb.append(" and p.ID = a.PARENT_ID");
                 sb.append(" and A.PARENT_ID = ?");
                 final int pos = binders.size() + 1;
@@ -724,71 +1010,149 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
                 sb.append(" and P.ASSET_TYPE = ?");
                 final int pos = binders.size() + 1;
                 binders.add(st -> st.setString(pos, query.parentPredicate.type));
-            } else if (level == 1 && query.parentPredicate.noParent) {
+            } else if (query.parentPredicate.noParent) {
                 sb.append(" and A.PARENT_ID is null");
             }
         }
 
-        if (level == 1 && query.pathPredicate != null && query.pathPredicate.hasPath()) {
-            sb.append(" and ? <@ get_asset_tree_path(A.ID)");
+        if (query.pathPredicate != null && query.pathPredicate.hasPath()) {
+            sb.append(" and ? <@ A.PATH");
             final int pos = binders.size() + 1;
             binders.add(st -> st.setArray(pos, st.getConnection().createArrayOf("text", query.pathPredicate.path)));
         }
+        return sb.toString();
+    }
 
-        if (!recursive || level == 3) {
-            if (query.tenantPredicate != null && query.tenantPredicate.realmId != null) {
-                sb.append(" and R.ID = ?");
-                final int pos = binders.size() + 1;
-                binders.add(st -> st.setString(pos, query.tenantPredicate.realmId));
-            } else if (query.tenantPredicate != null && query.tenantPredicate.realm != null) {
-                sb.append(" and R.NAME = ?");
-                final int pos = binders.size() + 1;
-                binders.add(st -> st.setString(pos, query.tenantPredicate.realm));
-            }
+    /**
+     * The location predicates can be answered with the GiST indexes on the LOCATION column, coordinates are
+     * longitude and latitude without a spatial reference system, like the stored asset locations.
+     */
+    protected String buildLocationFilter(AssetQuery.LocationPredicate locationPredicate, List<ParameterBinder> binders) {
+        if (locationPredicate instanceof AssetQuery.BoundingBoxPredicate) {
+            AssetQuery.BoundingBoxPredicate boundingBoxPredicate = (AssetQuery.BoundingBoxPredicate) locationPredicate;
+            addDoubleBinders(
+                binders,
+                boundingBoxPredicate.minLng, boundingBoxPredicate.minLat,
+                boundingBoxPredicate.maxLng, boundingBoxPredicate.maxLat
+            );
+            // Uses the ASSET_LOCATION_INDEX
+            return " and ST_Intersects(A.LOCATION, ST_MakeEnvelope(?, ?, ?, ?))";
+        } else if (locationPredicate instanceof AssetQuery.RadiusPredicate) {
+            // Distance in meters on the spheroid, uses the ASSET_LOCATION_GEOGRAPHY_INDEX
+            AssetQuery.RadiusPredicate radiusPredicate = (AssetQuery.RadiusPredicate) locationPredicate;
+            addDoubleBinders(binders, radiusPredicate.lng, radiusPredicate.lat, radiusPredicate.radius);
+            return " and ST_DWithin(geography(A.LOCATION), geography(ST_MakePoint(?, ?)), ?)";
+        } else if (locationPredicate instanceof AssetQuery.NearestPredicate) {
+            // Ordered and limited in buildOrderByString and buildLimitString
+            return " and A.LOCATION is not null";
+        }
+        return "";
+    }
 
-            if (query.userId != null) {
-                sb.append(" and ua.ASSET_ID = a.ID and ua.USER_ID = ?");
-                final int pos = binders.size() + 1;
-                binders.add(st -> st.setString(pos, query.userId));
-            }
+    protected void addDoubleBinders(List<ParameterBinder> binders, double... values) {
+        for (double value : values) {
+            final int pos = binders.size() + 1;
+            binders.add(st -> st.setDouble(pos, value));
+        }
+    }
 
-            if (query.type != null) {
-                sb.append(query.type.caseSensitive ? " and A.ASSET_TYPE" : " and upper(A.ASSET_TYPE)");
-                sb.append(query.type.match == AssetQuery.Match.EXACT ? " = ? " : " like ? ");
-                final int pos = binders.size() + 1;
-                binders.add(st -> st.setString(pos, query.type.prepareValue()));
-            }
+    /**
+     * Containment of a meta item which all meta items matching the predicate contain, this can be checked with
+     * the ASSET_ATTRIBUTE_META_INDEX before the assets are filtered with {@link #buildAttributeMetaFilter}. The
+     * filter compares the text of the name, so it is only contained if it can't be the text of a non-string value.
+     *
+     * @return An empty string if no part of the predicate can be expressed as containment.
+     */
+    protected String buildAttributeMetaIndexFilter(AssetQuery.AttributeMetaPredicate attributeMetaPredicate, List<ParameterBinder> binders) {
+        ObjectValue metaItem = Values.createObject();
+        if (isContainedString(attributeMetaPredicate.itemNamePredicate)
+            && isStringOnlyText(attributeMetaPredicate.itemNamePredicate.value)) {
+            metaItem.put("name", attributeMetaPredicate.itemNamePredicate.value);
+        }
+        Value value = getContainedValue(attributeMetaPredicate.itemValuePredicate);
+        if (value != null) {
+            metaItem.put("value", value);
+        }
+        if (metaItem.keys().length == 0)
+            return "";
 
+        final int pos = binders.size() + 1;
+        binders.add(st -> st.setObject(pos, createJsonbObject(Values.createArray().add(metaItem))));
+        return " and ASSET_ATTRIBUTE_META(A.ATTRIBUTES) @> ?";
+    }
 
-            if (query.attributeMetaPredicate != null) {
-                String attributeMetaFilter = buildAttributeMetaFilter(query.attributeMetaPredicate, binders);
+    /**
+     * Containment of an attribute with the value of the predicate, this can be checked with the
+     * ASSET_ATTRIBUTES_INDEX before the assets are filtered with {@link #buildAttributeFilter}.
+     *
+     * @return An empty string if the predicate can't be expressed as containment.
+     */
+    protected String buildAttributeIndexFilter(AssetQuery.AttributePredicate attributePredicate, List<ParameterBinder> binders) {
+        if (!isContainedString(attributePredicate.itemNamePredicate))
+            return "";
+        Value value = getContainedValue(attributePredicate.itemValuePredicate);
+        if (value == null)
+            return "";
+
+        ObjectValue attributes = Values.createObject().put(
+            attributePredicate.itemNamePredicate.value, Values.createObject().put("value", value)
+        );
+        final int pos = binders.size() + 1;
+        binders.add(st -> st.setObject(pos, createJsonbObject(attributes)));
+        return " and A.ATTRIBUTES @> ?";
+    }
 
-                if (attributeMetaFilter.length() > 0) {
-                    sb.append(" and A.ID in (select A.ID from");
-                    sb.append(" jsonb_each(A.ATTRIBUTES) as AX,");
-                    sb.append(" jsonb_array_elements(AX.VALUE #> '{meta}') as AM");
-                    sb.append(" where true");
-                    sb.append(attributeMetaFilter);
-                    sb.append(")");
-                }
-            }
+    protected boolean isContainedString(AssetQuery.StringPredicate stringPredicate) {
+        return stringPredicate != null
+            && isExactMatch(stringPredicate.match)
+            && stringPredicate.caseSensitive
+            && stringPredicate.value != null;
+    }
 
-            if (query.attributePredicateArray != null && query.attributePredicateArray.predicates != null) {
-                for (AssetQuery.AttributePredicate attributePredicate : query.attributePredicateArray.predicates) {
-                    StringBuilder attributeFilterBuilder = new StringBuilder();
-                    attributeFilterBuilder.append(buildAttributeFilter(attributePredicate, binders));
-
-                    if (attributeFilterBuilder.length() > 0) {
-                        sb.append(" and A.ID in (select A.ID from");
-                        sb.append(" jsonb_each(A.ATTRIBUTES) as AX");
-                        sb.append(" where true");
-                        sb.append(attributeFilterBuilder.toString());
-                        sb.append(")");
-                    }
+    /**
+     * @return The JSON value which a value matching the predicate contains, or <code>null</code> if the predicate
+     * is not an exact match. Numbers are not supported, the filter compares them as numeric and not as JSON. The
+     * filter compares strings with the text of the value, so <code>"5"</code> also matches the number 5; such
+     * strings are not supported either.
+     */
+    protected Value getContainedValue(AssetQuery.ValuePredicate valuePredicate) {
+        if (valuePredicate instanceof AssetQuery.StringPredicate) {
+            AssetQuery.StringPredicate stringPredicate = (AssetQuery.StringPredicate) valuePredicate;
+            return isContainedString(stringPredicate) && isStringOnlyText(stringPredicate.value)
+                ? Values.create(stringPredicate.value)
+                : null;
+        } else if (valuePredicate instanceof AssetQuery.BooleanPredicate) {
+            return Values.create(((AssetQuery.BooleanPredicate) valuePredicate).predicate);
+        } else if (valuePredicate instanceof AssetQuery.StringArrayPredicate) {
+            // Array containment ignores the position of the elements, the filter checks them
+            ArrayValue arrayValue = Values.createArray();
+            for (AssetQuery.StringPredicate stringPredicate : ((AssetQuery.StringArrayPredicate) valuePredicate).predicates) {
+                if (isContainedString(stringPredicate) && isStringOnlyText(stringPredicate.value)) {
+                    arrayValue.add(Values.create(stringPredicate.value));
                 }
             }
+            return arrayValue.length() > 0 ? arrayValue : null;
         }
-        return sb.toString();
+        return null;
+    }
+
+    /**
+     * @return <code>true</code> if only a JSON string has this text with the <code>#&gt;&gt;</code> operator. The
+     * text of JSON null is SQL null, numbers start with a digit or minus, objects and arrays with a bracket.
+     */
+    protected static boolean isStringOnlyText(String text) {
+        if (text.isEmpty())
+            return true;
+        char first = text.charAt(0);
+        return first != '{' && first != '[' && first != '-' && !Character.isDigit(first)
+            && !text.equals("true") && !text.equals("false");
+    }
+
+    protected static PGobject createJsonbObject(Value value) throws SQLException {
+        PGobject pgJsonValue = new PGobject();
+        pgJsonValue.setType("jsonb");
+        pgJsonValue.setValue(value.toJson());
+        return pgJsonValue;
     }
 
     protected String buildAttributeMetaFilter(AssetQuery.AttributeMetaPredicate attributeMetaPredicate, List<ParameterBinder> binders) {
@@ -799,7 +1163,7 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
                 ? " and AM.VALUE #>> '{name}'"
                 : " and upper(AM.VALUE #>> '{name}')"
             );
-            attributeMetaBuilder.append(attributeMetaPredicate.itemNamePredicate.match == AssetQuery.Match.EXACT ? " = ? " : " like ? ");
+            attributeMetaBuilder.append(isExactMatch(attributeMetaPredicate.itemNamePredicate.match) ? " = ? " : " like ? ");
             final int pos = binders.size() + 1;
             binders.add(st -> st.setString(pos, attributeMetaPredicate.itemNamePredicate.prepareValue()));
         }
@@ -810,7 +1174,7 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
                     ? " and AM.VALUE #>> '{value}'"
                     : " and upper(AM.VALUE #>> '{value}')"
                 );
-                attributeMetaBuilder.append(stringPredicate.match == AssetQuery.Match.EXACT ? " = ? " : " like ? ");
+                attributeMetaBuilder.append(isExactMatch(stringPredicate.match) ? " = ? " : " like ? ");
                 final int pos = binders.size() + 1;
                 binders.add(st -> st.setString(pos, stringPredicate.prepareValue()));
             } else if (attributeMetaPredicate.itemValuePredicate instanceof AssetQuery.BooleanPredicate) {
@@ -826,7 +1190,7 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
                         ? " and AM.VALUE #> '{value}' ->> " + i
                         : " and upper(AM.VALUE #> '{value}' ->> " + i + ")"
                     );
-                    attributeMetaBuilder.append(stringPredicate.match == AssetQuery.Match.EXACT ? " = ?" : " like ?");
+                    attributeMetaBuilder.append(isExactMatch(stringPredicate.match) ? " = ?" : " like ?");
                     final int pos = binders.size() + 1;
                     binders.add(st -> st.setString(pos, stringPredicate.prepareValue()));
                 }
@@ -844,7 +1208,7 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
                 ? " and AX.key"
                 : " and upper(AX.key)"
             );
-            attributeBuilder.append(attributePredicate.itemNamePredicate.match == AssetQuery.Match.EXACT ? " = ? " : " like ? ");
+            attributeBuilder.append(isExactMatch(attributePredicate.itemNamePredicate.match) ? " = ? " : " like ? ");
             final int pos = binders.size() + 1;
             binders.add(st -> st.setString(pos, attributePredicate.itemNamePredicate.prepareValue()));
         }
@@ -855,7 +1219,7 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
                     ? " and AX.VALUE #>> '{value}'"
                     : " and upper(AX.VALUE #>> '{value}')"
                 );
-                attributeBuilder.append(stringPredicate.match == AssetQuery.Match.EXACT ? " = ? " : " like ? ");
+                attributeBuilder.append(isExactMatch(stringPredicate.match) ? " = ? " : " like ? ");
                 final int pos = binders.size() + 1;
                 binders.add(st -> st.setString(pos, stringPredicate.prepareValue()));
             } else if (attributePredicate.itemValuePredicate instanceof AssetQuery.BooleanPredicate) {
@@ -871,7 +1235,7 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
                         ? " and AX.VALUE #> '{value}' ->> " + i
                         : " and upper(AX.VALUE #> '{value}' ->> " + i + ")"
                     );
-                    attributeBuilder.append(stringPredicate.match == AssetQuery.Match.EXACT ? " = ?" : " like ?");
+                    attributeBuilder.append(isExactMatch(stringPredicate.match) ? " = ?" : " like ?");
                     final int pos = binders.size() + 1;
                     binders.add(st -> st.setString(pos, stringPredicate.prepareValue()));
                 }
@@ -986,57 +1350,17 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
         }
     }
 
-    protected boolean storeAttributeValue(String assetId, String attributeName, Value value, String timestamp) {
-        return persistenceService.doReturningTransaction(entityManager ->
-            entityManager.unwrap(Session.class).doReturningWork(connection -> {
-
-                String update =
-                    "update ASSET" +
-                        " set ATTRIBUTES = jsonb_set(jsonb_set(ATTRIBUTES, ?, ?, true), ?, ?, true)" +
-                        " where ID = ? and ATTRIBUTES -> ? is not null";
-                try (PreparedStatement statement = connection.prepareStatement(update)) {
-
-                    // Bind the value (and check we don't have a SQL injection hole in attribute name!)
-                    if (!AssetAttribute.ATTRIBUTE_NAME_VALIDATOR.test(attributeName)) {
-                        LOG.fine(
-                            "Invalid attribute name (must match '" + AssetAttribute.ATTRIBUTE_NAME_PATTERN + "'): " + attributeName
-                        );
-                        return false;
-                    }
-
-                    Array attributeValuePath = connection.createArrayOf(
-                        "text",
-                        new String[]{attributeName, "value"}
-                    );
-                    statement.setArray(1, attributeValuePath);
-
-                    PGobject pgJsonValue = new PGobject();
-                    pgJsonValue.setType("jsonb");
-                    // Careful, do not set Java null (as returned by value.toJson()) here! It will erase your whole SQL column!
-                    pgJsonValue.setValue(value == null ? "null" : value.toJson());
-                    statement.setObject(2, pgJsonValue);
-
-                    // Bind the value timestamp
-                    Array attributeValueTimestampPath = connection.createArrayOf(
-                        "text",
-                        new String[]{attributeName, "valueTimestamp"}
-                    );
-                    statement.setArray(3, attributeValueTimestampPath);
-                    PGobject pgJsonValueTimestamp = new PGobject();
-                    pgJsonValueTimestamp.setType("jsonb");
-                    pgJsonValueTimestamp.setValue(timestamp);
-                    statement.setObject(4, pgJsonValueTimestamp);
-
-                    // Bind asset ID and attribute name
-                    statement.setString(5, assetId);
-                    statement.setString(6, attributeName);
-
-                    int updatedRows = statement.executeUpdate();
-                    LOG.fine("Stored asset '" + assetId + "' attribute '" + attributeName + "' value, affected rows: " + updatedRows);
-                    return updatedRows == 1;
+    protected void invalidateCachedAssets(PersistenceEvent<ServerAsset> persistenceEvent) {
+        ServerAsset asset = persistenceEvent.getEntity();
+        if (persistenceEvent.getCause() == PersistenceEvent.Cause.UPDATE) {
+            for (String property : new String[]{"name", "parentId", "realmId"}) {
+                if (!Objects.equals(persistenceEvent.getPreviousState(property), persistenceEvent.getCurrentState(property))) {
+                    assetCache.invalidateAll();
+                    return;
                 }
-            })
-        );
+            }
+        }
+        assetCache.invalidate(asset.getId());
     }
 
     protected void publishModificationEvents(PersistenceEvent<ServerAsset> persistenceEvent) {
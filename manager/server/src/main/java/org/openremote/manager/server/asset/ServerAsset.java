@@ -97,6 +97,28 @@ public class ServerAsset extends Asset {
         return serverAsset;
     }
 
+    /**
+     * Copies all properties, including the transient query result details, the attributes are a deep copy.
+     */
+    public static ServerAsset copy(ServerAsset asset) {
+        ServerAsset copy = new ServerAsset();
+        copy.id = asset.id;
+        copy.version = asset.version;
+        copy.createdOn = asset.createdOn;
+        copy.name = asset.name;
+        copy.type = asset.type;
+        copy.parentId = asset.parentId;
+        copy.parentName = asset.parentName;
+        copy.parentType = asset.parentType;
+        copy.realmId = asset.realmId;
+        copy.tenantRealm = asset.tenantRealm;
+        copy.tenantDisplayName = asset.tenantDisplayName;
+        copy.path = asset.path != null ? asset.path.clone() : null;
+        copy.attributes = asset.getAttributes() != null ? asset.getAttributes().deepCopy() : null;
+        copy.setLocation(asset.getLocation());
+        return copy;
+    }
+
     @Column(name = "LOCATION")
     @Access(AccessType.PROPERTY)
     @JsonIgnore
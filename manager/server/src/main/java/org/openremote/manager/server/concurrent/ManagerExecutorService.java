@@ -23,10 +23,13 @@ import org.openremote.agent.protocol.ProtocolExecutorService;
 import org.openremote.container.Container;
 import org.openremote.container.concurrent.ContainerExecutor;
 import org.openremote.container.concurrent.ContainerScheduledExecutor;
+import org.openremote.container.concurrent.ContainerThreadFactory;
 
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 import static org.openremote.container.util.MapAccess.getInteger;
@@ -40,6 +43,13 @@ public class ManagerExecutorService implements ProtocolExecutorService {
     public static final String RULES_THREADS_MAX = "RULES_THREADS_MAX";
     public static final int RULES_THREADS_MAX_DEFAULT = Integer.MAX_VALUE;
 
+    /**
+     * Threads feeding facts and events into rules engines, each rules engine is fed by at most one
+     * thread at a time, so the pool size limits how many engines are fed concurrently.
+     */
+    public static final String RULES_DISPATCH_THREADS_MAX = "RULES_DISPATCH_THREADS_MAX";
+    public static final int RULES_DISPATCH_THREADS_MAX_DEFAULT = Math.max(Runtime.getRuntime().availableProcessors(), 2);
+
     /**
      * Threads used by scheduled, usually short-lived and non-blocking tasks, such as protocols
      * polling a remote service at regular interval, or the internal checks for expired client
@@ -49,6 +59,7 @@ public class ManagerExecutorService implements ProtocolExecutorService {
     public static final int SCHEDULED_TASKS_THREADS_MAX_DEFAULT = Math.max(Runtime.getRuntime().availableProcessors(), 2);
 
     protected ExecutorService rulesExecutor;
+    protected ExecutorService rulesDispatchExecutor;
     protected ScheduledExecutorService scheduledTasksExecutor;
 
     @Override
@@ -57,6 +68,19 @@ public class ManagerExecutorService implements ProtocolExecutorService {
             getInteger(container.getConfig(), RULES_THREADS_MAX, RULES_THREADS_MAX_DEFAULT);
         rulesExecutor = new ContainerExecutor("Rules engine", 0, rulesThreadsMax, 60, -1);
 
+        int rulesDispatchThreadsMax =
+            getInteger(container.getConfig(), RULES_DISPATCH_THREADS_MAX, RULES_DISPATCH_THREADS_MAX_DEFAULT);
+        // Each rules engine has at most one queued task, the queue is bounded by the number of engines. A rejected
+        // task must not be discarded silently, the rules engine fails the facts waiting for it.
+        rulesDispatchExecutor = new ContainerExecutor(
+            new ContainerThreadFactory("Rules dispatch"),
+            new ThreadPoolExecutor.AbortPolicy(),
+            rulesDispatchThreadsMax,
+            rulesDispatchThreadsMax,
+            60,
+            new LinkedBlockingQueue<>()
+        );
+
         int scheduledTasksThreadsMax =
             getInteger(container.getConfig(), SCHEDULED_TASKS_THREADS_MAX, SCHEDULED_TASKS_THREADS_MAX_DEFAULT);
         scheduledTasksExecutor = new ContainerScheduledExecutor("Scheduled task", scheduledTasksThreadsMax);
@@ -68,6 +92,7 @@ public class ManagerExecutorService implements ProtocolExecutorService {
 
     @Override
     public void stop(Container container) throws Exception {
+        rulesDispatchExecutor.shutdownNow();
         rulesExecutor.shutdownNow();
         scheduledTasksExecutor.shutdown();
     }
@@ -76,6 +101,10 @@ public class ManagerExecutorService implements ProtocolExecutorService {
         return rulesExecutor;
     }
 
+    public ExecutorService getRulesDispatchExecutor() {
+        return rulesDispatchExecutor;
+    }
+
     @Override
     public ScheduledFuture schedule(Runnable runnable, long delayMillis) {
         return scheduledTasksExecutor.schedule(runnable, delayMillis, TimeUnit.MILLISECONDS);
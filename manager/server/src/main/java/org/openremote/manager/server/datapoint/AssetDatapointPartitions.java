@@ -0,0 +1,157 @@
+/*
+ * Copyright 2017, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.server.datapoint;
+
+import org.openremote.model.attribute.AttributeRef;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Instant;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.logging.Logger;
+
+/**
+ * Monthly partitions of the ASSET_DATAPOINT table.
+ * <p>
+ * A partition is a child table inheriting ASSET_DATAPOINT, with a check constraint on the UTC month of
+ * the datapoint timestamp, so queries of the parent table only scan partitions which can contain matching
+ * datapoints. Datapoints are inserted directly into their partition, datapoints for which no partition
+ * exists are stored in the parent table. Expired datapoints are removed by dropping a whole partition, the
+ * datapoints of attributes with a longer retention are moved to the parent table before.
+ */
+public class AssetDatapointPartitions {
+
+    private static final Logger LOG = Logger.getLogger(AssetDatapointPartitions.class.getName());
+
+    public static final String PARENT_TABLE_NAME = "ASSET_DATAPOINT";
+
+    protected static final DateTimeFormatter PARTITION_SUFFIX_FORMAT = DateTimeFormatter.ofPattern("yyyyMM");
+
+    final protected Set<YearMonth> partitions = new ConcurrentSkipListSet<>();
+
+    public static YearMonth getMonth(long timestamp) {
+        return YearMonth.from(Instant.ofEpochMilli(timestamp).atZone(ZoneOffset.UTC));
+    }
+
+    public static long getStartOfMonth(YearMonth month) {
+        return month.atDay(1).atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+    }
+
+    public static String getPartitionTableName(YearMonth month) {
+        return PARENT_TABLE_NAME + "_" + month.format(PARTITION_SUFFIX_FORMAT);
+    }
+
+    /**
+     * @return The partition table of the given datapoint timestamp, or the parent table if there is no partition.
+     */
+    public String getTableName(long timestamp) {
+        YearMonth month = getMonth(timestamp);
+        return partitions.contains(month) ? getPartitionTableName(month) : PARENT_TABLE_NAME;
+    }
+
+    public Set<YearMonth> getPartitions() {
+        return partitions;
+    }
+
+    /**
+     * Reads the existing partitions from the database catalog.
+     */
+    public void load(Connection connection) throws SQLException {
+        String query =
+            "select C.RELNAME from PG_INHERITS I" +
+                " join PG_CLASS C on C.OID = I.INHRELID" +
+                " join PG_CLASS P on P.OID = I.INHPARENT" +
+                " where P.RELNAME = ?";
+        try (PreparedStatement st = connection.prepareStatement(query)) {
+            st.setString(1, PARENT_TABLE_NAME.toLowerCase());
+            try (ResultSet rs = st.executeQuery()) {
+                partitions.clear();
+                while (rs.next()) {
+                    String suffix = rs.getString(1).substring(PARENT_TABLE_NAME.length() + 1);
+                    partitions.add(YearMonth.parse(suffix, PARTITION_SUFFIX_FORMAT));
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates the partition of the given month, if it doesn't exist.
+     */
+    public void create(Connection connection, YearMonth month) throws SQLException {
+        if (partitions.contains(month))
+            return;
+        String tableName = getPartitionTableName(month);
+        LOG.info("Creating datapoint partition: " + tableName);
+        try (Statement st = connection.createStatement()) {
+            st.execute(
+                "create table if not exists " + tableName + " (" +
+                    " check (TIMESTAMP >= " + getStartOfMonth(month) + " and TIMESTAMP < " + getStartOfMonth(month.plusMonths(1)) + ")," +
+                    " primary key (ENTITY_ID, ATTRIBUTE_NAME, TIMESTAMP, VALUE)," +
+                    " foreign key (ENTITY_ID) references ASSET (ID) on delete cascade" +
+                    ") inherits (" + PARENT_TABLE_NAME + ")"
+            );
+        }
+        partitions.add(month);
+    }
+
+    /**
+     * Drops all partitions which only contain datapoints older than the given timestamp. The datapoints of the
+     * given attributes are kept, they are moved to the parent table.
+     */
+    public void dropBefore(Connection connection, long timestamp, Collection<AttributeRef> keepAttributes) throws SQLException {
+        for (YearMonth month : partitions) {
+            if (getStartOfMonth(month.plusMonths(1)) > timestamp)
+                continue;
+            String tableName = getPartitionTableName(month);
+            if (!keepAttributes.isEmpty()) {
+                // Looked up with the primary key index of the partition
+                try (PreparedStatement st = connection.prepareStatement(
+                    "insert into " + PARENT_TABLE_NAME + " select D.* from " + tableName + " D" +
+                        " join unnest(?, ?) as K(ID, NAME) on K.ID = D.ENTITY_ID and K.NAME = D.ATTRIBUTE_NAME" +
+                        " on conflict do nothing")) {
+                    st.setArray(1, connection.createArrayOf("text", keepAttributes.stream().map(AttributeRef::getEntityId).toArray()));
+                    st.setArray(2, connection.createArrayOf("text", keepAttributes.stream().map(AttributeRef::getAttributeName).toArray()));
+                    LOG.fine("Moved datapoints of attributes with longer retention out of " + tableName + ": " + st.executeUpdate());
+                }
+            }
+            LOG.info("Dropping expired datapoint partition: " + tableName);
+            // Insert into the parent table from now on, a late datapoint of this month is removed with the next delete
+            partitions.remove(month);
+            try (Statement st = connection.createStatement()) {
+                st.execute("drop table if exists " + tableName);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{" +
+            "partitions=" + partitions +
+            '}';
+    }
+}
@@ -0,0 +1,265 @@
+/*
+ * Copyright 2017, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.server.datapoint;
+
+import org.hibernate.Session;
+import org.openremote.container.persistence.PersistenceService;
+import org.openremote.model.datapoint.AssetDatapoint;
+import org.postgresql.util.PGobject;
+
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+/**
+ * Bounded ingestion queue for datapoints, drained into the {@link AssetDatapointPartitions} with multi-row inserts.
+ * <p>
+ * When the queue is full, the datapoint is dropped, or producers block for a limited time before the datapoint
+ * is dropped, this slows down event processing instead of exhausting the database connection pool. Datapoints
+ * of assets which have been deleted in the meantime and duplicate datapoints are ignored when inserted. If a
+ * batch can't be inserted, its datapoints are inserted one by one and only the failing datapoints are dropped.
+ * Inserted datapoints are added to the rollups of all {@link AssetDatapointRollup.Resolution}s.
+ */
+public class AssetDatapointQueue {
+
+    private static final Logger LOG = Logger.getLogger(AssetDatapointQueue.class.getName());
+
+    final protected PersistenceService persistenceService;
+    final protected AssetDatapointPartitions partitions;
+    final protected BlockingQueue<AssetDatapoint> queue;
+    final protected int batchSize;
+    final protected long offerTimeoutMillis;
+    final protected ReentrantLock flushLock = new ReentrantLock();
+
+    final protected AtomicLong queuedCount = new AtomicLong();
+    final protected AtomicLong flushedCount = new AtomicLong();
+    final protected AtomicLong droppedCount = new AtomicLong();
+
+    public AssetDatapointQueue(PersistenceService persistenceService,
+                               AssetDatapointPartitions partitions,
+                               int capacity,
+                               int batchSize,
+                               long offerTimeoutMillis) {
+        this.persistenceService = persistenceService;
+        this.partitions = partitions;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.batchSize = batchSize;
+        this.offerTimeoutMillis = offerTimeoutMillis;
+    }
+
+    /**
+     * Blocks until there is space in the queue, or drops the datapoint after the offer timeout. Doesn't
+     * block if the offer timeout is <code>0</code>.
+     *
+     * @return <code>false</code> if the datapoint was dropped.
+     */
+    public boolean offer(AssetDatapoint datapoint) {
+        try {
+            boolean queued = offerTimeoutMillis > 0
+                ? queue.offer(datapoint, offerTimeoutMillis, TimeUnit.MILLISECONDS)
+                : queue.offer(datapoint);
+            if (queued) {
+                queuedCount.incrementAndGet();
+                return true;
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        droppedCount.incrementAndGet();
+        LOG.warning("Datapoint queue is full, dropped: " + datapoint);
+        return false;
+    }
+
+    /**
+     * @return <code>true</code> if there are enough queued datapoints for a complete batch.
+     */
+    public boolean isBatchAvailable() {
+        return queue.size() >= batchSize;
+    }
+
+    /**
+     * Synchronously inserts all queued datapoints, in batches.
+     */
+    public void flush() {
+        flush(false);
+    }
+
+    /**
+     * Synchronously inserts complete batches of queued datapoints, the remaining datapoints stay queued
+     * until the next {@link #flush()}.
+     */
+    public void flushBatches() {
+        flush(true);
+    }
+
+    protected void flush(boolean completeBatchesOnly) {
+        flushLock.lock();
+        try {
+            List<AssetDatapoint> batch = new ArrayList<>(batchSize);
+            while (!(completeBatchesOnly && !isBatchAvailable()) && queue.drainTo(batch, batchSize) > 0) {
+                insert(batch);
+                batch.clear();
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    public long getQueuedCount() {
+        return queuedCount.get();
+    }
+
+    public long getFlushedCount() {
+        return flushedCount.get();
+    }
+
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    public int getSize() {
+        return queue.size();
+    }
+
+    protected void insert(List<AssetDatapoint> batch) {
+        try {
+            int rollupRows = tryInsert(batch);
+            flushedCount.addAndGet(batch.size());
+            LOG.fine("Inserted datapoints: " + batch.size() + ", updated daily rollups: " + rollupRows);
+        } catch (Exception ex) {
+            if (batch.size() == 1) {
+                droppedCount.incrementAndGet();
+                LOG.log(Level.WARNING, "Inserting datapoint failed, dropped: " + batch.get(0), ex);
+                return;
+            }
+            // Isolate the datapoints which can't be inserted
+            LOG.log(Level.WARNING, "Inserting datapoints failed, inserting one by one: " + batch.size(), ex);
+            for (AssetDatapoint datapoint : batch) {
+                insert(Collections.singletonList(datapoint));
+            }
+        }
+    }
+
+    protected int tryInsert(List<AssetDatapoint> batch) {
+        // Insert directly into the partition tables, usually all datapoints of a batch are in the same partition
+        Map<String, List<AssetDatapoint>> tableBatches = batch.stream().collect(
+            Collectors.groupingBy(datapoint -> partitions.getTableName(datapoint.getTimestamp()), LinkedHashMap::new, Collectors.toList())
+        );
+        return persistenceService.doReturningTransaction(entityManager ->
+            entityManager.unwrap(Session.class).doReturningWork(connection -> {
+                int updatedRows = 0;
+                for (Map.Entry<String, List<AssetDatapoint>> tableBatch : tableBatches.entrySet()) {
+                    String insert = buildInsert(tableBatch.getKey(), tableBatch.getValue().size());
+                    try (PreparedStatement statement = connection.prepareStatement(insert)) {
+                        int i = 0;
+                        for (AssetDatapoint datapoint : tableBatch.getValue()) {
+                            statement.setString(++i, datapoint.getEntityId());
+                            statement.setString(++i, datapoint.getAttributeName());
+                            statement.setLong(++i, datapoint.getTimestamp());
+                            PGobject pgJsonValue = new PGobject();
+                            pgJsonValue.setType("jsonb");
+                            // Careful, the column is not nullable, store a JSON null
+                            pgJsonValue.setValue(datapoint.getValue() == null ? "null" : datapoint.getValue().toJson());
+                            statement.setObject(++i, pgJsonValue);
+                        }
+                        updatedRows += statement.executeUpdate();
+                    }
+                }
+                return updatedRows;
+            })
+        );
+    }
+
+    /**
+     * Inserts the datapoints into the given table and, in the same statement, adds the inserted datapoints to the
+     * {@link AssetDatapointRollup} buckets of each resolution.
+     */
+    protected String buildInsert(String tableName, int rows) {
+        StringBuilder sb = new StringBuilder("with V (ENTITY_ID, ATTRIBUTE_NAME, TIMESTAMP, VALUE) as (values ");
+        for (int i = 0; i < rows; i++) {
+            if (i > 0)
+                sb.append(",");
+            sb.append("(?, ?, ?, ?)");
+        }
+        sb.append("), DP as (" +
+            " insert into " + tableName + " (ENTITY_ID, ATTRIBUTE_NAME, TIMESTAMP, VALUE)" +
+            " select V.ENTITY_ID, V.ATTRIBUTE_NAME, V.TIMESTAMP, V.VALUE from V" +
+            " where exists (select A.ID from ASSET A where A.ID = V.ENTITY_ID)" +
+            " on conflict do nothing" +
+            " returning ENTITY_ID, ATTRIBUTE_NAME, TIMESTAMP, VALUE" +
+            "), N as (" +
+            " select ENTITY_ID, ATTRIBUTE_NAME, TIMESTAMP, case jsonb_typeof(VALUE)" +
+            "  when 'number' then VALUE::text::double precision" +
+            "  when 'boolean' then case when VALUE::text::boolean then 1 else 0 end" +
+            " end as NUMBER_VALUE from DP" +
+            ")");
+        AssetDatapointRollup.Resolution[] resolutions = AssetDatapointRollup.Resolution.values();
+        for (int i = 0; i < resolutions.length; i++) {
+            // The last upsert is the primary statement, all others are executed as part of the WITH clause
+            if (i < resolutions.length - 1) {
+                sb.append(", ROLLUP_").append(resolutions[i].name()).append(" as (");
+                appendRollupUpsert(sb, resolutions[i]);
+                sb.append(")");
+            } else {
+                sb.append(" ");
+                appendRollupUpsert(sb, resolutions[i]);
+            }
+        }
+        return sb.toString();
+    }
+
+    protected void appendRollupUpsert(StringBuilder sb, AssetDatapointRollup.Resolution resolution) {
+        sb.append("insert into ").append(resolution.getTableName()).append(" as R" +
+            " (ENTITY_ID, ATTRIBUTE_NAME, BUCKET, VALUE_COUNT, VALUE_SUM, VALUE_MIN, VALUE_MAX, LAST_VALUE, LAST_TIMESTAMP)" +
+            " select ENTITY_ID, ATTRIBUTE_NAME, BUCKET, count(*), sum(NUMBER_VALUE), min(NUMBER_VALUE), max(NUMBER_VALUE)," +
+            "  (array_agg(NUMBER_VALUE order by TIMESTAMP desc))[1], max(TIMESTAMP)" +
+            " from (select N.*, ").append(resolution.getBucketExpression("to_timestamp(TIMESTAMP / 1000)")).append(" as BUCKET" +
+            " from N where NUMBER_VALUE is not null) B" +
+            " group by ENTITY_ID, ATTRIBUTE_NAME, BUCKET" +
+            " on conflict (ENTITY_ID, ATTRIBUTE_NAME, BUCKET) do update set" +
+            "  VALUE_COUNT = R.VALUE_COUNT + excluded.VALUE_COUNT," +
+            "  VALUE_SUM = R.VALUE_SUM + excluded.VALUE_SUM," +
+            "  VALUE_MIN = least(R.VALUE_MIN, excluded.VALUE_MIN)," +
+            "  VALUE_MAX = greatest(R.VALUE_MAX, excluded.VALUE_MAX)," +
+            "  LAST_VALUE = case when excluded.LAST_TIMESTAMP >= R.LAST_TIMESTAMP then excluded.LAST_VALUE else R.LAST_VALUE end," +
+            "  LAST_TIMESTAMP = greatest(R.LAST_TIMESTAMP, excluded.LAST_TIMESTAMP)");
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{" +
+            "size=" + getSize() +
+            ", queued=" + getQueuedCount() +
+            ", flushed=" + getFlushedCount() +
+            ", dropped=" + getDroppedCount() +
+            '}';
+    }
+}
@@ -28,8 +28,10 @@ import org.openremote.manager.shared.datapoint.AssetDatapointResource;
 import org.openremote.manager.shared.http.RequestParams;
 import org.openremote.model.asset.AssetAttribute;
 import org.openremote.model.datapoint.Datapoint;
+import org.openremote.model.datapoint.DatapointDownsampling;
 import org.openremote.model.datapoint.DatapointInterval;
 import org.openremote.model.datapoint.NumberDatapoint;
+import org.openremote.model.datapoint.TimestampedNumberDatapoint;
 
 import javax.ws.rs.BeanParam;
 import javax.ws.rs.WebApplicationException;
@@ -59,30 +61,7 @@ public class AssetDatapointResourceImpl extends ManagerWebResource implements As
                                                  DatapointInterval interval,
                                                  long timestamp) {
         try {
-
-            if (isRestrictedUser() && !assetStorageService.isUserAsset(getUserId(), assetId)) {
-                throw new WebApplicationException(Response.Status.FORBIDDEN);
-            }
-
-            ServerAsset asset = assetStorageService.find(assetId, true);
-
-            if (asset == null) {
-                throw new WebApplicationException(Response.Status.NOT_FOUND);
-            }
-
-            if (!isTenantActiveAndAccessible(asset)) {
-                LOG.fine("Forbidden access for user '" + getUsername() + "': " + asset);
-                throw new WebApplicationException(Response.Status.FORBIDDEN);
-            }
-
-            AssetAttribute attribute = asset.getAttribute(attributeName).orElseThrow(() ->
-                new WebApplicationException(Response.Status.NOT_FOUND)
-            );
-
-            if (!Datapoint.isDatapointsCapable(attribute) || !attribute.isStoreDatapoints()) {
-                throw new WebApplicationException(Response.Status.BAD_REQUEST);
-            }
-
+            AssetAttribute attribute = getDatapointsAttribute(assetId, attributeName);
             return assetDatapointService.aggregateDatapoints(
                 attribute,
                 interval,
@@ -93,4 +72,52 @@ public class AssetDatapointResourceImpl extends ManagerWebResource implements As
         }
     }
 
+    @Override
+    public TimestampedNumberDatapoint[] getNumberDatapointRange(@BeanParam RequestParams requestParams,
+                                                                String assetId,
+                                                                String attributeName,
+                                                                long fromTimestamp,
+                                                                long toTimestamp,
+                                                                int maxPoints,
+                                                                DatapointDownsampling downsampling) {
+        try {
+            AssetAttribute attribute = getDatapointsAttribute(assetId, attributeName);
+            return assetDatapointService.getNumberDatapoints(
+                attribute,
+                fromTimestamp,
+                toTimestamp,
+                maxPoints,
+                downsampling
+            );
+        } catch (IllegalStateException | IllegalArgumentException ex) {
+            throw new WebApplicationException(ex, Response.Status.BAD_REQUEST);
+        }
+    }
+
+    protected AssetAttribute getDatapointsAttribute(String assetId, String attributeName) {
+        if (isRestrictedUser() && !assetStorageService.isUserAsset(getUserId(), assetId)) {
+            throw new WebApplicationException(Response.Status.FORBIDDEN);
+        }
+
+        ServerAsset asset = assetStorageService.find(assetId, true);
+
+        if (asset == null) {
+            throw new WebApplicationException(Response.Status.NOT_FOUND);
+        }
+
+        if (!isTenantActiveAndAccessible(asset)) {
+            LOG.fine("Forbidden access for user '" + getUsername() + "': " + asset);
+            throw new WebApplicationException(Response.Status.FORBIDDEN);
+        }
+
+        AssetAttribute attribute = asset.getAttribute(attributeName).orElseThrow(() ->
+            new WebApplicationException(Response.Status.NOT_FOUND)
+        );
+
+        if (!Datapoint.isDatapointsCapable(attribute) || !attribute.isStoreDatapoints()) {
+            throw new WebApplicationException(Response.Status.BAD_REQUEST);
+        }
+        return attribute;
+    }
+
 }
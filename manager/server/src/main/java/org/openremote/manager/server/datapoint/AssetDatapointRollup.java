@@ -0,0 +1,179 @@
+/*
+ * Copyright 2017, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.server.datapoint;
+
+import javax.persistence.Column;
+import javax.persistence.Id;
+import javax.persistence.MappedSuperclass;
+import java.io.Serializable;
+
+/**
+ * Pre-aggregated datapoints of an attribute for a time bucket, maintained when datapoints are stored.
+ * <p>
+ * A bucket is identified by its start time. Minute and hour buckets are truncated in UTC, day buckets in the time
+ * zone of the database session (the time zone of the JVM), so charts of days, weeks, months and years are split
+ * at local midnight. Hour buckets are only nested in local days if the offset of the time zone is a whole number
+ * of hours. Boolean values are aggregated as 1 and 0.
+ */
+@MappedSuperclass
+public abstract class AssetDatapointRollup implements Serializable {
+
+    public enum Resolution {
+
+        MINUTE("ASSET_DATAPOINT_MINUTE", "minute", true),
+        HOUR("ASSET_DATAPOINT_HOUR", "hour", true),
+        DAY("ASSET_DATAPOINT_DAY", "day", false);
+
+        final protected String tableName;
+        final protected String truncateField;
+        final protected boolean truncateUtc;
+
+        Resolution(String tableName, String truncateField, boolean truncateUtc) {
+            this.tableName = tableName;
+            this.truncateField = truncateField;
+            this.truncateUtc = truncateUtc;
+        }
+
+        public String getTableName() {
+            return tableName;
+        }
+
+        /**
+         * @return The <code>date_trunc()</code> field name of this resolution.
+         */
+        public String getTruncateField() {
+            return truncateField;
+        }
+
+        /**
+         * @param timestamp A <code>timestamptz</code> SQL expression.
+         * @return The SQL expression of the bucket start time in epoch milliseconds.
+         */
+        public String getBucketExpression(String timestamp) {
+            return "(extract(epoch from date_trunc('" + truncateField + "', "
+                + (truncateUtc ? timestamp + " at time zone 'UTC'" : timestamp)
+                + ")) * 1000)::bigint";
+        }
+    }
+
+    @Id
+    @Column(name = "ENTITY_ID", length = 36, nullable = false)
+    protected String entityId;
+
+    @Id
+    @Column(name = "ATTRIBUTE_NAME", nullable = false)
+    protected String attributeName;
+
+    @Id
+    @Column(name = "BUCKET", nullable = false)
+    protected long bucket;
+
+    @Column(name = "VALUE_COUNT", nullable = false)
+    protected long valueCount;
+
+    @Column(name = "VALUE_SUM", nullable = false)
+    protected double valueSum;
+
+    @Column(name = "VALUE_MIN", nullable = false)
+    protected double valueMin;
+
+    @Column(name = "VALUE_MAX", nullable = false)
+    protected double valueMax;
+
+    @Column(name = "LAST_VALUE", nullable = false)
+    protected double lastValue;
+
+    @Column(name = "LAST_TIMESTAMP", nullable = false)
+    protected long lastTimestamp;
+
+    protected AssetDatapointRollup() {
+    }
+
+    public String getEntityId() {
+        return entityId;
+    }
+
+    public String getAttributeName() {
+        return attributeName;
+    }
+
+    public long getBucket() {
+        return bucket;
+    }
+
+    public long getValueCount() {
+        return valueCount;
+    }
+
+    public double getValueSum() {
+        return valueSum;
+    }
+
+    public double getValueMin() {
+        return valueMin;
+    }
+
+    public double getValueMax() {
+        return valueMax;
+    }
+
+    public double getLastValue() {
+        return lastValue;
+    }
+
+    public long getLastTimestamp() {
+        return lastTimestamp;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        AssetDatapointRollup that = (AssetDatapointRollup) o;
+
+        return bucket == that.bucket
+            && entityId.equals(that.entityId)
+            && attributeName.equals(that.attributeName);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = entityId.hashCode();
+        result = 31 * result + attributeName.hashCode();
+        result = 31 * result + (int) (bucket ^ (bucket >>> 32));
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{" +
+            "entityId='" + entityId + '\'' +
+            ", attributeName='" + attributeName + '\'' +
+            ", bucket=" + bucket +
+            ", valueCount=" + valueCount +
+            ", valueSum=" + valueSum +
+            ", valueMin=" + valueMin +
+            ", valueMax=" + valueMax +
+            ", lastValue=" + lastValue +
+            ", lastTimestamp=" + lastTimestamp +
+            '}';
+    }
+}
@@ -8,24 +8,38 @@ import org.openremote.container.persistence.PersistenceService;
 import org.openremote.container.timer.TimerService;
 import org.openremote.container.web.WebService;
 import org.openremote.manager.server.asset.AssetStorageService;
+import org.openremote.manager.server.concurrent.ManagerExecutorService;
 import org.openremote.manager.server.security.ManagerIdentityService;
 import org.openremote.model.asset.AssetAttribute;
+import org.openremote.model.asset.AssetMeta;
 import org.openremote.model.asset.AssetState;
 import org.openremote.model.attribute.AttributeRef;
 import org.openremote.model.datapoint.AssetDatapoint;
 import org.openremote.model.datapoint.Datapoint;
+import org.openremote.model.datapoint.DatapointDownsampling;
 import org.openremote.model.datapoint.DatapointInterval;
 import org.openremote.model.datapoint.NumberDatapoint;
+import org.openremote.model.datapoint.TimestampedNumberDatapoint;
 import org.postgresql.util.PGInterval;
 
 import java.sql.*;
 import java.text.SimpleDateFormat;
+import java.time.YearMonth;
 import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import static java.util.concurrent.TimeUnit.DAYS;
+import static org.openremote.container.util.MapAccess.getInteger;
+
 /**
  * Store and retrieve datapoints for asset attributes.
  */
@@ -33,11 +47,132 @@ public class AssetDatapointService implements ContainerService, Consumer<AssetSt
 
     private static final Logger LOG = Logger.getLogger(AssetDatapointService.class.getName());
 
+    /**
+     * Maximum number of datapoints waiting to be stored, when the queue is full the datapoint is dropped.
+     */
+    public static final String DATAPOINT_QUEUE_CAPACITY = "DATAPOINT_QUEUE_CAPACITY";
+    public static final int DATAPOINT_QUEUE_CAPACITY_DEFAULT = 100000;
+
+    /**
+     * When the queue is full, event processing blocks for this time before the datapoint is dropped. If
+     * <code>0</code>, the datapoint is dropped immediately and event processing never waits for the database.
+     */
+    public static final String DATAPOINT_QUEUE_OFFER_TIMEOUT_MILLIS = "DATAPOINT_QUEUE_OFFER_TIMEOUT_MILLIS";
+    public static final int DATAPOINT_QUEUE_OFFER_TIMEOUT_MILLIS_DEFAULT = 0;
+
+    /**
+     * Maximum number of datapoints stored with a single insert statement.
+     */
+    public static final String DATAPOINT_BATCH_SIZE = "DATAPOINT_BATCH_SIZE";
+    public static final int DATAPOINT_BATCH_SIZE_DEFAULT = 500;
+
+    /**
+     * Queued datapoints are stored at this interval, or earlier if a batch is complete. If <code>0</code>, only
+     * complete batches are stored until the queue is flushed, see {@link #flushDatapoints()}.
+     */
+    public static final String DATAPOINT_FLUSH_INTERVAL_MILLIS = "DATAPOINT_FLUSH_INTERVAL_MILLIS";
+    public static final int DATAPOINT_FLUSH_INTERVAL_MILLIS_DEFAULT = 1000;
+
+    /**
+     * Number of days datapoints are kept, unless an attribute has {@link AssetMeta#DATA_POINTS_MAX_AGE_DAYS}. If
+     * <code>0</code>, datapoints without attribute retention are kept forever. Applied at partition granularity,
+     * datapoints are removed when their monthly partition only contains expired datapoints.
+     */
+    public static final String DATAPOINT_MAX_AGE_DAYS = "DATAPOINT_MAX_AGE_DAYS";
+    public static final int DATAPOINT_MAX_AGE_DAYS_DEFAULT = 31;
+
+    /**
+     * Number of days the rollups of each {@link AssetDatapointRollup.Resolution} are kept. If <code>0</code>,
+     * rollups are kept forever.
+     */
+    public static final String DATAPOINT_MINUTE_ROLLUP_MAX_AGE_DAYS = "DATAPOINT_MINUTE_ROLLUP_MAX_AGE_DAYS";
+    public static final int DATAPOINT_MINUTE_ROLLUP_MAX_AGE_DAYS_DEFAULT = 31;
+    public static final String DATAPOINT_HOUR_ROLLUP_MAX_AGE_DAYS = "DATAPOINT_HOUR_ROLLUP_MAX_AGE_DAYS";
+    public static final int DATAPOINT_HOUR_ROLLUP_MAX_AGE_DAYS_DEFAULT = 366;
+    public static final String DATAPOINT_DAY_ROLLUP_MAX_AGE_DAYS = "DATAPOINT_DAY_ROLLUP_MAX_AGE_DAYS";
+    public static final int DATAPOINT_DAY_ROLLUP_MAX_AGE_DAYS_DEFAULT = 3650;
+
+    /**
+     * Number of monthly datapoint partitions created ahead of the current month.
+     */
+    public static final int DATAPOINT_PARTITIONS_AHEAD = 2;
+
+    /**
+     * Partitions are created and expired datapoints removed at this interval.
+     */
+    public static final int DATAPOINT_MAINTENANCE_INTERVAL_MILLIS = 60 * 60 * 1000;
+
+    /**
+     * Maximum number of datapoints returned by a range query, also the default if a query doesn't limit points.
+     */
+    public static final String DATAPOINT_QUERY_MAX_POINTS = "DATAPOINT_QUERY_MAX_POINTS";
+    public static final int DATAPOINT_QUERY_MAX_POINTS_DEFAULT = 10000;
+
+    /**
+     * Number of rows fetched from the database cursor at once when a datapoint range is read.
+     */
+    public static final int DATAPOINT_QUERY_FETCH_SIZE = 1000;
+
+    /**
+     * Restricts a query to the numeric datapoints of an attribute in a time range, the range is inclusive.
+     */
+    protected static final String NUMBER_DATAPOINT_RANGE_CONDITION =
+        " from ASSET_DATAPOINT" +
+            " where ENTITY_ID = ? and ATTRIBUTE_NAME = ? and TIMESTAMP >= ? and TIMESTAMP <= ?" +
+            " and jsonb_typeof(VALUE) in ('number', 'boolean')";
+
+    /**
+     * Selects the attributes with their own retention, as <code>ID, ATTRIBUTE_NAME, MAX_AGE_DAYS</code>.
+     */
+    protected static final String ATTRIBUTE_MAX_AGE_DAYS_QUERY =
+        "select A.ID, AX.KEY as ATTRIBUTE_NAME, (AM.VALUE ->> 'value')::numeric::integer as MAX_AGE_DAYS" +
+            " from ASSET A, jsonb_each(A.ATTRIBUTES) as AX, jsonb_array_elements(AX.VALUE #> '{meta}') as AM" +
+            " where AM.VALUE ->> 'name' = '" + AssetMeta.DATA_POINTS_MAX_AGE_DAYS.getUrn() + "'" +
+            " and jsonb_typeof(AM.VALUE -> 'value') = 'number'";
+
+    protected TimerService timerService;
     protected PersistenceService persistenceService;
+    protected ManagerExecutorService executorService;
+    protected AssetDatapointPartitions partitions;
+    protected AssetDatapointQueue datapointQueue;
+    protected int flushIntervalMillis;
+    protected int maxAgeDays;
+    final protected Map<AssetDatapointRollup.Resolution, Integer> rollupMaxAgeDays = new EnumMap<>(AssetDatapointRollup.Resolution.class);
+    protected int queryMaxPoints;
+    protected ScheduledFuture<?> datapointQueueFlush;
+    protected ScheduledFuture<?> datapointMaintenance;
+    final protected AtomicBoolean batchFlushScheduled = new AtomicBoolean();
 
     @Override
     public void init(Container container) throws Exception {
+        timerService = container.getService(TimerService.class);
         persistenceService = container.getService(PersistenceService.class);
+        executorService = container.getService(ManagerExecutorService.class);
+
+        partitions = new AssetDatapointPartitions();
+        datapointQueue = new AssetDatapointQueue(
+            persistenceService,
+            partitions,
+            getInteger(container.getConfig(), DATAPOINT_QUEUE_CAPACITY, DATAPOINT_QUEUE_CAPACITY_DEFAULT),
+            getInteger(container.getConfig(), DATAPOINT_BATCH_SIZE, DATAPOINT_BATCH_SIZE_DEFAULT),
+            getInteger(container.getConfig(), DATAPOINT_QUEUE_OFFER_TIMEOUT_MILLIS, DATAPOINT_QUEUE_OFFER_TIMEOUT_MILLIS_DEFAULT)
+        );
+        flushIntervalMillis =
+            getInteger(container.getConfig(), DATAPOINT_FLUSH_INTERVAL_MILLIS, DATAPOINT_FLUSH_INTERVAL_MILLIS_DEFAULT);
+        maxAgeDays = getInteger(container.getConfig(), DATAPOINT_MAX_AGE_DAYS, DATAPOINT_MAX_AGE_DAYS_DEFAULT);
+        rollupMaxAgeDays.put(
+            AssetDatapointRollup.Resolution.MINUTE,
+            getInteger(container.getConfig(), DATAPOINT_MINUTE_ROLLUP_MAX_AGE_DAYS, DATAPOINT_MINUTE_ROLLUP_MAX_AGE_DAYS_DEFAULT)
+        );
+        rollupMaxAgeDays.put(
+            AssetDatapointRollup.Resolution.HOUR,
+            getInteger(container.getConfig(), DATAPOINT_HOUR_ROLLUP_MAX_AGE_DAYS, DATAPOINT_HOUR_ROLLUP_MAX_AGE_DAYS_DEFAULT)
+        );
+        rollupMaxAgeDays.put(
+            AssetDatapointRollup.Resolution.DAY,
+            getInteger(container.getConfig(), DATAPOINT_DAY_ROLLUP_MAX_AGE_DAYS, DATAPOINT_DAY_ROLLUP_MAX_AGE_DAYS_DEFAULT)
+        );
+        queryMaxPoints = getInteger(container.getConfig(), DATAPOINT_QUERY_MAX_POINTS, DATAPOINT_QUERY_MAX_POINTS_DEFAULT);
 
         container.getService(WebService.class).getApiSingletons().add(
             new AssetDatapointResourceImpl(
@@ -52,10 +187,32 @@ public class AssetDatapointService implements ContainerService, Consumer<AssetSt
 
     @Override
     public void start(Container container) throws Exception {
+        persistenceService.doTransaction(em -> em.unwrap(Session.class).doWork(partitions::load));
+        LOG.info("Using existing datapoint partitions: " + partitions.getPartitions());
+
+        if (flushIntervalMillis > 0) {
+            datapointQueueFlush = executorService.scheduleWithFixedDelay(
+                datapointQueue::flush, flushIntervalMillis, flushIntervalMillis
+            );
+        }
+        datapointMaintenance = executorService.scheduleWithFixedDelay(
+            this::maintainDatapoints, 0, DATAPOINT_MAINTENANCE_INTERVAL_MILLIS
+        );
     }
 
     @Override
     public void stop(Container container) throws Exception {
+        if (datapointMaintenance != null) {
+            datapointMaintenance.cancel(false);
+            datapointMaintenance = null;
+        }
+        if (datapointQueueFlush != null) {
+            datapointQueueFlush.cancel(false);
+            datapointQueueFlush = null;
+        }
+        // Drain the queue before the database is gone
+        datapointQueue.flush();
+        LOG.info("Datapoint queue statistics: " + datapointQueue);
     }
 
     @Override
@@ -65,10 +222,121 @@ public class AssetDatapointService implements ContainerService, Consumer<AssetSt
             && assetState.getAttribute().getStateEvent().isPresent()) {
             LOG.finest("Storing datapoint for: " + assetState);
             AssetDatapoint assetDatapoint = new AssetDatapoint(assetState.getAttribute().getStateEvent().get());
-            persistenceService.doTransaction(entityManager -> entityManager.persist(assetDatapoint));
+            if (datapointQueue.offer(assetDatapoint) && datapointQueue.isBatchAvailable()) {
+                // Don't wait for the flush interval if we have a complete batch
+                if (batchFlushScheduled.compareAndSet(false, true)) {
+                    executorService.schedule(() -> {
+                        batchFlushScheduled.set(false);
+                        datapointQueue.flushBatches();
+                    }, 0);
+                }
+            }
+        }
+    }
+
+    /**
+     * Synchronously stores all queued datapoints.
+     */
+    public void flushDatapoints() {
+        datapointQueue.flush();
+    }
+
+    public AssetDatapointQueue getDatapointQueue() {
+        return datapointQueue;
+    }
+
+    /**
+     * Creates the partitions of the current and the next months and removes expired datapoints and rollups. Whole
+     * partitions are dropped when they are older than the global retention, datapoints of attributes with their
+     * own retention are deleted with the primary key index.
+     */
+    protected void maintainDatapoints() {
+        try {
+            long now = timerService.getCurrentTimeMillis();
+            YearMonth currentMonth = AssetDatapointPartitions.getMonth(now);
+
+            Map<AttributeRef, Integer> attributeMaxAgeDays = persistenceService.doReturningTransaction(em ->
+                em.unwrap(Session.class).doReturningWork(connection -> {
+                    for (int i = 0; i <= DATAPOINT_PARTITIONS_AHEAD; i++) {
+                        partitions.create(connection, currentMonth.plusMonths(i));
+                    }
+                    return getAttributeMaxAgeDays(connection);
+                })
+            );
+
+            persistenceService.doTransaction(em -> em.unwrap(Session.class).doWork(connection -> {
+                try (PreparedStatement st = connection.prepareStatement(
+                    "delete from ASSET_DATAPOINT where ENTITY_ID = ? and ATTRIBUTE_NAME = ? and TIMESTAMP < ?")) {
+                    for (Map.Entry<AttributeRef, Integer> entry : attributeMaxAgeDays.entrySet()) {
+                        st.setString(1, entry.getKey().getEntityId());
+                        st.setString(2, entry.getKey().getAttributeName());
+                        st.setLong(3, now - DAYS.toMillis(entry.getValue()));
+                        st.addBatch();
+                    }
+                    st.executeBatch();
+                }
+
+                // If datapoints are kept forever, we can't drop partitions
+                if (maxAgeDays > 0) {
+                    long expiredBefore = now - DAYS.toMillis(maxAgeDays);
+
+                    // Attributes with a longer retention still have datapoints in expired partitions
+                    List<AttributeRef> keepAttributes = new ArrayList<>();
+                    attributeMaxAgeDays.forEach((attributeRef, attributeMaxAge) -> {
+                        if (attributeMaxAge > maxAgeDays)
+                            keepAttributes.add(attributeRef);
+                    });
+                    partitions.dropBefore(connection, expiredBefore, keepAttributes);
+
+                    // Only datapoints without partition and those moved out of dropped partitions are in the parent table
+                    try (PreparedStatement st = connection.prepareStatement(
+                        "delete from only ASSET_DATAPOINT D where D.TIMESTAMP < ? and not exists (" +
+                            " select K.ID from unnest(?, ?) as K(ID, NAME)" +
+                            " where K.ID = D.ENTITY_ID and K.NAME = D.ATTRIBUTE_NAME" +
+                            ")")) {
+                        st.setLong(1, expiredBefore);
+                        st.setArray(2, connection.createArrayOf("text", keepAttributes.stream().map(AttributeRef::getEntityId).toArray()));
+                        st.setArray(3, connection.createArrayOf("text", keepAttributes.stream().map(AttributeRef::getAttributeName).toArray()));
+                        LOG.fine("Deleted expired datapoints without partition: " + st.executeUpdate());
+                    }
+                }
+
+                for (Map.Entry<AssetDatapointRollup.Resolution, Integer> entry : rollupMaxAgeDays.entrySet()) {
+                    if (entry.getValue() <= 0)
+                        continue;
+                    // Uses the bucket index, each run only deletes the buckets expired since the last run
+                    try (PreparedStatement st = connection.prepareStatement(
+                        "delete from " + entry.getKey().getTableName() + " where BUCKET < ?")) {
+                        st.setLong(1, now - DAYS.toMillis(entry.getValue()));
+                        LOG.fine("Deleted expired rollups of " + entry.getKey() + ": " + st.executeUpdate());
+                    }
+                }
+            }));
+        } catch (Exception ex) {
+            LOG.log(Level.WARNING, "Datapoint maintenance failed", ex);
+        } finally {
+            // Whatever happened, use the partitions that really exist
+            try {
+                persistenceService.doTransaction(em -> em.unwrap(Session.class).doWork(partitions::load));
+            } catch (Exception ex) {
+                LOG.log(Level.WARNING, "Loading datapoint partitions failed", ex);
+            }
         }
     }
 
+    protected Map<AttributeRef, Integer> getAttributeMaxAgeDays(Connection connection) throws SQLException {
+        Map<AttributeRef, Integer> result = new HashMap<>();
+        try (PreparedStatement st = connection.prepareStatement(ATTRIBUTE_MAX_AGE_DAYS_QUERY);
+             ResultSet rs = st.executeQuery()) {
+            while (rs.next()) {
+                if (rs.getInt(3) > 0) {
+                    result.put(new AttributeRef(rs.getString(1), rs.getString(2)), rs.getInt(3));
+                }
+            }
+        }
+        return result;
+    }
+
     public List<AssetDatapoint> getDatapoints(AttributeRef attributeRef) {
         return persistenceService.doReturningTransaction(entityManager -> entityManager.createQuery(
             "select dp from AssetDatapoint dp " +
@@ -81,6 +349,97 @@ public class AssetDatapointService implements ContainerService, Consumer<AssetSt
             .getResultList());
     }
 
+    /**
+     * Reads the numeric datapoints of an attribute in a time range, in order of their timestamps. If there are
+     * more datapoints than <code>maxPoints</code>, they are downsampled while they are read from the database
+     * cursor, or with {@link DatapointDownsampling#NONE} only the first datapoints are returned. The number of
+     * points is limited to {@link #DATAPOINT_QUERY_MAX_POINTS}.
+     */
+    public TimestampedNumberDatapoint[] getNumberDatapoints(AssetAttribute attribute,
+                                                            long fromTimestamp,
+                                                            long toTimestamp,
+                                                            int maxPoints,
+                                                            DatapointDownsampling downsampling) {
+        LOG.fine("Reading datapoints for: " + attribute);
+
+        AttributeRef attributeRef = attribute.getReferenceOrThrow();
+
+        switch (attribute.getTypeOrThrow().getValueType()) {
+            case NUMBER:
+            case BOOLEAN:
+                break;
+            default:
+                throw new IllegalArgumentException("Can't read number datapoints for type of: " + attribute);
+        }
+
+        if (fromTimestamp > toTimestamp) {
+            throw new IllegalArgumentException("Invalid datapoint range: " + fromTimestamp + " - " + toTimestamp);
+        }
+
+        int limit = maxPoints > 0 ? Math.min(maxPoints, queryMaxPoints) : queryMaxPoints;
+        DatapointDownsampling method = downsampling != null ? downsampling : DatapointDownsampling.LTTB;
+
+        return persistenceService.doReturningTransaction(entityManager ->
+            entityManager.unwrap(Session.class).doReturningWork(connection -> {
+
+                long count = Long.MAX_VALUE;
+                if (method != DatapointDownsampling.NONE) {
+                    try (PreparedStatement st = connection.prepareStatement("select count(*)" + NUMBER_DATAPOINT_RANGE_CONDITION)) {
+                        setRangeParameters(st, attributeRef, fromTimestamp, toTimestamp);
+                        try (ResultSet rs = st.executeQuery()) {
+                            rs.next();
+                            count = rs.getLong(1);
+                        }
+                    }
+                    if (count == 0)
+                        return new TimestampedNumberDatapoint[0];
+                }
+
+                DatapointDownsampler downsampler =
+                    DatapointDownsampler.create(method, count, fromTimestamp, toTimestamp, limit);
+
+                // Rows inserted after counting are not read, LTTB buckets are based on the count
+                try (PreparedStatement st = connection.prepareStatement(
+                    "select TIMESTAMP, case jsonb_typeof(VALUE)" +
+                        "  when 'number' then VALUE::text::double precision" +
+                        "  when 'boolean' then case when VALUE::text::boolean then 1 else 0 end" +
+                        " end as NUMBER_VALUE" +
+                        NUMBER_DATAPOINT_RANGE_CONDITION +
+                        " order by TIMESTAMP asc" +
+                        " limit ?")) {
+                    setRangeParameters(st, attributeRef, fromTimestamp, toTimestamp);
+                    st.setLong(5, method == DatapointDownsampling.NONE ? limit : count);
+                    // The PostgreSQL driver only uses a cursor with a fetch size when auto-commit is disabled,
+                    // which it is in our transaction, otherwise all rows would be loaded into memory
+                    st.setFetchSize(DATAPOINT_QUERY_FETCH_SIZE);
+                    try (ResultSet rs = st.executeQuery()) {
+                        while (rs.next()) {
+                            if (!downsampler.accept(rs.getLong(1), rs.getDouble(2)))
+                                break;
+                        }
+                    }
+                }
+
+                List<TimestampedNumberDatapoint> result = downsampler.getResult();
+                return result.toArray(new TimestampedNumberDatapoint[result.size()]);
+            })
+        );
+    }
+
+    protected void setRangeParameters(PreparedStatement st,
+                                      AttributeRef attributeRef,
+                                      long fromTimestamp,
+                                      long toTimestamp) throws SQLException {
+        st.setString(1, attributeRef.getEntityId());
+        st.setString(2, attributeRef.getAttributeName());
+        st.setLong(3, fromTimestamp);
+        st.setLong(4, toTimestamp);
+    }
+
+    /**
+     * Averages of the datapoints in steps of the interval ending at the timestamp, labelled with local times of
+     * the JVM. Steps of days and longer start at local midnight, see {@link AssetDatapointRollup}.
+     */
     public NumberDatapoint[] aggregateDatapoints(AssetAttribute attribute,
                                                  DatapointInterval datapointInterval,
                                                  long timestamp) {
@@ -94,6 +453,7 @@ public class AssetDatapointService implements ContainerService, Consumer<AssetSt
                 public NumberDatapoint[] execute(Connection connection) throws SQLException {
 
                     String truncateX;
+                    AssetDatapointRollup.Resolution resolution;
                     String step;
                     String interval;
                     Function<Timestamp, String> labelFunction;
@@ -102,30 +462,35 @@ public class AssetDatapointService implements ContainerService, Consumer<AssetSt
                     SimpleDateFormat timeFormat = new SimpleDateFormat("HH:mm");
                     switch (datapointInterval) {
                         case HOUR:
+                            resolution = AssetDatapointRollup.Resolution.MINUTE;
                             truncateX = "minute";
                             step = "1 minute";
                             interval = "1 hour";
                             labelFunction = timeFormat::format;
                             break;
                         case DAY:
+                            resolution = AssetDatapointRollup.Resolution.HOUR;
                             truncateX = "hour";
                             step = "1 hour";
                             interval = "1 day";
                             labelFunction = timeFormat::format;
                             break;
                         case WEEK:
+                            resolution = AssetDatapointRollup.Resolution.DAY;
                             truncateX = "day";
                             step = "1 day";
                             interval = "7 day";
                             labelFunction = dayFormat::format;
                             break;
                         case MONTH:
+                            resolution = AssetDatapointRollup.Resolution.DAY;
                             truncateX = "day";
                             step = "1 day";
                             interval = "1 month";
                             labelFunction = dayFormat::format;
                             break;
                         case YEAR:
+                            resolution = AssetDatapointRollup.Resolution.DAY;
                             truncateX = "month";
                             step = "1 month";
                             interval = "1 year";
@@ -135,41 +500,39 @@ public class AssetDatapointService implements ContainerService, Consumer<AssetSt
                             throw new IllegalArgumentException("Can't handle interval: " + datapointInterval);
                     }
 
-                    StringBuilder query = new StringBuilder();
-
-                    query.append("select TS as X, coalesce(AVG_VALUE, null) as Y " +
-                        " from ( " +
-                        "       select date_trunc(?, GS)::timestamp TS " +
-                        "       from generate_series(to_timestamp(?) - ?, to_timestamp(?), ?) GS " +
-                        "       ) TS " +
-                        "  left join ( " +
-                        "       select " +
-                        "           date_trunc(?, to_timestamp(TIMESTAMP / 1000))::timestamp as TS, ");
-
                     switch (attribute.getTypeOrThrow().getValueType()) {
                         case NUMBER:
-                            query.append(" AVG(VALUE::text::numeric) as AVG_VALUE ");
-                            break;
                         case BOOLEAN:
-                            query.append(" AVG(case when VALUE::text::boolean is true then 1 else 0 end) as AVG_VALUE ");
                             break;
                         default:
                             throw new IllegalArgumentException("Can't aggregate number datapoints for type of: " + attribute);
                     }
 
-                    query.append(" from ASSET_DATAPOINT " +
-                        "         where " +
-                        "           to_timestamp(TIMESTAMP / 1000) >= to_timestamp(?) - ? " +
-                        "           and " +
-                        "           to_timestamp(TIMESTAMP / 1000) <= to_timestamp(?) " +
-                        "           and " +
-                        "           ENTITY_ID = ? and ATTRIBUTE_NAME = ? " +
-                        "         group by TS " +
-                        "  ) DP using (TS) " +
-                        " order by TS asc "
-                    );
+                    // Read the coarsest rollup which still has buckets nested in the requested steps, the
+                    // condition on the bucket start time must be constant so the primary key index is used.
+                    // Steps are truncated in the session time zone, the labels are local times.
+                    String query =
+                        "select TS as X, coalesce(AVG_VALUE, null) as Y " +
+                            " from ( " +
+                            "       select date_trunc(?, GS)::timestamp TS " +
+                            "       from generate_series(to_timestamp(?) - ?, to_timestamp(?), ?) GS " +
+                            "       ) TS " +
+                            "  left join ( " +
+                            "       select " +
+                            "           date_trunc(?, to_timestamp(BUCKET / 1000))::timestamp as TS, " +
+                            "           sum(VALUE_SUM) / sum(VALUE_COUNT) as AVG_VALUE " +
+                            "         from " + resolution.getTableName() +
+                            "         where " +
+                            "           ENTITY_ID = ? and ATTRIBUTE_NAME = ? " +
+                            "           and " +
+                            "           BUCKET >= " + resolution.getBucketExpression("(to_timestamp(?) - ?)") +
+                            "           and " +
+                            "           BUCKET <= ? " +
+                            "         group by TS " +
+                            "  ) DP using (TS) " +
+                            " order by TS asc ";
 
-                    PreparedStatement st = connection.prepareStatement(query.toString());
+                    PreparedStatement st = connection.prepareStatement(query);
 
                     long timestampSeconds = timestamp / 1000;
                     st.setString(1, truncateX);
@@ -178,11 +541,11 @@ public class AssetDatapointService implements ContainerService, Consumer<AssetSt
                     st.setLong(4, timestampSeconds);
                     st.setObject(5, new PGInterval(step));
                     st.setString(6, truncateX);
-                    st.setLong(7, timestampSeconds);
-                    st.setObject(8, new PGInterval(interval));
+                    st.setString(7, attributeRef.getEntityId());
+                    st.setString(8, attributeRef.getAttributeName());
                     st.setLong(9, timestampSeconds);
-                    st.setString(10, attributeRef.getEntityId());
-                    st.setString(11, attributeRef.getAttributeName());
+                    st.setObject(10, new PGInterval(interval));
+                    st.setLong(11, timestamp);
 
                     try (ResultSet rs = st.executeQuery()) {
                         List<NumberDatapoint> result = new ArrayList<>();
@@ -201,6 +564,7 @@ public class AssetDatapointService implements ContainerService, Consumer<AssetSt
     @Override
     public String toString() {
         return getClass().getSimpleName() + "{" +
+            "datapointQueue=" + datapointQueue +
             '}';
     }
 }
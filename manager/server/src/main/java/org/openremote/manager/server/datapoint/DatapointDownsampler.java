@@ -0,0 +1,245 @@
+/*
+ * Copyright 2017, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.server.datapoint;
+
+import org.openremote.model.datapoint.DatapointDownsampling;
+import org.openremote.model.datapoint.TimestampedNumberDatapoint;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reduces a stream of datapoints, ordered by timestamp, to a maximum number of points. Only the
+ * datapoints of at most two buckets are held in memory, so very large ranges can be read from a
+ * database cursor.
+ */
+public abstract class DatapointDownsampler {
+
+    /**
+     * @param count The number of datapoints in the stream, datapoints beyond this count are ignored.
+     */
+    public static DatapointDownsampler create(DatapointDownsampling downsampling,
+                                              long count,
+                                              long fromTimestamp,
+                                              long toTimestamp,
+                                              int maxPoints) {
+        if (count <= maxPoints || downsampling == DatapointDownsampling.NONE) {
+            return new Passthrough(maxPoints);
+        }
+        if (maxPoints < 3) {
+            throw new IllegalArgumentException("Downsampling requires at least three points: " + maxPoints);
+        }
+        switch (downsampling) {
+            case MIN_MAX:
+                return new MinMax(fromTimestamp, toTimestamp, maxPoints);
+            case LTTB:
+            default:
+                return new Lttb(count, maxPoints);
+        }
+    }
+
+    final protected List<TimestampedNumberDatapoint> result = new ArrayList<>();
+
+    /**
+     * @return <code>false</code> if no more datapoints are needed.
+     */
+    public abstract boolean accept(long timestamp, double number);
+
+    public abstract List<TimestampedNumberDatapoint> getResult();
+
+    /**
+     * Keeps the first datapoints of the stream.
+     */
+    public static class Passthrough extends DatapointDownsampler {
+
+        final protected int maxPoints;
+
+        public Passthrough(int maxPoints) {
+            this.maxPoints = maxPoints;
+        }
+
+        @Override
+        public boolean accept(long timestamp, double number) {
+            if (result.size() < maxPoints)
+                result.add(new TimestampedNumberDatapoint(timestamp, number));
+            return result.size() < maxPoints;
+        }
+
+        @Override
+        public List<TimestampedNumberDatapoint> getResult() {
+            return result;
+        }
+    }
+
+    /**
+     * Largest-Triangle-Three-Buckets: The first and last datapoints are kept, the others are divided into
+     * buckets of equal count. Of each bucket, the datapoint which forms the largest triangle with the
+     * datapoint selected in the previous bucket and the average of the next bucket is selected. A bucket
+     * is selected from when the next bucket is complete.
+     */
+    public static class Lttb extends DatapointDownsampler {
+
+        final protected long count;
+        final protected int bucketCount;
+        final protected double bucketSize;
+        protected long index;
+        protected TimestampedNumberDatapoint selected;
+        protected List<TimestampedNumberDatapoint> pendingBucket;
+        protected List<TimestampedNumberDatapoint> currentBucket = new ArrayList<>();
+        protected int currentBucketIndex;
+
+        public Lttb(long count, int maxPoints) {
+            this.count = count;
+            this.bucketCount = maxPoints - 2;
+            this.bucketSize = (double) (count - 2) / bucketCount;
+        }
+
+        @Override
+        public boolean accept(long timestamp, double number) {
+            if (index >= count)
+                return false;
+            TimestampedNumberDatapoint datapoint = new TimestampedNumberDatapoint(timestamp, number);
+            if (index++ == 0) {
+                selected = datapoint;
+                result.add(datapoint);
+                return true;
+            }
+            int bucketIndex = (int) Math.min((index - 2) / bucketSize, bucketCount - 1);
+            if (bucketIndex != currentBucketIndex && !currentBucket.isEmpty()) {
+                if (pendingBucket != null) {
+                    select(pendingBucket, averageTimestamp(currentBucket), averageNumber(currentBucket));
+                }
+                pendingBucket = currentBucket;
+                currentBucket = new ArrayList<>();
+                currentBucketIndex = bucketIndex;
+            }
+            currentBucket.add(datapoint);
+            return index < count;
+        }
+
+        @Override
+        public List<TimestampedNumberDatapoint> getResult() {
+            if (currentBucket.isEmpty())
+                return result;
+            // The stream might have been shorter than expected, whatever we received last is the end
+            TimestampedNumberDatapoint last = currentBucket.remove(currentBucket.size() - 1);
+            if (pendingBucket != null) {
+                if (currentBucket.isEmpty()) {
+                    select(pendingBucket, last.getTimestamp(), last.getNumber());
+                } else {
+                    select(pendingBucket, averageTimestamp(currentBucket), averageNumber(currentBucket));
+                }
+                pendingBucket = null;
+            }
+            if (!currentBucket.isEmpty()) {
+                select(currentBucket, last.getTimestamp(), last.getNumber());
+                currentBucket.clear();
+            }
+            result.add(last);
+            return result;
+        }
+
+        protected void select(List<TimestampedNumberDatapoint> bucket, double nextTimestamp, double nextNumber) {
+            double ax = selected.getTimestamp();
+            double ay = selected.getNumber();
+            double maxArea = -1;
+            TimestampedNumberDatapoint maxAreaDatapoint = null;
+            for (TimestampedNumberDatapoint datapoint : bucket) {
+                // Twice the triangle area, good enough for comparison
+                double area = Math.abs(
+                    (ax - nextTimestamp) * (datapoint.getNumber() - ay) - (ax - datapoint.getTimestamp()) * (nextNumber - ay)
+                );
+                if (area > maxArea) {
+                    maxArea = area;
+                    maxAreaDatapoint = datapoint;
+                }
+            }
+            if (maxAreaDatapoint != null) {
+                result.add(maxAreaDatapoint);
+                selected = maxAreaDatapoint;
+            }
+        }
+
+        protected double averageTimestamp(List<TimestampedNumberDatapoint> bucket) {
+            return bucket.stream().mapToDouble(TimestampedNumberDatapoint::getTimestamp).average().orElse(0);
+        }
+
+        protected double averageNumber(List<TimestampedNumberDatapoint> bucket) {
+            return bucket.stream().mapToDouble(TimestampedNumberDatapoint::getNumber).average().orElse(0);
+        }
+    }
+
+    /**
+     * Divides the time range into buckets of equal width and keeps the minimum and maximum datapoint of
+     * each bucket, in order of their timestamps.
+     */
+    public static class MinMax extends DatapointDownsampler {
+
+        final protected long fromTimestamp;
+        final protected long bucketWidth;
+        protected long currentBucketIndex = -1;
+        protected TimestampedNumberDatapoint min;
+        protected TimestampedNumberDatapoint max;
+
+        public MinMax(long fromTimestamp, long toTimestamp, int maxPoints) {
+            int bucketCount = maxPoints / 2;
+            this.fromTimestamp = fromTimestamp;
+            // Round up, so the last bucket still includes the end of the range
+            this.bucketWidth = Math.max(1, (toTimestamp - fromTimestamp + bucketCount) / bucketCount);
+        }
+
+        @Override
+        public boolean accept(long timestamp, double number) {
+            long bucketIndex = (timestamp - fromTimestamp) / bucketWidth;
+            if (bucketIndex != currentBucketIndex) {
+                completeBucket();
+                currentBucketIndex = bucketIndex;
+            }
+            TimestampedNumberDatapoint datapoint = new TimestampedNumberDatapoint(timestamp, number);
+            if (min == null || number < min.getNumber())
+                min = datapoint;
+            if (max == null || number > max.getNumber())
+                max = datapoint;
+            return true;
+        }
+
+        @Override
+        public List<TimestampedNumberDatapoint> getResult() {
+            completeBucket();
+            return result;
+        }
+
+        protected void completeBucket() {
+            if (min == null)
+                return;
+            if (min == max) {
+                result.add(min);
+            } else if (min.getTimestamp() <= max.getTimestamp()) {
+                result.add(min);
+                result.add(max);
+            } else {
+                result.add(max);
+                result.add(min);
+            }
+            min = null;
+            max = null;
+        }
+    }
+}
@@ -23,6 +23,7 @@ import org.apache.camel.Exchange;
 import org.apache.camel.builder.RouteBuilder;
 import org.openremote.container.Container;
 import org.openremote.container.ContainerService;
+import org.openremote.container.message.ConfigurableSedaComponent;
 import org.openremote.container.message.MessageBrokerService;
 import org.openremote.container.message.MessageBrokerSetupService;
 import org.openremote.container.security.AuthContext;
@@ -30,6 +31,7 @@ import org.openremote.container.timer.TimerService;
 import org.openremote.container.web.socket.WebsocketConstants;
 import org.openremote.manager.server.concurrent.ManagerExecutorService;
 import org.openremote.model.Constants;
+import org.openremote.model.attribute.AttributeEvent;
 import org.openremote.model.event.shared.CancelEventSubscription;
 import org.openremote.model.event.shared.EventSubscription;
 import org.openremote.model.event.shared.SharedEvent;
@@ -37,10 +39,17 @@ import org.openremote.model.event.shared.UnauthorizedEventSubscription;
 import org.openremote.model.syslog.SyslogEvent;
 
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import static org.apache.camel.builder.PredicateBuilder.or;
+import static org.openremote.container.message.ConfigurableSedaComponent.getQueueName;
+import static org.openremote.container.util.MapAccess.getInteger;
 
 /**
  * Receives and publishes messages, handles the client/server event bus.
@@ -59,7 +68,8 @@ import static org.apache.camel.builder.PredicateBuilder.or;
  * type will replace any currently active subscription. The <code>SUBSCRIBE</code> message must be send
  * repeatedly to renew the subscription,or the server will expire the subscription. The default expiration
  * time is {@link EventSubscription#RENEWAL_PERIOD_SECONDS}; it is recommended clients renew the subscription
- * in shorter periods to allow for processing time of the renewal.
+ * in shorter periods to allow for processing time of the renewal. A subscription with a minimum interval
+ * receives at most one {@link AttributeEvent} of an attribute per interval, the latest.
  * </p></dd>
  * <dt><code>UNSUBSCRIBE{...}</code></dt>
  * <dd><p>
@@ -88,6 +98,9 @@ import static org.apache.camel.builder.PredicateBuilder.or;
  * The payload is an array of {@link SharedEvent}s.
  * </p></dd>
  * </dl>
+ * <p>
+ * If the subscription of an event type has the {@link EventSubscription.Encoding#CBOR} encoding, the events
+ * are sent as binary messages without prefix, each containing a single CBOR encoded {@link SharedEvent}.
  */
 public class ClientEventService implements ContainerService {
 
@@ -95,15 +108,50 @@ public class ClientEventService implements ContainerService {
 
     public static final String WEBSOCKET_EVENTS = "events";
 
-    // TODO: Some of these options should be configurable depending on expected load etc.
-    public static final String CLIENT_EVENT_TOPIC = "seda://ClientEventTopic?multipleConsumers=true&concurrentConsumers=1&waitForTaskToComplete=NEVER&purgeWhenStopping=true&discardIfNoConsumers=true&limitConcurrentConsumers=false&size=1000";
+    // The queue sizes and consumers are configured in init()
+    public static final String CLIENT_EVENT_TOPIC = "seda://ClientEventTopic?multipleConsumers=true&waitForTaskToComplete=NEVER&purgeWhenStopping=true&discardIfNoConsumers=true&limitConcurrentConsumers=false";
+
+    public static final String CLIENT_EVENT_QUEUE = "seda://ClientEventQueue?multipleConsumers=false&waitForTaskToComplete=NEVER&purgeWhenStopping=true&discardIfNoConsumers=true";
+
+    /**
+     * Maximum number of events from clients waiting for processing in {@link #CLIENT_EVENT_TOPIC}.
+     */
+    public static final String CLIENT_EVENT_TOPIC_SIZE = "CLIENT_EVENT_TOPIC_SIZE";
+    public static final int CLIENT_EVENT_TOPIC_SIZE_DEFAULT = 1000;
+
+    /**
+     * Number of threads of each consumer of {@link #CLIENT_EVENT_TOPIC}, with more than one thread a consumer
+     * doesn't receive the events in order.
+     */
+    public static final String CLIENT_EVENT_TOPIC_CONSUMERS = "CLIENT_EVENT_TOPIC_CONSUMERS";
+    public static final int CLIENT_EVENT_TOPIC_CONSUMERS_DEFAULT = 1;
+
+    /**
+     * Maximum number of events waiting to be sent to clients in {@link #CLIENT_EVENT_QUEUE}, the queue has a single
+     * consumer so events are sent in order.
+     */
+    public static final String CLIENT_EVENT_QUEUE_SIZE = "CLIENT_EVENT_QUEUE_SIZE";
+    public static final int CLIENT_EVENT_QUEUE_SIZE_DEFAULT = 1000;
 
-    public static final String CLIENT_EVENT_QUEUE = "seda://ClientEventQueue?multipleConsumers=false&waitForTaskToComplete=NEVER&purgeWhenStopping=true&discardIfNoConsumers=true&size=1000";
+    /**
+     * Published events are collected per session and sent as one <code>EVENT[...]</code> frame, when this
+     * number of events is reached or the batch delay elapsed, see {@link SessionEventBatches}.
+     */
+    public static final String CLIENT_EVENT_BATCH_SIZE = "CLIENT_EVENT_BATCH_SIZE";
+    public static final int CLIENT_EVENT_BATCH_SIZE_DEFAULT = 100;
+
+    /**
+     * Maximum time an event waits in a batch before it is sent. If <code>0</code>, events are sent immediately
+     * and not batched.
+     */
+    public static final String CLIENT_EVENT_BATCH_MILLIS = "CLIENT_EVENT_BATCH_MILLIS";
+    public static final int CLIENT_EVENT_BATCH_MILLIS_DEFAULT = 10;
 
     final protected Collection<EventSubscriptionAuthorizer> eventSubscriptionAuthorizers = new CopyOnWriteArraySet<>();
     protected TimerService timerService;
     protected MessageBrokerService messageBrokerService;
     protected EventSubscriptions eventSubscriptions;
+    protected SessionEventBatches sessionEventBatches;
 
     protected boolean stopped;
 
@@ -114,10 +162,38 @@ public class ClientEventService implements ContainerService {
 
         eventSubscriptions = new EventSubscriptions(
             container.getService(TimerService.class),
-            container.getService(ManagerExecutorService.class)
+            container.getService(ManagerExecutorService.class),
+            this::sendDeferredEvent
         );
 
+        int batchSize = getInteger(container.getConfig(), CLIENT_EVENT_BATCH_SIZE, CLIENT_EVENT_BATCH_SIZE_DEFAULT);
+        int batchMillis = getInteger(container.getConfig(), CLIENT_EVENT_BATCH_MILLIS, CLIENT_EVENT_BATCH_MILLIS_DEFAULT);
+        if (batchSize > 1 && batchMillis > 0) {
+            sessionEventBatches = new SessionEventBatches(
+                container.getService(ManagerExecutorService.class),
+                batchSize,
+                batchMillis,
+                this::sendToSession
+            );
+            LOG.info("Batching client events: " + sessionEventBatches);
+        }
+
         MessageBrokerSetupService messageBrokerSetupService = container.getService(MessageBrokerSetupService.class);
+        ConfigurableSedaComponent sedaComponent = messageBrokerSetupService.getSedaComponent();
+        sedaComponent.setQueueSize(
+            getQueueName(CLIENT_EVENT_TOPIC),
+            getInteger(container.getConfig(), CLIENT_EVENT_TOPIC_SIZE, CLIENT_EVENT_TOPIC_SIZE_DEFAULT)
+        );
+        sedaComponent.setQueueConsumers(
+            getQueueName(CLIENT_EVENT_TOPIC),
+            getInteger(container.getConfig(), CLIENT_EVENT_TOPIC_CONSUMERS, CLIENT_EVENT_TOPIC_CONSUMERS_DEFAULT)
+        );
+        sedaComponent.setQueueSize(
+            getQueueName(CLIENT_EVENT_QUEUE),
+            getInteger(container.getConfig(), CLIENT_EVENT_QUEUE_SIZE, CLIENT_EVENT_QUEUE_SIZE_DEFAULT)
+        );
+        sedaComponent.setQueueConsumers(getQueueName(CLIENT_EVENT_QUEUE), 1);
+
         messageBrokerSetupService.getContext().getTypeConverterRegistry().addTypeConverters(
             new EventTypeConverters()
         );
@@ -141,6 +217,9 @@ public class ClientEventService implements ContainerService {
                     .process(exchange -> {
                         String sessionKey = getSessionKey(exchange);
                         eventSubscriptions.cancelAll(sessionKey);
+                        if (sessionEventBatches != null) {
+                            sessionEventBatches.remove(sessionKey);
+                        }
                     })
                     .stop()
                     .end()
@@ -186,7 +265,32 @@ public class ClientEventService implements ContainerService {
                     .routeId("ToClientWebsocketEvents")
                     .choice()
                     .when(body().isInstanceOf(SharedEvent.class))
-                    .split(method(eventSubscriptions, "splitForSubscribers"))
+                    .process(exchange -> {
+                        // The event is serialized once and sent to all subscribed sessions
+                        SharedEvent event = exchange.getIn().getBody(SharedEvent.class);
+                        Map<EventSubscription.Encoding, List<String>> sessions = eventSubscriptions.getSubscribedSessions(event);
+                        List<String> sessionKeys = sessions.getOrDefault(EventSubscription.Encoding.JSON, Collections.emptyList());
+                        Object coalesceKey = getCoalesceKey(event);
+                        if (sessions.containsKey(EventSubscription.Encoding.CBOR)) {
+                            // Binary messages are not batched, encoded once and sent to the sessions directly
+                            sendToSessions(
+                                sessions.get(EventSubscription.Encoding.CBOR), Container.CBOR.writeValueAsBytes(event), coalesceKey
+                            );
+                        }
+                        if (sessionEventBatches != null && !sessionKeys.isEmpty()) {
+                            // The batches send the event, nothing to send in this exchange
+                            String eventJson = Container.JSON.writeValueAsString(event);
+                            for (String sessionKey : sessionKeys) {
+                                sessionEventBatches.add(sessionKey, eventJson, coalesceKey);
+                            }
+                            sessionKeys = Collections.emptyList();
+                        }
+                        exchange.getIn().setHeader(WebsocketConstants.SESSION_KEYS, sessionKeys);
+                        if (coalesceKey != null) {
+                            exchange.getIn().setHeader(WebsocketConstants.COALESCE_KEY, coalesceKey);
+                        }
+                    })
+                    .filter(exchange -> !exchange.getIn().getHeader(WebsocketConstants.SESSION_KEYS, List.class).isEmpty())
                     .to("websocket://" + WEBSOCKET_EVENTS)
                     .end();
             }
@@ -223,16 +327,73 @@ public class ClientEventService implements ContainerService {
     }
 
     public void sendToSession(String sessionKey, Object data) {
+        sendToSession(sessionKey, data, null);
+    }
+
+    /**
+     * @param coalesceKey A queued message of the session with the same key is outdated by this message, optional.
+     */
+    protected void sendToSession(String sessionKey, Object data, Object coalesceKey) {
         if (messageBrokerService != null && messageBrokerService.getProducerTemplate() != null) {
             LOG.fine("Sending to session '" + sessionKey + "': " + data);
-            messageBrokerService.getProducerTemplate().sendBodyAndHeader(
-                "websocket://" + WEBSOCKET_EVENTS,
-                data,
-                WebsocketConstants.SESSION_KEY, sessionKey
+            Map<String, Object> headers = new HashMap<>();
+            headers.put(WebsocketConstants.SESSION_KEY, sessionKey);
+            if (coalesceKey != null) {
+                headers.put(WebsocketConstants.COALESCE_KEY, coalesceKey);
+            }
+            messageBrokerService.getProducerTemplate().sendBodyAndHeaders(
+                "websocket://" + WEBSOCKET_EVENTS, data, headers
             );
         }
     }
 
+    public SessionEventBatches getSessionEventBatches() {
+        return sessionEventBatches;
+    }
+
+    /**
+     * Sends the same message to several sessions, see {@link WebsocketConstants#SESSION_KEYS}.
+     */
+    protected void sendToSessions(List<String> sessionKeys, Object data, Object coalesceKey) {
+        if (messageBrokerService != null && messageBrokerService.getProducerTemplate() != null) {
+            Map<String, Object> headers = new HashMap<>();
+            headers.put(WebsocketConstants.SESSION_KEYS, sessionKeys);
+            if (coalesceKey != null) {
+                headers.put(WebsocketConstants.COALESCE_KEY, coalesceKey);
+            }
+            messageBrokerService.getProducerTemplate().sendBodyAndHeaders(
+                "websocket://" + WEBSOCKET_EVENTS, data, headers
+            );
+        }
+    }
+
+    /**
+     * Sends a rate limited event in the encoding of the session's subscription. JSON events are added to the
+     * session's batch if batching is enabled, so they replace an older event of the same attribute still waiting
+     * in the batch and are not sent before it.
+     */
+    protected void sendDeferredEvent(String sessionKey, SharedEvent event) {
+        Object coalesceKey = getCoalesceKey(event);
+        try {
+            if (eventSubscriptions.getEncoding(sessionKey, event.getEventType()) == EventSubscription.Encoding.CBOR) {
+                sendToSession(sessionKey, Container.CBOR.writeValueAsBytes(event), coalesceKey);
+            } else if (sessionEventBatches != null) {
+                sessionEventBatches.add(sessionKey, Container.JSON.writeValueAsString(event), coalesceKey);
+            } else {
+                sendToSession(sessionKey, event, coalesceKey);
+            }
+        } catch (Exception ex) {
+            LOG.log(Level.WARNING, "Sending deferred event failed: " + event, ex);
+        }
+    }
+
+    /**
+     * A queued attribute event is outdated by a newer event of the same attribute.
+     */
+    protected static Object getCoalesceKey(SharedEvent event) {
+        return event instanceof AttributeEvent ? ((AttributeEvent) event).getAttributeRef() : null;
+    }
+
     public static String getSessionKey(Exchange exchange) {
         return exchange.getIn().getHeader(WebsocketConstants.SESSION_KEY, String.class);
     }
@@ -19,140 +19,478 @@
  */
 package org.openremote.manager.server.event;
 
-import org.apache.camel.Exchange;
-import org.apache.camel.Message;
-import org.apache.camel.impl.DefaultMessage;
 import org.openremote.container.timer.TimerService;
-import org.openremote.container.web.socket.WebsocketConstants;
 import org.openremote.manager.server.concurrent.ManagerExecutorService;
+import org.openremote.model.attribute.AttributeEvent;
+import org.openremote.model.attribute.AttributeRef;
 import org.openremote.model.event.shared.CancelEventSubscription;
+import org.openremote.model.event.shared.EventFilter;
 import org.openremote.model.event.shared.EventSubscription;
 import org.openremote.model.event.shared.SharedEvent;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
 import java.util.logging.Logger;
 
 /**
  * Manages subscriptions to events for WebSocket sessions.
+ * <p>
+ * Subscriptions are indexed by event type and, if they have an {@link AttributeEvent.EntityIdFilter}, by
+ * entity identifier. Finding the subscribers of an event only visits the sessions which subscribed to the
+ * type and entity of the event, without locking. Subscriptions are changed under a lock.
+ * <p>
+ * Expiration is handled with a timer wheel of {@link #EXPIRATION_WHEEL_SLOTS} one-second slots, each
+ * tick only visits the subscriptions which expire in that second.
+ * <p>
+ * If a subscription has a {@link EventSubscription#getMinIntervalMillis}, attribute events are rate limited per
+ * attribute: An event is delivered immediately if the interval since the last delivered event of the attribute
+ * has passed, otherwise it's held back and replaced by newer events until the interval is over, then the
+ * latest event is sent to the session. A renewed subscription keeps the held back events which match its filter.
+ * The rate limiting state of an attribute is removed once its interval has passed.
  */
 public class EventSubscriptions {
 
     private static final Logger LOG = Logger.getLogger(EventSubscriptions.class.getName());
 
+    public static final int EXPIRATION_TICK_MILLIS = 1000;
+    public static final int EXPIRATION_WHEEL_SLOTS = 512;
+
     final protected TimerService timerService;
-    final protected Map<String, SessionSubscriptions> sessionSubscriptions = new HashMap<>();
-
-    class SessionSubscriptions extends HashSet<SessionSubscription> {
-        public void removeExpired() {
-            removeIf(sessionSubscription -> {
-                    boolean expired =
-                        sessionSubscription.timestamp
-                            + (EventSubscription.RENEWAL_PERIOD_SECONDS * 1000)
-                            < timerService.getCurrentTimeMillis();
-                    if (expired) {
-                        LOG.fine("Removing expired; " + sessionSubscription.subscription);
-                    }
-                    return expired;
-                }
-            );
+    final protected ManagerExecutorService executorService;
+    // Sends rate limited events to a session when their interval is over
+    final protected BiConsumer<String, SharedEvent> deferredSender;
+    final protected AtomicLong deferredCount = new AtomicLong();
+    final protected AtomicLong coalescedCount = new AtomicLong();
+
+    // Subscriptions of each session, by event type; modified only while holding the lock of this map
+    final protected Map<String, Map<String, SessionSubscription>> sessionSubscriptions = new ConcurrentHashMap<>();
+
+    // The index used when splitting events, by event type
+    final protected Map<String, EventTypeSubscriptions> eventTypeSubscriptions = new ConcurrentHashMap<>();
+
+    // Slots of the timer wheel, each slot holds subscriptions expiring in the same tick (modulo the wheel size)
+    final protected List<Set<SessionSubscription>> expirationWheel = new ArrayList<>(EXPIRATION_WHEEL_SLOTS);
+    protected long expirationTick;
+
+    class EventTypeSubscriptions {
+        // Subscriptions without filter or with a filter which can't be indexed
+        final Set<SessionSubscription> unindexed = ConcurrentHashMap.newKeySet();
+        final Map<String, Set<SessionSubscription>> entityIdIndex = new ConcurrentHashMap<>();
+
+        void add(SessionSubscription sessionSubscription) {
+            if (sessionSubscription.entityIds == null) {
+                unindexed.add(sessionSubscription);
+                return;
+            }
+            for (String entityId : sessionSubscription.entityIds) {
+                entityIdIndex.computeIfAbsent(entityId, id -> ConcurrentHashMap.newKeySet()).add(sessionSubscription);
+            }
         }
 
-        public void update(EventSubscription eventSubscription) {
-            cancel(eventSubscription.getEventType());
-            add(new SessionSubscription(timerService.getCurrentTimeMillis(), eventSubscription));
+        void remove(SessionSubscription sessionSubscription) {
+            if (sessionSubscription.entityIds == null) {
+                unindexed.remove(sessionSubscription);
+                return;
+            }
+            for (String entityId : sessionSubscription.entityIds) {
+                entityIdIndex.computeIfPresent(entityId, (id, subscriptions) -> {
+                    subscriptions.remove(sessionSubscription);
+                    return subscriptions.isEmpty() ? null : subscriptions;
+                });
+            }
         }
 
-        public void cancel(String eventType) {
-            removeIf(sessionSubscription -> sessionSubscription.subscription.getEventType().equals(eventType));
+        boolean isEmpty() {
+            return unindexed.isEmpty() && entityIdIndex.isEmpty();
         }
     }
 
+    class ThrottledAttribute {
+        long lastSentMillis;
+        AttributeEvent pending;
+        boolean flushScheduled;
+        // Removed from the throttle after its interval passed, the next event creates a new state
+        boolean removed;
+    }
+
+    // Rate limiting state of a subscription, kept when a rate limited subscription is renewed
+    class Throttle {
+        final Map<AttributeRef, ThrottledAttribute> attributes = new ConcurrentHashMap<>();
+        volatile boolean cancelled;
+    }
+
     class SessionSubscription {
+        final String sessionKey;
         final long timestamp;
+        final long expirationTick;
         final EventSubscription subscription;
+        // The entity identifiers this subscription is restricted to, null if it's not indexed by entity
+        final String[] entityIds;
+        final Throttle throttle;
 
-        public SessionSubscription(long timestamp, EventSubscription subscription) {
+        public SessionSubscription(String sessionKey,
+                                   long timestamp,
+                                   EventSubscription subscription,
+                                   Throttle throttle) {
+            this.sessionKey = sessionKey;
             this.timestamp = timestamp;
+            this.expirationTick = getTick(timestamp + (EventSubscription.RENEWAL_PERIOD_SECONDS * 1000));
             this.subscription = subscription;
+            this.entityIds = getIndexedEntityIds(subscription);
+            this.throttle = throttle;
         }
 
         public boolean matches(SharedEvent event) {
-            return subscription.getEventType().equals(event.getEventType());
+            // Indexed filters have been applied by the index lookup
+            return entityIds != null || matchesFilter(event);
+        }
+
+        @SuppressWarnings("unchecked")
+        public boolean matchesFilter(SharedEvent event) {
+            return subscription.getFilter() == null || subscription.getFilter().apply(event);
+        }
+
+        /**
+         * @return <code>false</code> if the event is rate limited and will be sent later, or replaced by a newer event.
+         */
+        public boolean sendNow(SharedEvent event) {
+            int minIntervalMillis = subscription.getMinIntervalMillis();
+            if (minIntervalMillis <= 0 || !(event instanceof AttributeEvent))
+                return true;
+            AttributeEvent attributeEvent = (AttributeEvent) event;
+            long now = timerService.getCurrentTimeMillis();
+            while (true) {
+                ThrottledAttribute throttled =
+                    throttle.attributes.computeIfAbsent(attributeEvent.getAttributeRef(), ref -> new ThrottledAttribute());
+                synchronized (throttled) {
+                    if (throttled.removed)
+                        continue;
+                    if (!throttled.flushScheduled && now - throttled.lastSentMillis >= minIntervalMillis) {
+                        throttled.lastSentMillis = now;
+                        return true;
+                    }
+                    if (throttled.pending != null) {
+                        coalescedCount.incrementAndGet();
+                    }
+                    throttled.pending = attributeEvent;
+                    if (!throttled.flushScheduled) {
+                        throttled.flushScheduled = true;
+                        long delay = Math.max(0, throttled.lastSentMillis + minIntervalMillis - now);
+                        executorService.schedule(() -> flush(throttled), delay);
+                    }
+                    return false;
+                }
+            }
+        }
+
+        protected void flush(ThrottledAttribute throttled) {
+            AttributeEvent event;
+            synchronized (throttled) {
+                event = throttled.pending;
+                throttled.pending = null;
+                throttled.flushScheduled = false;
+                throttled.lastSentMillis = timerService.getCurrentTimeMillis();
+            }
+            if (event != null && !throttle.cancelled) {
+                deferredCount.incrementAndGet();
+                deferredSender.accept(sessionKey, event);
+            }
+        }
+
+        /**
+         * Drops held back events which don't match the filter of this subscription.
+         */
+        protected void removeUnmatchedPending() {
+            for (ThrottledAttribute throttled : throttle.attributes.values()) {
+                synchronized (throttled) {
+                    if (throttled.pending != null && !matchesFilter(throttled.pending)) {
+                        throttled.pending = null;
+                    }
+                }
+            }
         }
     }
 
-    public EventSubscriptions(TimerService timerService, ManagerExecutorService executorService) {
+    public EventSubscriptions(TimerService timerService,
+                              ManagerExecutorService executorService,
+                              BiConsumer<String, SharedEvent> deferredSender) {
         LOG.info("Starting background task checking for expired event subscriptions from clients");
         this.timerService = timerService;
+        this.executorService = executorService;
+        this.deferredSender = deferredSender;
+        for (int i = 0; i < EXPIRATION_WHEEL_SLOTS; i++) {
+            expirationWheel.add(new HashSet<>());
+        }
+        expirationTick = getTick(timerService.getCurrentTimeMillis());
         executorService.scheduleAtFixedRate(() -> {
-            synchronized (this.sessionSubscriptions) {
-                for (SessionSubscriptions subscriptions : sessionSubscriptions.values()) {
-                    subscriptions.removeExpired();
-                }
-            }
-        }, 5000, 1000);
+            removeExpired();
+            removeIdleThrottles();
+        }, 5000, EXPIRATION_TICK_MILLIS);
     }
 
     public void update(String sessionKey, EventSubscription subscription) {
         synchronized (this.sessionSubscriptions) {
             // TODO Check if the user can actually subscribe to the events it wants, how do we do that?
             LOG.fine("For session '" + sessionKey + "', updating: " + subscription);
-            SessionSubscriptions sessionSubscriptions =
-                this.sessionSubscriptions.computeIfAbsent(sessionKey, k -> new SessionSubscriptions());
-            sessionSubscriptions.update(subscription);
+            Map<String, SessionSubscription> subscriptions =
+                this.sessionSubscriptions.computeIfAbsent(sessionKey, k -> new HashMap<>());
+            SessionSubscription previous = subscriptions.get(subscription.getEventType());
+            // A renewed rate limited subscription continues with the same intervals and pending events
+            boolean keepThrottled = previous != null
+                && previous.subscription.getMinIntervalMillis() > 0
+                && subscription.getMinIntervalMillis() > 0;
+            SessionSubscription sessionSubscription = new SessionSubscription(
+                sessionKey,
+                timerService.getCurrentTimeMillis(),
+                subscription,
+                keepThrottled ? previous.throttle : new Throttle()
+            );
+            subscriptions.put(subscription.getEventType(), sessionSubscription);
+            // Register the renewed subscription first, so a concurrent lookup doesn't miss the session
+            register(sessionSubscription);
+            if (previous != null) {
+                unregister(previous);
+                previous.throttle.cancelled = !keepThrottled;
+            }
+            if (keepThrottled) {
+                // The filter might have changed
+                sessionSubscription.removeUnmatchedPending();
+            }
         }
     }
 
     public void cancel(String sessionKey, CancelEventSubscription subscription) {
         synchronized (this.sessionSubscriptions) {
-            if (!this.sessionSubscriptions.containsKey(sessionKey))
+            Map<String, SessionSubscription> subscriptions = this.sessionSubscriptions.get(sessionKey);
+            if (subscriptions == null)
                 return;
             LOG.fine("For session '" + sessionKey + "', cancelling: " + subscription);
-            SessionSubscriptions sessionSubscriptions = this.sessionSubscriptions.get(sessionKey);
-            sessionSubscriptions.cancel(subscription.getEventType());
+            SessionSubscription previous = subscriptions.remove(subscription.getEventType());
+            if (previous != null) {
+                unregister(previous);
+                previous.throttle.cancelled = true;
+            }
         }
     }
 
     public void cancelAll(String sessionKey) {
         synchronized (this.sessionSubscriptions) {
-            if (this.sessionSubscriptions.containsKey(sessionKey)) {
+            Map<String, SessionSubscription> subscriptions = this.sessionSubscriptions.remove(sessionKey);
+            if (subscriptions != null) {
                 LOG.fine("Cancelling all subscriptions for session: " + sessionKey);
-                this.sessionSubscriptions.remove(sessionKey);
+                subscriptions.values().forEach(sessionSubscription -> {
+                    unregister(sessionSubscription);
+                    sessionSubscription.throttle.cancelled = true;
+                });
             }
         }
     }
 
-    @SuppressWarnings("unchecked")
-    public <T extends SharedEvent> List<Message> splitForSubscribers(Exchange exchange) {
-        List<Message> messageList = new ArrayList<>();
-        SharedEvent event = exchange.getIn().getBody(SharedEvent.class);
-        if (event == null)
-            return messageList;
+    /**
+     * Advances the timer wheel to the current time and removes all subscriptions in the passed slots which
+     * have not been renewed. If the clock moved by more than a full rotation, all slots are checked once.
+     */
+    public void removeExpired() {
+        synchronized (this.sessionSubscriptions) {
+            long currentTick = getTick(timerService.getCurrentTimeMillis());
+            if (currentTick <= expirationTick)
+                return;
+            long firstTick = Math.max(expirationTick + 1, currentTick - EXPIRATION_WHEEL_SLOTS + 1);
+            for (long tick = firstTick; tick <= currentTick; tick++) {
+                Set<SessionSubscription> slot = expirationWheel.get(getSlot(tick));
+                if (slot.isEmpty())
+                    continue;
+                // Later rotations of the wheel stay in the slot
+                List<SessionSubscription> expired = new ArrayList<>();
+                for (SessionSubscription sessionSubscription : slot) {
+                    if (sessionSubscription.expirationTick <= currentTick)
+                        expired.add(sessionSubscription);
+                }
+                for (SessionSubscription sessionSubscription : expired) {
+                    LOG.fine("Removing expired; " + sessionSubscription.subscription);
+                    Map<String, SessionSubscription> subscriptions = sessionSubscriptions.get(sessionSubscription.sessionKey);
+                    if (subscriptions != null) {
+                        subscriptions.remove(sessionSubscription.subscription.getEventType(), sessionSubscription);
+                        if (subscriptions.isEmpty()) {
+                            sessionSubscriptions.remove(sessionSubscription.sessionKey);
+                        }
+                    }
+                    unregister(sessionSubscription);
+                    sessionSubscription.throttle.cancelled = true;
+                }
+            }
+            expirationTick = currentTick;
+        }
+    }
 
-        Set<Map.Entry<String, SessionSubscriptions>> sessionSubscriptionsSet;
+    /**
+     * Removes the rate limiting state of attributes without held back event whose interval has passed, the
+     * next event of such an attribute is sent immediately anyway.
+     */
+    public void removeIdleThrottles() {
+        List<SessionSubscription> rateLimited = new ArrayList<>();
         synchronized (this.sessionSubscriptions) {
-            sessionSubscriptionsSet = new HashSet<>(sessionSubscriptions.entrySet());
+            for (Map<String, SessionSubscription> subscriptions : sessionSubscriptions.values()) {
+                for (SessionSubscription sessionSubscription : subscriptions.values()) {
+                    if (!sessionSubscription.throttle.attributes.isEmpty())
+                        rateLimited.add(sessionSubscription);
+                }
+            }
         }
+        long now = timerService.getCurrentTimeMillis();
+        for (SessionSubscription sessionSubscription : rateLimited) {
+            int minIntervalMillis = sessionSubscription.subscription.getMinIntervalMillis();
+            sessionSubscription.throttle.attributes.values().removeIf(throttled -> {
+                synchronized (throttled) {
+                    if (throttled.flushScheduled || now - throttled.lastSentMillis < minIntervalMillis)
+                        return false;
+                    throttled.removed = true;
+                    return true;
+                }
+            });
+        }
+    }
 
-        for (Map.Entry<String, SessionSubscriptions> entry : sessionSubscriptionsSet) {
-            String sessionKey = entry.getKey();
-            SessionSubscriptions subscriptions = entry.getValue();
+    /**
+     * @return The number of attributes with rate limiting state, of all sessions.
+     */
+    public int getThrottledAttributeCount() {
+        synchronized (this.sessionSubscriptions) {
+            return sessionSubscriptions.values().stream()
+                .flatMap(subscriptions -> subscriptions.values().stream())
+                .mapToInt(sessionSubscription -> sessionSubscription.throttle.attributes.size())
+                .sum();
+        }
+    }
 
-            for (SessionSubscription sessionSubscription : subscriptions) {
-                if (!sessionSubscription.matches(event))
-                    continue;
+    /**
+     * @return The encoding of the session's subscription for the event type, the default if there is none.
+     */
+    public EventSubscription.Encoding getEncoding(String sessionKey, String eventType) {
+        synchronized (this.sessionSubscriptions) {
+            Map<String, SessionSubscription> subscriptions = sessionSubscriptions.get(sessionKey);
+            SessionSubscription sessionSubscription = subscriptions != null ? subscriptions.get(eventType) : null;
+            return sessionSubscription != null
+                ? sessionSubscription.subscription.getEncoding()
+                : EventSubscription.Encoding.JSON;
+        }
+    }
+
+    /**
+     * @return The number of active subscriptions of all sessions.
+     */
+    public int getSubscriptionCount() {
+        synchronized (this.sessionSubscriptions) {
+            return sessionSubscriptions.values().stream().mapToInt(Map::size).sum();
+        }
+    }
+
+    /**
+     * @return The number of rate limited events which have been sent after their interval.
+     */
+    public long getDeferredCount() {
+        return deferredCount.get();
+    }
 
-                if (sessionSubscription.subscription.getFilter() == null
-                    || sessionSubscription.subscription.getFilter().apply(event)) {
-                    LOG.fine("Creating message for subscribed session '" + sessionKey + "': " + event);
-                    Message msg = new DefaultMessage();
-                    msg.setBody(event); // Don't copy the event, use same reference
-                    msg.setHeaders(new HashMap<>(exchange.getIn().getHeaders())); // Copy headers
-                    msg.setHeader(WebsocketConstants.SESSION_KEY, sessionKey);
-                    messageList.add(msg);
+    /**
+     * @return The number of rate limited events which have been replaced by a newer event before they were sent.
+     */
+    public long getCoalescedCount() {
+        return coalescedCount.get();
+    }
+
+    /**
+     * @return The keys of the sessions which have a matching subscription for the event and should receive it now,
+     * rate limited subscriptions might receive the event (or a newer event) later.
+     */
+    public List<String> getSubscribedSessionKeys(SharedEvent event) {
+        List<String> sessionKeys = new ArrayList<>();
+        getSubscribedSessions(event).values().forEach(sessionKeys::addAll);
+        return sessionKeys;
+    }
+
+    /**
+     * @return The keys of the sessions which should receive the event now, by the encoding of their subscription.
+     */
+    public Map<EventSubscription.Encoding, List<String>> getSubscribedSessions(SharedEvent event) {
+        Map<EventSubscription.Encoding, List<String>> sessions = new EnumMap<>(EventSubscription.Encoding.class);
+        if (event == null)
+            return sessions;
+
+        EventTypeSubscriptions subscriptions = eventTypeSubscriptions.get(event.getEventType());
+        if (subscriptions == null)
+            return sessions;
+
+        int count = 0;
+        for (SessionSubscription sessionSubscription : subscriptions.unindexed) {
+            if (sessionSubscription.matches(event) && sessionSubscription.sendNow(event)) {
+                addSession(sessions, sessionSubscription);
+                count++;
+            }
+        }
+
+        String entityId = getIndexedEntityId(event);
+        if (entityId != null) {
+            Set<SessionSubscription> entitySubscriptions = subscriptions.entityIdIndex.get(entityId);
+            if (entitySubscriptions != null) {
+                for (SessionSubscription sessionSubscription : entitySubscriptions) {
+                    if (sessionSubscription.sendNow(event)) {
+                        addSession(sessions, sessionSubscription);
+                        count++;
+                    }
                 }
             }
         }
-        return messageList;
+        if (count > 0) {
+            LOG.fine("Subscribed sessions (" + count + "): " + event);
+        }
+        return sessions;
+    }
+
+    protected void addSession(Map<EventSubscription.Encoding, List<String>> sessions, SessionSubscription sessionSubscription) {
+        sessions
+            .computeIfAbsent(sessionSubscription.subscription.getEncoding(), encoding -> new ArrayList<>())
+            .add(sessionSubscription.sessionKey);
+    }
+
+    protected void register(SessionSubscription sessionSubscription) {
+        eventTypeSubscriptions
+            .computeIfAbsent(sessionSubscription.subscription.getEventType(), type -> new EventTypeSubscriptions())
+            .add(sessionSubscription);
+        expirationWheel.get(getSlot(sessionSubscription.expirationTick)).add(sessionSubscription);
+    }
+
+    protected void unregister(SessionSubscription sessionSubscription) {
+        eventTypeSubscriptions.computeIfPresent(sessionSubscription.subscription.getEventType(), (type, subscriptions) -> {
+            subscriptions.remove(sessionSubscription);
+            return subscriptions.isEmpty() ? null : subscriptions;
+        });
+        expirationWheel.get(getSlot(sessionSubscription.expirationTick)).remove(sessionSubscription);
+    }
+
+    /**
+     * @return The entity identifiers of the subscription filter if events can be matched with the index.
+     */
+    protected String[] getIndexedEntityIds(EventSubscription subscription) {
+        EventFilter filter = subscription.getFilter();
+        if (filter instanceof AttributeEvent.EntityIdFilter) {
+            String[] entityIds = ((AttributeEvent.EntityIdFilter) filter).getEntityId();
+            return entityIds != null ? entityIds : new String[0];
+        }
+        return null;
+    }
+
+    protected String getIndexedEntityId(SharedEvent event) {
+        return event instanceof AttributeEvent ? ((AttributeEvent) event).getEntityId() : null;
+    }
+
+    protected long getTick(long timestamp) {
+        return timestamp / EXPIRATION_TICK_MILLIS;
+    }
+
+    protected int getSlot(long tick) {
+        return (int) (tick % EXPIRATION_WHEEL_SLOTS);
     }
-}
\ No newline at end of file
+}
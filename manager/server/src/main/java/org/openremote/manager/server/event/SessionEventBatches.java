@@ -0,0 +1,206 @@
+/*
+ * Copyright 2017, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.server.event;
+
+import org.openremote.manager.server.concurrent.ManagerExecutorService;
+import org.openremote.model.event.shared.SharedEvent;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+/**
+ * Collects serialized {@link SharedEvent}s per session and sends them as one <code>EVENT[...]</code> frame, when
+ * the batch is full or when the first event of the batch has waited for the maximum delay. A batch of a single
+ * event is sent as a regular <code>EVENT{...}</code> frame.
+ * <p>
+ * Events with the same coalesce key (e.g. the attribute of an attribute event) replace each other in a batch.
+ * <p>
+ * A full batch is taken out under the lock of the session's batch and sent after the lock has been released,
+ * so new events of the session can be added while a frame is sent. Frames of a session are sent in order.
+ */
+public class SessionEventBatches {
+
+    class Batch {
+        List<String> events = new ArrayList<>();
+        final Map<Object, Integer> coalesceKeyIndex = new HashMap<>();
+        ScheduledFuture flushTask;
+        // Events taken out of the batch, waiting to be sent as frames
+        final Deque<List<String>> frames = new ArrayDeque<>();
+        boolean sending;
+    }
+
+    final protected ManagerExecutorService executorService;
+    final protected int maxEvents;
+    final protected int maxDelayMillis;
+    // Sends the frame text to the session
+    final protected BiConsumer<String, String> sender;
+    final protected Map<String, Batch> batches = new ConcurrentHashMap<>();
+
+    final protected AtomicLong eventCount = new AtomicLong();
+    final protected AtomicLong coalescedCount = new AtomicLong();
+    final protected AtomicLong frameCount = new AtomicLong();
+
+    public SessionEventBatches(ManagerExecutorService executorService,
+                               int maxEvents,
+                               int maxDelayMillis,
+                               BiConsumer<String, String> sender) {
+        this.executorService = executorService;
+        this.maxEvents = maxEvents;
+        this.maxDelayMillis = maxDelayMillis;
+        this.sender = sender;
+    }
+
+    /**
+     * @param eventJson   The serialized event, without message prefix.
+     * @param coalesceKey An event with the same key in the batch is replaced, optional.
+     */
+    public void add(String sessionKey, String eventJson, Object coalesceKey) {
+        eventCount.incrementAndGet();
+        Batch batch = batches.computeIfAbsent(sessionKey, key -> new Batch());
+        synchronized (batch) {
+            Integer index = coalesceKey != null ? batch.coalesceKeyIndex.get(coalesceKey) : null;
+            if (index != null) {
+                batch.events.set(index, eventJson);
+                coalescedCount.incrementAndGet();
+                return;
+            }
+            if (coalesceKey != null) {
+                batch.coalesceKeyIndex.put(coalesceKey, batch.events.size());
+            }
+            batch.events.add(eventJson);
+            if (batch.events.size() < maxEvents) {
+                if (batch.flushTask == null) {
+                    batch.flushTask = executorService.schedule(() -> flush(sessionKey, batch), maxDelayMillis);
+                }
+                return;
+            }
+            take(batch);
+        }
+        send(sessionKey, batch);
+    }
+
+    /**
+     * Discards the pending events of the session.
+     */
+    public void remove(String sessionKey) {
+        Batch batch = batches.remove(sessionKey);
+        if (batch != null) {
+            synchronized (batch) {
+                if (batch.flushTask != null) {
+                    batch.flushTask.cancel(false);
+                    batch.flushTask = null;
+                }
+                batch.events.clear();
+                batch.coalesceKeyIndex.clear();
+                batch.frames.clear();
+            }
+        }
+    }
+
+    public long getEventCount() {
+        return eventCount.get();
+    }
+
+    public long getCoalescedCount() {
+        return coalescedCount.get();
+    }
+
+    public long getFrameCount() {
+        return frameCount.get();
+    }
+
+    protected void flush(String sessionKey, Batch batch) {
+        synchronized (batch) {
+            batch.flushTask = null;
+            take(batch);
+        }
+        send(sessionKey, batch);
+    }
+
+    /**
+     * Takes the events out of the batch and queues them as a frame, must be called while holding the lock of
+     * the batch.
+     */
+    protected void take(Batch batch) {
+        if (batch.flushTask != null) {
+            batch.flushTask.cancel(false);
+            batch.flushTask = null;
+        }
+        if (batch.events.isEmpty())
+            return;
+        batch.frames.addLast(batch.events);
+        batch.events = new ArrayList<>();
+        batch.coalesceKeyIndex.clear();
+    }
+
+    /**
+     * Sends the queued frames of the session without holding the lock of the batch. If another thread is
+     * already sending frames of the session, it also sends the frames queued by this thread.
+     */
+    protected void send(String sessionKey, Batch batch) {
+        synchronized (batch) {
+            if (batch.sending)
+                return;
+            batch.sending = true;
+        }
+        try {
+            while (true) {
+                List<String> events;
+                synchronized (batch) {
+                    events = batch.frames.pollFirst();
+                    if (events == null) {
+                        batch.sending = false;
+                        return;
+                    }
+                }
+                String frame = events.size() == 1
+                    ? SharedEvent.MESSAGE_PREFIX + events.get(0)
+                    : SharedEvent.MESSAGE_PREFIX + "[" + String.join(",", events) + "]";
+                frameCount.incrementAndGet();
+                sender.accept(sessionKey, frame);
+            }
+        } catch (RuntimeException ex) {
+            synchronized (batch) {
+                batch.sending = false;
+            }
+            throw ex;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{" +
+            "maxEvents=" + maxEvents +
+            ", maxDelayMillis=" + maxDelayMillis +
+            ", sessions=" + batches.size() +
+            ", events=" + getEventCount() +
+            ", coalesced=" + getCoalescedCount() +
+            ", frames=" + getFrameCount() +
+            '}';
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2017, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.server.metrics;
+
+import com.google.common.cache.CacheStats;
+import org.openremote.container.web.WebResource;
+import org.openremote.container.web.socket.WebsocketComponent;
+import org.openremote.container.web.socket.WebsocketSessionQueue;
+import org.openremote.manager.server.asset.AssetProcessingService;
+import org.openremote.manager.server.asset.AssetStorageService;
+import org.openremote.manager.server.security.ManagerIdentityService;
+import org.openremote.manager.server.security.TenantRegistry;
+import org.openremote.manager.shared.http.RequestParams;
+import org.openremote.manager.shared.metrics.MetricsResource;
+import org.openremote.model.value.ObjectValue;
+import org.openremote.model.value.Values;
+
+import javax.ws.rs.BeanParam;
+
+public class MetricsResourceImpl extends WebResource implements MetricsResource {
+
+    final protected AssetProcessingService assetProcessingService;
+    final protected AssetStorageService assetStorageService;
+    final protected WebsocketComponent websocketComponent;
+    final protected ManagerIdentityService identityService;
+
+    public MetricsResourceImpl(AssetProcessingService assetProcessingService,
+                               AssetStorageService assetStorageService,
+                               WebsocketComponent websocketComponent,
+                               ManagerIdentityService identityService) {
+        this.assetProcessingService = assetProcessingService;
+        this.assetStorageService = assetStorageService;
+        this.websocketComponent = websocketComponent;
+        this.identityService = identityService;
+    }
+
+    @Override
+    public ObjectValue getAssetProcessingMetrics(@BeanParam RequestParams requestParams) {
+        return Values.createObject()
+            .put("stages", assetProcessingService.getMetrics().toValue())
+            .put("queues", assetProcessingService.getQueueSizes());
+    }
+
+    @Override
+    public void resetAssetProcessingMetrics(@BeanParam RequestParams requestParams) {
+        assetProcessingService.getMetrics().reset();
+    }
+
+    @Override
+    public ObjectValue getAssetCacheMetrics(@BeanParam RequestParams requestParams) {
+        CacheStats stats = assetStorageService.getAssetCacheStats();
+        return Values.createObject()
+            .put("size", assetStorageService.getAssetCacheSize())
+            .put("hits", stats.hitCount())
+            .put("misses", stats.missCount())
+            .put("evictions", stats.evictionCount());
+    }
+
+    @Override
+    public ObjectValue getWebsocketMetrics(@BeanParam RequestParams requestParams) {
+        long queued = 0, sent = 0, coalesced = 0;
+        int depth = 0, maxDepth = 0;
+        for (WebsocketSessionQueue sessionQueue : websocketComponent.getSessionQueues()) {
+            queued += sessionQueue.getQueuedCount();
+            sent += sessionQueue.getSentCount();
+            coalesced += sessionQueue.getCoalescedCount();
+            depth = Math.max(depth, sessionQueue.getDepth());
+            maxDepth = Math.max(maxDepth, sessionQueue.getMaxDepth());
+        }
+        return Values.createObject()
+            .put("sessions", websocketComponent.getWebsocketSessions().getAll().size())
+            .put("encoded", websocketComponent.getEncodedCount())
+            .put("queued", queued)
+            .put("sent", sent)
+            .put("coalesced", coalesced)
+            .put("dropped", websocketComponent.getDroppedCount())
+            .put("depth", depth)
+            .put("maxDepth", maxDepth);
+    }
+
+    @Override
+    public ObjectValue getTenantRegistryMetrics(@BeanParam RequestParams requestParams) {
+        TenantRegistry tenantRegistry = identityService.getTenantRegistry();
+        if (tenantRegistry == null)
+            return Values.createObject();
+        return Values.createObject()
+            .put("tenants", tenantRegistry.getTenantCount())
+            .put("stalenessMillis", tenantRegistry.getStalenessMillis())
+            .put("refreshes", tenantRegistry.getRefreshCount())
+            .put("refreshFailures", tenantRegistry.getRefreshFailureCount());
+    }
+}
@@ -41,7 +41,13 @@ public class ManagerPersistenceService extends PersistenceService {
         if (!container.getService(ManagerIdentityService.class).isKeycloakEnabled()) {
             importFiles.add("BasicIdentityProvider.sql");
         }
-        importFiles.add("GetAssetTreePath.sql");
+        importFiles.add("UpdateAssetPath.sql");
+        importFiles.add("AssetPath.sql");
+        importFiles.add("AssetAttributeMeta.sql");
+        importFiles.add("AssetAttributeIndexes.sql");
+        importFiles.add("AssetNameIndexes.sql");
+        importFiles.add("AssetLocationIndexes.sql");
+        importFiles.add("AssetDatapointIndexes.sql");
         importFiles.add("Constraints.sql");
         persistenceUnitProperties.put(
             "hibernate.hbm2ddl.import_files",
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2017, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.server.rules;
+
+import org.openremote.model.asset.AssetState;
+import org.openremote.model.attribute.AttributeRef;
+import org.openremote.model.util.Pair;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Holds the current {@link AssetState} of each attribute, with optional data such as a fact handle. There
+ * is only one asset state per {@link AttributeRef}, putting a new asset state replaces the old state. Asset
+ * states can be found by realm and by the identifier of any asset in their path, without scanning all states.
+ * <p>
+ * This class is not thread-safe, callers must synchronize access.
+ */
+public class AssetStateStore<T> {
+
+    // Asset state and data, in order of first insertion
+    final protected Map<AttributeRef, Pair<AssetState, T>> assetStates = new LinkedHashMap<>();
+    final protected Map<String, Set<AttributeRef>> realmIndex = new HashMap<>();
+    // Attribute references of asset states by the identifiers of all assets in their path
+    final protected Map<String, Set<AttributeRef>> pathIndex = new HashMap<>();
+
+    /**
+     * @return <code>true</code> if the store has an asset state which is {@link AssetState#equals} the given state.
+     */
+    public boolean contains(AssetState assetState) {
+        Pair<AssetState, T> entry = assetStates.get(assetState.getAttributeRef());
+        return entry != null && entry.key.equals(assetState);
+    }
+
+    public AssetState get(AttributeRef attributeRef) {
+        Pair<AssetState, T> entry = assetStates.get(attributeRef);
+        return entry != null ? entry.key : null;
+    }
+
+    public T getData(AttributeRef attributeRef) {
+        Pair<AssetState, T> entry = assetStates.get(attributeRef);
+        return entry != null ? entry.value : null;
+    }
+
+    /**
+     * Stores the asset state and replaces any existing state of the same attribute.
+     *
+     * @return The replaced asset state and its data, or <code>null</code>.
+     */
+    public Pair<AssetState, T> put(AssetState assetState, T data) {
+        AttributeRef attributeRef = assetState.getAttributeRef();
+        Pair<AssetState, T> previous = assetStates.put(attributeRef, new Pair<>(assetState, data));
+        if (previous != null) {
+            // The asset might have been moved
+            unindex(attributeRef, previous.key);
+        }
+        index(attributeRef, assetState);
+        return previous;
+    }
+
+    /**
+     * @return The removed asset state and its data, or <code>null</code>.
+     */
+    public Pair<AssetState, T> remove(AttributeRef attributeRef) {
+        Pair<AssetState, T> previous = assetStates.remove(attributeRef);
+        if (previous != null) {
+            unindex(attributeRef, previous.key);
+        }
+        return previous;
+    }
+
+    /**
+     * @return All asset states, in order of first insertion.
+     */
+    public List<AssetState> getAll() {
+        return assetStates.values().stream().map(entry -> entry.key).collect(Collectors.toList());
+    }
+
+    public List<AssetState> getInRealm(String realmId) {
+        return getIndexed(realmIndex, realmId);
+    }
+
+    /**
+     * @return The asset states of the given asset and all its descendants.
+     */
+    public List<AssetState> getInPath(String assetId) {
+        return getIndexed(pathIndex, assetId);
+    }
+
+    public int size() {
+        return assetStates.size();
+    }
+
+    public boolean isEmpty() {
+        return assetStates.isEmpty();
+    }
+
+    public void clear() {
+        assetStates.clear();
+        realmIndex.clear();
+        pathIndex.clear();
+    }
+
+    protected List<AssetState> getIndexed(Map<String, Set<AttributeRef>> index, String key) {
+        Set<AttributeRef> attributeRefs = index.get(key);
+        if (attributeRefs == null)
+            return Collections.emptyList();
+        List<AssetState> result = new ArrayList<>(attributeRefs.size());
+        for (AttributeRef attributeRef : attributeRefs) {
+            result.add(assetStates.get(attributeRef).key);
+        }
+        return result;
+    }
+
+    protected void index(AttributeRef attributeRef, AssetState assetState) {
+        if (assetState.getRealmId() != null) {
+            realmIndex.computeIfAbsent(assetState.getRealmId(), key -> new LinkedHashSet<>()).add(attributeRef);
+        }
+        if (assetState.getPathFromRoot() != null) {
+            for (String assetId : assetState.getPathFromRoot()) {
+                pathIndex.computeIfAbsent(assetId, key -> new LinkedHashSet<>()).add(attributeRef);
+            }
+        }
+    }
+
+    protected void unindex(AttributeRef attributeRef, AssetState assetState) {
+        if (assetState.getRealmId() != null) {
+            removeIndexed(realmIndex, assetState.getRealmId(), attributeRef);
+        }
+        if (assetState.getPathFromRoot() != null) {
+            for (String assetId : assetState.getPathFromRoot()) {
+                removeIndexed(pathIndex, assetId, attributeRef);
+            }
+        }
+    }
+
+    protected void removeIndexed(Map<String, Set<AttributeRef>> index, String key, AttributeRef attributeRef) {
+        Set<AttributeRef> attributeRefs = index.get(key);
+        if (attributeRefs != null) {
+            attributeRefs.remove(attributeRef);
+            if (attributeRefs.isEmpty())
+                index.remove(key);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{" +
+            "size=" + size() +
+            ", realms=" + realmIndex.size() +
+            '}';
+    }
+}
@@ -19,17 +19,23 @@
  */
 package org.openremote.manager.server.rules;
 
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import org.drools.compiler.kie.builder.impl.InternalKieBuilder;
+import org.drools.compiler.kie.builder.impl.InternalKieModule;
 import org.drools.core.common.InternalWorkingMemory;
 import org.drools.core.time.InternalSchedulerService;
 import org.drools.core.time.JobContext;
 import org.drools.core.time.JobHandle;
 import org.drools.core.time.impl.*;
+import org.drools.core.util.Drools;
 import org.drools.template.ObjectDataCompiler;
 import org.kie.api.KieServices;
 import org.kie.api.builder.KieBuilder;
 import org.kie.api.builder.KieFileSystem;
 import org.kie.api.builder.Message;
 import org.kie.api.builder.ReleaseId;
+import org.kie.api.builder.Results;
 import org.kie.api.builder.model.KieBaseModel;
 import org.kie.api.builder.model.KieModuleModel;
 import org.kie.api.builder.model.KieSessionModel;
@@ -42,6 +48,7 @@ import org.kie.api.runtime.KieSessionConfiguration;
 import org.kie.api.runtime.conf.ClockTypeOption;
 import org.kie.api.runtime.rule.FactHandle;
 import org.kie.api.time.SessionClock;
+import org.kie.internal.builder.IncrementalResults;
 import org.openremote.container.timer.TimerService;
 import org.openremote.container.util.Util;
 import org.openremote.manager.server.asset.AssetProcessingService;
@@ -68,8 +75,13 @@ import java.io.ByteArrayInputStream;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.logging.Level;
@@ -83,7 +95,31 @@ public class RulesEngine<T extends Ruleset> {
     public static final Logger LOG = Logger.getLogger(RulesEngine.class.getName());
 
     private static final int AUTO_START_DELAY_SECONDS = 2;
-    private static Long counter = 1L;
+    // Maximum number of dispatched tasks executed before the thread is given to another engine
+    private static final int INBOUND_DRAIN_MAX = 1000;
+
+    /**
+     * A task waiting in the inbound queue, a failure of the task completes the result exceptionally and is
+     * reported by the dispatcher.
+     */
+    protected static class DispatchedTask {
+        final Runnable task;
+        final CompletableFuture<Void> result = new CompletableFuture<>();
+
+        DispatchedTask(Runnable task) {
+            this.task = task;
+        }
+
+        void run() {
+            try {
+                task.run();
+                result.complete(null);
+            } catch (RuntimeException | Error ex) {
+                LOG.log(Level.FINE, "Executing dispatched task failed", ex);
+                result.completeExceptionally(ex);
+            }
+        }
+    }
 
     static final protected Util UTIL = new Util();
 
@@ -96,18 +132,32 @@ public class RulesEngine<T extends Ruleset> {
     final protected Class<T> rulesetType;
     final protected String id;
     final protected Function<RulesEngine, AgendaEventListener> rulesEngineListeners;
+    final protected RulesModuleCache moduleCache;
 
     protected final Map<Long, T> rulesets = new LinkedHashMap<>();
     protected String rulesetsDebug;
     protected KieSession knowledgeSession;
     protected KieServices kieServices;
     protected KieFileSystem kfs;
+    // Content hash of each ruleset file in the file system, in path order
+    protected final Map<String, String> rulesetHashes = new TreeMap<>();
     // We need to be able to reference the KieModule dynamically generated for this engine
     // from the singleton KieRepository to do this we need a pom.xml file with a release ID - crazy drools!!
     protected ReleaseId releaseId;
+    protected KieBuilder kieBuilder;
+    protected KieContainer kieContainer;
+    // Statistics of the last deployment
+    protected boolean lastDeploymentIncremental;
+    protected boolean lastDeploymentCached;
+    protected long lastCompileMillis;
+    protected int lastReinsertedCount;
     protected Future runningFuture;
     protected Throwable error;
-    final protected Map<AssetState, FactHandle> assetStates = new HashMap<>();
+    final protected AssetStateStore<FactHandle> assetStates = new AssetStateStore<>();
+    // Facts and events waiting to be fed into this engine, in order, by at most one dispatch thread at a time
+    final protected Queue<DispatchedTask> inbound = new ConcurrentLinkedQueue<>();
+    final protected AtomicBoolean inboundScheduled = new AtomicBoolean();
+    final protected AtomicLong dispatchedCount = new AtomicLong();
     // This consumer is useful in testing, as we can't have a reliable event fact
     // count from Drools session (events are expired automatically))
     protected Consumer<AssetEvent> assetEventsConsumer;
@@ -121,7 +171,8 @@ public class RulesEngine<T extends Ruleset> {
                        ManagerIdentityService identityService,
                        Class<T> rulesetType,
                        String id,
-                       Function<RulesEngine, AgendaEventListener> rulesEngineListeners) {
+                       Function<RulesEngine, AgendaEventListener> rulesEngineListeners,
+                       RulesModuleCache moduleCache) {
         this.timerService = timerService;
         this.executorService = executorService;
         this.assetStorageService = assetStorageService;
@@ -131,10 +182,7 @@ public class RulesEngine<T extends Ruleset> {
         this.rulesetType = rulesetType;
         this.id = id;
         this.rulesEngineListeners = rulesEngineListeners;
-    }
-
-    protected synchronized static Long getNextCounter() {
-        return counter++;
+        this.moduleCache = moduleCache;
     }
 
     @SuppressWarnings("unchecked")
@@ -189,9 +237,10 @@ public class RulesEngine<T extends Ruleset> {
     }
 
     /**
-     * Adds the ruleset to the engine by first stopping the engine and
-     * then deploying new rules and then restarting the engine (after
-     * {@link #AUTO_START_DELAY_SECONDS}) to prevent excessive engine stop/start.
+     * Adds the ruleset to the engine. If the engine is running, only the ruleset is compiled and the knowledge
+     * base of the running session is updated, facts and events in working memory are kept. Otherwise the engine
+     * is stopped, all rulesets are compiled and the engine is restarted (after {@link #AUTO_START_DELAY_SECONDS})
+     * to prevent excessive engine stop/start.
      * <p>
      * If engine is in an error state (one of the rulesets failed to deploy)
      * then the engine will not restart.
@@ -216,28 +265,33 @@ public class RulesEngine<T extends Ruleset> {
             return true;
         }
 
-        if (isRunning()) {
-            stop();
-        }
+        boolean incremental = isRunning() && !isError();
 
-        // Stop any running start timer
-        if (startTimer != null) {
-            startTimer.cancel(false);
+        if (!incremental) {
+            if (isRunning()) {
+                stop();
+            }
+
+            // Stop any running start timer
+            if (startTimer != null) {
+                startTimer.cancel(false);
+            }
         }
 
         // Check if ruleset is already deployed (maybe an older version)
         if (existingRuleset != null) {
-            // Remove this old rules file
-            kfs.delete("src/main/resources/" + ruleset.getId());
-            //noinspection SuspiciousMethodCalls
-            rulesets.remove(existingRuleset);
+            // Remove this old rules file, it is replaced when the new version is written
+            deleteRulesetFile(ruleset);
+            rulesets.remove(ruleset.getId());
             updateRulesetsDebug();
         }
 
-        LOG.info("Adding ruleset: " + ruleset);
+        LOG.info("Adding ruleset" + (incremental ? " to running engine: " : ": ") + ruleset);
 
         boolean addSuccessful = false;
         error = null;
+        lastDeploymentCached = false;
+        long compileStartTime = System.currentTimeMillis();
 
         try {
             // If the ruleset references a template asset, compile it as a template
@@ -246,21 +300,21 @@ public class RulesEngine<T extends Ruleset> {
                 : ruleset.getRules();
 
             // ID will be unique within the scope of a rules engine as ruleset will all be of same type
-            kfs.write("src/main/resources/" + ruleset.getId() + ".drl", drl);
+            writeRulesetFile(ruleset, drl);
 
             // Unload the rules string from the ruleset we don't need it anymore and don't want it using memory
             ruleset.setRules(null);
-            KieBuilder kieBuilder = kieServices.newKieBuilder(kfs).buildAll();
 
-            if (kieBuilder.getResults().hasMessages(Message.Level.ERROR)) {
-                Collection<Message> errors = kieBuilder.getResults().getMessages(Message.Level.ERROR);
+            Collection<Message> errors = incremental ? updateKnowledgeBase(getRulesetPath(ruleset)) : buildKnowledgeBase();
+
+            if (!errors.isEmpty()) {
                 LOG.severe("Error in ruleset: " + ruleset);
                 for (Message error : errors) {
                     LOG.severe(error.getText());
                 }
                 LOG.fine(drl);
                 // If compilation failed, remove rules from FileSystem so it won't fail on next pass here if any
-                kfs.delete("src/main/resources/" + ruleset.getId());
+                deleteRulesetFile(ruleset);
             } else {
                 LOG.info("Added ruleset: " + ruleset);
                 addSuccessful = true;
@@ -269,19 +323,31 @@ public class RulesEngine<T extends Ruleset> {
             LOG.log(Level.SEVERE, "Error in ruleset: " + ruleset, e);
             error = e;
             // If compilation failed, remove rules from FileSystem so it won't fail on next pass here if any
-            kfs.delete("src/main/resources/" + ruleset.getId());
+            deleteRulesetFile(ruleset);
         }
 
+        lastDeploymentIncremental = incremental;
+        lastCompileMillis = System.currentTimeMillis() - compileStartTime;
+        lastReinsertedCount = 0;
+
         if (!addSuccessful) {
             error = new RuntimeException("Ruleset contains an error: " + ruleset);
 
+            // The session might have been updated partially
+            if (isRunning()) {
+                stop();
+            }
+
             // Update status of each ruleset
             rulesets.forEach((id, rd) -> {
                 if (rd.getDeploymentStatus() == Ruleset.DeploymentStatus.DEPLOYED) {
                     rd.setDeploymentStatus(Ruleset.DeploymentStatus.READY);
                 }
             });
+        } else if (incremental) {
+            LOG.info("On " + this + ", updated running engine, compile time: " + lastCompileMillis + "ms, reinserted facts: 0");
         } else {
+            LOG.info("On " + this + ", compiled all rulesets, compile time: " + lastCompileMillis + "ms");
             startTimer = executorService.schedule(this::start, AUTO_START_DELAY_SECONDS * 1000);
         }
 
@@ -293,6 +359,10 @@ public class RulesEngine<T extends Ruleset> {
         return addSuccessful;
     }
 
+    /**
+     * Removes the ruleset from the engine. If the engine is running, the knowledge base of the running session is
+     * updated, otherwise the remaining rulesets are compiled and the engine is restarted.
+     */
     protected synchronized void removeRuleset(Ruleset ruleset) {
         if (kfs == null) {
             return;
@@ -304,6 +374,28 @@ public class RulesEngine<T extends Ruleset> {
             return;
         }
 
+        // Remove this old rules file
+        deleteRulesetFile(ruleset);
+        rulesets.remove(ruleset.getId());
+        updateRulesetsDebug();
+
+        long compileStartTime = System.currentTimeMillis();
+        lastDeploymentCached = false;
+        if (isRunning() && !isError() && !isEmpty()) {
+            Collection<Message> errors = updateKnowledgeBase(getRulesetPath(ruleset));
+            lastDeploymentIncremental = true;
+            lastCompileMillis = System.currentTimeMillis() - compileStartTime;
+            lastReinsertedCount = 0;
+            if (errors.isEmpty()) {
+                LOG.info("On " + this + ", removed ruleset from running engine, compile time: " + lastCompileMillis + "ms, reinserted facts: 0");
+                return;
+            }
+            for (Message error : errors) {
+                LOG.severe(error.getText());
+            }
+            LOG.warning("On " + this + ", updating running engine failed, restarting");
+        }
+
         if (isRunning()) {
             stop();
         }
@@ -313,11 +405,6 @@ public class RulesEngine<T extends Ruleset> {
             startTimer.cancel(false);
         }
 
-        // Remove this old rules file
-        kfs.delete("src/main/resources/" + ruleset.getId());
-        rulesets.remove(ruleset.getId());
-        updateRulesetsDebug();
-
         // Update status of each ruleset
         boolean anyFailed = rulesets
             .values()
@@ -334,18 +421,167 @@ public class RulesEngine<T extends Ruleset> {
         }
 
         if (!isError() && !isEmpty()) {
+            // The remaining rulesets must be compiled again, the previous build still has the removed rules
+            Collection<Message> errors = buildKnowledgeBase();
+            lastDeploymentIncremental = false;
+            lastCompileMillis = System.currentTimeMillis() - compileStartTime;
+            if (!errors.isEmpty()) {
+                for (Message error : errors) {
+                    LOG.severe(error.getText());
+                }
+                error = new RuntimeException("Rulesets contain an error: " + rulesetsDebug);
+                return;
+            }
+            LOG.info("On " + this + ", compiled all rulesets, compile time: " + lastCompileMillis + "ms");
             // Queue engine start
             startTimer = executorService.schedule(this::start, AUTO_START_DELAY_SECONDS * 1000);
         }
     }
 
+    /**
+     * Compiles all rulesets of this engine, or loads the module from the {@link RulesModuleCache} if the
+     * rulesets have been compiled before. The module is stored in the repository with a release version
+     * which is the hash of the rulesets, a previous module of this engine is removed from the repository
+     * if it is no longer used by a running session.
+     *
+     * @return The compilation errors.
+     */
+    protected Collection<Message> buildKnowledgeBase() {
+        ReleaseId previousReleaseId = releaseId;
+        String moduleHash = getModuleHash();
+        releaseId = kieServices.newReleaseId("org.openremote", "openremote-kiemodule", moduleHash);
+        kfs.generateAndWritePomXML(releaseId);
+
+        Collection<Message> errors = null;
+        byte[] cachedModule = moduleCache != null ? moduleCache.get(getModuleCacheKey(), moduleHash) : null;
+        if (cachedModule != null) {
+            try {
+                kieServices.getRepository().addKieModule(kieServices.getResources().newByteArrayResource(cachedModule));
+                // The next incremental update has to compile everything, there is no builder state
+                kieBuilder = null;
+                lastDeploymentCached = true;
+                errors = Collections.emptyList();
+                LOG.info("On " + this + ", loaded compiled rulesets from cache: " + moduleHash);
+            } catch (Exception ex) {
+                LOG.log(Level.WARNING, "On " + this + ", loading cached rules module failed, compiling rulesets", ex);
+            }
+        }
+
+        if (errors == null) {
+            kieBuilder = kieServices.newKieBuilder(kfs).buildAll();
+            errors = kieBuilder.getResults().getMessages(Message.Level.ERROR);
+            if (errors.isEmpty() && moduleCache != null) {
+                moduleCache.put(getModuleCacheKey(), moduleHash, ((InternalKieModule) kieBuilder.getKieModule()).getBytes());
+            }
+        }
+
+        if (errors.isEmpty() && kieContainer == null) {
+            removeModule(previousReleaseId);
+        }
+        return errors;
+    }
+
+    /**
+     * Compiles only the given changed or deleted ruleset files and updates the knowledge base of the running
+     * session, the session keeps all facts and events.
+     *
+     * @return The compilation and update errors.
+     */
+    protected Collection<Message> updateKnowledgeBase(String... rulesetPaths) {
+        ReleaseId previousReleaseId = releaseId;
+        List<Message> errors;
+        if (kieBuilder == null) {
+            // Nothing was built so far (or the module was loaded from cache), we can't build incrementally
+            errors = new ArrayList<>(buildKnowledgeBase());
+        } else {
+            IncrementalResults incrementalResults = ((InternalKieBuilder) kieBuilder).createFileSet(rulesetPaths).build();
+            errors = incrementalResults.getAddedMessages()
+                .stream()
+                .filter(message -> message.getLevel() == Message.Level.ERROR)
+                .collect(Collectors.toList());
+        }
+        if (errors.isEmpty() && kieContainer != null) {
+            Results updateResults = kieContainer.updateToVersion(releaseId);
+            errors.addAll(updateResults.getMessages(Message.Level.ERROR));
+            if (errors.isEmpty()) {
+                removeModule(previousReleaseId);
+            }
+        }
+        return errors;
+    }
+
+    protected void writeRulesetFile(Ruleset ruleset, String drl) {
+        kfs.write(getRulesetPath(ruleset), drl);
+        rulesetHashes.put(getRulesetPath(ruleset), Hashing.sha256().hashString(drl, StandardCharsets.UTF_8).toString());
+    }
+
+    protected void deleteRulesetFile(Ruleset ruleset) {
+        kfs.delete(getRulesetPath(ruleset));
+        rulesetHashes.remove(getRulesetPath(ruleset));
+    }
+
+    /**
+     * @return A hash of everything the compiled module depends on: application and Drools version, engine and
+     * ruleset files.
+     */
+    protected String getModuleHash() {
+        Hasher hasher = Hashing.sha256().newHasher()
+            .putString(RulesModuleCache.APPLICATION_VERSION, StandardCharsets.UTF_8)
+            .putString(Drools.getFullVersion(), StandardCharsets.UTF_8)
+            .putString(getModuleCacheKey(), StandardCharsets.UTF_8);
+        rulesetHashes.forEach((path, hash) ->
+            hasher.putString(path, StandardCharsets.UTF_8).putString(hash, StandardCharsets.UTF_8)
+        );
+        return hasher.hash().toString();
+    }
+
+    protected String getModuleCacheKey() {
+        return rulesetType.getSimpleName() + "-" + (id != null ? id.replaceAll("[^A-Za-z0-9_]", "_") : "global");
+    }
+
+    protected void removeModule(ReleaseId moduleReleaseId) {
+        if (moduleReleaseId != null && !moduleReleaseId.equals(releaseId)) {
+            kieServices.getRepository().removeKieModule(moduleReleaseId);
+        }
+    }
+
+    protected String getRulesetPath(Ruleset ruleset) {
+        return "src/main/resources/" + ruleset.getId() + ".drl";
+    }
+
+    /**
+     * @return <code>true</code> if the last ruleset was added or removed without restarting the engine.
+     */
+    public boolean isLastDeploymentIncremental() {
+        return lastDeploymentIncremental;
+    }
+
+    /**
+     * @return <code>true</code> if the last full build loaded the compiled rulesets from the cache.
+     */
+    public boolean isLastDeploymentCached() {
+        return lastDeploymentCached;
+    }
+
+    /**
+     * @return The time it took to compile the rulesets of the last added or removed ruleset.
+     */
+    public long getLastCompileMillis() {
+        return lastCompileMillis;
+    }
+
+    /**
+     * @return The number of facts inserted into working memory after the last deployment.
+     */
+    public int getLastReinsertedCount() {
+        return lastReinsertedCount;
+    }
+
     protected void initialiseEngine() {
         // Initialise
         kieServices = KieServices.Factory.get();
         KieModuleModel kieModuleModel = kieServices.newKieModuleModel();
 
-        String versionId = getNextCounter().toString();
-        releaseId = kieServices.newReleaseId("org.openremote", "openremote-kiemodule", versionId);
         KieBaseModel kieBaseModel = kieModuleModel.newKieBaseModel("OpenRemoteKModule");
 
         kieBaseModel
@@ -356,7 +592,6 @@ public class RulesEngine<T extends Ruleset> {
             .setDefault(true)
             .setType(KieSessionModel.KieSessionType.STATEFUL);
         kfs = kieServices.newKieFileSystem();
-        kfs.generateAndWritePomXML(releaseId);
         kfs.writeKModuleXML(kieModuleModel.toXML());
 
         LOG.info("Initialised rules for deployment '" + getId() + "':" + kieBaseModel.toString());
@@ -381,7 +616,7 @@ public class RulesEngine<T extends Ruleset> {
 
         // Note each rule engine has its' own KieModule which are stored in a singleton register by drools
         // we need to ensure we get the right module here otherwise we could be using the wrong rules
-        KieContainer kieContainer = kieServices.newKieContainer(releaseId);
+        kieContainer = kieServices.newKieContainer(releaseId);
 
         KieSessionConfiguration kieSessionConfiguration = kieServices.newKieSessionConfiguration();
 
@@ -441,8 +676,9 @@ public class RulesEngine<T extends Ruleset> {
 
             // Insert initial asset states
             try {
-                Set<AssetState> initialState = assetStates.keySet();
+                List<AssetState> initialState = assetStates.getAll();
                 LOG.info("On " + this + ", inserting initial asset states: " + initialState.size());
+                lastReinsertedCount = initialState.size();
                 for (AssetState assetState : initialState) {
                     insertAssetState(assetState);
                 }
@@ -492,12 +728,72 @@ public class RulesEngine<T extends Ruleset> {
                 knowledgeSession.dispose();
                 LOG.fine("On " + this + ", knowledge session disposed");
             } finally {
+                kieContainer = null;
                 runningFuture.cancel(true);
                 runningFuture = null;
             }
         }
     }
 
+    /**
+     * Queues the task for execution on a dispatch thread, tasks of this engine are executed in order. This
+     * doesn't block the caller on the monitor of this engine, so other engines can be fed concurrently.
+     *
+     * @return Completed when the task has been executed, exceptionally if it failed.
+     */
+    protected CompletableFuture<Void> dispatch(Runnable task) {
+        DispatchedTask dispatchedTask = new DispatchedTask(task);
+        inbound.add(dispatchedTask);
+        scheduleInbound();
+        return dispatchedTask.result;
+    }
+
+    /**
+     * @return The number of dispatched tasks which have not been executed yet.
+     */
+    public int getInboundSize() {
+        return inbound.size();
+    }
+
+    public long getDispatchedCount() {
+        return dispatchedCount.get();
+    }
+
+    /**
+     * If the dispatch executor rejects the drain (e.g. when it has been shut down), the queued tasks fail.
+     */
+    protected void scheduleInbound() {
+        if (!inbound.isEmpty() && inboundScheduled.compareAndSet(false, true)) {
+            try {
+                executorService.getRulesDispatchExecutor().execute(this::drainInbound);
+            } catch (RejectedExecutionException ex) {
+                // Tasks queued after this are failed by their dispatcher, which can now schedule again
+                inboundScheduled.set(false);
+                DispatchedTask task;
+                while ((task = inbound.poll()) != null) {
+                    task.result.completeExceptionally(ex);
+                }
+            }
+        }
+    }
+
+    protected void drainInbound() {
+        try {
+            DispatchedTask task;
+            int executed = 0;
+            // Yield the thread to other engines after a while
+            while (executed < INBOUND_DRAIN_MAX && (task = inbound.poll()) != null) {
+                task.run();
+                executed++;
+            }
+            dispatchedCount.addAndGet(executed);
+        } finally {
+            inboundScheduled.set(false);
+            // Tasks might have been queued after the last poll
+            scheduleInbound();
+        }
+    }
+
     protected synchronized void insertAssetState(AssetState newAssetState) {
         FactHandle factHandle = insertIntoSession(newAssetState);
         assetStates.put(newAssetState, factHandle);
@@ -505,7 +801,7 @@ public class RulesEngine<T extends Ruleset> {
 
     protected synchronized void updateAssetState(AssetState assetState) {
         // Check if fact already exists using equals()
-        if (!assetStates.containsKey(assetState)) {
+        if (!assetStates.contains(assetState)) {
             // Delete any existing fact for this attribute ref
             // Put the fact into working memory and store the handle
             retractAssetState(assetState);
@@ -521,14 +817,10 @@ public class RulesEngine<T extends Ruleset> {
     protected synchronized void retractAssetState(AssetState assetState) {
 
         // If there already is a fact in working memory for this attribute then delete it
-        AssetState update = assetStates.keySet()
-            .stream()
-            .filter(au -> au.attributeRefsEqual(assetState))
-            .findFirst()
-            .orElse(null);
-
         // Always remove from asset states
-        FactHandle factHandle = update != null ? assetStates.remove(update) : null;
+        Pair<AssetState, FactHandle> removed = assetStates.remove(assetState.getAttributeRef());
+        AssetState update = removed != null ? removed.key : null;
+        FactHandle factHandle = removed != null ? removed.value : null;
 
         if (factHandle != null) {
             if (isRunning()) {
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2017, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.server.rules;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.*;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * Stores compiled KieModules (kjar archives) of rules engines in a directory, so unchanged rulesets don't
+ * have to be compiled again after a restart. Each rules engine has at most one cached module, identified
+ * by a hash of the rulesets it was compiled from.
+ * <p>
+ * Cached modules contain bytecode which is loaded without further checks, so the directory must only be
+ * writable by the manager. It is created with owner-only permissions, an existing directory which is
+ * writable by group or others is not used.
+ */
+public class RulesModuleCache {
+
+    private static final Logger LOG = Logger.getLogger(RulesModuleCache.class.getName());
+
+    public static final String FILE_EXTENSION = ".kjar";
+
+    /**
+     * Modules compiled by another build of the application are not reused.
+     */
+    public static final String APPLICATION_VERSION = getApplicationVersion();
+
+    final protected Path directory;
+
+    public RulesModuleCache(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Creates the directory with owner-only permissions if it doesn't exist.
+     *
+     * @return <code>false</code> if the directory can't be created or other users can write to it.
+     */
+    public boolean init() {
+        boolean posix = directory.getFileSystem().supportedFileAttributeViews().contains("posix");
+        try {
+            if (!Files.exists(directory)) {
+                if (posix) {
+                    Files.createDirectories(directory, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+                } else {
+                    Files.createDirectories(directory);
+                }
+            }
+            if (posix) {
+                Set<PosixFilePermission> permissions = Files.getPosixFilePermissions(directory);
+                if (permissions.contains(PosixFilePermission.GROUP_WRITE) || permissions.contains(PosixFilePermission.OTHERS_WRITE)) {
+                    LOG.warning("Rules module cache directory is writable by other users, not using it: " + directory);
+                    return false;
+                }
+            }
+            return true;
+        } catch (IOException ex) {
+            LOG.log(Level.WARNING, "Creating rules module cache directory failed: " + directory, ex);
+            return false;
+        }
+    }
+
+    /**
+     * @return The cached module, or <code>null</code> if there is none for the given engine and hash.
+     */
+    public byte[] get(String engineKey, String moduleHash) {
+        Path file = getFile(engineKey, moduleHash);
+        if (!Files.isRegularFile(file))
+            return null;
+        try {
+            return Files.readAllBytes(file);
+        } catch (IOException ex) {
+            LOG.log(Level.WARNING, "Reading cached rules module failed: " + file, ex);
+            return null;
+        }
+    }
+
+    /**
+     * Stores the module and removes any other cached module of the given engine.
+     */
+    public void put(String engineKey, String moduleHash, byte[] module) {
+        Path file = getFile(engineKey, moduleHash);
+        try {
+            // Write a complete file or nothing, another process might read it
+            Path tempFile = Files.createTempFile(directory, engineKey + ".", ".tmp");
+            Files.write(tempFile, module);
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            LOG.fine("Stored rules module in cache: " + file);
+        } catch (IOException ex) {
+            LOG.log(Level.WARNING, "Storing rules module in cache failed: " + file, ex);
+            return;
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            files
+                .filter(path -> !path.equals(file))
+                .filter(path -> path.getFileName().toString().startsWith(engineKey + "-"))
+                .forEach(path -> {
+                    try {
+                        Files.deleteIfExists(path);
+                    } catch (IOException ex) {
+                        LOG.log(Level.FINE, "Removing stale rules module from cache failed: " + path, ex);
+                    }
+                });
+        } catch (IOException ex) {
+            LOG.log(Level.FINE, "Listing rules module cache failed: " + directory, ex);
+        }
+    }
+
+    /**
+     * @return The implementation version of the manager, or the modification time of its classes if it's not
+     * packaged with a version.
+     */
+    protected static String getApplicationVersion() {
+        String version = RulesModuleCache.class.getPackage().getImplementationVersion();
+        if (version != null) {
+            return version;
+        }
+        try {
+            URL location = RulesModuleCache.class.getProtectionDomain().getCodeSource().getLocation();
+            return Long.toString(Files.getLastModifiedTime(Paths.get(location.toURI())).toMillis());
+        } catch (Exception ex) {
+            LOG.log(Level.FINE, "Reading modification time of application classes failed", ex);
+            return "unknown";
+        }
+    }
+
+    protected Path getFile(String engineKey, String moduleHash) {
+        return directory.resolve(engineKey + "-" + moduleHash + FILE_EXTENSION);
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{" +
+            "directory=" + directory.toAbsolutePath() +
+            '}';
+    }
+}
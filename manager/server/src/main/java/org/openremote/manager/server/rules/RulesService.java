@@ -19,6 +19,7 @@
  */
 package org.openremote.manager.server.rules;
 
+import com.google.common.util.concurrent.Striped;
 import org.apache.camel.builder.RouteBuilder;
 import org.drools.core.base.evaluators.TimeIntervalParser;
 import org.kie.api.event.rule.AgendaEventListener;
@@ -45,15 +46,25 @@ import org.openremote.model.rules.TenantRuleset;
 import org.openremote.model.util.Pair;
 import org.openremote.model.value.ObjectValue;
 
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.BiFunction;
 import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import static org.openremote.container.persistence.PersistenceEvent.PERSISTENCE_TOPIC;
+import static org.openremote.container.util.MapAccess.getInteger;
 import static org.openremote.container.util.MapAccess.getString;
 import static org.openremote.manager.server.asset.AssetRoute.isPersistenceEventForEntityType;
 import static org.openremote.model.asset.AssetAttribute.attributesFromJson;
@@ -70,6 +81,14 @@ import static org.openremote.model.asset.AssetAttribute.attributesFromJson;
  * asset rulesets with same parent asset are not guaranteed also processing order of rulesets
  * with the same scope is not guaranteed)</li>
  * </ol>
+ * Facts and events are queued for each rules engine in scope and fed into the engines on dispatch threads, so
+ * engines of unrelated realms and asset subtrees are fed concurrently. Facts and events of the same asset are
+ * queued in order. Changes of deployed rulesets are exclusive, no facts or events are queued while an engine
+ * is created or removed.
+ * <p>
+ * Asset state processing waits until all engines in scope have been fed, a failure of any engine or a wait
+ * longer than {@link #RULES_DISPATCH_TIMEOUT_MILLIS} is an error of the processed {@link AssetState}. Facts of
+ * persisted asset changes are fed without waiting, failures are logged.
  */
 public class RulesService extends RouteBuilder implements ContainerService, Consumer<AssetState> {
 
@@ -78,8 +97,27 @@ public class RulesService extends RouteBuilder implements ContainerService, Cons
     public static final String RULE_EVENT_EXPIRES = "RULE_EVENT_EXPIRES";
     public static final String RULE_EVENT_EXPIRES_DEFAULT = "1h";
 
+    /**
+     * Directory of the {@link RulesModuleCache}, compiled rulesets are stored here and reused after a restart if
+     * they didn't change. The cache is disabled by default, the directory must only be writable by the manager.
+     */
+    public static final String RULES_CACHE_PATH = "RULES_CACHE_PATH";
+    public static final String RULES_CACHE_PATH_DEFAULT = "";
+
+    /**
+     * Maximum time asset state processing waits for the rules engines in scope, the asset state is an error if
+     * they haven't been fed within this time.
+     */
+    public static final String RULES_DISPATCH_TIMEOUT_MILLIS = "RULES_DISPATCH_TIMEOUT_MILLIS";
+    public static final int RULES_DISPATCH_TIMEOUT_MILLIS_DEFAULT = 30000;
+
     public static final String ID_GLOBAL_RULES_ENGINE = "GLOBAL";
 
+    /**
+     * Number of locks which order the dispatch of facts and events of assets.
+     */
+    public static final int ASSET_DISPATCH_LOCK_STRIPES = 256;
+
     protected TimerService timerService;
     protected ManagerExecutorService executorService;
     protected PersistenceService persistenceService;
@@ -93,13 +131,19 @@ public class RulesService extends RouteBuilder implements ContainerService, Cons
     protected final Map<String, RulesEngine<AssetRuleset>> assetEngines = new HashMap<>();
     protected String[] activeTenantIds;
     protected Function<RulesEngine, AgendaEventListener> rulesEngineListeners;
+    protected RulesModuleCache rulesModuleCache;
 
-    // Keep global list of asset states that have been pushed to any engines
+    // Keep global store of asset states that have been pushed to any engines
     // The objects are already in memory inside the rule engines but keeping them
     // here means we can quickly insert facts into newly started engines
-    protected List<AssetState> assetStates = new ArrayList<>();
+    final protected AssetStateStore<Void> assetStates = new AssetStateStore<>();
+
+    // Rules engines are created and removed exclusively, facts and events are dispatched concurrently
+    final protected ReadWriteLock enginesLock = new ReentrantReadWriteLock();
+    final protected Striped<Lock> assetDispatchLocks = Striped.lock(ASSET_DISPATCH_LOCK_STRIPES);
 
     protected String configEventExpires;
+    protected int dispatchTimeoutMillis;
 
     @Override
     public void init(Container container) throws Exception {
@@ -114,6 +158,18 @@ public class RulesService extends RouteBuilder implements ContainerService, Cons
         container.getService(MessageBrokerSetupService.class).getContext().addRoutes(this);
 
         configEventExpires = getString(container.getConfig(), RULE_EVENT_EXPIRES, RULE_EVENT_EXPIRES_DEFAULT);
+        dispatchTimeoutMillis = getInteger(
+            container.getConfig(), RULES_DISPATCH_TIMEOUT_MILLIS, RULES_DISPATCH_TIMEOUT_MILLIS_DEFAULT
+        );
+
+        String rulesCachePath = getString(container.getConfig(), RULES_CACHE_PATH, RULES_CACHE_PATH_DEFAULT);
+        if (rulesCachePath != null && rulesCachePath.length() > 0) {
+            RulesModuleCache cache = new RulesModuleCache(Paths.get(rulesCachePath));
+            if (cache.init()) {
+                rulesModuleCache = cache;
+                LOG.info("Caching compiled rulesets: " + rulesModuleCache);
+            }
+        }
     }
 
     @Override
@@ -179,41 +235,82 @@ public class RulesService extends RouteBuilder implements ContainerService, Cons
                     AssetState assetState = new AssetState(asset, ruleAttribute, AttributeEvent.Source.INTERNAL);
                     // Set the status to completed already so rules cannot interfere with this initial insert
                     assetState.setProcessingStatus(AssetState.ProcessingStatus.COMPLETED);
-                    updateAssetState(assetState, true);
+                    logDispatchFailure(updateAssetState(assetState, true), assetState);
                 });
             });
     }
 
     @Override
     public void stop(Container container) throws Exception {
-        synchronized (assetEngines) {
+        enginesLock.writeLock().lock();
+        try {
             assetEngines.forEach((assetId, deployment) -> deployment.stop());
             assetEngines.clear();
-        }
 
-        synchronized (tenantEngines) {
             tenantEngines.forEach((realm, deployment) -> deployment.stop());
             tenantEngines.clear();
-        }
 
-        if (globalEngine != null) {
-            globalEngine.stop();
-            globalEngine = null;
+            if (globalEngine != null) {
+                globalEngine.stop();
+                globalEngine = null;
+            }
+        } finally {
+            enginesLock.writeLock().unlock();
         }
     }
 
     @Override
     public void accept(AssetState assetState) {
+        List<CompletableFuture<Void>> dispatched = new ArrayList<>();
         // We might process two facts for a single attribute update, if that is what the user wants
         if (assetState.getAttribute().isRuleState()) {
-            updateAssetState(assetState, false);
+            dispatched.add(updateAssetState(assetState, false));
         }
         if (assetState.getAttribute().isRuleEvent()) {
-            process(new AssetEvent(assetState));
+            dispatched.add(process(new AssetEvent(assetState)));
+        }
+        // Wait for the engines, so a failure is an error of the asset state processing
+        try {
+            CompletableFuture.allOf(dispatched.toArray(new CompletableFuture[dispatched.size()]))
+                .get(dispatchTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException)
+                throw (RuntimeException) ex.getCause();
+            if (ex.getCause() instanceof Error)
+                throw (Error) ex.getCause();
+            throw new IllegalStateException(ex.getCause());
+        } catch (TimeoutException ex) {
+            LOG.warning("Rules engines not fed within " + dispatchTimeoutMillis + "ms: " + assetState);
+            assetState.setProcessingStatus(AssetState.ProcessingStatus.ERROR);
+            assetState.setError(ex);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            assetState.setProcessingStatus(AssetState.ProcessingStatus.ERROR);
+            assetState.setError(ex);
         }
     }
 
-    protected synchronized void processTenantChange(Tenant tenant, PersistenceEvent.Cause cause) {
+    /**
+     * Facts of persisted asset changes are fed without waiting, a failure is logged.
+     */
+    protected void logDispatchFailure(CompletableFuture<Void> dispatched, AssetState assetState) {
+        dispatched.whenComplete((result, ex) -> {
+            if (ex != null) {
+                LOG.log(Level.SEVERE, "Feeding rules engines failed: " + assetState, ex);
+            }
+        });
+    }
+
+    protected void processTenantChange(Tenant tenant, PersistenceEvent.Cause cause) {
+        enginesLock.writeLock().lock();
+        try {
+            doProcessTenantChange(tenant, cause);
+        } finally {
+            enginesLock.writeLock().unlock();
+        }
+    }
+
+    protected void doProcessTenantChange(Tenant tenant, PersistenceEvent.Cause cause) {
         // Check if enabled status has changed
         boolean wasEnabled = Arrays.asList(activeTenantIds).contains(tenant.getId());
         boolean isEnabled = tenant.getEnabled() && cause != PersistenceEvent.Cause.DELETE;
@@ -251,7 +348,20 @@ public class RulesService extends RouteBuilder implements ContainerService, Cons
         }
     }
 
-    protected synchronized void processAssetChange(ServerAsset asset, PersistenceEvent persistenceEvent) {
+    protected void processAssetChange(ServerAsset asset, PersistenceEvent persistenceEvent) {
+        // The retracted and inserted facts of the change must not interleave with other facts of the asset
+        Lock assetDispatchLock = assetDispatchLocks.get(asset.getId());
+        enginesLock.readLock().lock();
+        assetDispatchLock.lock();
+        try {
+            doProcessAssetChange(asset, persistenceEvent);
+        } finally {
+            assetDispatchLock.unlock();
+            enginesLock.readLock().unlock();
+        }
+    }
+
+    protected void doProcessAssetChange(ServerAsset asset, PersistenceEvent persistenceEvent) {
 
         // We must load the asset from database (only when required), as the
         // persistence event might not contain a completely loaded asset
@@ -271,7 +381,7 @@ public class RulesService extends RouteBuilder implements ContainerService, Cons
                     // Set the status to completed already so rules cannot interfere with this initial insert
                     assetState.setProcessingStatus(AssetState.ProcessingStatus.COMPLETED);
                     LOG.fine("Asset was persisted (" + persistenceEvent.getCause() + "), inserting fact: " + assetState);
-                    updateAssetState(assetState, true);
+                    logDispatchFailure(updateAssetState(assetState, true), assetState);
                 });
                 break;
 
@@ -336,7 +446,7 @@ public class RulesService extends RouteBuilder implements ContainerService, Cons
                     // Set the status to completed already so rules cannot interfere with this initial insert
                     assetState.setProcessingStatus(AssetState.ProcessingStatus.COMPLETED);
                     LOG.fine("Asset was persisted (" + persistenceEvent.getCause() + "), updating: " + assetState);
-                    updateAssetState(assetState, true);
+                    logDispatchFailure(updateAssetState(assetState, true), assetState);
                 });
 
                 break;
@@ -357,7 +467,16 @@ public class RulesService extends RouteBuilder implements ContainerService, Cons
         }
     }
 
-    protected synchronized void processRulesetChange(Ruleset ruleset, PersistenceEvent.Cause cause) {
+    protected void processRulesetChange(Ruleset ruleset, PersistenceEvent.Cause cause) {
+        enginesLock.writeLock().lock();
+        try {
+            doProcessRulesetChange(ruleset, cause);
+        } finally {
+            enginesLock.writeLock().unlock();
+        }
+    }
+
+    protected void doProcessRulesetChange(Ruleset ruleset, PersistenceEvent.Cause cause) {
         if (cause == PersistenceEvent.Cause.DELETE || !ruleset.isEnabled()) {
             if (ruleset instanceof GlobalRuleset) {
                 undeployGlobalRuleset((GlobalRuleset) ruleset);
@@ -372,7 +491,7 @@ public class RulesService extends RouteBuilder implements ContainerService, Cons
                 RulesEngine newEngine = deployGlobalRuleset((GlobalRuleset) ruleset);
                 if (newEngine != null) {
                     // Push all existing facts into the engine
-                    assetStates.forEach(newEngine::updateAssetState);
+                    getAssetStates(AssetStateStore::getAll).forEach(newEngine::updateAssetState);
                 }
 
             } else if (ruleset instanceof TenantRuleset) {
@@ -380,11 +499,8 @@ public class RulesService extends RouteBuilder implements ContainerService, Cons
                 RulesEngine newEngine = deployTenantRuleset((TenantRuleset) ruleset);
                 if (newEngine != null) {
                     // Push all existing facts for this tenant into the engine
-                    assetStates.forEach(assetState -> {
-                        if (assetState.getRealmId().equals(((TenantRuleset) ruleset).getRealmId())) {
-                            newEngine.updateAssetState(assetState);
-                        }
-                    });
+                    getAssetStates(store -> store.getInRealm(((TenantRuleset) ruleset).getRealmId()))
+                        .forEach(newEngine::updateAssetState);
                 }
 
             } else if (ruleset instanceof AssetRuleset) {
@@ -394,7 +510,7 @@ public class RulesService extends RouteBuilder implements ContainerService, Cons
                 RulesEngine newEngine = deployAssetRuleset(assetRuleset);
                 if (newEngine != null) {
                     // Push all existing facts for this asset (and it's children into the engine)
-                    getAssetStatesInScope(((AssetRuleset) ruleset).getAssetId())
+                    getAssetStates(store -> store.getInPath(((AssetRuleset) ruleset).getAssetId()))
                         .forEach(newEngine::updateAssetState);
 
                 }
@@ -406,75 +522,97 @@ public class RulesService extends RouteBuilder implements ContainerService, Cons
      * Deploy the ruleset into the global engine creating the engine if necessary; if the engine was created then it
      * is returned from the method.
      */
-    protected synchronized RulesEngine<GlobalRuleset> deployGlobalRuleset(GlobalRuleset ruleset) {
-        boolean created = globalEngine == null;
-
-        // Global rules have access to everything in the system
-        if (globalEngine == null) {
-            globalEngine = new RulesEngine<>(
-                timerService,
-                executorService,
-                assetStorageService,
-                notificationService,
-                assetProcessingService,
-                identityService,
-                GlobalRuleset.class,
-                ID_GLOBAL_RULES_ENGINE,
-                rulesEngineListeners
-            );
-        }
-
-        globalEngine.addRuleset(ruleset);
-        return created ? globalEngine : null;
-    }
-
-    protected synchronized void undeployGlobalRuleset(GlobalRuleset ruleset) {
-        if (globalEngine == null) {
-            return;
-        }
-
-        globalEngine.removeRuleset(ruleset);
-
-        if (globalEngine.isEmpty()) {
-            globalEngine = null;
-        }
-    }
-
-    protected synchronized RulesEngine<TenantRuleset> deployTenantRuleset(TenantRuleset ruleset) {
-        final boolean[] created = {false};
-
-        // Look for existing deployment for this tenant
-        RulesEngine<TenantRuleset> deployment = tenantEngines
-            .computeIfAbsent(ruleset.getRealmId(), (realmId) -> {
-                created[0] = true;
-                return new RulesEngine<>(
+    protected RulesEngine<GlobalRuleset> deployGlobalRuleset(GlobalRuleset ruleset) {
+        enginesLock.writeLock().lock();
+        try {
+            boolean created = globalEngine == null;
+
+            // Global rules have access to everything in the system
+            if (globalEngine == null) {
+                globalEngine = new RulesEngine<>(
                     timerService,
                     executorService,
                     assetStorageService,
                     notificationService,
                     assetProcessingService,
                     identityService,
-                    TenantRuleset.class,
-                    realmId,
-                    rulesEngineListeners
+                    GlobalRuleset.class,
+                    ID_GLOBAL_RULES_ENGINE,
+                    rulesEngineListeners,
+                    rulesModuleCache
                 );
-            });
+            }
+
+            globalEngine.addRuleset(ruleset);
+            return created ? globalEngine : null;
+        } finally {
+            enginesLock.writeLock().unlock();
+        }
+    }
 
-        deployment.addRuleset(ruleset);
+    protected void undeployGlobalRuleset(GlobalRuleset ruleset) {
+        enginesLock.writeLock().lock();
+        try {
+            if (globalEngine == null) {
+                return;
+            }
 
-        return created[0] ? deployment : null;
+            globalEngine.removeRuleset(ruleset);
+
+            if (globalEngine.isEmpty()) {
+                globalEngine = null;
+            }
+        } finally {
+            enginesLock.writeLock().unlock();
+        }
     }
 
-    protected synchronized void undeployTenantRuleset(TenantRuleset ruleset) {
-        RulesEngine<TenantRuleset> deployment = tenantEngines.get(ruleset.getRealmId());
-        if (deployment == null) {
-            return;
+    protected RulesEngine<TenantRuleset> deployTenantRuleset(TenantRuleset ruleset) {
+        enginesLock.writeLock().lock();
+        try {
+            final boolean[] created = {false};
+
+            // Look for existing deployment for this tenant
+            RulesEngine<TenantRuleset> deployment = tenantEngines
+                .computeIfAbsent(ruleset.getRealmId(), (realmId) -> {
+                    created[0] = true;
+                    return new RulesEngine<>(
+                        timerService,
+                        executorService,
+                        assetStorageService,
+                        notificationService,
+                        assetProcessingService,
+                        identityService,
+                        TenantRuleset.class,
+                        realmId,
+                        rulesEngineListeners,
+                        rulesModuleCache
+                    );
+                });
+
+            deployment.addRuleset(ruleset);
+
+            return created[0] ? deployment : null;
+        } finally {
+            enginesLock.writeLock().unlock();
         }
+    }
+
+    protected void undeployTenantRuleset(TenantRuleset ruleset) {
+        enginesLock.writeLock().lock();
+        try {
+            RulesEngine<TenantRuleset> deployment = tenantEngines.get(ruleset.getRealmId());
+            if (deployment == null) {
+                return;
+            }
 
-        deployment.removeRuleset(ruleset);
+            deployment.removeRuleset(ruleset);
 
-        if (deployment.isEmpty()) {
-            tenantEngines.remove(ruleset.getRealmId());
+            if (deployment.isEmpty()) {
+                tenantEngines.remove(ruleset.getRealmId());
+            }
+        } finally {
+            enginesLock.writeLock().unlock();
         }
     }
 
@@ -506,123 +644,180 @@ public class RulesService extends RouteBuilder implements ContainerService, Cons
             });
     }
 
-    protected synchronized RulesEngine<AssetRuleset> deployAssetRuleset(AssetRuleset ruleset) {
-        final boolean[] created = {false};
-
-        // Look for existing deployment for this asset
-        RulesEngine<AssetRuleset> deployment = assetEngines
-            .computeIfAbsent(ruleset.getAssetId(), (assetId) -> {
-                created[0] = true;
-                return new RulesEngine<>(
-                    timerService,
-                    executorService,
-                    assetStorageService,
-                    notificationService,
-                    assetProcessingService,
-                    identityService,
-                    AssetRuleset.class,
-                    assetId,
-                    rulesEngineListeners
-                );
-            });
+    protected RulesEngine<AssetRuleset> deployAssetRuleset(AssetRuleset ruleset) {
+        enginesLock.writeLock().lock();
+        try {
+            final boolean[] created = {false};
+
+            // Look for existing deployment for this asset
+            RulesEngine<AssetRuleset> deployment = assetEngines
+                .computeIfAbsent(ruleset.getAssetId(), (assetId) -> {
+                    created[0] = true;
+                    return new RulesEngine<>(
+                        timerService,
+                        executorService,
+                        assetStorageService,
+                        notificationService,
+                        assetProcessingService,
+                        identityService,
+                        AssetRuleset.class,
+                        assetId,
+                        rulesEngineListeners,
+                        rulesModuleCache
+                    );
+                });
 
-        deployment.addRuleset(ruleset);
-        return created[0] ? deployment : null;
+            deployment.addRuleset(ruleset);
+            return created[0] ? deployment : null;
+        } finally {
+            enginesLock.writeLock().unlock();
+        }
     }
 
-    protected synchronized void undeployAssetRuleset(AssetRuleset ruleset) {
-        RulesEngine<AssetRuleset> deployment = assetEngines.get(ruleset.getAssetId());
-        if (deployment == null) {
-            return;
-        }
+    protected void undeployAssetRuleset(AssetRuleset ruleset) {
+        enginesLock.writeLock().lock();
+        try {
+            RulesEngine<AssetRuleset> deployment = assetEngines.get(ruleset.getAssetId());
+            if (deployment == null) {
+                return;
+            }
 
-        deployment.removeRuleset(ruleset);
+            deployment.removeRuleset(ruleset);
 
-        if (deployment.isEmpty()) {
-            assetEngines.remove(ruleset.getAssetId());
+            if (deployment.isEmpty()) {
+                assetEngines.remove(ruleset.getAssetId());
+            }
+        } finally {
+            enginesLock.writeLock().unlock();
         }
     }
 
-    protected synchronized void process(AssetEvent assetEvent) {
+    protected CompletableFuture<Void> process(AssetEvent assetEvent) {
         // TODO: implement rules processing error state handling
 
-        // Get the chain of rule engines that we need to pass through
-        List<RulesEngine> rulesEngines = getEnginesInScope(assetEvent.getRealmId(), assetEvent.getPathFromRoot());
+        Lock assetDispatchLock = assetDispatchLocks.get(assetEvent.getId());
+        enginesLock.readLock().lock();
+        assetDispatchLock.lock();
+        try {
+            // Get the chain of rule engines that we need to pass through
+            List<RulesEngine> rulesEngines = getEnginesInScope(assetEvent.getRealmId(), assetEvent.getPathFromRoot());
 
-        // Check that all engines in the scope are not in ERROR state
-        if (rulesEngines.stream().anyMatch(RulesEngine::isError)) {
-            LOG.severe("At least one rule engine is in an error state so cannot process event:" + assetEvent);
-            return;
-        }
+            // Check that all engines in the scope are not in ERROR state
+            if (rulesEngines.stream().anyMatch(RulesEngine::isError)) {
+                LOG.severe("At least one rule engine is in an error state so cannot process event:" + assetEvent);
+                return CompletableFuture.completedFuture(null);
+            }
 
-        // Pass through each engine and try and insert the fact
-        for (RulesEngine deployment : rulesEngines) {
+            if (rulesEngines.isEmpty()) {
+                return CompletableFuture.completedFuture(null);
+            }
 
-            // Any exceptions in rule RHS will bubble up and the engine would be marked as in ERROR so future
-            // updates will be blocked
             String eventExpires = assetEvent.getExpires().orElse(configEventExpires);
             long expirationOffset = TimeIntervalParser.parseSingle(eventExpires);
 
-            deployment.insertAssetEvent(expirationOffset, assetEvent);
+            // Pass through each engine and try and insert the fact
+            List<CompletableFuture<Void>> dispatched = new ArrayList<>();
+            for (RulesEngine deployment : rulesEngines) {
+                // Any exceptions in rule RHS will bubble up and the engine would be marked as in ERROR so future
+                // updates will be blocked
+                dispatched.add(deployment.dispatch(() -> deployment.insertAssetEvent(expirationOffset, assetEvent)));
+            }
+            return CompletableFuture.allOf(dispatched.toArray(new CompletableFuture[dispatched.size()]));
+        } finally {
+            assetDispatchLock.unlock();
+            enginesLock.readLock().unlock();
         }
     }
 
-    protected synchronized void updateAssetState(AssetState assetState, boolean skipStatusCheck) {
+    protected CompletableFuture<Void> updateAssetState(AssetState assetState, boolean skipStatusCheck) {
         // TODO: implement rules processing error state handling
 
-        // Get the chain of rule engines that we need to pass through
-        List<RulesEngine> rulesEngines = getEnginesInScope(assetState.getRealmId(), assetState.getPathFromRoot());
-
-        if (!skipStatusCheck) {
-            // Check that all engines in the scope are not in ERROR state
-            for (RulesEngine rulesEngine : rulesEngines) {
-                if (rulesEngine.isError()) {
-                    assetState.setProcessingStatus(AssetState.ProcessingStatus.ERROR);
-                    assetState.setError(rulesEngine.getError());
-                    return;
+        Lock assetDispatchLock = assetDispatchLocks.get(assetState.getId());
+        enginesLock.readLock().lock();
+        assetDispatchLock.lock();
+        try {
+            // Get the chain of rule engines that we need to pass through
+            List<RulesEngine> rulesEngines = getEnginesInScope(assetState.getRealmId(), assetState.getPathFromRoot());
+
+            if (!skipStatusCheck) {
+                // Check that all engines in the scope are not in ERROR state
+                for (RulesEngine rulesEngine : rulesEngines) {
+                    if (rulesEngine.isError()) {
+                        assetState.setProcessingStatus(AssetState.ProcessingStatus.ERROR);
+                        assetState.setError(rulesEngine.getError());
+                        return CompletableFuture.completedFuture(null);
+                    }
                 }
             }
-        }
 
-        // Remove any stale fact that has equality with this new one or the attribute ref matches
-        // (this is what rules deployment does also)
-        if (!assetStates.remove(assetState)) {
-            assetStates.removeIf(storedAssetState -> storedAssetState.attributeRefsEqual(assetState));
-        }
-        // Insert the new fact
-        assetStates.add(assetState);
+            // Replace any stale fact of this attribute (this is what rules deployment does also)
+            synchronized (assetStates) {
+                assetStates.put(assetState, null);
+            }
 
-        // Pass through each engine and try and insert the fact
-        for (RulesEngine deployment : rulesEngines) {
-            LOG.fine("@@@ On " + deployment + ", updating: " + assetState);
-            deployment.updateAssetState(assetState);
+            // Pass through each engine and try and insert the fact
+            List<CompletableFuture<Void>> dispatched = new ArrayList<>();
+            for (RulesEngine deployment : rulesEngines) {
+                LOG.fine("@@@ On " + deployment + ", updating: " + assetState);
+                dispatched.add(deployment.dispatch(() -> deployment.updateAssetState(assetState)));
+            }
+            return CompletableFuture.allOf(dispatched.toArray(new CompletableFuture[dispatched.size()]));
+        } finally {
+            assetDispatchLock.unlock();
+            enginesLock.readLock().unlock();
         }
     }
 
     protected void retractAssetState(AssetState assetState) {
-        // Get the chain of rule engines that we need to pass through
-        List<RulesEngine> rulesEngines = getEnginesInScope(assetState.getRealmId(), assetState.getPathFromRoot());
+        Lock assetDispatchLock = assetDispatchLocks.get(assetState.getId());
+        enginesLock.readLock().lock();
+        assetDispatchLock.lock();
+        try {
+            // Get the chain of rule engines that we need to pass through
+            List<RulesEngine> rulesEngines = getEnginesInScope(assetState.getRealmId(), assetState.getPathFromRoot());
+
+            synchronized (assetStates) {
+                assetStates.remove(assetState.getAttributeRef());
+            }
 
-        if (!assetStates.remove(assetState)) {
-            assetStates.removeIf(storedAssetState -> storedAssetState.attributeRefsEqual(assetState));
-        }
+            if (rulesEngines.size() == 0) {
+                LOG.fine("Ignoring as there are no matching rules engines: " + assetState);
+            }
 
-        if (rulesEngines.size() == 0) {
-            LOG.fine("Ignoring as there are no matching rules engines: " + assetState);
+            // Pass through each engine and retract this fact
+            for (RulesEngine deployment : rulesEngines) {
+                LOG.fine("@@@ On " + deployment + ", retracting: " + assetState);
+                logDispatchFailure(deployment.dispatch(() -> deployment.retractAssetState(assetState)), assetState);
+            }
+        } finally {
+            assetDispatchLock.unlock();
+            enginesLock.readLock().unlock();
         }
+    }
 
-        // Pass through each engine and retract this fact
-        for (RulesEngine deployment : rulesEngines) {
-            LOG.fine("@@@ On " + deployment + ", retracting: " + assetState);
-            deployment.retractAssetState(assetState);
+    protected List<AssetState> getAssetStates(Function<AssetStateStore<Void>, List<AssetState>> query) {
+        synchronized (assetStates) {
+            return query.apply(assetStates);
         }
     }
 
-    protected List<AssetState> getAssetStatesInScope(String assetId) {
-        return assetStates
-            .stream()
-            .filter(assetState -> Arrays.asList(assetState.getPathFromRoot()).contains(assetId))
-            .collect(Collectors.toList());
+    /**
+     * @return The number of facts and events which have been dispatched but not yet fed into the rules engines.
+     */
+    public int getDispatchQueueSize() {
+        enginesLock.readLock().lock();
+        try {
+            int size = globalEngine != null ? globalEngine.getInboundSize() : 0;
+            for (RulesEngine rulesEngine : tenantEngines.values()) {
+                size += rulesEngine.getInboundSize();
+            }
+            for (RulesEngine rulesEngine : assetEngines.values()) {
+                size += rulesEngine.getInboundSize();
+            }
+            return size;
+        } finally {
+            enginesLock.readLock().unlock();
+        }
     }
 
     protected List<RulesEngine> getEnginesInScope(String assetRealmId, String[] assetPath) {
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2017, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.server.security;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.openremote.model.asset.UserAsset;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+/**
+ * Short-lived cache of the data used in authorization decisions: the restricted flag of users and the links
+ * between users and assets. Tenants are kept in the {@link TenantRegistry}.
+ * <p>
+ * Entries are invalidated when persistence events of their entities are received. Changes which are not
+ * published, such as links deleted by the database, are visible after the time-to-live. A value loaded while
+ * an invalidation happens is not kept in the cache: it is not cached if the invalidation started before the
+ * load completed, and removed again if the invalidation started while it was cached.
+ */
+public class AuthorizationCache {
+
+    private static final Logger LOG = Logger.getLogger(AuthorizationCache.class.getName());
+
+    protected final boolean enabled;
+    protected final Cache<String, Boolean> restrictedUsers;
+    protected final Cache<UserAsset, Boolean> userAssets;
+    protected final AtomicLong generation = new AtomicLong();
+
+    /**
+     * @param ttlMillis If <code>0</code>, nothing is cached.
+     */
+    public AuthorizationCache(long ttlMillis, int maximumSize) {
+        this.enabled = ttlMillis > 0;
+        if (enabled) {
+            LOG.info("Caching authorization data for " + ttlMillis + "ms");
+        }
+        this.restrictedUsers = createCache(ttlMillis, maximumSize);
+        this.userAssets = createCache(ttlMillis, maximumSize);
+    }
+
+    public boolean isRestrictedUser(String userId, Supplier<Boolean> loader) {
+        return get(restrictedUsers, userId, loader);
+    }
+
+    public boolean isUserAsset(String userId, String assetId, Supplier<Boolean> loader) {
+        return get(userAssets, new UserAsset(userId, assetId), loader);
+    }
+
+    public void invalidateUser(String userId) {
+        generation.incrementAndGet();
+        restrictedUsers.invalidate(userId);
+        userAssets.asMap().keySet().removeIf(userAsset -> userAsset.getUserId().equals(userId));
+    }
+
+    public void invalidateUserAsset(String userId, String assetId) {
+        generation.incrementAndGet();
+        userAssets.invalidate(new UserAsset(userId, assetId));
+    }
+
+    /**
+     * Links of a deleted asset are deleted by the database, there are no events for them.
+     */
+    public void invalidateAsset(String assetId) {
+        generation.incrementAndGet();
+        userAssets.asMap().keySet().removeIf(userAsset -> userAsset.getAssetId().equals(assetId));
+    }
+
+    public void invalidateAll() {
+        generation.incrementAndGet();
+        restrictedUsers.invalidateAll();
+        userAssets.invalidateAll();
+    }
+
+    protected <K, V> V get(Cache<K, V> cache, K key, Supplier<V> loader) {
+        if (!enabled)
+            return loader.get();
+        V value = cache.getIfPresent(key);
+        if (value != null)
+            return value;
+        long loadGeneration = generation.get();
+        value = loader.get();
+        if (value != null && loadGeneration == generation.get()) {
+            cache.put(key, value);
+            // An invalidation between the check and the put might not have seen the value
+            if (loadGeneration != generation.get()) {
+                cache.invalidate(key);
+            }
+        }
+        return value;
+    }
+
+    protected static <K, V> Cache<K, V> createCache(long ttlMillis, int maximumSize) {
+        return CacheBuilder.newBuilder()
+            .expireAfterWrite(Math.max(ttlMillis, 0), TimeUnit.MILLISECONDS)
+            .maximumSize(maximumSize)
+            .build();
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{" +
+            "enabled=" + enabled +
+            ", restrictedUsers=" + restrictedUsers.size() +
+            ", userAssets=" + userAssets.size() +
+            '}';
+    }
+}
@@ -19,15 +19,24 @@
  */
 package org.openremote.manager.server.security;
 
+import org.apache.camel.builder.RouteBuilder;
 import org.openremote.container.Container;
+import org.openremote.container.message.MessageBrokerSetupService;
+import org.openremote.container.persistence.PersistenceEvent;
 import org.openremote.container.persistence.PersistenceService;
 import org.openremote.container.security.IdentityService;
 import org.openremote.container.timer.TimerService;
 import org.openremote.container.web.WebService;
+import org.openremote.manager.server.concurrent.ManagerExecutorService;
+import org.openremote.manager.shared.security.Tenant;
+import org.openremote.model.asset.Asset;
+import org.openremote.model.asset.UserAsset;
 
 import java.util.Locale;
 import java.util.logging.Logger;
 
+import static org.openremote.container.persistence.PersistenceEvent.PERSISTENCE_TOPIC;
+import static org.openremote.container.util.MapAccess.getInteger;
 import static org.openremote.container.util.MapAccess.getString;
 
 public class ManagerIdentityService extends IdentityService {
@@ -37,7 +46,23 @@ public class ManagerIdentityService extends IdentityService {
     public static final String MANAGER_IDENTITY_PROVIDER = "MANAGER_IDENTITY_PROVIDER";
     public static final String MANAGER_IDENTITY_PROVIDER_DEFAULT = "keycloak";
 
+    /**
+     * Time-to-live of cached authorization data, see {@link AuthorizationCache}. If <code>0</code>, nothing is cached.
+     */
+    public static final String AUTHORIZATION_CACHE_TTL_MILLIS = "AUTHORIZATION_CACHE_TTL_MILLIS";
+    public static final int AUTHORIZATION_CACHE_TTL_MILLIS_DEFAULT = 10000;
+    public static final int AUTHORIZATION_CACHE_MAX_SIZE = 10000;
+
+    /**
+     * Interval of reloading the {@link TenantRegistry}, to pick up tenant changes made directly in Keycloak. If
+     * <code>0</code>, tenants are only reloaded when they are modified through the manager.
+     */
+    public static final String TENANT_REGISTRY_REFRESH_MILLIS = "TENANT_REGISTRY_REFRESH_MILLIS";
+    public static final int TENANT_REGISTRY_REFRESH_MILLIS_DEFAULT = 60000;
+
     protected PersistenceService persistenceService;
+    protected AuthorizationCache authorizationCache;
+    protected TenantRegistry tenantRegistry;
     protected ManagerIdentityProvider identityProvider;
 
     @Override
@@ -53,11 +78,41 @@ public class ManagerIdentityService extends IdentityService {
             new UserResourceImpl(container.getService(TimerService.class), this)
         );
 
+        authorizationCache = new AuthorizationCache(
+            getInteger(container.getConfig(), AUTHORIZATION_CACHE_TTL_MILLIS, AUTHORIZATION_CACHE_TTL_MILLIS_DEFAULT),
+            AUTHORIZATION_CACHE_MAX_SIZE
+        );
+        container.getService(MessageBrokerSetupService.class).getContext().addRoutes(new RouteBuilder() {
+            @SuppressWarnings("unchecked")
+            @Override
+            public void configure() throws Exception {
+                from(PERSISTENCE_TOPIC)
+                    .routeId("AuthorizationCacheChanges")
+                    .process(exchange -> {
+                        PersistenceEvent persistenceEvent = exchange.getIn().getBody(PersistenceEvent.class);
+                        onPersistenceEvent(persistenceEvent);
+                    });
+            }
+        });
+
         String identityProviderType = getString(container.getConfig(), MANAGER_IDENTITY_PROVIDER, MANAGER_IDENTITY_PROVIDER_DEFAULT);
         switch (identityProviderType.toLowerCase(Locale.ROOT)) {
             case "keycloak":
                 LOG.info("Enabling Keycloak identity provider");
-                this.identityProvider = new ManagerKeycloakIdentityProvider(getExternalServerUri(), container);
+                this.tenantRegistry = new TenantRegistry(persistenceService, container.getService(TimerService.class));
+                int tenantRefreshMillis = getInteger(
+                    container.getConfig(), TENANT_REGISTRY_REFRESH_MILLIS, TENANT_REGISTRY_REFRESH_MILLIS_DEFAULT
+                );
+                if (tenantRefreshMillis > 0) {
+                    container.getService(ManagerExecutorService.class).scheduleAtFixedRate(
+                        tenantRegistry::refresh, tenantRefreshMillis, tenantRefreshMillis
+                    );
+                } else {
+                    LOG.info("Periodic refresh of tenant registry disabled");
+                }
+                this.identityProvider = new ManagerKeycloakIdentityProvider(
+                    getExternalServerUri(), container, authorizationCache, tenantRegistry
+                );
                 break;
             case "basic":
                 LOG.info("Enabling basic identity provider");
@@ -68,6 +123,31 @@ public class ManagerIdentityService extends IdentityService {
         }
     }
 
+    public AuthorizationCache getAuthorizationCache() {
+        return authorizationCache;
+    }
+
+    /**
+     * @return <code>null</code> if the identity provider doesn't store tenants in the database.
+     */
+    public TenantRegistry getTenantRegistry() {
+        return tenantRegistry;
+    }
+
+    protected void onPersistenceEvent(PersistenceEvent persistenceEvent) {
+        Object entity = persistenceEvent.getEntity();
+        if (entity instanceof UserConfiguration) {
+            authorizationCache.invalidateUser(((UserConfiguration) entity).getUserId());
+        } else if (entity instanceof UserAsset) {
+            UserAsset userAsset = (UserAsset) entity;
+            authorizationCache.invalidateUserAsset(userAsset.getUserId(), userAsset.getAssetId());
+        } else if (entity instanceof Asset && persistenceEvent.getCause() == PersistenceEvent.Cause.DELETE) {
+            authorizationCache.invalidateAsset(((Asset) entity).getId());
+        } else if (entity instanceof Tenant && tenantRegistry != null) {
+            tenantRegistry.refresh();
+        }
+    }
+
     @Override
     public ManagerIdentityProvider getIdentityProvider() {
         return identityProvider;
@@ -77,6 +157,8 @@ public class ManagerIdentityService extends IdentityService {
     public String toString() {
         return getClass().getSimpleName() + "{" +
             "identityProvider=" + identityProvider +
+            ", authorizationCache=" + authorizationCache +
+            ", tenantRegistry=" + tenantRegistry +
             '}';
     }
 }
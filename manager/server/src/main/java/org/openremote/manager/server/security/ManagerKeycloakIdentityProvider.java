@@ -59,8 +59,13 @@ public class ManagerKeycloakIdentityProvider extends KeycloakIdentityProvider im
     final protected TimerService timerService;
     final protected MessageBrokerService messageBrokerService;
     final protected ClientEventService clientEventService;
+    final protected AuthorizationCache authorizationCache;
+    final protected TenantRegistry tenantRegistry;
 
-    public ManagerKeycloakIdentityProvider(UriBuilder externalServerUri, Container container) {
+    public ManagerKeycloakIdentityProvider(UriBuilder externalServerUri,
+                                           Container container,
+                                           AuthorizationCache authorizationCache,
+                                           TenantRegistry tenantRegistry) {
         super(KEYCLOAK_CLIENT_ID, externalServerUri, container);
 
         this.devMode = container.isDevMode();
@@ -68,6 +73,8 @@ public class ManagerKeycloakIdentityProvider extends KeycloakIdentityProvider im
         this.persistenceService = container.getService(PersistenceService.class);
         this.messageBrokerService = container.getService(MessageBrokerService.class);
         this.clientEventService = container.getService(ClientEventService.class);
+        this.authorizationCache = authorizationCache;
+        this.tenantRegistry = tenantRegistry;
 
         enableAuthProxy(container.getService(WebService.class));
     }
@@ -252,17 +259,12 @@ public class ManagerKeycloakIdentityProvider extends KeycloakIdentityProvider im
 
     @Override
     public Tenant getTenantForRealm(String realm) {
-        return persistenceService.doReturningTransaction(em -> {
-            List<Tenant> result =
-                em.createQuery("select t from Tenant t where t.realm = :realm", Tenant.class)
-                    .setParameter("realm", realm).getResultList();
-            return result.size() > 0 ? result.get(0) : null;
-        });
+        return tenantRegistry.getTenantForRealm(realm);
     }
 
     @Override
     public Tenant getTenantForRealmId(String realmId) {
-        return persistenceService.doReturningTransaction(em -> em.find(Tenant.class, realmId));
+        return tenantRegistry.getTenantForRealmId(realmId);
     }
 
     @Override
@@ -323,28 +325,17 @@ public class ManagerKeycloakIdentityProvider extends KeycloakIdentityProvider im
 
     @Override
     public String[] getActiveTenantIds() {
-        return persistenceService.doReturningTransaction(entityManager -> {
-            @SuppressWarnings("unchecked")
-            List<String> results = entityManager.createQuery(
-                "select t.id from Tenant t where " +
-                    "t.enabled = true and (t.notBefore is null or t.notBefore = 0 or to_timestamp(t.notBefore) <= now())"
-            ).getResultList();
-            return results.toArray(new String[results.size()]);
-        });
+        return tenantRegistry.getActiveTenantIds();
     }
 
     @Override
     public boolean isActiveTenant(String realmId) {
-        return persistenceService.doReturningTransaction(em -> {
-            Tenant tenant = em.find(Tenant.class, realmId);
-            return tenant != null && tenant.isActive(timerService.getCurrentTimeMillis());
-        });
+        return tenantRegistry.isActiveTenant(realmId);
     }
 
     @Override
     public boolean isRestrictedUser(String userId) {
-        UserConfiguration userConfiguration = getUserConfiguration(userId);
-        return userConfiguration.isRestricted();
+        return authorizationCache.isRestrictedUser(userId, () -> getUserConfiguration(userId).isRestricted());
     }
 
     @Override
@@ -352,6 +343,7 @@ public class ManagerKeycloakIdentityProvider extends KeycloakIdentityProvider im
         UserConfiguration userConfiguration = getUserConfiguration(userId);
         userConfiguration.setRestricted(restricted);
         mergeUserConfiguration(userConfiguration);
+        authorizationCache.invalidateUser(userId);
     }
 
     protected UserConfiguration getUserConfiguration(String userId) {
@@ -419,6 +411,9 @@ public class ManagerKeycloakIdentityProvider extends KeycloakIdentityProvider im
     }
 
     protected void publishModification(PersistenceEvent.Cause cause, Tenant tenant) {
+        // Don't wait for the persistence event, the next authorization must see the change
+        tenantRegistry.refresh();
+
         // Fire persistence event although we don't use database for Tenant CUD but call Keycloak API
         PersistenceEvent persistenceEvent = new PersistenceEvent<>(cause, tenant, new String[0], null);
 
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2017, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.server.security;
+
+import org.openremote.container.persistence.PersistenceService;
+import org.openremote.container.timer.TimerService;
+import org.openremote.manager.shared.security.Tenant;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * All tenants in memory, so tenant lookups and activity checks don't need a database transaction.
+ * <p>
+ * The registry is loaded on first access and reloaded when tenants are modified, and periodically to pick up
+ * changes made directly in Keycloak. The activity of a tenant is evaluated with the current time on every call,
+ * so a tenant becomes active when its <code>notBefore</code> time has passed, without reload. If a reload fails,
+ * the previously loaded tenants are used; check {@link #getStalenessMillis()}.
+ */
+public class TenantRegistry {
+
+    private static final Logger LOG = Logger.getLogger(TenantRegistry.class.getName());
+
+    protected static class Tenants {
+        final Map<String, Tenant> byId = new HashMap<>();
+        final Map<String, Tenant> byRealm = new HashMap<>();
+        final long loadedMillis;
+
+        Tenants(List<Tenant> tenants, long loadedMillis) {
+            for (Tenant tenant : tenants) {
+                byId.put(tenant.getId(), tenant);
+                byRealm.put(tenant.getRealm(), tenant);
+            }
+            this.loadedMillis = loadedMillis;
+        }
+    }
+
+    final protected PersistenceService persistenceService;
+    final protected TimerService timerService;
+    protected volatile Tenants tenants;
+    final protected AtomicLong refreshCount = new AtomicLong();
+    final protected AtomicLong refreshFailureCount = new AtomicLong();
+
+    public TenantRegistry(PersistenceService persistenceService, TimerService timerService) {
+        this.persistenceService = persistenceService;
+        this.timerService = timerService;
+    }
+
+    public Tenant getTenantForRealm(String realm) {
+        return getTenants().byRealm.get(realm);
+    }
+
+    public Tenant getTenantForRealmId(String realmId) {
+        return getTenants().byId.get(realmId);
+    }
+
+    public boolean isActiveTenant(String realmId) {
+        Tenant tenant = getTenantForRealmId(realmId);
+        return tenant != null && tenant.isActive(timerService.getCurrentTimeMillis());
+    }
+
+    public String[] getActiveTenantIds() {
+        long now = timerService.getCurrentTimeMillis();
+        return getTenants().byId.values().stream()
+            .filter(tenant -> tenant.isActive(now))
+            .map(Tenant::getId)
+            .toArray(String[]::new);
+    }
+
+    /**
+     * Reloads all tenants, keeps the currently loaded tenants if this fails.
+     */
+    public void refresh() {
+        try {
+            load();
+        } catch (Exception ex) {
+            refreshFailureCount.incrementAndGet();
+            LOG.log(Level.WARNING, "Refreshing tenant registry failed, using tenants loaded "
+                + getStalenessMillis() + "ms ago", ex);
+        }
+    }
+
+    /**
+     * @return The time since the tenants have been loaded, <code>-1</code> if they haven't been loaded.
+     */
+    public long getStalenessMillis() {
+        Tenants tenants = this.tenants;
+        return tenants != null ? System.currentTimeMillis() - tenants.loadedMillis : -1;
+    }
+
+    /**
+     * @return The number of loaded tenants, <code>0</code> if they haven't been loaded.
+     */
+    public int getTenantCount() {
+        Tenants tenants = this.tenants;
+        return tenants != null ? tenants.byId.size() : 0;
+    }
+
+    public long getRefreshCount() {
+        return refreshCount.get();
+    }
+
+    public long getRefreshFailureCount() {
+        return refreshFailureCount.get();
+    }
+
+    protected Tenants getTenants() {
+        Tenants tenants = this.tenants;
+        return tenants != null ? tenants : load();
+    }
+
+    protected synchronized Tenants load() {
+        long loadedMillis = System.currentTimeMillis();
+        List<Tenant> result = persistenceService.doReturningTransaction(em ->
+            em.createQuery("select t from Tenant t", Tenant.class).getResultList()
+        );
+        tenants = new Tenants(result != null ? result : Collections.emptyList(), loadedMillis);
+        refreshCount.incrementAndGet();
+        LOG.fine("Loaded tenants: " + tenants.byId.size());
+        return tenants;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{" +
+            "tenants=" + getTenantCount() +
+            ", stalenessMillis=" + getStalenessMillis() +
+            ", refreshes=" + getRefreshCount() +
+            ", refreshFailures=" + getRefreshFailureCount() +
+            '}';
+    }
+}
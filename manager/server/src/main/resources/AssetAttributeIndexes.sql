@@ -0,0 +1,3 @@
+create index ASSET_ATTRIBUTES_INDEX on ASSET using gin (ATTRIBUTES jsonb_path_ops);
+
+create index ASSET_ATTRIBUTE_META_INDEX on ASSET using gin (ASSET_ATTRIBUTE_META(ATTRIBUTES) jsonb_path_ops);
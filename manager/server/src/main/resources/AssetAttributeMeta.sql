@@ -0,0 +1,9 @@
+-- importOneStatementOnly
+create or replace function ASSET_ATTRIBUTE_META(ATTRIBUTES jsonb)
+  returns jsonb as
+$$
+  -- All meta items of all attributes, for indexed containment queries on meta items
+  select coalesce(jsonb_agg(AM.VALUE), '[]' :: jsonb)
+    from jsonb_each(ATTRIBUTES) as AX, jsonb_array_elements(AX.VALUE #> '{meta}') as AM
+$$
+language sql immutable;
@@ -0,0 +1,5 @@
+create index ASSET_DATAPOINT_MINUTE_BUCKET_INDEX on ASSET_DATAPOINT_MINUTE (BUCKET);
+
+create index ASSET_DATAPOINT_HOUR_BUCKET_INDEX on ASSET_DATAPOINT_HOUR (BUCKET);
+
+create index ASSET_DATAPOINT_DAY_BUCKET_INDEX on ASSET_DATAPOINT_DAY (BUCKET);
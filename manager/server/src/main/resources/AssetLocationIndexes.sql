@@ -0,0 +1,3 @@
+create index ASSET_LOCATION_INDEX on ASSET using gist (LOCATION);
+
+create index ASSET_LOCATION_GEOGRAPHY_INDEX on ASSET using gist (geography(LOCATION));
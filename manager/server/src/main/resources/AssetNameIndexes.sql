@@ -0,0 +1,3 @@
+create index ASSET_NAME_TRGM_INDEX on ASSET using gin (NAME gin_trgm_ops);
+
+create index ASSET_UPPER_NAME_TRGM_INDEX on ASSET using gin (upper(NAME) gin_trgm_ops);
@@ -0,0 +1,5 @@
+create trigger ASSET_PATH_TRIGGER
+  before insert or update of PARENT_ID on ASSET
+  for each row execute procedure UPDATE_ASSET_PATH();
+
+create index ASSET_PATH_INDEX on ASSET using gin (PATH);
@@ -7,6 +7,15 @@ alter table ASSET
 alter table ASSET_DATAPOINT
   add foreign key (ENTITY_ID) references ASSET (ID) on delete cascade;
 
+alter table ASSET_DATAPOINT_MINUTE
+  add foreign key (ENTITY_ID) references ASSET (ID) on delete cascade;
+
+alter table ASSET_DATAPOINT_HOUR
+  add foreign key (ENTITY_ID) references ASSET (ID) on delete cascade;
+
+alter table ASSET_DATAPOINT_DAY
+  add foreign key (ENTITY_ID) references ASSET (ID) on delete cascade;
+
 alter table TENANT_RULESET
   add foreign key (REALM_ID) references REALM (ID);
 
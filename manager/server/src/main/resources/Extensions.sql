@@ -1,3 +1,4 @@
 create extension if not exists postgis;
 create extension if not exists postgis_topology;
 create extension if not exists fuzzystrmatch;
+create extension if not exists pg_trgm;
@@ -0,0 +1,23 @@
+-- importOneStatementOnly
+create or replace function UPDATE_ASSET_PATH()
+  returns trigger as
+$$
+begin
+  if TG_OP = 'UPDATE' and NEW.PARENT_ID is not distinct from OLD.PARENT_ID then
+    return NEW;
+  end if;
+  -- The path starts with the asset identifier, followed by the identifiers of all ancestors
+  if NEW.PARENT_ID is null then
+    NEW.PATH := array [text(NEW.ID)];
+  else
+    NEW.PATH := array_prepend(text(NEW.ID), (select P.PATH from ASSET P where P.ID = NEW.PARENT_ID));
+  end if;
+  if TG_OP = 'UPDATE' then
+    -- Replace the ancestors in the paths of all descendants of a moved asset
+    update ASSET set PATH = PATH [1 : array_position(PATH, text(NEW.ID)) - 1] || NEW.PATH
+      where PATH @> array [text(NEW.ID)] and ID <> NEW.ID;
+  end if;
+  return NEW;
+end;
+$$
+language plpgsql;
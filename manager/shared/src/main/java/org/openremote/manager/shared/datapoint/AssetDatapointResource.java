@@ -22,8 +22,10 @@ package org.openremote.manager.shared.datapoint;
 import jsinterop.annotations.JsType;
 import org.openremote.manager.shared.http.RequestParams;
 import org.openremote.manager.shared.http.SuccessStatusCode;
+import org.openremote.model.datapoint.DatapointDownsampling;
 import org.openremote.model.datapoint.DatapointInterval;
 import org.openremote.model.datapoint.NumberDatapoint;
+import org.openremote.model.datapoint.TimestampedNumberDatapoint;
 
 import javax.annotation.security.RolesAllowed;
 import javax.ws.rs.*;
@@ -53,4 +55,25 @@ public interface AssetDatapointResource {
                                           @QueryParam("interval") DatapointInterval datapointInterval,
                                           @QueryParam("timestamp") long timestamp);
 
+    /**
+     * Retrieve the number datapoints of an asset attribute in the given time range, in order of their timestamps.
+     * If there are more datapoints than <code>maxPoints</code>, they are downsampled with the given method, by
+     * default {@link DatapointDownsampling#LTTB}. With {@link DatapointDownsampling#NONE} the first datapoints
+     * are returned, request the next page with a range starting after the last returned timestamp. The same
+     * access rules as for {@link #getNumberDatapoints} apply, a 400 status is also returned if the attribute is
+     * not a number or boolean attribute, or if the range is invalid.
+     */
+    @GET
+    @Path("{assetId}/attribute/{attributeName}/range")
+    @Produces(APPLICATION_JSON)
+    @SuccessStatusCode(200)
+    @RolesAllowed({"read:assets"})
+    TimestampedNumberDatapoint[] getNumberDatapointRange(@BeanParam RequestParams requestParams,
+                                                         @PathParam("assetId") String assetId,
+                                                         @PathParam("attributeName") String attributeName,
+                                                         @QueryParam("fromTimestamp") long fromTimestamp,
+                                                         @QueryParam("toTimestamp") long toTimestamp,
+                                                         @QueryParam("maxPoints") int maxPoints,
+                                                         @QueryParam("downsampling") DatapointDownsampling downsampling);
+
 }
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2017, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.shared.metrics;
+
+import jsinterop.annotations.JsType;
+import org.openremote.manager.shared.http.RequestParams;
+import org.openremote.manager.shared.http.SuccessStatusCode;
+import org.openremote.model.value.ObjectValue;
+
+import javax.annotation.security.RolesAllowed;
+import javax.ws.rs.*;
+
+import static javax.ws.rs.core.MediaType.APPLICATION_JSON;
+
+/**
+ * Runtime metrics of the manager, for finding bottlenecks under load.
+ */
+@Path("metrics")
+@JsType(isNative = true)
+public interface MetricsResource {
+
+    /**
+     * Counters and latency percentiles (in microseconds) of each attribute event processing stage, per event
+     * source, and the current size of the asset queue.
+     */
+    @GET
+    @Path("asset/processing")
+    @Produces(APPLICATION_JSON)
+    @SuccessStatusCode(200)
+    @RolesAllowed({"read:admin"})
+    ObjectValue getAssetProcessingMetrics(@BeanParam RequestParams requestParams);
+
+    /**
+     * Clears all recorded attribute event processing metrics.
+     */
+    @DELETE
+    @Path("asset/processing")
+    @SuccessStatusCode(204)
+    @RolesAllowed({"write:admin"})
+    void resetAssetProcessingMetrics(@BeanParam RequestParams requestParams);
+
+    /**
+     * Number of cached assets and the hits, misses and evictions of the asset cache since startup.
+     */
+    @GET
+    @Path("asset/cache")
+    @Produces(APPLICATION_JSON)
+    @SuccessStatusCode(200)
+    @RolesAllowed({"read:admin"})
+    ObjectValue getAssetCacheMetrics(@BeanParam RequestParams requestParams);
+
+    /**
+     * Number of connected websocket sessions and counters of their outbound message queues: queued, sent,
+     * coalesced and dropped messages since startup, the current and the maximum queue depth of any session.
+     */
+    @GET
+    @Path("websocket")
+    @Produces(APPLICATION_JSON)
+    @SuccessStatusCode(200)
+    @RolesAllowed({"read:admin"})
+    ObjectValue getWebsocketMetrics(@BeanParam RequestParams requestParams);
+
+    /**
+     * Number of tenants in the tenant registry, the time since they have been loaded (<code>-1</code> if not
+     * loaded) and the number of refreshes and failed refreshes. Empty if the identity provider doesn't have a
+     * tenant registry.
+     */
+    @GET
+    @Path("tenants")
+    @Produces(APPLICATION_JSON)
+    @SuccessStatusCode(200)
+    @RolesAllowed({"read:admin"})
+    ObjectValue getTenantRegistryMetrics(@BeanParam RequestParams requestParams);
+}
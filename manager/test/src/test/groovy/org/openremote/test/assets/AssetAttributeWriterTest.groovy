@@ -0,0 +1,135 @@
+package org.openremote.test.assets
+
+import org.openremote.manager.server.asset.AssetProcessingService
+import org.openremote.manager.server.asset.AssetStorageService
+import org.openremote.manager.server.asset.ServerAsset
+import org.openremote.manager.server.setup.SetupService
+import org.openremote.manager.server.setup.builtin.KeycloakDemoSetup
+import org.openremote.model.asset.AssetAttribute
+import org.openremote.model.asset.AssetQuery
+import org.openremote.model.asset.AssetState
+import org.openremote.model.asset.AssetType
+import org.openremote.model.attribute.AttributeEvent
+import org.openremote.model.attribute.AttributeType
+import org.openremote.model.value.Values
+import org.openremote.test.ManagerContainerTrait
+import spock.lang.Specification
+import spock.util.concurrent.PollingConditions
+
+import static org.openremote.manager.server.asset.AssetStorageService.ASSET_ATTRIBUTE_WRITE_WINDOW_MILLIS
+
+class AssetAttributeWriterTest extends Specification implements ManagerContainerTrait {
+
+    def "Coalesce attribute values and store them on flush"() {
+
+        given: "expected conditions"
+        def conditions = new PollingConditions(timeout: 10, delay: 1)
+
+        and: "the container is started with a write window which never elapses during the test"
+        def serverPort = findEphemeralPort()
+        def container = startContainerNoDemoAssets(
+                defaultConfig(serverPort) << [(ASSET_ATTRIBUTE_WRITE_WINDOW_MILLIS): "3600000"],
+                defaultServices()
+        )
+        def assetStorageService = container.getService(AssetStorageService.class)
+        def assetProcessingService = container.getService(AssetProcessingService.class)
+        def keycloakDemoSetup = container.getService(SetupService.class).getTaskOfType(KeycloakDemoSetup.class)
+
+        and: "an asset with two attributes is stored"
+        def thing = new ServerAsset("Test Thing", AssetType.THING, null, keycloakDemoSetup.masterTenant.id)
+        thing.setAttributes(
+                new AssetAttribute("counter", AttributeType.NUMBER, Values.create(0)),
+                new AssetAttribute("label", AttributeType.STRING, Values.create("foo"))
+        )
+        thing = assetStorageService.merge(thing)
+
+        when: "several values of the same attributes are processed"
+        def timestamp = System.currentTimeMillis()
+        (1..10).each {
+            assetProcessingService.sendAttributeEvent(new AttributeEvent(thing.id, "counter", Values.create(it), timestamp + it))
+        }
+        assetProcessingService.sendAttributeEvent(new AttributeEvent(thing.id, "label", Values.create("bar"), timestamp + 11))
+
+        then: "the latest values should be visible immediately and coalesced in the write-behind stage"
+        conditions.eventually {
+            def asset = assetStorageService.find(thing.id, true)
+            assert asset.getAttribute("counter").flatMap { it.valueAsNumber }.get() == 10
+            assert asset.getAttribute("label").flatMap { it.valueAsString }.get() == "bar"
+            assert assetStorageService.attributeWriter.pendingCount == 2
+        }
+
+        and: "the database should still have the initial values"
+        def storedAsset = assetStorageService.find(new AssetQuery().select(new AssetQuery.Select(AssetQuery.Include.ALL)).id(thing.id))
+        storedAsset.getAttribute("counter").flatMap { it.valueAsNumber }.get() == 0
+        storedAsset.getAttribute("label").flatMap { it.valueAsString }.get() == "foo"
+
+        when: "the pending values are flushed"
+        assetStorageService.flushAttributeValues()
+
+        then: "the database should have the latest values and timestamps"
+        assetStorageService.attributeWriter.pendingCount == 0
+        def flushedAsset = assetStorageService.find(new AssetQuery().select(new AssetQuery.Select(AssetQuery.Include.ALL)).id(thing.id))
+        flushedAsset.getAttribute("counter").flatMap { it.valueAsNumber }.get() == 10
+        flushedAsset.getAttribute("counter").flatMap { it.valueTimestamp }.get() == timestamp + 10
+        flushedAsset.getAttribute("label").flatMap { it.valueAsString }.get() == "bar"
+        flushedAsset.getAttribute("label").flatMap { it.valueTimestamp }.get() == timestamp + 11
+        flushedAsset.getAttribute("label").flatMap { it.getType() }.get() == AttributeType.STRING
+
+        when: "a value is pending and the asset is merged"
+        assetProcessingService.sendAttributeEvent(new AttributeEvent(thing.id, "counter", Values.create(11), timestamp + 12))
+        conditions.eventually {
+            assert assetStorageService.attributeWriter.pendingCount == 1
+        }
+        def mergedThing = assetStorageService.find(thing.id, true)
+        mergedThing.getAttribute("counter").get().setValue(Values.create(100))
+        mergedThing.replaceAttribute(mergedThing.getAttribute("counter").get())
+        assetStorageService.merge(mergedThing)
+        assetStorageService.flushAttributeValues()
+
+        then: "the merged value should win"
+        assetStorageService.find(new AssetQuery().select(new AssetQuery.Select(AssetQuery.Include.ALL)).id(thing.id))
+                .getAttribute("counter").flatMap { it.valueAsNumber }.get() == 100
+
+        cleanup: "the server should be stopped"
+        stopContainer(container)
+    }
+
+    def "Store attribute values immediately by default and report missing attributes"() {
+
+        given: "the container is started with the default configuration"
+        def serverPort = findEphemeralPort()
+        def container = startContainerNoDemoAssets(defaultConfig(serverPort), defaultServices())
+        def assetStorageService = container.getService(AssetStorageService.class)
+        def keycloakDemoSetup = container.getService(SetupService.class).getTaskOfType(KeycloakDemoSetup.class)
+
+        and: "an asset with an attribute is stored"
+        def thing = new ServerAsset("Test Thing", AssetType.THING, null, keycloakDemoSetup.masterTenant.id)
+        thing.setAttributes(
+                new AssetAttribute("counter", AttributeType.NUMBER, Values.create(0))
+        )
+        thing = assetStorageService.merge(thing)
+
+        when: "a value of the attribute is stored"
+        assetStorageService.accept(new AssetState(
+                thing, new AssetAttribute(thing.id, "counter", AttributeType.NUMBER, Values.create(1)), AttributeEvent.Source.SENSOR
+        ))
+
+        then: "nothing should be pending and queries should return the value"
+        assetStorageService.attributeWriter.pendingCount == 0
+        assetStorageService.find(new AssetQuery().select(new AssetQuery.Select(AssetQuery.Include.ALL)).id(thing.id))
+                .getAttribute("counter").flatMap { it.valueAsNumber }.get() == 1
+
+        when: "a value of an attribute which doesn't exist is stored"
+        assetStorageService.accept(new AssetState(
+                thing, new AssetAttribute(thing.id, "missing", AttributeType.NUMBER, Values.create(1)), AttributeEvent.Source.SENSOR
+        ))
+
+        then: "the failure should be reported"
+        thrown(RuntimeException)
+        !assetStorageService.find(new AssetQuery().select(new AssetQuery.Select(AssetQuery.Include.ALL)).id(thing.id))
+                .getAttribute("missing").isPresent()
+
+        cleanup: "the server should be stopped"
+        stopContainer(container)
+    }
+}
@@ -0,0 +1,118 @@
+package org.openremote.test.assets
+
+import groovy.json.JsonSlurper
+import org.openremote.manager.server.asset.AssetProcessingService
+import org.openremote.manager.server.asset.AssetStorageService
+import org.openremote.manager.server.asset.ServerAsset
+import org.openremote.manager.server.setup.SetupService
+import org.openremote.manager.server.setup.builtin.KeycloakDemoSetup
+import org.openremote.manager.shared.metrics.MetricsResource
+import org.openremote.model.asset.AssetAttribute
+import org.openremote.model.asset.AssetQuery
+import org.openremote.model.asset.AssetType
+import org.openremote.model.attribute.AttributeEvent
+import org.openremote.model.attribute.AttributeType
+import org.openremote.model.value.Values
+import org.openremote.test.ManagerContainerTrait
+import spock.lang.Specification
+import spock.util.concurrent.PollingConditions
+
+import static org.openremote.container.util.MapAccess.getString
+import static org.openremote.manager.server.setup.AbstractKeycloakSetup.SETUP_KEYCLOAK_ADMIN_PASSWORD
+import static org.openremote.manager.server.setup.AbstractKeycloakSetup.SETUP_KEYCLOAK_ADMIN_PASSWORD_DEFAULT
+import static org.openremote.model.Constants.*
+
+class AssetCacheTest extends Specification implements ManagerContainerTrait {
+
+    def "Cached assets are coherent with stored assets"() {
+
+        given: "expected conditions"
+        def conditions = new PollingConditions(timeout: 10, delay: 1)
+
+        and: "the container is started"
+        def serverPort = findEphemeralPort()
+        def container = startContainerNoDemoAssets(defaultConfig(serverPort), defaultServices())
+        def assetStorageService = container.getService(AssetStorageService.class)
+        def assetProcessingService = container.getService(AssetProcessingService.class)
+        def keycloakDemoSetup = container.getService(SetupService.class).getTaskOfType(KeycloakDemoSetup.class)
+
+        when: "an asset is stored"
+        def building = new ServerAsset("Test Building", AssetType.BUILDING, null, keycloakDemoSetup.masterTenant.id)
+        building = assetStorageService.merge(building)
+        def room = new ServerAsset("Test Room", AssetType.ROOM, building)
+        room.setAttributes(
+                new AssetAttribute("plainAttribute", AttributeType.STRING, Values.create("foo"))
+        )
+        room = assetStorageService.merge(room)
+
+        and: "the asset is loaded twice"
+        def hitCount = assetStorageService.getAssetCacheStats().hitCount()
+        def firstCopy = assetStorageService.find(room.id, true)
+        def secondCopy = assetStorageService.find(room.id, true)
+
+        then: "the second load should be served from the cache"
+        assetStorageService.getAssetCacheStats().hitCount() >= hitCount + 1
+        secondCopy.name == "Test Room"
+        secondCopy.path == [room.id, building.id] as String[]
+        secondCopy.parentName == "Test Building"
+
+        when: "the asset cache metrics are retrieved by an admin user"
+        def accessToken = authenticate(
+                container,
+                MASTER_REALM,
+                KEYCLOAK_CLIENT_ID,
+                MASTER_REALM_ADMIN_USER,
+                getString(container.getConfig(), SETUP_KEYCLOAK_ADMIN_PASSWORD, SETUP_KEYCLOAK_ADMIN_PASSWORD_DEFAULT)
+        ).token
+        def metricsResource = getClientTarget(serverUri(serverPort), MASTER_REALM, accessToken).proxy(MetricsResource.class)
+        def metrics = new JsonSlurper().parseText(metricsResource.getAssetCacheMetrics(null).toJson())
+        def stats = assetStorageService.getAssetCacheStats()
+
+        then: "the hits, misses, evictions and size of the cache should be reported"
+        metrics.hits >= hitCount + 1
+        metrics.hits <= stats.hitCount()
+        metrics.misses >= 1
+        metrics.misses <= stats.missCount()
+        metrics.evictions <= stats.evictionCount()
+        metrics.size >= 1
+
+        when: "a loaded copy is modified without storing it"
+        firstCopy.setName("Modified Room")
+        firstCopy.getAttribute("plainAttribute").get().setValue(Values.create("modified"))
+
+        then: "the cached asset should not change"
+        assetStorageService.find(room.id, true).name == "Test Room"
+        assetStorageService.find(room.id, true).getAttribute("plainAttribute").flatMap { it.valueAsString }.get() == "foo"
+
+        when: "an attribute event is processed"
+        assetProcessingService.sendAttributeEvent(new AttributeEvent(room.id, "plainAttribute", Values.create("bar")))
+
+        then: "the cached and the stored attribute value should be updated"
+        conditions.eventually {
+            def cachedAsset = assetStorageService.find(room.id, true)
+            def storedAsset = assetStorageService.find(new AssetQuery().select(new AssetQuery.Select(AssetQuery.Include.ALL)).id(room.id))
+            assert cachedAsset.getAttribute("plainAttribute").flatMap { it.valueAsString }.get() == "bar"
+            assert storedAsset.getAttribute("plainAttribute").flatMap { it.valueAsString }.get() == "bar"
+            assert cachedAsset.getAttribute("plainAttribute").flatMap { it.valueTimestamp }.get() ==
+                    storedAsset.getAttribute("plainAttribute").flatMap { it.valueTimestamp }.get()
+        }
+
+        when: "the parent asset is renamed"
+        building = assetStorageService.find(building.id, true)
+        building.setName("Renamed Building")
+        assetStorageService.merge(building)
+
+        then: "the cached child asset should have the new parent details"
+        assetStorageService.find(building.id, true).name == "Renamed Building"
+        assetStorageService.find(room.id, true).parentName == "Renamed Building"
+
+        when: "the asset is deleted"
+        assetStorageService.delete(room.id)
+
+        then: "it should no longer be found"
+        assetStorageService.find(room.id, true) == null
+
+        cleanup: "the server should be stopped"
+        stopContainer(container)
+    }
+}
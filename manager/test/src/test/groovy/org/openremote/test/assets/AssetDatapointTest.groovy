@@ -1,18 +1,47 @@
 package org.openremote.test.assets
 
 import org.openremote.agent.protocol.simulator.SimulatorProtocol
+import org.openremote.container.persistence.PersistenceService
+import org.openremote.manager.server.asset.AssetProcessingService
 import org.openremote.manager.server.asset.AssetStorageService
+import org.openremote.manager.server.asset.ServerAsset
+import org.openremote.manager.server.datapoint.AssetDatapointDay
+import org.openremote.manager.server.datapoint.AssetDatapointHour
+import org.openremote.manager.server.datapoint.AssetDatapointMinute
+import org.openremote.manager.server.datapoint.AssetDatapointPartitions
+import org.openremote.manager.server.datapoint.AssetDatapointRollup
 import org.openremote.manager.server.datapoint.AssetDatapointService
 import org.openremote.manager.server.setup.SetupService
+import org.openremote.manager.server.setup.builtin.KeycloakDemoSetup
 import org.openremote.manager.server.setup.builtin.ManagerDemoSetup
+import org.openremote.model.asset.AssetAttribute
+import org.openremote.model.asset.AssetMeta
+import org.openremote.model.asset.AssetType
+import org.openremote.model.attribute.AttributeEvent
 import org.openremote.model.attribute.AttributeRef
+import org.openremote.model.attribute.AttributeType
+import org.openremote.model.attribute.MetaItem
+import org.openremote.model.datapoint.AssetDatapoint
+import org.openremote.model.datapoint.DatapointDownsampling
 import org.openremote.model.datapoint.DatapointInterval
 import org.openremote.model.value.Values
 import org.openremote.test.ManagerContainerTrait
 import spock.lang.Specification
 import spock.util.concurrent.PollingConditions
 
+import java.time.Instant
+import java.time.LocalTime
+import java.time.ZoneId
+import java.time.ZoneOffset
+
+import static java.util.concurrent.TimeUnit.DAYS
+import static java.util.concurrent.TimeUnit.HOURS
+import static java.util.concurrent.TimeUnit.MILLISECONDS
 import static java.util.concurrent.TimeUnit.SECONDS
+import static org.openremote.manager.server.datapoint.AssetDatapointService.DATAPOINT_BATCH_SIZE
+import static org.openremote.manager.server.datapoint.AssetDatapointService.DATAPOINT_FLUSH_INTERVAL_MILLIS
+import static org.openremote.manager.server.datapoint.AssetDatapointService.DATAPOINT_MAX_AGE_DAYS
+import static org.openremote.manager.server.setup.builtin.BuiltinSetupTasks.SETUP_IMPORT_DEMO_ASSETS
 
 class AssetDatapointTest extends Specification implements ManagerContainerTrait {
 
@@ -173,4 +202,264 @@ class AssetDatapointTest extends Specification implements ManagerContainerTrait
         cleanup: "the server should be stopped"
         stopContainer(container)
     }
+
+    def "Queue datapoints and store them in batches with rollups"() {
+
+        given: "expected conditions"
+        def conditions = new PollingConditions(timeout: 10, delay: 1)
+
+        and: "the container is started without a flush interval, only complete batches are stored"
+        def serverPort = findEphemeralPort()
+        def container = startContainer(
+                defaultConfig(serverPort) << [
+                        (DATAPOINT_FLUSH_INTERVAL_MILLIS): "0",
+                        (DATAPOINT_BATCH_SIZE)           : "3"
+                ],
+                defaultServices()
+        )
+        def managerDemoSetup = container.getService(SetupService.class).getTaskOfType(ManagerDemoSetup.class)
+        def assetProcessingService = container.getService(AssetProcessingService.class)
+        def assetDatapointService = container.getService(AssetDatapointService.class)
+        def attributeRef = new AttributeRef(managerDemoSetup.thingId, "light1PowerConsumption")
+        assetDatapointService.flushDatapoints()
+        def initialDatapoints = assetDatapointService.getDatapoints(attributeRef).size()
+        def initialQueued = assetDatapointService.datapointQueue.queuedCount
+
+        when: "values of an attribute with datapoints are processed"
+        def timestamp = System.currentTimeMillis()
+        (1..7).each {
+            assetProcessingService.sendAttributeEvent(new AttributeEvent(attributeRef, Values.create(100 + it), timestamp + it))
+        }
+
+        then: "complete batches should be stored without waiting for the flush interval"
+        conditions.eventually {
+            assert assetDatapointService.datapointQueue.queuedCount == initialQueued + 7
+            assert assetDatapointService.getDatapoints(attributeRef).size() == initialDatapoints + 6
+            assert assetDatapointService.datapointQueue.size == 1
+        }
+
+        when: "the queue is flushed"
+        assetDatapointService.flushDatapoints()
+
+        then: "all datapoints should be stored"
+        def datapoints = assetDatapointService.getDatapoints(attributeRef)
+        datapoints.size() == initialDatapoints + 7
+        Values.getNumber(datapoints.get(0).value).orElse(null) == 107d
+        datapoints.get(0).timestamp == timestamp + 7
+        assetDatapointService.datapointQueue.size == 0
+        assetDatapointService.datapointQueue.droppedCount == 0
+
+        and: "the rollups should include all datapoints"
+        def persistenceService = container.getService(PersistenceService.class)
+        [AssetDatapointMinute, AssetDatapointHour, AssetDatapointDay].each { rollupType ->
+            List<AssetDatapointRollup> rollups = persistenceService.doReturningTransaction { em ->
+                em.createQuery("select r from " + rollupType.simpleName + " r where r.entityId = :entityId and r.attributeName = :attributeName order by r.bucket desc", rollupType)
+                        .setParameter("entityId", attributeRef.entityId)
+                        .setParameter("attributeName", attributeRef.attributeName)
+                        .getResultList()
+            }
+            assert rollups.sum { it.valueCount } == datapoints.size()
+            assert rollups.max { it.valueMax }.valueMax == 107d
+            assert rollups.get(0).lastValue == 107d
+            assert rollups.get(0).lastTimestamp == timestamp + 7
+        }
+
+        and: "the hour rollup buckets should start at UTC hours and the day rollup buckets at local midnight"
+        def getRollups = { Class<? extends AssetDatapointRollup> rollupType ->
+            persistenceService.doReturningTransaction { em ->
+                em.createQuery("select r from " + rollupType.simpleName + " r where r.entityId = :entityId and r.attributeName = :attributeName", rollupType)
+                        .setParameter("entityId", attributeRef.entityId)
+                        .setParameter("attributeName", attributeRef.attributeName)
+                        .getResultList()
+            }
+        }
+        getRollups(AssetDatapointHour).every { it.bucket % HOURS.toMillis(1) == 0 }
+        getRollups(AssetDatapointDay).every {
+            Instant.ofEpochMilli(it.bucket).atZone(ZoneId.systemDefault()).toLocalTime() == LocalTime.MIDNIGHT
+        }
+
+        when: "a batch with a datapoint which can't be stored is flushed"
+        assetDatapointService.datapointQueue.offer(new AssetDatapoint(attributeRef, Values.create(108), timestamp + 8))
+        assetDatapointService.datapointQueue.offer(new AssetDatapoint(attributeRef, Values.create(109), Long.MAX_VALUE))
+        assetDatapointService.datapointQueue.offer(new AssetDatapoint(attributeRef, Values.create(110), timestamp + 10))
+        assetDatapointService.flushDatapoints()
+
+        then: "only the failing datapoint should be dropped"
+        assetDatapointService.datapointQueue.droppedCount == 1
+        assetDatapointService.getDatapoints(attributeRef).size() == initialDatapoints + 9
+
+        cleanup: "the server should be stopped"
+        stopContainer(container)
+    }
+
+    def "Expire datapoints and drop partitions"() {
+
+        given: "the container is started with a pseudo clock and a global retention of two days"
+        def serverPort = findEphemeralPort()
+        def container = startContainerWithPseudoClock(
+                defaultConfig(serverPort) << [(SETUP_IMPORT_DEMO_ASSETS): "false", (DATAPOINT_MAX_AGE_DAYS): "2"],
+                defaultServices()
+        )
+        def keycloakDemoSetup = container.getService(SetupService.class).getTaskOfType(KeycloakDemoSetup.class)
+        def assetStorageService = container.getService(AssetStorageService.class)
+        def assetDatapointService = container.getService(AssetDatapointService.class)
+        def persistenceService = container.getService(PersistenceService.class)
+
+        and: "the clock is in the middle of next month, so datapoint ages map to known partitions"
+        def start = getClockTimeOf(container)
+        def now = AssetDatapointPartitions.getMonth(start).plusMonths(1).atDay(15).atTime(12, 0).toInstant(ZoneOffset.UTC).toEpochMilli()
+        withClockOf(container) { it.advanceTime(now - start, MILLISECONDS) }
+        assetDatapointService.maintainDatapoints()
+
+        and: "an asset with an attribute which has its own retention of thirty days"
+        def thing = new ServerAsset("Test Thing", AssetType.THING, null, keycloakDemoSetup.masterTenant.id)
+        def longRetention = new AssetAttribute("longRetention", AttributeType.NUMBER, Values.create(0))
+        longRetention.addMeta(new MetaItem(AssetMeta.DATA_POINTS_MAX_AGE_DAYS, Values.create(30)))
+        thing.setAttributes(
+                new AssetAttribute("defaultRetention", AttributeType.NUMBER, Values.create(0)),
+                longRetention
+        )
+        thing = assetStorageService.merge(thing)
+        def defaultRef = new AttributeRef(thing.id, "defaultRetention")
+        def longRef = new AttributeRef(thing.id, "longRetention")
+        def values = { AttributeRef ref -> assetDatapointService.getDatapoints(ref).collect { Values.getNumber(it.value).orElse(null) } }
+        def minuteRollups = { AttributeRef ref ->
+            persistenceService.doReturningTransaction { em ->
+                em.createQuery("select r from AssetDatapointMinute r where r.entityId = :entityId and r.attributeName = :attributeName", AssetDatapointMinute)
+                        .setParameter("entityId", ref.entityId)
+                        .setParameter("attributeName", ref.attributeName)
+                        .getResultList()
+            }
+        }
+        def dayRollups = { AttributeRef ref ->
+            persistenceService.doReturningTransaction { em ->
+                em.createQuery("select r from AssetDatapointDay r where r.entityId = :entityId and r.attributeName = :attributeName", AssetDatapointDay)
+                        .setParameter("entityId", ref.entityId)
+                        .setParameter("attributeName", ref.attributeName)
+                        .getResultList()
+            }
+        }
+
+        when: "datapoints in this, the previous and an earlier month without partition are stored"
+        [defaultRef, longRef].each { ref ->
+            [50, 20, 5, 0].each { days ->
+                assetDatapointService.datapointQueue.offer(new AssetDatapoint(ref, Values.create(days), now - DAYS.toMillis(days)))
+            }
+        }
+        assetDatapointService.flushDatapoints()
+
+        then: "the partitions of this and the next months should exist"
+        assetDatapointService.partitions.partitions.contains(AssetDatapointPartitions.getMonth(now))
+        assetDatapointService.partitions.partitions.contains(AssetDatapointPartitions.getMonth(now).plusMonths(2))
+
+        and: "all datapoints and rollups should be stored"
+        values(defaultRef).size() == 4
+        values(longRef).size() == 4
+        minuteRollups(defaultRef).size() == 4
+
+        when: "the datapoint maintenance is executed"
+        assetDatapointService.maintainDatapoints()
+
+        then: "the expired partition of the previous month should be dropped"
+        !assetDatapointService.partitions.partitions.contains(AssetDatapointPartitions.getMonth(now).minusMonths(1))
+        assetDatapointService.partitions.partitions.contains(AssetDatapointPartitions.getMonth(now))
+
+        and: "datapoints of the current month should be kept, even if older than the global retention"
+        values(defaultRef) == [0d, 5d]
+
+        and: "datapoints of the attribute with longer retention should be moved out of the dropped partition"
+        values(longRef) == [0d, 5d, 20d]
+
+        and: "expired minute rollups should be deleted"
+        minuteRollups(defaultRef).size() == 3
+
+        when: "time advances beyond the retention of all datapoints"
+        withClockOf(container) { it.advanceTime(100, DAYS) }
+        assetDatapointService.maintainDatapoints()
+
+        then: "the expired partitions should be dropped and new partitions created"
+        !assetDatapointService.partitions.partitions.contains(AssetDatapointPartitions.getMonth(now))
+        assetDatapointService.partitions.partitions.contains(AssetDatapointPartitions.getMonth(getClockTimeOf(container)))
+        values(defaultRef).size() == 0
+        values(longRef).size() == 0
+
+        and: "only the rollups with a longer retention should be kept"
+        minuteRollups(defaultRef).size() == 0
+        dayRollups(defaultRef).size() == 4
+
+        cleanup: "the server should be stopped"
+        stopContainer(container)
+    }
+
+    def "Read and downsample a datapoint range"() {
+
+        given: "the container is started without demo assets"
+        def serverPort = findEphemeralPort()
+        def container = startContainerWithPseudoClock(
+                defaultConfig(serverPort) << [(SETUP_IMPORT_DEMO_ASSETS): "false"],
+                defaultServices()
+        )
+        def keycloakDemoSetup = container.getService(SetupService.class).getTaskOfType(KeycloakDemoSetup.class)
+        def assetStorageService = container.getService(AssetStorageService.class)
+        def assetDatapointService = container.getService(AssetDatapointService.class)
+
+        and: "an asset with a number attribute"
+        def thing = new ServerAsset("Test Thing", AssetType.THING, null, keycloakDemoSetup.masterTenant.id)
+        thing.setAttributes(new AssetAttribute("counter", AttributeType.NUMBER, Values.create(0)))
+        thing = assetStorageService.merge(thing)
+        def attribute = assetStorageService.find(thing.id, true).getAttribute("counter").get()
+
+        when: "a thousand datapoints with a single peak are stored"
+        def start = getClockTimeOf(container) - 1000000
+        (0..999).each {
+            def value = it == 500 ? 1000 : it % 10
+            assetDatapointService.datapointQueue.offer(new AssetDatapoint(new AttributeRef(thing.id, "counter"), Values.create(value), start + it * 1000))
+        }
+        assetDatapointService.flushDatapoints()
+        def end = start + 999000
+
+        then: "the whole range should be returned if it has fewer datapoints than requested"
+        def all = assetDatapointService.getNumberDatapoints(attribute, start, end, 2000, DatapointDownsampling.LTTB)
+        all.size() == 1000
+        all.collect { it.timestamp } == (0..999).collect { start + it * 1000 }
+
+        when: "the range is downsampled with LTTB"
+        def lttb = assetDatapointService.getNumberDatapoints(attribute, start, end, 50, DatapointDownsampling.LTTB)
+
+        then: "the first, the last and the peak datapoint should be kept"
+        lttb.size() == 50
+        lttb[0].timestamp == start
+        lttb[49].timestamp == end
+        lttb.find { it.number == 1000d }.timestamp == start + 500000
+        lttb.collect { it.timestamp } == lttb.collect { it.timestamp }.sort()
+
+        when: "the range is downsampled with min/max buckets"
+        def minMax = assetDatapointService.getNumberDatapoints(attribute, start, end, 50, DatapointDownsampling.MIN_MAX)
+
+        then: "each bucket should have its minimum and maximum"
+        minMax.size() <= 50
+        minMax.size() > 25
+        minMax.find { it.number == 1000d }.timestamp == start + 500000
+        minMax.findAll { it.number == 0d }.size() == minMax.size() / 2
+
+        when: "the range is paged without downsampling"
+        def firstPage = assetDatapointService.getNumberDatapoints(attribute, start, end, 100, DatapointDownsampling.NONE)
+        def secondPage = assetDatapointService.getNumberDatapoints(attribute, firstPage[-1].timestamp + 1, end, 100, DatapointDownsampling.NONE)
+
+        then: "the pages should have consecutive datapoints"
+        firstPage.size() == 100
+        secondPage.size() == 100
+        firstPage[0].timestamp == start
+        secondPage[0].timestamp == start + 100000
+        secondPage[0].number == 0d
+
+        when: "an invalid range is requested"
+        assetDatapointService.getNumberDatapoints(attribute, end, start, 50, DatapointDownsampling.LTTB)
+
+        then: "the request should be rejected"
+        thrown(IllegalArgumentException)
+
+        cleanup: "the server should be stopped"
+        stopContainer(container)
+    }
 }
@@ -0,0 +1,142 @@
+package org.openremote.test.assets
+
+import org.openremote.manager.server.asset.AssetStorageService
+import org.openremote.manager.server.asset.ServerAsset
+import org.openremote.manager.server.setup.SetupService
+import org.openremote.manager.server.setup.builtin.KeycloakDemoSetup
+import org.openremote.manager.server.setup.builtin.ManagerDemoSetup
+import org.openremote.model.asset.AssetAttribute
+import org.openremote.model.asset.AssetMeta
+import org.openremote.model.asset.AssetQuery
+import org.openremote.model.asset.AssetType
+import org.openremote.model.attribute.AttributeType
+import org.openremote.model.attribute.MetaItem
+import org.openremote.model.value.Values
+import org.openremote.test.ManagerContainerTrait
+import spock.lang.Specification
+
+import static org.openremote.model.asset.AbstractAssetQuery.*
+
+class AssetIndexFilterTest extends Specification implements ManagerContainerTrait {
+
+    /**
+     * Evaluates queries with or without the containment conditions which can use the GIN indexes.
+     */
+    static class IndexFilterAssetStorageService extends AssetStorageService {
+
+        boolean indexFilters = true
+
+        @Override
+        protected String buildAttributeMetaIndexFilter(AttributeMetaPredicate attributeMetaPredicate, List<AssetStorageService.ParameterBinder> binders) {
+            return indexFilters ? super.buildAttributeMetaIndexFilter(attributeMetaPredicate, binders) : ""
+        }
+
+        @Override
+        protected String buildAttributeIndexFilter(AttributePredicate attributePredicate, List<AssetStorageService.ParameterBinder> binders) {
+            return indexFilters ? super.buildAttributeIndexFilter(attributePredicate, binders) : ""
+        }
+
+        Set<String> findIds(AssetQuery query, boolean indexFilters) {
+            this.indexFilters = indexFilters
+            try {
+                return findAll(query).collect { it.id } as Set
+            } finally {
+                this.indexFilters = true
+            }
+        }
+    }
+
+    def "Find the same assets with and without index filters"() {
+
+        given: "the container is started with an asset storage service which can skip the index filters"
+        def assetStorageService = new IndexFilterAssetStorageService()
+        def serverPort = findEphemeralPort()
+        def container = startContainer(
+                defaultConfig(serverPort),
+                defaultServices().collect { it instanceof AssetStorageService ? assetStorageService : it }
+        )
+        def managerDemoSetup = container.getService(SetupService.class).getTaskOfType(ManagerDemoSetup.class)
+        def keycloakDemoSetup = container.getService(SetupService.class).getTaskOfType(KeycloakDemoSetup.class)
+
+        and: "an asset with non-string values which have the same text as strings"
+        def thing = new ServerAsset("Index Filter Thing", AssetType.THING, null, keycloakDemoSetup.masterTenant.id)
+        thing.setAttributes(
+                new AssetAttribute("counter", AttributeType.NUMBER, Values.create(5))
+                        .setMeta(
+                        new MetaItem("urn:test:number", Values.create(5)),
+                        new MetaItem("urn:test:boolean", Values.create(true)),
+                        new MetaItem("urn:test:array", Values.createArray().add(Values.create(5)).add(Values.create("x")))
+                ),
+                new AssetAttribute("enabled", AttributeType.BOOLEAN, Values.create(true))
+        )
+        thing = assetStorageService.merge(thing)
+
+        when: "the agent links of an agent are found"
+        def query = new AssetQuery().attributeMeta(
+                new AttributeRefPredicate(AssetMeta.AGENT_LINK, managerDemoSetup.agentId, managerDemoSetup.agentProtocolConfigName)
+        )
+        def withIndex = assetStorageService.findIds(query, true)
+
+        then: "the same assets should be found without index filters"
+        withIndex == [managerDemoSetup.thingId] as Set
+        withIndex == assetStorageService.findIds(query, false)
+
+        when: "the assets with rule state are found"
+        query = new AssetQuery().attributeMeta(new AttributeMetaPredicate(AssetMeta.RULE_STATE, new BooleanPredicate(true)))
+        withIndex = assetStorageService.findIds(query, true)
+
+        then: "the same assets should be found without index filters"
+        withIndex.size() > 0
+        withIndex == assetStorageService.findIds(query, false)
+
+        when: "a meta item with a number value is matched as a string"
+        query = new AssetQuery().attributeMeta(new AttributeMetaPredicate(new StringPredicate("urn:test:number"), new StringPredicate("5")))
+        withIndex = assetStorageService.findIds(query, true)
+
+        then: "the asset should be found with and without index filters"
+        withIndex == [thing.id] as Set
+        withIndex == assetStorageService.findIds(query, false)
+
+        when: "a meta item with a boolean value is matched as a string"
+        query = new AssetQuery().attributeMeta(new AttributeMetaPredicate(new StringPredicate("urn:test:boolean"), new StringPredicate("true")))
+        withIndex = assetStorageService.findIds(query, true)
+
+        then: "the asset should be found with and without index filters"
+        withIndex == [thing.id] as Set
+        withIndex == assetStorageService.findIds(query, false)
+
+        when: "a meta item with a number array element is matched as a string"
+        query = new AssetQuery().attributeMeta(new AttributeMetaPredicate(
+                new StringPredicate("urn:test:array"),
+                new StringArrayPredicate(new StringPredicate("5"), new StringPredicate("x"))
+        ))
+        withIndex = assetStorageService.findIds(query, true)
+
+        then: "the asset should be found with and without index filters"
+        withIndex == [thing.id] as Set
+        withIndex == assetStorageService.findIds(query, false)
+
+        when: "an attribute with a number value is matched as a string"
+        query = new AssetQuery().attributes(new AttributePredicateArray(
+                new AttributePredicate(new StringPredicate("counter"), new StringPredicate("5"))
+        ))
+        withIndex = assetStorageService.findIds(query, true)
+
+        then: "the asset should be found with and without index filters"
+        withIndex == [thing.id] as Set
+        withIndex == assetStorageService.findIds(query, false)
+
+        when: "an attribute with a boolean value is matched as a boolean"
+        query = new AssetQuery().attributes(new AttributePredicateArray(
+                new AttributePredicate(new StringPredicate("enabled"), new BooleanPredicate(true))
+        ))
+        withIndex = assetStorageService.findIds(query, true)
+
+        then: "the same assets should be found without index filters"
+        withIndex.contains(thing.id)
+        withIndex == assetStorageService.findIds(query, false)
+
+        cleanup: "the server should be stopped"
+        stopContainer(container)
+    }
+}
@@ -0,0 +1,69 @@
+package org.openremote.test.assets
+
+import com.vividsolutions.jts.geom.Coordinate
+import com.vividsolutions.jts.geom.GeometryFactory
+import org.openremote.manager.server.asset.AssetStorageService
+import org.openremote.manager.server.asset.ServerAsset
+import org.openremote.manager.server.setup.SetupService
+import org.openremote.manager.server.setup.builtin.KeycloakDemoSetup
+import org.openremote.model.asset.AssetQuery
+import org.openremote.model.asset.AssetType
+import org.openremote.test.ManagerContainerTrait
+import spock.lang.Specification
+
+import static org.openremote.model.asset.AbstractAssetQuery.*
+
+class AssetLocationQueryTest extends Specification implements ManagerContainerTrait {
+
+    def "Query assets by location"() {
+
+        given: "the container is started"
+        def serverPort = findEphemeralPort()
+        def container = startContainerNoDemoAssets(defaultConfig(serverPort), defaultServices())
+        def assetStorageService = container.getService(AssetStorageService.class)
+        def keycloakDemoSetup = container.getService(SetupService.class).getTaskOfType(KeycloakDemoSetup.class)
+        def realmId = keycloakDemoSetup.masterTenant.id
+
+        and: "assets with and without a location are stored"
+        def geometryFactory = new GeometryFactory()
+        def store = { String name, Double lng, Double lat ->
+            def asset = new ServerAsset(name, AssetType.BUILDING, null, realmId)
+            if (lng != null) {
+                asset.setLocation(geometryFactory.createPoint(new Coordinate(lng, lat)))
+            }
+            assetStorageService.merge(asset)
+        }
+        store("Office", 5.4600, 51.4450)
+        store("Home", 5.4700, 51.4380)
+        store("Warehouse", 5.4800, 51.4500)
+        store("Remote Site", 4.9000, 52.3700)
+        store("Unknown Site", null, null)
+        def query = {
+            new AssetQuery().tenant(new TenantPredicate(realmId)).orderBy(new OrderBy(OrderBy.Property.NAME))
+        }
+
+        expect: "the assets within a bounding box to be found"
+        assetStorageService.findAll(query().location(new BoundingBoxPredicate(5.45, 51.43, 5.475, 51.45)))*.name == ["Home", "Office"]
+        assetStorageService.findAll(query().location(new BoundingBoxPredicate(0, 0, 1, 1))).isEmpty()
+
+        and: "the assets within a radius in meters to be found"
+        assetStorageService.findAll(query().location(new RadiusPredicate(5.4600, 51.4450, 1200)))*.name == ["Home", "Office"]
+        assetStorageService.findAll(query().location(new RadiusPredicate(5.4600, 51.4450, 2000)))*.name == ["Home", "Office", "Warehouse"]
+        assetStorageService.findAll(query().location(new RadiusPredicate(5.4600, 51.4450, 100000)))*.name == ["Home", "Office", "Remote Site", "Warehouse"]
+
+        and: "the nearest assets to be found, ordered by distance"
+        assetStorageService.findAll(query().location(new NearestPredicate(5.4600, 51.4450, 2)))*.name == ["Office", "Home"]
+        assetStorageService.findAll(query().location(new NearestPredicate(5.4650, 51.4500, 10)))*.name == ["Office", "Warehouse", "Home", "Remote Site"]
+
+        and: "the smaller of page size and nearest count to limit the result"
+        assetStorageService.findAll(query().location(new NearestPredicate(5.4600, 51.4450, 3)).page(new Page(1)))*.name == ["Office"]
+
+        and: "the location predicate to be combined with other predicates"
+        assetStorageService.findAll(
+                query().name(new StringPredicate(Match.BEGIN, "Ho")).location(new RadiusPredicate(5.4600, 51.4450, 2000))
+        )*.name == ["Home"]
+
+        cleanup: "the server should be stopped"
+        stopContainer(container)
+    }
+}
@@ -0,0 +1,124 @@
+package org.openremote.test.assets
+
+import org.hibernate.Session
+import org.openremote.container.persistence.PersistenceService
+import org.openremote.manager.server.asset.AssetStorageService
+import org.openremote.manager.server.setup.SetupService
+import org.openremote.manager.server.setup.builtin.KeycloakDemoSetup
+import org.openremote.model.asset.AssetQuery
+import org.openremote.model.asset.AssetType
+import org.openremote.test.ManagerContainerTrait
+import spock.lang.Requires
+import spock.lang.Specification
+
+import java.sql.Connection
+
+import static org.openremote.model.asset.AbstractAssetQuery.*
+
+/**
+ * Run with system property <code>benchmark=true</code>.
+ */
+@Requires({ Boolean.getBoolean("benchmark") })
+class AssetNameSearchBenchmarkTest extends Specification implements ManagerContainerTrait {
+
+    static final int BUILDINGS = 100
+    static final int FLOORS_PER_BUILDING = 10
+    static final int ROOMS_PER_FLOOR = 100
+    static final int LOOKUPS = 50
+    static final double MAX_MEDIAN_MILLIS = 10
+
+    def "Search asset names in a large asset tree"() {
+
+        given: "the container is started"
+        def serverPort = findEphemeralPort()
+        def container = startContainerNoDemoAssets(defaultConfig(serverPort), defaultServices())
+        def assetStorageService = container.getService(AssetStorageService.class)
+        def persistenceService = container.getService(PersistenceService.class)
+        def keycloakDemoSetup = container.getService(SetupService.class).getTaskOfType(KeycloakDemoSetup.class)
+        def realmId = keycloakDemoSetup.masterTenant.id
+
+        and: "a large tree of buildings, floors and rooms is generated"
+        persistenceService.doTransaction { em ->
+            def insert = { String select ->
+                em.createNativeQuery(
+                        "insert into ASSET (ID, OBJ_VERSION, CREATED_ON, NAME, ASSET_TYPE, PARENT_ID, REALM_ID, ATTRIBUTES) " + select
+                ).setParameter("realmId", realmId).executeUpdate()
+            }
+            insert("select 'bench-' || B, 0, now(), 'Building ' || B, '" + AssetType.BUILDING.value + "', null, :realmId, cast('{}' as jsonb)" +
+                    " from generate_series(1, " + BUILDINGS + ") B")
+            insert("select 'bench-' || B || '-' || F, 0, now(), 'Floor ' || F, '" + AssetType.FLOOR.value + "', 'bench-' || B, :realmId, cast('{}' as jsonb)" +
+                    " from generate_series(1, " + BUILDINGS + ") B, generate_series(1, " + FLOORS_PER_BUILDING + ") F")
+            insert("select 'bench-' || B || '-' || F || '-' || R, 0, now()," +
+                    " (array['Kitchen', 'Living Room', 'Bedroom', 'Bathroom', 'Office', 'Meeting Room', 'Storage', 'Hallway'])[1 + R % 8]" +
+                    "  || ' ' || B || '.' || F || '.' || R, '" + AssetType.ROOM.value + "', 'bench-' || B || '-' || F, :realmId, cast('{}' as jsonb)" +
+                    " from generate_series(1, " + BUILDINGS + ") B, generate_series(1, " + FLOORS_PER_BUILDING + ") F, generate_series(1, " + ROOMS_PER_FLOOR + ") R")
+            em.createNativeQuery("analyze ASSET").executeUpdate()
+        }
+
+        and: "functions which explain a query and return the median time of lookups"
+        def explain = { AssetQuery query ->
+            def preparedQuery = assetStorageService.buildQuery(query)
+            persistenceService.doReturningTransaction { em ->
+                em.unwrap(Session.class).doReturningWork { Connection connection ->
+                    def statement = connection.prepareStatement("explain " + preparedQuery.querySql)
+                    preparedQuery.apply(statement)
+                    def plan = []
+                    def rs = statement.executeQuery()
+                    while (rs.next()) {
+                        plan << rs.getString(1)
+                    }
+                    statement.close()
+                    plan.join("\n").toUpperCase(Locale.ROOT)
+                }
+            }
+        }
+        def medianMillis = { Closure<AssetQuery> createQuery ->
+            // Warm up
+            (1..10).each { assetStorageService.findAll(createQuery(it)) }
+            def millis = (1..LOOKUPS).collect {
+                def start = System.nanoTime()
+                assetStorageService.findAll(createQuery(it))
+                (System.nanoTime() - start) / 1e6d
+            }.sort()
+            millis[(int) (LOOKUPS / 2)]
+        }
+
+        when: "the name of a room is searched case-insensitive as a substring"
+        def substringQuery = { int i ->
+            new AssetQuery()
+                    .select(new Select(Include.ONLY_ID_AND_NAME))
+                    .tenant(new TenantPredicate(realmId))
+                    .name(new StringPredicate(Match.CONTAINS, false, "itchen " + i + ".3."))
+                    .page(new Page(20))
+        }
+        def substringResult = assetStorageService.findAll(substringQuery(42))
+
+        then: "the matching rooms should be found with the trigram index"
+        substringResult.size() == 12
+        substringResult.every { it.name.startsWith("Kitchen 42.3.") }
+        explain(substringQuery(42)).contains("ASSET_UPPER_NAME_TRGM_INDEX")
+
+        when: "a misspelled room name is searched"
+        def fuzzyQuery = { int i ->
+            new AssetQuery()
+                    .select(new Select(Include.ONLY_ID_AND_NAME))
+                    .tenant(new TenantPredicate(realmId))
+                    .name(new StringPredicate(Match.FUZZY, "Kichen " + i + ".3.16"))
+                    .page(new Page(10))
+        }
+        def fuzzyResult = assetStorageService.findAll(fuzzyQuery(42))
+
+        then: "the most similar name should be ranked first, with the trigram index"
+        fuzzyResult.size() > 0
+        fuzzyResult.size() <= 10
+        fuzzyResult[0].name == "Kitchen 42.3.16"
+        explain(fuzzyQuery(42)).contains("ASSET_NAME_TRGM_INDEX")
+
+        and: "the lookups should be fast"
+        medianMillis(substringQuery) < MAX_MEDIAN_MILLIS
+        medianMillis(fuzzyQuery) < MAX_MEDIAN_MILLIS
+
+        cleanup: "the server should be stopped"
+        stopContainer(container)
+    }
+}
@@ -0,0 +1,74 @@
+package org.openremote.test.assets
+
+import org.openremote.manager.server.asset.AssetStorageService
+import org.openremote.manager.server.asset.ServerAsset
+import org.openremote.manager.server.setup.SetupService
+import org.openremote.manager.server.setup.builtin.KeycloakDemoSetup
+import org.openremote.model.asset.AssetQuery
+import org.openremote.model.asset.AssetType
+import org.openremote.test.ManagerContainerTrait
+import spock.lang.Specification
+
+import static org.openremote.model.asset.AbstractAssetQuery.*
+
+class AssetPathTest extends Specification implements ManagerContainerTrait {
+
+    def "Maintain the path of assets when they are stored and moved"() {
+
+        given: "the container is started"
+        def serverPort = findEphemeralPort()
+        def container = startContainerNoDemoAssets(defaultConfig(serverPort), defaultServices())
+        def assetStorageService = container.getService(AssetStorageService.class)
+        def keycloakDemoSetup = container.getService(SetupService.class).getTaskOfType(KeycloakDemoSetup.class)
+        def realmId = keycloakDemoSetup.masterTenant.id
+
+        when: "a tree of assets is stored"
+        def building = assetStorageService.merge(new ServerAsset("Building", AssetType.BUILDING, null, realmId))
+        def floor = assetStorageService.merge(new ServerAsset("Floor", AssetType.FLOOR, building, realmId))
+        def room = assetStorageService.merge(new ServerAsset("Room", AssetType.ROOM, floor, realmId))
+        def otherBuilding = assetStorageService.merge(new ServerAsset("Other Building", AssetType.BUILDING, null, realmId))
+
+        then: "the path of each asset should start with its own identifier, followed by its ancestors"
+        assetStorageService.find(building.id, true).path == [building.id] as String[]
+        assetStorageService.find(floor.id, true).path == [floor.id, building.id] as String[]
+        assetStorageService.find(room.id, true).path == [room.id, floor.id, building.id] as String[]
+        assetStorageService.find(otherBuilding.id, true).path == [otherBuilding.id] as String[]
+
+        and: "a recursive query should return the asset and all its descendants"
+        assetStorageService.findAll(
+                new AssetQuery()
+                        .id(building.id)
+                        .select(new Select(Include.ONLY_ID_AND_NAME, false, true))
+        )*.id as Set == [building.id, floor.id, room.id] as Set
+
+        when: "an asset with descendants is moved to another parent"
+        floor = assetStorageService.find(floor.id, true)
+        floor.setParentId(otherBuilding.id)
+        assetStorageService.merge(floor)
+
+        then: "the paths of the asset and its descendants should be updated"
+        assetStorageService.find(floor.id, true).path == [floor.id, otherBuilding.id] as String[]
+        assetStorageService.find(room.id, true).path == [room.id, floor.id, otherBuilding.id] as String[]
+        assetStorageService.find(building.id, true).path == [building.id] as String[]
+
+        and: "the moved assets should be found below the new parent only"
+        assetStorageService.findAll(
+                new AssetQuery()
+                        .id(building.id)
+                        .select(new Select(Include.ONLY_ID_AND_NAME, false, true))
+        )*.id as Set == [building.id] as Set
+        assetStorageService.findAll(
+                new AssetQuery()
+                        .id(otherBuilding.id)
+                        .select(new Select(Include.ONLY_ID_AND_NAME, false, true))
+        )*.id as Set == [floor.id, room.id, otherBuilding.id] as Set
+        assetStorageService.findAll(
+                new AssetQuery()
+                        .select(new Select(Include.ONLY_ID_AND_NAME))
+                        .path(new PathPredicate([otherBuilding.id] as String[]))
+        )*.id as Set == [floor.id, room.id, otherBuilding.id] as Set
+
+        cleanup: "the server should be stopped"
+        stopContainer(container)
+    }
+}
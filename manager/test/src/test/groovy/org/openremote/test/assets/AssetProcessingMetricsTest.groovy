@@ -0,0 +1,83 @@
+package org.openremote.test.assets
+
+import groovy.json.JsonSlurper
+import org.openremote.manager.server.asset.AssetProcessingService
+import org.openremote.manager.server.asset.AssetStorageService
+import org.openremote.manager.server.asset.ServerAsset
+import org.openremote.manager.server.setup.SetupService
+import org.openremote.manager.server.setup.builtin.KeycloakDemoSetup
+import org.openremote.manager.shared.metrics.MetricsResource
+import org.openremote.model.asset.AssetAttribute
+import org.openremote.model.asset.AssetType
+import org.openremote.model.attribute.AttributeEvent
+import org.openremote.model.attribute.AttributeType
+import org.openremote.model.value.Values
+import org.openremote.test.ManagerContainerTrait
+import spock.lang.Specification
+import spock.util.concurrent.PollingConditions
+
+import static org.openremote.container.util.MapAccess.getString
+import static org.openremote.manager.server.setup.AbstractKeycloakSetup.SETUP_KEYCLOAK_ADMIN_PASSWORD
+import static org.openremote.manager.server.setup.AbstractKeycloakSetup.SETUP_KEYCLOAK_ADMIN_PASSWORD_DEFAULT
+import static org.openremote.model.Constants.*
+
+class AssetProcessingMetricsTest extends Specification implements ManagerContainerTrait {
+
+    def "Record and retrieve attribute event processing metrics"() {
+
+        given: "expected conditions"
+        def conditions = new PollingConditions(timeout: 10, delay: 0.5)
+
+        and: "the container is started"
+        def serverPort = findEphemeralPort()
+        def container = startContainerNoDemoAssets(defaultConfig(serverPort), defaultServices())
+        def assetStorageService = container.getService(AssetStorageService.class)
+        def assetProcessingService = container.getService(AssetProcessingService.class)
+        def keycloakDemoSetup = container.getService(SetupService.class).getTaskOfType(KeycloakDemoSetup.class)
+
+        and: "an authenticated admin user and the metrics resource"
+        def accessToken = authenticate(
+                container,
+                MASTER_REALM,
+                KEYCLOAK_CLIENT_ID,
+                MASTER_REALM_ADMIN_USER,
+                getString(container.getConfig(), SETUP_KEYCLOAK_ADMIN_PASSWORD, SETUP_KEYCLOAK_ADMIN_PASSWORD_DEFAULT)
+        ).token
+        def metricsResource = getClientTarget(serverUri(serverPort), MASTER_REALM, accessToken).proxy(MetricsResource.class)
+
+        and: "an asset is stored and previous metrics are cleared"
+        def thing = new ServerAsset("Test Thing", AssetType.THING, null, keycloakDemoSetup.masterTenant.id)
+        thing.setAttributes(new AssetAttribute("counter", AttributeType.NUMBER, Values.create(0)))
+        thing = assetStorageService.merge(thing)
+        metricsResource.resetAssetProcessingMetrics(null)
+
+        when: "attribute events are processed"
+        def timestamp = System.currentTimeMillis()
+        (1..10).each {
+            assetProcessingService.sendAttributeEvent(new AttributeEvent(thing.id, "counter", Values.create(it), timestamp + it))
+        }
+
+        then: "the metrics of each stage should be recorded for the source of the events"
+        conditions.eventually {
+            def metrics = new JsonSlurper().parseText(metricsResource.getAssetProcessingMetrics(null).toJson())
+            assert metrics.stages.total.INTERNAL.count == 10
+            assert metrics.stages.queue.INTERNAL.count == 10
+            assert metrics.stages.extract.INTERNAL.count == 10
+            assert metrics.stages.validate.INTERNAL.count == 10
+            assert metrics.stages["processor.AssetStorageService"].INTERNAL.count == 10
+            assert metrics.stages["processor.AssetStorageService"].INTERNAL.errors == 0
+            assert metrics.stages.total.INTERNAL.max >= metrics.stages.total.INTERNAL.p50
+            assert metrics.stages.total.INTERNAL.max > 0
+            assert metrics.queues.AssetQueue == 0
+        }
+
+        when: "the metrics are reset"
+        metricsResource.resetAssetProcessingMetrics(null)
+
+        then: "no stages should be recorded"
+        new JsonSlurper().parseText(metricsResource.getAssetProcessingMetrics(null).toJson()).stages.isEmpty()
+
+        cleanup: "the server should be stopped"
+        stopContainer(container)
+    }
+}
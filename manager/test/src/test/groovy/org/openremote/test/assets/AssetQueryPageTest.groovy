@@ -0,0 +1,93 @@
+package org.openremote.test.assets
+
+import org.openremote.manager.server.asset.AssetStorageService
+import org.openremote.manager.server.asset.ServerAsset
+import org.openremote.manager.server.setup.SetupService
+import org.openremote.manager.server.setup.builtin.KeycloakDemoSetup
+import org.openremote.model.asset.AssetQuery
+import org.openremote.test.ManagerContainerTrait
+import spock.lang.Specification
+
+import java.util.function.Consumer
+
+import static org.openremote.model.asset.AbstractAssetQuery.*
+import static org.openremote.model.asset.AbstractAssetQuery.OrderBy.Property.CREATED_ON
+import static org.openremote.model.asset.AbstractAssetQuery.OrderBy.Property.NAME
+import static org.openremote.model.asset.AbstractAssetQuery.OrderBy.Property.PARENT_ID
+
+class AssetQueryPageTest extends Specification implements ManagerContainerTrait {
+
+    def "Query assets in pages and stream query results"() {
+
+        given: "the server container is started"
+        def serverPort = findEphemeralPort()
+        def container = startContainer(defaultConfig(serverPort), defaultServices())
+        def keycloakDemoSetup = container.getService(SetupService.class).getTaskOfType(KeycloakDemoSetup.class)
+        def assetStorageService = container.getService(AssetStorageService.class)
+
+        and: "a function which reads all pages of a query"
+        def readPages = { OrderBy orderBy, int pageSize ->
+            List<List<String>> pages = []
+            String after = null
+            while (true) {
+                def page = assetStorageService.findAll(
+                        new AssetQuery()
+                                .select(new Select(Include.ONLY_ID_AND_NAME))
+                                .tenant(new TenantPredicate(keycloakDemoSetup.customerATenant.id))
+                                .orderBy(orderBy)
+                                .page(new Page(pageSize, after))
+                )*.id
+                pages << page
+                if (page.size() < pageSize)
+                    break
+                after = page.last()
+            }
+            pages
+        }
+
+        expect: "the tenant should have more assets than fit on a page"
+        def allAssets = assetStorageService.findAll(
+                new AssetQuery()
+                        .select(new Select(Include.ONLY_ID_AND_NAME))
+                        .tenant(new TenantPredicate(keycloakDemoSetup.customerATenant.id))
+        )
+        allAssets.size() > 3
+
+        when: "the assets are read in pages of a few assets in each supported order"
+        def orders = [
+                new OrderBy(CREATED_ON),
+                new OrderBy(NAME, true),
+                new OrderBy(PARENT_ID),
+                null
+        ]
+        def pagedResults = orders.collect { orderBy -> [orderBy, readPages(orderBy, 3)] }
+
+        then: "all pages should be full except the last, and contain each asset exactly once in the order of a single page"
+        pagedResults.every { result ->
+            def (OrderBy orderBy, List<List<String>> pages) = result
+            def ids = pages.flatten()
+            pages.init().every { it.size() == 3 } &&
+                    pages.last().size() < 3 &&
+                    ids.size() == allAssets.size() &&
+                    ids as Set == allAssets*.id as Set &&
+                    ids == readPages(orderBy, allAssets.size() + 1).first()
+        }
+
+        when: "the assets are streamed"
+        def streamedAssets = []
+        def count = assetStorageService.findAll(
+                new AssetQuery()
+                        .select(new Select(Include.ALL))
+                        .tenant(new TenantPredicate(keycloakDemoSetup.customerATenant.id)),
+                { ServerAsset asset -> streamedAssets << asset } as Consumer<ServerAsset>
+        )
+
+        then: "the consumer should receive all assets completely loaded"
+        count == allAssets.size()
+        streamedAssets*.id as Set == allAssets*.id as Set
+        streamedAssets.every { it.path != null && it.realmId == keycloakDemoSetup.customerATenant.id }
+
+        cleanup: "the server should be stopped"
+        stopContainer(container)
+    }
+}
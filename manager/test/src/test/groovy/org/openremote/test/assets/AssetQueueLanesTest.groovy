@@ -0,0 +1,89 @@
+package org.openremote.test.assets
+
+import org.openremote.manager.server.asset.AssetProcessingService
+import org.openremote.manager.server.asset.AssetStorageService
+import org.openremote.manager.server.asset.ServerAsset
+import org.openremote.manager.server.setup.SetupService
+import org.openremote.manager.server.setup.builtin.KeycloakDemoSetup
+import org.openremote.model.asset.AssetAttribute
+import org.openremote.model.asset.AssetState
+import org.openremote.model.asset.AssetType
+import org.openremote.model.attribute.AttributeEvent
+import org.openremote.model.attribute.AttributeType
+import org.openremote.model.value.Values
+import org.openremote.test.ManagerContainerTrait
+import spock.lang.Specification
+import spock.util.concurrent.PollingConditions
+
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.function.Consumer
+
+import static org.openremote.manager.server.asset.AssetProcessingService.ASSET_QUEUE_LANES
+
+class AssetQueueLanesTest extends Specification implements ManagerContainerTrait {
+
+    static final int ASSETS = 8
+    static final int EVENTS = 50
+
+    def "Process attribute events of different assets in parallel lanes, in order for each asset"() {
+
+        given: "expected conditions"
+        def conditions = new PollingConditions(timeout: 30, delay: 0.5)
+
+        and: "the container is started with a partitioned asset queue"
+        def serverPort = findEphemeralPort()
+        def container = startContainerNoDemoAssets(
+                defaultConfig(serverPort) << [(ASSET_QUEUE_LANES): "4"],
+                defaultServices()
+        )
+        def assetStorageService = container.getService(AssetStorageService.class)
+        def assetProcessingService = container.getService(AssetProcessingService.class)
+        def keycloakDemoSetup = container.getService(SetupService.class).getTaskOfType(KeycloakDemoSetup.class)
+
+        and: "the processed asset states are recorded"
+        def processed = new CopyOnWriteArrayList<Map>()
+        assetProcessingService.processors.add(0, { AssetState assetState ->
+            processed << [
+                    assetId: assetState.id,
+                    value  : Values.getNumber(assetState.value).orElse(null),
+                    thread : Thread.currentThread().name
+            ]
+        } as Consumer<AssetState>)
+
+        and: "some assets are stored"
+        def assetIds = (1..ASSETS).collect {
+            def thing = new ServerAsset("Test Thing " + it, AssetType.THING, null, keycloakDemoSetup.masterTenant.id)
+            thing.setAttributes(new AssetAttribute("counter", AttributeType.NUMBER, Values.create(0)))
+            assetStorageService.merge(thing).id
+        }
+
+        when: "attribute events of all assets are sent interleaved"
+        def timestamp = System.currentTimeMillis()
+        (1..EVENTS).each { i ->
+            assetIds.each { assetId ->
+                assetProcessingService.sendAttributeEvent(new AttributeEvent(assetId, "counter", Values.create(i), timestamp + i))
+            }
+        }
+
+        then: "all events should be processed"
+        conditions.eventually {
+            assert processed.size() == ASSETS * EVENTS
+            assetIds.each { assetId ->
+                assert assetStorageService.find(assetId, true).getAttribute("counter").flatMap { it.valueAsNumber }.get() == EVENTS
+            }
+        }
+
+        and: "the events of each asset should have been processed in order, in the same lane"
+        assetIds.every { assetId ->
+            def assetEvents = processed.findAll { it.assetId == assetId }
+            assetEvents.collect { it.value } == (1..EVENTS).collect { it as Double } &&
+                    assetEvents.collect { it.thread }.unique().size() == 1
+        }
+
+        and: "more than one lane should have been used"
+        processed.collect { it.thread }.unique().size() > 1
+
+        cleanup: "the server should be stopped"
+        stopContainer(container)
+    }
+}
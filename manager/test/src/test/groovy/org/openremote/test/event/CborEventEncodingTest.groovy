@@ -0,0 +1,94 @@
+package org.openremote.test.event
+
+import org.openremote.container.Container
+import org.openremote.container.message.MessageBrokerSetupService
+import org.openremote.container.web.socket.WebsocketComponent
+import org.openremote.manager.server.event.ClientEventService
+import org.openremote.model.attribute.AttributeEvent
+import org.openremote.model.event.shared.EventSubscription
+import org.openremote.model.event.shared.SharedEvent
+import org.openremote.model.value.Value
+import org.openremote.model.value.Values
+import org.openremote.test.ManagerContainerTrait
+import spock.lang.Specification
+import spock.util.concurrent.PollingConditions
+
+import javax.websocket.RemoteEndpoint
+import javax.websocket.SendHandler
+import javax.websocket.SendResult
+import javax.websocket.Session
+import java.nio.ByteBuffer
+
+class CborEventEncodingTest extends Specification implements ManagerContainerTrait {
+
+    def "Encode model values as CBOR tokens"() {
+
+        given: "a value with nested objects, arrays and all value types"
+        def value = Values.parse('''{"name":"Living room","temperature":21.5,"count":3,"on":true,"tags":["a",null,{"x":-1}],"empty":{}}''').get()
+
+        when: "the value is encoded with CBOR and decoded again"
+        def bytes = Container.CBOR.writeValueAsBytes(value)
+        def decoded = Container.CBOR.readValue(bytes, Value.class)
+
+        then: "the decoded value should be equal"
+        decoded.toJson() == value.toJson()
+
+        and: "the binary encoding should be smaller than the JSON text"
+        bytes.length < value.toJson().length()
+    }
+
+    def "Send events as binary messages to sessions subscribed with CBOR encoding"() {
+
+        given: "the container is started"
+        def serverPort = findEphemeralPort()
+        def container = startContainerNoDemoAssets(defaultConfig(serverPort), defaultServices())
+        def clientEventService = container.getService(ClientEventService.class)
+        def websocketComponent = container.getService(MessageBrokerSetupService.class).getContext()
+                .getComponent(WebsocketComponent.NAME, WebsocketComponent.class)
+
+        and: "a text and a binary session which record the sent messages"
+        def sentTexts = Collections.synchronizedList(new ArrayList<String>())
+        def sentBinaries = Collections.synchronizedList(new ArrayList<byte[]>())
+        def asyncRemote = [
+                sendText  : { String text, SendHandler handler ->
+                    sentTexts.add(text)
+                    handler.onResult(new SendResult())
+                },
+                sendBinary: { ByteBuffer data, SendHandler handler ->
+                    byte[] bytes = new byte[data.remaining()]
+                    data.get(bytes)
+                    sentBinaries.add(bytes)
+                    handler.onResult(new SendResult())
+                }
+        ] as RemoteEndpoint.Async
+        ["text-session", "binary-session"].each { sessionKey ->
+            websocketComponent.websocketSessions.add(
+                    [getId: { sessionKey }, isOpen: { true }, getAsyncRemote: { asyncRemote }] as Session
+            )
+        }
+        clientEventService.eventSubscriptions.update(
+                "text-session", new EventSubscription(AttributeEvent.class, new AttributeEvent.EntityIdFilter("encoded-asset"))
+        )
+        def binarySubscription = new EventSubscription(AttributeEvent.class, new AttributeEvent.EntityIdFilter("encoded-asset"))
+        binarySubscription.setEncoding(EventSubscription.Encoding.CBOR)
+        clientEventService.eventSubscriptions.update("binary-session", binarySubscription)
+
+        when: "an event is published"
+        clientEventService.publishEvent(new AttributeEvent("encoded-asset", "temperature", Values.create(21.5)))
+
+        then: "the text session should receive JSON and the binary session a smaller CBOR message"
+        new PollingConditions(timeout: 10, delay: 0.05).eventually {
+            assert sentTexts.size() == 1
+            assert sentBinaries.size() == 1
+            def event = Container.CBOR.readValue(sentBinaries[0], SharedEvent.class)
+            assert event instanceof AttributeEvent
+            assert event.attributeRef.entityId == "encoded-asset"
+            assert event.attributeRef.attributeName == "temperature"
+            assert event.value.flatMap { Values.getNumber(it) }.get() == 21.5d
+            assert sentBinaries[0].length < sentTexts[0].length()
+        }
+
+        cleanup: "the server should be stopped"
+        stopContainer(container)
+    }
+}
@@ -0,0 +1,95 @@
+package org.openremote.test.event
+
+import org.openremote.container.message.MessageBrokerSetupService
+import org.openremote.container.web.socket.WebsocketComponent
+import org.openremote.manager.server.event.ClientEventService
+import org.openremote.model.attribute.AttributeEvent
+import org.openremote.model.event.shared.EventSubscription
+import org.openremote.model.value.Values
+import org.openremote.test.BlockingWebsocketEndpoint
+import org.openremote.test.ManagerContainerTrait
+import spock.lang.Requires
+import spock.lang.Specification
+import spock.util.concurrent.PollingConditions
+
+import static org.openremote.container.util.MapAccess.getString
+import static org.openremote.manager.server.event.ClientEventService.CLIENT_EVENT_BATCH_MILLIS
+import static org.openremote.manager.server.event.ClientEventService.WEBSOCKET_EVENTS
+import static org.openremote.manager.server.setup.AbstractKeycloakSetup.SETUP_KEYCLOAK_ADMIN_PASSWORD
+import static org.openremote.manager.server.setup.AbstractKeycloakSetup.SETUP_KEYCLOAK_ADMIN_PASSWORD_DEFAULT
+import static org.openremote.model.Constants.*
+
+/**
+ * Run with system property <code>benchmark=true</code>.
+ */
+@Requires({ Boolean.getBoolean("benchmark") })
+class EventFanOutBenchmarkTest extends Specification implements ManagerContainerTrait {
+
+    static final int EVENTS = 200
+    static final double MIN_MESSAGES_PER_SECOND = 1000
+
+    def "Measure event fan-out throughput to many sessions"() {
+
+        given: "the container is started without event batching"
+        def serverPort = findEphemeralPort()
+        def container = startContainerNoDemoAssets(
+                defaultConfig(serverPort) << [(CLIENT_EVENT_BATCH_MILLIS): "0"],
+                defaultServices()
+        )
+        def clientEventService = container.getService(ClientEventService.class)
+        def websocketComponent = container.getService(MessageBrokerSetupService.class).getContext()
+                .getComponent(WebsocketComponent.NAME, WebsocketComponent.class)
+
+        and: "an authenticated user"
+        def accessToken = authenticate(
+                container,
+                MASTER_REALM,
+                KEYCLOAK_CLIENT_ID,
+                MASTER_REALM_ADMIN_USER,
+                getString(container.getConfig(), SETUP_KEYCLOAK_ADMIN_PASSWORD, SETUP_KEYCLOAK_ADMIN_PASSWORD_DEFAULT)
+        ).token
+        def websocketClient = createWebsocketClient()
+
+        when: "events are published to a growing number of connected and subscribed sessions"
+        def results = [1, 10, 100].collect { subscribers ->
+            def clients = (1..subscribers).collect { new BlockingWebsocketEndpoint(EVENTS) }
+            def clientSessions = clients.collect {
+                connect(websocketClient, it, serverUri(serverPort), WEBSOCKET_EVENTS, MASTER_REALM, accessToken)
+            }
+            new PollingConditions(timeout: 30, delay: 0.1).eventually {
+                assert websocketComponent.websocketSessions.getAll().size() == subscribers
+            }
+            websocketComponent.websocketSessions.getAll().each {
+                clientEventService.eventSubscriptions.update(
+                        it.id, new EventSubscription(AttributeEvent.class, new AttributeEvent.EntityIdFilter("benchmark-asset"))
+                )
+            }
+            def encodedCount = websocketComponent.encodedCount
+            def start = System.nanoTime()
+            (1..EVENTS).each {
+                clientEventService.publishEvent(new AttributeEvent("benchmark-asset", "counter", Values.create(it)))
+            }
+            new PollingConditions(timeout: 60, delay: 0.05).eventually {
+                clients.each {
+                    assert it.messages.size() == EVENTS
+                }
+            }
+            def seconds = (System.nanoTime() - start) / 1e9d
+            def serializations = websocketComponent.encodedCount - encodedCount
+            clientSessions.each { it.close() }
+            new PollingConditions(timeout: 30, delay: 0.1).eventually {
+                assert websocketComponent.websocketSessions.getAll().isEmpty()
+            }
+            [serializations: serializations, messagesPerSecond: EVENTS * subscribers / seconds]
+        }
+
+        then: "each event should have been serialized once, independent of the number of subscribers"
+        results.every { it.serializations == EVENTS }
+
+        and: "the messages should be delivered with the minimum throughput"
+        results.every { it.messagesPerSecond > MIN_MESSAGES_PER_SECOND }
+
+        cleanup: "the server should be stopped"
+        stopContainer(container)
+    }
+}
@@ -0,0 +1,100 @@
+package org.openremote.test.event
+
+import groovy.json.JsonSlurper
+import io.undertow.websockets.jsr.UndertowSession
+import org.openremote.container.message.MessageBrokerSetupService
+import org.openremote.container.web.socket.WebsocketComponent
+import org.openremote.manager.server.event.ClientEventService
+import org.openremote.manager.shared.metrics.MetricsResource
+import org.openremote.model.attribute.AttributeEvent
+import org.openremote.model.event.shared.EventSubscription
+import org.openremote.model.value.Values
+import org.openremote.test.BlockingWebsocketEndpoint
+import org.openremote.test.ManagerContainerTrait
+import spock.lang.Specification
+import spock.util.concurrent.PollingConditions
+
+import static org.openremote.container.util.MapAccess.getString
+import static org.openremote.manager.server.event.ClientEventService.CLIENT_EVENT_BATCH_MILLIS
+import static org.openremote.manager.server.event.ClientEventService.WEBSOCKET_EVENTS
+import static org.openremote.manager.server.setup.AbstractKeycloakSetup.SETUP_KEYCLOAK_ADMIN_PASSWORD
+import static org.openremote.manager.server.setup.AbstractKeycloakSetup.SETUP_KEYCLOAK_ADMIN_PASSWORD_DEFAULT
+import static org.openremote.model.Constants.*
+
+class EventFanOutTest extends Specification implements ManagerContainerTrait {
+
+    static final int SESSIONS = 10
+    static final int EVENTS = 20
+
+    def "Serialize events once for all subscribed sessions"() {
+
+        given: "the container is started without event batching"
+        def serverPort = findEphemeralPort()
+        def container = startContainerNoDemoAssets(
+                defaultConfig(serverPort) << [(CLIENT_EVENT_BATCH_MILLIS): "0"],
+                defaultServices()
+        )
+        def clientEventService = container.getService(ClientEventService.class)
+        def websocketComponent = container.getService(MessageBrokerSetupService.class).getContext()
+                .getComponent(WebsocketComponent.NAME, WebsocketComponent.class)
+
+        and: "an authenticated user"
+        def accessToken = authenticate(
+                container,
+                MASTER_REALM,
+                KEYCLOAK_CLIENT_ID,
+                MASTER_REALM_ADMIN_USER,
+                getString(container.getConfig(), SETUP_KEYCLOAK_ADMIN_PASSWORD, SETUP_KEYCLOAK_ADMIN_PASSWORD_DEFAULT)
+        ).token
+
+        and: "several connected websocket clients"
+        def websocketClient = createWebsocketClient()
+        List<BlockingWebsocketEndpoint> clients = (1..SESSIONS).collect { new BlockingWebsocketEndpoint(EVENTS) }
+        List<javax.websocket.Session> clientSessions = clients.collect {
+            connect(websocketClient, it, serverUri(serverPort), WEBSOCKET_EVENTS, MASTER_REALM, accessToken)
+        }
+        new PollingConditions(timeout: 10, delay: 0.1).eventually {
+            assert websocketComponent.websocketSessions.getAll().size() == SESSIONS
+        }
+
+        and: "the server sessions are subscribed to the events of an asset"
+        def serverSessions = websocketComponent.websocketSessions.getAll()
+        serverSessions.each {
+            clientEventService.eventSubscriptions.update(
+                    it.id, new EventSubscription(AttributeEvent.class, new AttributeEvent.EntityIdFilter("fan-out-asset"))
+            )
+        }
+
+        when: "events are published"
+        def encodedCount = websocketComponent.encodedCount
+        (1..EVENTS).each {
+            clientEventService.publishEvent(new AttributeEvent("fan-out-asset", "counter", Values.create(it)))
+        }
+
+        then: "each client should receive all events"
+        new PollingConditions(timeout: 10, delay: 0.1).eventually {
+            clients.each {
+                assert it.messages.size() == EVENTS
+            }
+        }
+
+        and: "the shared encoded message should have been written to the Undertow sessions"
+        serverSessions.every { it instanceof UndertowSession }
+        websocketComponent.sessionQueues.values().sum { it.sentCount } == SESSIONS * EVENTS
+
+        and: "each event should have been serialized and encoded once, independent of the number of sessions"
+        websocketComponent.encodedCount - encodedCount == EVENTS
+
+        and: "the queue metrics of the sessions should be available"
+        def metricsResource = getClientTarget(serverUri(serverPort), MASTER_REALM, accessToken).proxy(MetricsResource.class)
+        def metrics = new JsonSlurper().parseText(metricsResource.getWebsocketMetrics(null).toJson())
+        metrics.sessions == SESSIONS
+        metrics.sent == SESSIONS * EVENTS
+        metrics.encoded >= EVENTS
+        metrics.dropped == 0
+
+        cleanup: "the clients should be disconnected and the server stopped"
+        clientSessions?.each { it.close() }
+        stopContainer(container)
+    }
+}
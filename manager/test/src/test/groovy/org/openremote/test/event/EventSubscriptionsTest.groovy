@@ -0,0 +1,184 @@
+package org.openremote.test.event
+
+import org.openremote.container.timer.TimerService
+import org.openremote.manager.server.concurrent.ManagerExecutorService
+import org.openremote.manager.server.event.ClientEventService
+import org.openremote.manager.server.event.EventSubscriptions
+import org.openremote.model.asset.AssetTreeModifiedEvent
+import org.openremote.model.attribute.AttributeEvent
+import org.openremote.model.event.shared.CancelEventSubscription
+import org.openremote.model.event.shared.EventSubscription
+import org.openremote.model.event.shared.SharedEvent
+import org.openremote.model.value.Values
+import org.openremote.test.ManagerContainerTrait
+import spock.lang.Specification
+
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.ScheduledFuture
+import java.util.function.BiConsumer
+
+import static java.util.concurrent.TimeUnit.HOURS
+import static java.util.concurrent.TimeUnit.MILLISECONDS
+import static java.util.concurrent.TimeUnit.SECONDS
+
+class EventSubscriptionsTest extends Specification implements ManagerContainerTrait {
+
+    def "Find subscribers of events with indexed subscriptions and expire them"() {
+
+        given: "the container is started with a pseudo clock"
+        def serverPort = findEphemeralPort()
+        def container = startContainerWithPseudoClock(defaultConfig(serverPort), defaultServices())
+        def eventSubscriptions = container.getService(ClientEventService.class).eventSubscriptions
+        def subscribers = { event -> eventSubscriptions.getSubscribedSessionKeys(event).sort() }
+
+        when: "sessions subscribe to attribute events of some assets and to all attribute events"
+        eventSubscriptions.update("session1", new EventSubscription(AttributeEvent.class, new AttributeEvent.EntityIdFilter("asset1")))
+        eventSubscriptions.update("session2", new EventSubscription(AttributeEvent.class, new AttributeEvent.EntityIdFilter("asset1", "asset2")))
+        eventSubscriptions.update("session3", new EventSubscription(AttributeEvent.class))
+        eventSubscriptions.update("session4", new EventSubscription(AssetTreeModifiedEvent.class))
+
+        then: "only the matching sessions should be subscribers"
+        subscribers(new AttributeEvent("asset1", "foo", Values.create(1))) == ["session1", "session2", "session3"]
+        subscribers(new AttributeEvent("asset2", "foo", Values.create(1))) == ["session2", "session3"]
+        subscribers(new AttributeEvent("asset3", "foo", Values.create(1))) == ["session3"]
+
+        when: "a subscription is replaced with a subscription for other assets"
+        eventSubscriptions.update("session2", new EventSubscription(AttributeEvent.class, new AttributeEvent.EntityIdFilter("asset3")))
+
+        then: "only the new subscription should match"
+        subscribers(new AttributeEvent("asset1", "foo", Values.create(1))) == ["session1", "session3"]
+        subscribers(new AttributeEvent("asset3", "foo", Values.create(1))) == ["session2", "session3"]
+
+        when: "subscriptions are cancelled"
+        eventSubscriptions.cancel("session3", new CancelEventSubscription(AttributeEvent.class))
+        eventSubscriptions.cancelAll("session1")
+
+        then: "the sessions should no longer receive events"
+        subscribers(new AttributeEvent("asset1", "foo", Values.create(1))) == []
+        subscribers(new AttributeEvent("asset3", "foo", Values.create(1))) == ["session2"]
+        eventSubscriptions.subscriptionCount == 2
+
+        when: "one subscription is renewed shortly before the others expire"
+        advancePseudoClocks(EventSubscription.RENEWAL_PERIOD_SECONDS - 10, SECONDS, container)
+        eventSubscriptions.update("session4", new EventSubscription(AssetTreeModifiedEvent.class))
+        advancePseudoClocks(20, SECONDS, container)
+        eventSubscriptions.removeExpired()
+
+        then: "only the renewed subscription should remain"
+        subscribers(new AttributeEvent("asset3", "foo", Values.create(1))) == []
+        eventSubscriptions.subscriptionCount == 1
+
+        when: "the clock advances by more than a rotation of the timer wheel"
+        advancePseudoClocks(1, HOURS, container)
+        eventSubscriptions.removeExpired()
+
+        then: "the renewed subscription should expire as well"
+        eventSubscriptions.subscriptionCount == 0
+
+        cleanup: "the server should be stopped"
+        stopContainer(container)
+    }
+
+    def "Rate limit attribute events of a subscription"() {
+
+        given: "the container is started with a pseudo clock"
+        def serverPort = findEphemeralPort()
+        def container = startContainerWithPseudoClock(defaultConfig(serverPort), defaultServices())
+
+        and: "an executor which records the scheduled flushes of held back events"
+        List<List> scheduled = new CopyOnWriteArrayList<>()
+        def executorService = new ManagerExecutorService() {
+            @Override
+            ScheduledFuture schedule(Runnable runnable, long delayMillis) {
+                scheduled << [runnable, delayMillis]
+                null
+            }
+
+            @Override
+            ScheduledFuture scheduleAtFixedRate(Runnable runnable, long initialDelayMillis, long periodMillis) {
+                null
+            }
+        }
+        def runScheduled = {
+            def tasks = new ArrayList<List>(scheduled)
+            scheduled.clear()
+            tasks.each { it[0].run() }
+        }
+
+        and: "subscriptions which record deferred events"
+        def deferredEvents = new CopyOnWriteArrayList<List>()
+        def eventSubscriptions = new EventSubscriptions(
+                container.getService(TimerService.class),
+                executorService,
+                { sessionKey, event -> deferredEvents << [sessionKey, event] } as BiConsumer<String, SharedEvent>
+        )
+
+        when: "a session subscribes with a minimum interval and another session without"
+        def rateLimited = new EventSubscription(AttributeEvent.class, new AttributeEvent.EntityIdFilter("asset1", "asset2"))
+        rateLimited.setMinIntervalMillis(500)
+        eventSubscriptions.update("dashboard", rateLimited)
+        eventSubscriptions.update("console", new EventSubscription(AttributeEvent.class, new AttributeEvent.EntityIdFilter("asset1")))
+
+        and: "several events of the same attributes are published within the interval"
+        def sentNow = (1..10).collect {
+            eventSubscriptions.getSubscribedSessionKeys(new AttributeEvent("asset1", "temperature", Values.create(it))).sort()
+        }
+        def otherAttributeSentNow = eventSubscriptions.getSubscribedSessionKeys(new AttributeEvent("asset1", "humidity", Values.create(1)))
+
+        then: "the first event of each attribute should be sent to both sessions, the others only to the unlimited session"
+        sentNow[0] == ["console", "dashboard"]
+        sentNow[1..9].every { it == ["console"] }
+        otherAttributeSentNow.sort() == ["console", "dashboard"]
+
+        and: "the held back event should be scheduled for the end of the interval"
+        scheduled.size() == 1
+        scheduled[0][1] == 500
+
+        when: "the interval is over"
+        advancePseudoClocks(500, MILLISECONDS, container)
+        runScheduled()
+
+        then: "only the latest held back event should have been sent"
+        deferredEvents.size() == 1
+        deferredEvents[0][0] == "dashboard"
+        deferredEvents[0][1].value.flatMap { Values.getNumber(it) }.get() == 10d
+        eventSubscriptions.coalescedCount == 8
+
+        when: "the interval of the last sent events is over"
+        eventSubscriptions.removeIdleThrottles()
+        def throttledBefore = eventSubscriptions.throttledAttributeCount
+        advancePseudoClocks(500, MILLISECONDS, container)
+        eventSubscriptions.removeIdleThrottles()
+
+        then: "the rate limiting state of the attributes should have been removed"
+        throttledBefore == 1
+        eventSubscriptions.throttledAttributeCount == 0
+
+        and: "the next event should be sent immediately"
+        eventSubscriptions.getSubscribedSessionKeys(new AttributeEvent("asset1", "temperature", Values.create(11))).sort() == ["console", "dashboard"]
+
+        when: "the subscription is renewed with a filter which doesn't match an event held back"
+        eventSubscriptions.getSubscribedSessionKeys(new AttributeEvent("asset1", "temperature", Values.create(12)))
+        def renewed = new EventSubscription(AttributeEvent.class, new AttributeEvent.EntityIdFilter("asset2"))
+        renewed.setMinIntervalMillis(500)
+        eventSubscriptions.update("dashboard", renewed)
+        advancePseudoClocks(500, MILLISECONDS, container)
+        runScheduled()
+
+        then: "the held back event should not be sent"
+        deferredEvents.size() == 1
+
+        when: "the subscription is cancelled while an event is held back"
+        eventSubscriptions.getSubscribedSessionKeys(new AttributeEvent("asset2", "temperature", Values.create(1)))
+        eventSubscriptions.getSubscribedSessionKeys(new AttributeEvent("asset2", "temperature", Values.create(2)))
+        eventSubscriptions.cancel("dashboard", new CancelEventSubscription(AttributeEvent.class))
+        advancePseudoClocks(500, MILLISECONDS, container)
+        runScheduled()
+
+        then: "the held back event should not be sent"
+        deferredEvents.size() == 1
+
+        cleanup: "the server should be stopped"
+        stopContainer(container)
+    }
+}
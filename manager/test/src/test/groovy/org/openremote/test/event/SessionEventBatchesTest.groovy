@@ -0,0 +1,179 @@
+package org.openremote.test.event
+
+import org.openremote.container.Container
+import org.openremote.container.message.MessageBrokerSetupService
+import org.openremote.container.web.socket.WebsocketComponent
+import org.openremote.manager.server.concurrent.ManagerExecutorService
+import org.openremote.manager.server.event.ClientEventService
+import org.openremote.manager.server.event.SessionEventBatches
+import org.openremote.model.attribute.AttributeEvent
+import org.openremote.model.event.shared.EventSubscription
+import org.openremote.model.event.shared.SharedEvent
+import org.openremote.model.value.Values
+import org.openremote.test.ManagerContainerTrait
+import spock.lang.Specification
+import spock.util.concurrent.PollingConditions
+
+import javax.websocket.RemoteEndpoint
+import javax.websocket.SendHandler
+import javax.websocket.SendResult
+import javax.websocket.Session
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ScheduledFuture
+import java.util.function.BiConsumer
+
+import static java.util.concurrent.TimeUnit.SECONDS
+import static org.openremote.manager.server.event.ClientEventService.CLIENT_EVENT_BATCH_MILLIS
+import static org.openremote.manager.server.event.ClientEventService.CLIENT_EVENT_BATCH_SIZE
+
+class SessionEventBatchesTest extends Specification implements ManagerContainerTrait {
+
+    def "Batch events of a session into array frames"() {
+
+        given: "the container is started with a small batch size"
+        def serverPort = findEphemeralPort()
+        def container = startContainerNoDemoAssets(
+                defaultConfig(serverPort) << [(CLIENT_EVENT_BATCH_SIZE): "10", (CLIENT_EVENT_BATCH_MILLIS): "200"],
+                defaultServices()
+        )
+        def clientEventService = container.getService(ClientEventService.class)
+        def websocketComponent = container.getService(MessageBrokerSetupService.class).getContext()
+                .getComponent(WebsocketComponent.NAME, WebsocketComponent.class)
+
+        and: "a subscribed session which records the sent messages"
+        def sentTexts = Collections.synchronizedList(new ArrayList<String>())
+        def asyncRemote = [sendText: { String text, SendHandler handler ->
+            sentTexts.add(text)
+            handler.onResult(new SendResult())
+        }] as RemoteEndpoint.Async
+        websocketComponent.websocketSessions.add(
+                [getId: { "batch-session" }, isOpen: { true }, getAsyncRemote: { asyncRemote }] as Session
+        )
+        clientEventService.eventSubscriptions.update(
+                "batch-session", new EventSubscription(AttributeEvent.class, new AttributeEvent.EntityIdFilter("batch-asset"))
+        )
+
+        when: "events of different attributes are published"
+        (1..25).each {
+            clientEventService.publishEvent(new AttributeEvent("batch-asset", "attribute" + it, Values.create(it)))
+        }
+
+        then: "full batches and, after the batch delay, the remaining events should be sent as array frames"
+        new PollingConditions(timeout: 10, delay: 0.05).eventually {
+            assert sentTexts.size() == 3
+            assert sentTexts.every { it.startsWith("EVENT[") }
+            assert sentTexts.collect { it.count("attribute") } == [10, 10, 5]
+            assert clientEventService.sessionEventBatches.frameCount == 3
+        }
+
+        when: "several events of the same attribute are published"
+        sentTexts.clear()
+        (1..5).each {
+            clientEventService.publishEvent(new AttributeEvent("batch-asset", "counter", Values.create(it)))
+        }
+
+        then: "only the latest event should be sent, as a single event frame"
+        new PollingConditions(timeout: 10, delay: 0.05).eventually {
+            assert sentTexts.size() == 1
+            assert sentTexts[0].startsWith("EVENT{")
+            def event = Container.JSON.readValue(sentTexts[0].substring(SharedEvent.MESSAGE_PREFIX.length()), AttributeEvent.class)
+            assert event.value.flatMap { Values.getNumber(it) }.get() == 5d
+            assert clientEventService.sessionEventBatches.coalescedCount == 4
+        }
+
+        cleanup: "the server should be stopped"
+        stopContainer(container)
+    }
+
+    def "Send rate limited events of a session through its batch"() {
+
+        given: "the container is started with a batch delay longer than the minimum interval of a subscription"
+        def serverPort = findEphemeralPort()
+        def container = startContainerNoDemoAssets(
+                defaultConfig(serverPort) << [(CLIENT_EVENT_BATCH_SIZE): "10", (CLIENT_EVENT_BATCH_MILLIS): "500"],
+                defaultServices()
+        )
+        def clientEventService = container.getService(ClientEventService.class)
+        def websocketComponent = container.getService(MessageBrokerSetupService.class).getContext()
+                .getComponent(WebsocketComponent.NAME, WebsocketComponent.class)
+
+        and: "a session subscribed with a minimum interval which records the sent messages"
+        def sentTexts = Collections.synchronizedList(new ArrayList<String>())
+        def asyncRemote = [sendText: { String text, SendHandler handler ->
+            sentTexts.add(text)
+            handler.onResult(new SendResult())
+        }] as RemoteEndpoint.Async
+        websocketComponent.websocketSessions.add(
+                [getId: { "throttled-session" }, isOpen: { true }, getAsyncRemote: { asyncRemote }] as Session
+        )
+        def subscription = new EventSubscription(AttributeEvent.class, new AttributeEvent.EntityIdFilter("throttled-asset"))
+        subscription.setMinIntervalMillis(1)
+        clientEventService.eventSubscriptions.update("throttled-session", subscription)
+
+        when: "events of the same attribute are published within the minimum interval"
+        (1..5).each {
+            clientEventService.publishEvent(new AttributeEvent("throttled-asset", "counter", Values.create(it)))
+        }
+
+        then: "the held back events should replace the older event in the batch, only the latest event should be sent"
+        new PollingConditions(timeout: 10, delay: 0.05).eventually {
+            assert sentTexts.size() == 1
+            def event = Container.JSON.readValue(sentTexts[0].substring(SharedEvent.MESSAGE_PREFIX.length()), AttributeEvent.class)
+            assert event.value.flatMap { Values.getNumber(it) }.get() == 5d
+        }
+
+        and: "no older event should be sent after the latest event"
+        new PollingConditions(timeout: 1, initialDelay: 0.5).eventually {
+            assert sentTexts.size() == 1
+        }
+
+        cleanup: "the server should be stopped"
+        stopContainer(container)
+    }
+
+    def "Add events of a session while a frame of the session is sent"() {
+
+        given: "an executor which doesn't run the delayed flushes"
+        def executorService = new ManagerExecutorService() {
+            @Override
+            ScheduledFuture schedule(Runnable runnable, long delayMillis) {
+                null
+            }
+        }
+
+        and: "a sender which blocks on the first frame"
+        def sentFrames = new CopyOnWriteArrayList<String>()
+        def sending = new CountDownLatch(1)
+        def release = new CountDownLatch(1)
+        def batches = new SessionEventBatches(executorService, 2, 1000, { sessionKey, frame ->
+            if (sentFrames.isEmpty()) {
+                sending.countDown()
+                release.await(10, SECONDS)
+            }
+            sentFrames << frame
+        } as BiConsumer<String, String>)
+
+        when: "a full batch is sent on another thread"
+        def sender = Thread.start {
+            batches.add("session", "1", null)
+            batches.add("session", "2", null)
+        }
+        sending.await(10, SECONDS)
+
+        and: "the next batch of the session is filled while the first frame is sent"
+        batches.add("session", "3", null)
+        batches.add("session", "4", null)
+
+        then: "adding should not wait for the sender"
+        sentFrames.isEmpty()
+
+        when: "the first frame has been sent"
+        release.countDown()
+        sender.join(10000)
+
+        then: "both frames should have been sent in order, by the sending thread"
+        sentFrames == ["EVENT[1,2]", "EVENT[3,4]"]
+        batches.frameCount == 2
+    }
+}
@@ -0,0 +1,160 @@
+package org.openremote.test.event
+
+import org.openremote.container.web.socket.WebsocketComponent
+import org.openremote.container.web.socket.WebsocketSessionQueue
+import spock.lang.Specification
+
+import javax.websocket.CloseReason
+import javax.websocket.RemoteEndpoint
+import javax.websocket.SendHandler
+import javax.websocket.SendResult
+import javax.websocket.Session
+
+import static org.openremote.container.web.socket.WebsocketSessionQueue.OverflowPolicy.*
+
+class WebsocketSessionQueueTest extends Specification {
+
+    /**
+     * A session which doesn't complete writes until the test completes them, like a client on a slow link.
+     */
+    static class SlowSession {
+        List<String> sent = []
+        List<SendHandler> pending = []
+        boolean open = true
+        CloseReason closeReason
+
+        Session session = [
+                getId         : { "slow-session" },
+                isOpen        : { open },
+                close         : { CloseReason reason -> open = false; closeReason = reason },
+                getAsyncRemote: {
+                    [sendText: { String text, SendHandler handler -> sent << text; pending << handler }] as RemoteEndpoint.Async
+                }
+        ] as Session
+
+        void completeWrites() {
+            while (!pending.isEmpty()) {
+                pending.remove(0).onResult(new SendResult())
+            }
+        }
+    }
+
+    def "Drop the oldest messages of a slow session"() {
+
+        given: "a queue of a slow session"
+        def slowSession = new SlowSession()
+        def queue = new WebsocketSessionQueue(slowSession.session, 3, DROP_OLDEST)
+
+        when: "more messages are offered than fit in the queue"
+        def accepted = (1..6).collect { queue.offer("message" + it, null, null) }
+
+        then: "the first message should be written and the oldest queued messages dropped"
+        accepted.every { it }
+        slowSession.sent == ["message1"]
+        queue.depth == 3
+        queue.maxDepth == 3
+        queue.droppedCount == 2
+
+        when: "the writes complete"
+        slowSession.completeWrites()
+
+        then: "the remaining messages should be written in order"
+        slowSession.sent == ["message1", "message4", "message5", "message6"]
+        queue.depth == 0
+        queue.sentCount == 4
+    }
+
+    def "Coalesce queued messages with the same key"() {
+
+        given: "a queue of a slow session"
+        def slowSession = new SlowSession()
+        def queue = new WebsocketSessionQueue(slowSession.session, 2, COALESCE)
+
+        when: "several messages of the same keys are offered"
+        queue.offer("a1", null, "a")
+        queue.offer("a2", null, "a")
+        queue.offer("b1", null, "b")
+        queue.offer("a3", null, "a")
+        queue.offer("b2", null, "b")
+
+        then: "the queued messages should be replaced by newer messages"
+        slowSession.sent == ["a1"]
+        queue.depth == 2
+        queue.coalescedCount == 2
+        queue.droppedCount == 0
+
+        when: "a message without key overflows the queue"
+        queue.offer("c1", null, null)
+        slowSession.completeWrites()
+
+        then: "the oldest message should have been dropped and the newest values written"
+        slowSession.sent == ["a1", "b2", "c1"]
+        queue.droppedCount == 1
+    }
+
+    def "Keep messages with the same key in order while the queue isn't full"() {
+
+        given: "a queue of a slow session"
+        def slowSession = new SlowSession()
+        def queue = new WebsocketSessionQueue(slowSession.session, 10, COALESCE)
+
+        when: "messages of different keys are offered"
+        ["a1", "b1", "a2", "b2", "a3"].each { queue.offer(it, null, it.substring(0, 1)) }
+        slowSession.completeWrites()
+
+        then: "all messages should be written in the order they were offered"
+        slowSession.sent == ["a1", "b1", "a2", "b2", "a3"]
+        queue.coalescedCount == 0
+        queue.droppedCount == 0
+    }
+
+    def "Only queue messages of registered and open sessions"() {
+
+        given: "a websocket component"
+        def websocketComponent = new WebsocketComponent() {
+            @Override
+            protected void deploy() throws Exception {
+            }
+
+            @Override
+            protected void undeploy() throws Exception {
+            }
+        }
+
+        and: "a registered session"
+        def slowSession = new SlowSession()
+        websocketComponent.websocketSessions.add(slowSession.session)
+
+        expect: "the session should have a queue"
+        websocketComponent.getSessionQueue(slowSession.session) != null
+
+        when: "the session is closed"
+        slowSession.open = false
+        websocketComponent.websocketSessions.remove(slowSession.session)
+        websocketComponent.removeSessionQueue(slowSession.session)
+
+        then: "a late message should not create a new queue"
+        websocketComponent.getSessionQueue(slowSession.session) == null
+        websocketComponent.sessionQueues.isEmpty()
+    }
+
+    def "Disconnect a slow session when the queue overflows"() {
+
+        given: "a queue of a slow session"
+        def slowSession = new SlowSession()
+        def queue = new WebsocketSessionQueue(slowSession.session, 2, DISCONNECT)
+
+        when: "more messages are offered than fit in the queue"
+        def accepted = (1..4).collect { queue.offer("message" + it, null, null) }
+
+        then: "the session should be closed and the queued messages dropped"
+        accepted == [true, true, true, false]
+        !slowSession.open
+        slowSession.closeReason.closeCode == CloseReason.CloseCodes.TRY_AGAIN_LATER
+        queue.depth == 0
+        queue.droppedCount == 3
+
+        and: "no further messages should be accepted"
+        !queue.offer("message5", null, null)
+    }
+}
@@ -0,0 +1,71 @@
+package org.openremote.test.rules
+
+import org.openremote.manager.server.rules.AssetStateStore
+import org.openremote.model.asset.Asset
+import org.openremote.model.asset.AssetAttribute
+import org.openremote.model.asset.AssetState
+import org.openremote.model.attribute.AttributeEvent
+import org.openremote.model.attribute.AttributeRef
+import org.openremote.model.attribute.AttributeType
+import org.openremote.model.value.Values
+import spock.lang.Specification
+
+class AssetStateStoreTest extends Specification {
+
+    static AssetState createAssetState(String realmId, String[] path, String attributeName, int value) {
+        def asset = new Asset(path[0], 0, new Date(), path[0], "urn:openremote:asset:thing",
+                null, null, null, realmId, null, null, path, Values.createObject())
+        new AssetState(asset, new AssetAttribute(path[0], attributeName, AttributeType.NUMBER, Values.create(value), 1000 + value), AttributeEvent.Source.INTERNAL)
+    }
+
+    def "Store, replace and find asset states"() {
+
+        given: "a store with asset states of two realms and an asset hierarchy"
+        def store = new AssetStateStore<String>()
+        store.put(createAssetState("realmA", ["building"] as String[], "temperature", 1), "building")
+        store.put(createAssetState("realmA", ["room1", "building"] as String[], "temperature", 2), "room1")
+        store.put(createAssetState("realmA", ["room2", "building"] as String[], "temperature", 3), "room2")
+        store.put(createAssetState("realmB", ["other"] as String[], "temperature", 4), "other")
+
+        expect: "the asset states to be found by realm and path"
+        store.size() == 4
+        store.getInRealm("realmA").size() == 3
+        store.getInRealm("realmB").size() == 1
+        store.getInRealm("realmC").isEmpty()
+        store.getInPath("building").collect { it.id } == ["building", "room1", "room2"]
+        store.getInPath("room1").collect { it.id } == ["room1"]
+        store.getData(new AttributeRef("room1", "temperature")) == "room1"
+
+        when: "the asset state of an attribute is replaced"
+        def newState = createAssetState("realmA", ["room1", "building"] as String[], "temperature", 5)
+        def replaced = store.put(newState, "room1-new")
+
+        then: "there should still be one asset state for the attribute"
+        replaced.value == "room1"
+        store.size() == 4
+        store.contains(newState)
+        !store.contains(createAssetState("realmA", ["room1", "building"] as String[], "temperature", 2))
+        store.get(new AttributeRef("room1", "temperature")).valueAsNumber == 5d
+        store.getInPath("building").size() == 3
+
+        when: "an asset is moved to another parent and realm"
+        store.put(createAssetState("realmB", ["room2", "other"] as String[], "temperature", 6), "room2")
+
+        then: "the indexes should be updated"
+        store.getInPath("building").collect { it.id } == ["building", "room1"]
+        store.getInPath("other").collect { it.id } == ["other", "room2"]
+        store.getInRealm("realmA").size() == 2
+        store.getInRealm("realmB").size() == 2
+
+        when: "asset states are removed"
+        def removed = store.remove(new AttributeRef("room1", "temperature"))
+        store.remove(new AttributeRef("building", "temperature"))
+
+        then: "they should no longer be found"
+        removed.value == "room1-new"
+        store.size() == 2
+        store.getInPath("building").isEmpty()
+        store.getInRealm("realmA").isEmpty()
+        store.remove(new AttributeRef("building", "temperature")) == null
+    }
+}
@@ -1,6 +1,7 @@
 package org.openremote.test.rules
 
 import org.openremote.container.web.ClientRequestInfo
+import org.openremote.manager.server.rules.RulesEngine
 import org.openremote.manager.server.rules.RulesService
 import org.openremote.manager.server.rules.RulesetStorageService
 import org.openremote.manager.server.security.ManagerIdentityService
@@ -22,6 +23,10 @@ import static org.openremote.model.Constants.*
 
 class BasicRulesDeploymentTest extends Specification implements ManagerContainerTrait {
 
+    static List<String> getRuleNames(RulesEngine rulesEngine) {
+        rulesEngine.knowledgeSession.kieBase.kiePackages.collectMany { it.rules*.name }
+    }
+
     def "Check basic rules engine deployment"() {
 
         given: "expected conditions"
@@ -54,6 +59,8 @@ class BasicRulesDeploymentTest extends Specification implements ManagerContainer
         }
 
         when: "a new global rule definition is added"
+        def globalEngine = rulesService.globalEngine
+        def globalFactCount = globalEngine.knowledgeSession.factCount
         def ruleset = new GlobalRuleset(
                 "Some more global rules",
                 getClass().getResource("/org/openremote/test/rules/BasicMatchAllAssetStates2.drl").text
@@ -73,6 +80,59 @@ class BasicRulesDeploymentTest extends Specification implements ManagerContainer
             assert rulesService.globalEngine.allRulesets[1].deploymentStatus == DeploymentStatus.DEPLOYED
         }
 
+        and: "the running engine should have been updated without reinserting facts"
+        rulesService.globalEngine == globalEngine
+        globalEngine.lastDeploymentIncremental
+        globalEngine.lastReinsertedCount == 0
+        globalEngine.knowledgeSession.factCount == globalFactCount
+
+        when: "another global rule definition is added"
+        def rules2 = getClass().getResource("/org/openremote/test/rules/BasicMatchAllAssetStates2.drl").text
+        ruleset = rulesetStorageService.merge(new GlobalRuleset(
+                "Some changing global rules",
+                rules2.replace("All 2", "All 3").replace("All changed 2", "All changed 3")
+        ))
+
+        then: "the running engine should have the new rules"
+        conditions.eventually {
+            assert rulesService.globalEngine.allRulesets.length == 3
+            assert rulesService.globalEngine.allRulesets[2].deploymentStatus == DeploymentStatus.DEPLOYED
+            assert getRuleNames(globalEngine).containsAll(["All 2", "All changed 2", "All 3", "All changed 3"])
+        }
+
+        when: "the rules of the global rule definition are updated"
+        ruleset = rulesetStorageService.findById(GlobalRuleset.class, ruleset.id)
+        ruleset.setRules(rules2.replace("All 2", "All 4").replace("All changed 2", "All changed 4"))
+        rulesetStorageService.merge(ruleset)
+
+        then: "the running engine should replace the rules without reinserting facts"
+        conditions.eventually {
+            assert getRuleNames(globalEngine).containsAll(["All 2", "All changed 2", "All 4", "All changed 4"])
+            assert !getRuleNames(globalEngine).contains("All 3")
+            assert !getRuleNames(globalEngine).contains("All changed 3")
+        }
+        rulesService.globalEngine == globalEngine
+        globalEngine.running
+        globalEngine.lastDeploymentIncremental
+        globalEngine.lastReinsertedCount == 0
+        globalEngine.allRulesets.length == 3
+        globalEngine.allRulesets[2].deploymentStatus == DeploymentStatus.DEPLOYED
+
+        when: "the global rule definition is deleted"
+        rulesetStorageService.delete(GlobalRuleset.class, ruleset.id)
+
+        then: "the running engine should remove the rules without reinserting facts"
+        conditions.eventually {
+            assert globalEngine.allRulesets.length == 2
+            assert !getRuleNames(globalEngine).contains("All 4")
+            assert !getRuleNames(globalEngine).contains("All changed 4")
+            assert getRuleNames(globalEngine).containsAll(["All 2", "All changed 2"])
+        }
+        rulesService.globalEngine == globalEngine
+        globalEngine.running
+        globalEngine.lastDeploymentIncremental
+        globalEngine.lastReinsertedCount == 0
+
         when: "a new tenant rule definition is added to customer A"
         ruleset = new TenantRuleset(
                 "Some more customerA tenant rules",
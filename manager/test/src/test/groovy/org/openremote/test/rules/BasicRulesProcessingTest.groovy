@@ -3,6 +3,7 @@ package org.openremote.test.rules
 import org.openremote.manager.server.asset.AssetProcessingService
 import org.openremote.manager.server.asset.AssetStorageService
 import org.openremote.manager.server.asset.ServerAsset
+import org.openremote.manager.server.concurrent.ManagerExecutorService
 import org.openremote.manager.server.rules.RulesEngine
 import org.openremote.manager.server.rules.RulesService
 import org.openremote.manager.server.rules.RulesetStorageService
@@ -12,8 +13,10 @@ import org.openremote.manager.server.setup.builtin.ManagerDemoSetup
 import org.openremote.model.rules.AssetRuleset
 import org.openremote.model.rules.Ruleset.DeploymentStatus
 import org.openremote.model.rules.TenantRuleset
+import org.openremote.model.asset.Asset
 import org.openremote.model.asset.AssetAttribute
 import org.openremote.model.asset.AssetMeta
+import org.openremote.model.asset.AssetState
 import org.openremote.model.asset.AssetType
 import org.openremote.model.attribute.AttributeEvent
 import org.openremote.model.attribute.AttributeType
@@ -24,6 +27,12 @@ import org.openremote.test.ManagerContainerTrait
 import spock.lang.Specification
 import spock.util.concurrent.PollingConditions
 
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.TimeoutException
+
+import static java.util.concurrent.TimeUnit.SECONDS
+import static org.openremote.manager.server.rules.RulesService.RULES_DISPATCH_TIMEOUT_MILLIS
 import static org.openremote.manager.server.setup.builtin.ManagerDemoSetup.*
 import static org.openremote.test.RulesTestUtil.createRulesExecutionListener
 
@@ -505,4 +514,130 @@ class BasicRulesProcessingTest extends Specification implements ManagerContainer
         cleanup: "the server should be stopped"
         stopContainer(container)
     }
+
+    def "Fail asset state processing when an engine fails to insert the fact"() {
+        given: "expected conditions"
+        def conditions = new PollingConditions(timeout: 10, delay: 0.5)
+
+        and: "the container is started"
+        def serverPort = findEphemeralPort()
+        def container = startContainerNoDemoAssets(defaultConfig(serverPort), defaultServices())
+        def rulesService = container.getService(RulesService.class)
+
+        and: "a rules engine is deployed for a realm"
+        def engine = rulesService.deployTenantRuleset(new TenantRuleset(
+                1000, 1, new Date(), new Date(), "Failing insert", true, null,
+                getClass().getResource("/org/openremote/test/rules/BasicMatchAllAssetStates.drl").text, "failing-realm"
+        ))
+        conditions.eventually {
+            assert engine.running
+        }
+
+        and: "the engine fails when an asset event is inserted"
+        engine.assetEventsConsumer = { assetEvent ->
+            throw new IllegalStateException("Insert failed: " + assetEvent)
+        }
+
+        and: "an asset state of a rule state and rule event attribute"
+        def asset = new Asset("failing-asset", 0, new Date(), "Failing asset", "urn:openremote:asset:thing",
+                null, null, null, "failing-realm", null, null, ["failing-asset"] as String[], Values.createObject())
+        def attribute = new AssetAttribute("failing-asset", "counter", AttributeType.NUMBER, Values.create(1), 1)
+                .setMeta(new Meta(
+                new MetaItem(AssetMeta.RULE_STATE, Values.create(true)),
+                new MetaItem(AssetMeta.RULE_EVENT, Values.create(true))
+        ))
+        def assetState = new AssetState(asset, attribute, AttributeEvent.Source.INTERNAL)
+
+        when: "the asset state is processed"
+        rulesService.accept(assetState)
+
+        then: "the failure of the engine should be an error of the processing"
+        def ex = thrown(IllegalStateException)
+        ex.message.startsWith("Insert failed")
+
+        and: "the fact should have been inserted before the engine failed"
+        engine.assetStates.getAll().any { it.attributeName == "counter" }
+
+        when: "the engine no longer fails"
+        engine.assetEventsConsumer = null
+        rulesService.accept(assetState)
+
+        then: "the asset state should be processed"
+        notThrown(Exception)
+
+        cleanup: "the server should be stopped"
+        stopContainer(container)
+    }
+
+    def "Fail asset state processing when the engines are not fed"() {
+        given: "expected conditions"
+        def conditions = new PollingConditions(timeout: 10, delay: 0.5)
+
+        and: "the container is started with a short dispatch timeout"
+        def serverPort = findEphemeralPort()
+        def container = startContainerNoDemoAssets(
+                defaultConfig(serverPort) << [(RULES_DISPATCH_TIMEOUT_MILLIS): "1000"],
+                defaultServices()
+        )
+        def rulesService = container.getService(RulesService.class)
+
+        and: "a rules engine is deployed for a realm"
+        def engine = rulesService.deployTenantRuleset(new TenantRuleset(
+                1000, 1, new Date(), new Date(), "Blocking insert", true, null,
+                getClass().getResource("/org/openremote/test/rules/BasicMatchAllAssetStates.drl").text, "blocking-realm"
+        ))
+        conditions.eventually {
+            assert engine.running
+        }
+
+        and: "asset states of a rule state and rule event attribute"
+        def asset = new Asset("blocking-asset", 0, new Date(), "Blocking asset", "urn:openremote:asset:thing",
+                null, null, null, "blocking-realm", null, null, ["blocking-asset"] as String[], Values.createObject())
+        def createAssetState = { int value ->
+            def attribute = new AssetAttribute("blocking-asset", "counter", AttributeType.NUMBER, Values.create(value), value)
+                    .setMeta(new Meta(
+                    new MetaItem(AssetMeta.RULE_STATE, Values.create(true)),
+                    new MetaItem(AssetMeta.RULE_EVENT, Values.create(true))
+            ))
+            new AssetState(asset, attribute, AttributeEvent.Source.INTERNAL)
+        }
+
+        when: "the engine blocks when an asset event is inserted"
+        def release = new CountDownLatch(1)
+        engine.assetEventsConsumer = { assetEvent ->
+            release.await(10, SECONDS)
+        }
+
+        and: "an asset state is processed"
+        def assetState = createAssetState(1)
+        rulesService.accept(assetState)
+
+        then: "the asset state should be an error after the dispatch timeout"
+        assetState.processingStatus == AssetState.ProcessingStatus.ERROR
+        assetState.error instanceof TimeoutException
+
+        when: "the engine no longer blocks"
+        engine.assetEventsConsumer = null
+        release.countDown()
+
+        then: "the queued facts and events should be fed"
+        conditions.eventually {
+            assert engine.inboundSize == 0
+            assert !engine.inboundScheduled.get()
+        }
+
+        when: "the dispatch executor has been shut down and an asset state is processed"
+        container.getService(ManagerExecutorService.class).rulesDispatchExecutor.shutdownNow()
+        rulesService.accept(createAssetState(2))
+
+        then: "the rejected dispatch should be an error of the processing"
+        thrown(RejectedExecutionException)
+
+        and: "the engine should not wait for a drain which never runs"
+        engine.inboundSize == 0
+        !engine.inboundScheduled.get()
+
+        cleanup: "the server should be stopped"
+        stopContainer(container)
+    }
 }
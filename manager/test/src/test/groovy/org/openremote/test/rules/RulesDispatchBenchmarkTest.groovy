@@ -0,0 +1,102 @@
+package org.openremote.test.rules
+
+import org.openremote.manager.server.rules.RulesEngine
+import org.openremote.manager.server.rules.RulesService
+import org.openremote.model.asset.Asset
+import org.openremote.model.asset.AssetAttribute
+import org.openremote.model.asset.AssetState
+import org.openremote.model.attribute.AttributeEvent
+import org.openremote.model.attribute.AttributeType
+import org.openremote.model.rules.TenantRuleset
+import org.openremote.model.value.Values
+import org.openremote.test.ManagerContainerTrait
+import spock.lang.Requires
+import spock.lang.Specification
+import spock.util.concurrent.PollingConditions
+
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+/**
+ * Run with system property <code>benchmark=true</code>.
+ */
+@Requires({ Boolean.getBoolean("benchmark") })
+class RulesDispatchBenchmarkTest extends Specification implements ManagerContainerTrait {
+
+    static final int TENANTS = 20
+    static final int ASSETS_PER_TENANT = 50
+    static final int UPDATES_PER_ASSET = 20
+    static final double MIN_UPDATES_PER_SECOND = 1000
+
+    static AssetState createAssetState(String realmId, String assetId, int value) {
+        def asset = new Asset(assetId, 0, new Date(), assetId, "urn:openremote:asset:thing",
+                null, null, null, realmId, null, null, [assetId] as String[], Values.createObject())
+        new AssetState(asset, new AssetAttribute(assetId, "counter", AttributeType.NUMBER, Values.create(value), value), AttributeEvent.Source.INTERNAL)
+    }
+
+    /**
+     * Dispatches the updates from the given number of threads, and returns the updates per second once all
+     * facts have been fed into the engines.
+     */
+    static double dispatchUpdates(RulesService rulesService, List<RulesEngine> engines, int threads, int round) {
+        def executor = Executors.newFixedThreadPool(threads)
+        def start = System.nanoTime()
+        (0..<TENANTS).each { tenant ->
+            (0..<ASSETS_PER_TENANT).each { asset ->
+                executor.execute {
+                    (1..UPDATES_PER_ASSET).each { update ->
+                        rulesService.updateAssetState(
+                                createAssetState("benchmark-realm-" + tenant, "benchmark-" + tenant + "-" + asset, round * UPDATES_PER_ASSET + update),
+                                true
+                        )
+                    }
+                }
+            }
+        }
+        executor.shutdown()
+        executor.awaitTermination(60, TimeUnit.SECONDS)
+        new PollingConditions(timeout: 60, delay: 0.05).eventually {
+            assert rulesService.getDispatchQueueSize() == 0
+            engines.each { engine ->
+                assert engine.dispatchedCount == (round + 1) * ASSETS_PER_TENANT * UPDATES_PER_ASSET
+            }
+        }
+        def seconds = (System.nanoTime() - start) / 1e9d
+        TENANTS * ASSETS_PER_TENANT * UPDATES_PER_ASSET / seconds
+    }
+
+    def "Measure rule fact dispatch throughput with many tenant engines"() {
+
+        given: "the container is started"
+        def serverPort = findEphemeralPort()
+        def container = startContainerNoDemoAssets(defaultConfig(serverPort), defaultServices())
+        def rulesService = container.getService(RulesService.class)
+
+        and: "a rules engine is deployed for each tenant"
+        def rules = getClass().getResource("/org/openremote/test/rules/BasicMatchAllAssetStates.drl").text
+        List<RulesEngine> engines = (0..<TENANTS).collect { tenant ->
+            rulesService.deployTenantRuleset(new TenantRuleset(
+                    1000 + tenant, 1, new Date(), new Date(), "Benchmark " + tenant, true, null, rules, "benchmark-realm-" + tenant
+            ))
+        }
+        new PollingConditions(timeout: 30, delay: 1).eventually {
+            engines.each { assert it.running }
+        }
+
+        when: "rule facts are dispatched from one thread and from several threads"
+        def singleThreadThroughput = dispatchUpdates(rulesService, engines, 1, 0)
+        def multiThreadThroughput = dispatchUpdates(rulesService, engines, 8, 1)
+        then: "the facts should be dispatched with the minimum throughput"
+        singleThreadThroughput > MIN_UPDATES_PER_SECOND
+        multiThreadThroughput > MIN_UPDATES_PER_SECOND
+
+        and: "each engine should have the latest fact of each asset in its realm"
+        engines.every { engine ->
+            engine.assetStates.getAll().every { it.valueAsNumber == 2 * UPDATES_PER_ASSET }
+        }
+        rulesService.assetStates.size() == TENANTS * ASSETS_PER_TENANT
+
+        cleanup: "the server should be stopped"
+        stopContainer(container)
+    }
+}
@@ -0,0 +1,88 @@
+package org.openremote.test.rules
+
+import org.openremote.manager.server.rules.RulesModuleCache
+import org.openremote.manager.server.rules.RulesService
+import org.openremote.manager.server.rules.RulesetStorageService
+import org.openremote.manager.server.setup.SetupService
+import org.openremote.manager.server.setup.builtin.KeycloakDemoSetup
+import org.openremote.manager.server.setup.builtin.ManagerDemoSetup
+import org.openremote.test.ManagerContainerTrait
+import spock.lang.Specification
+import spock.util.concurrent.PollingConditions
+
+import java.nio.file.Files
+import java.nio.file.attribute.PosixFilePermissions
+
+import static org.openremote.manager.server.rules.RulesService.RULES_CACHE_PATH
+
+class RulesModuleCacheTest extends Specification implements ManagerContainerTrait {
+
+    def "Reuse compiled rulesets after restart"() {
+
+        given: "a rules cache directory"
+        def cacheDirectory = Files.createTempDirectory("openremote-rules-cache-test")
+
+        and: "the container is started with the rules cache"
+        def serverPort = findEphemeralPort()
+        def container = startContainer(defaultConfig(serverPort) << [(RULES_CACHE_PATH): cacheDirectory.toString()], defaultServices())
+        def rulesService = container.getService(RulesService.class)
+        def rulesImport = new BasicRulesImport(
+                container.getService(RulesetStorageService.class),
+                container.getService(SetupService.class).getTaskOfType(KeycloakDemoSetup.class),
+                container.getService(SetupService.class).getTaskOfType(ManagerDemoSetup.class)
+        )
+
+        expect: "the global rules engine to be compiled and cached"
+        new PollingConditions(initialDelay: 3, timeout: 10, delay: 1).eventually {
+            assert rulesService.globalEngine != null
+            assert rulesService.globalEngine.isRunning()
+            assert !rulesService.globalEngine.lastDeploymentCached
+            assert Files.list(cacheDirectory).anyMatch { it.fileName.toString().startsWith("GlobalRuleset-") }
+        }
+
+        when: "the container is restarted and the same rulesets are imported"
+        stopContainer(container)
+        container = startContainer(defaultConfig(serverPort) << [(RULES_CACHE_PATH): cacheDirectory.toString()], defaultServices())
+        rulesService = container.getService(RulesService.class)
+        rulesImport = new BasicRulesImport(
+                container.getService(RulesetStorageService.class),
+                container.getService(SetupService.class).getTaskOfType(KeycloakDemoSetup.class),
+                container.getService(SetupService.class).getTaskOfType(ManagerDemoSetup.class)
+        )
+
+        then: "the global rules engine should be loaded from the cache"
+        new PollingConditions(initialDelay: 3, timeout: 10, delay: 1).eventually {
+            assert rulesService.globalEngine != null
+            assert rulesService.globalEngine.isRunning()
+            assert rulesService.globalEngine.lastDeploymentCached
+            assert rulesService.globalEngine.knowledgeSession.factCount > 0
+        }
+
+        cleanup: "the server should be stopped"
+        stopContainer(container)
+        cacheDirectory.toFile().deleteDir()
+    }
+
+    def "Only use a rules cache directory which is private to the manager"() {
+
+        given: "a temporary directory"
+        def parentDirectory = Files.createTempDirectory("openremote-rules-cache-test")
+
+        when: "the rules cache is initialized in a directory which doesn't exist"
+        def cacheDirectory = parentDirectory.resolve("cache")
+        def initialized = new RulesModuleCache(cacheDirectory).init()
+
+        then: "the directory should be created with owner-only permissions"
+        initialized
+        PosixFilePermissions.toString(Files.getPosixFilePermissions(cacheDirectory)) == "rwx------"
+
+        when: "other users can write to the directory"
+        Files.setPosixFilePermissions(cacheDirectory, PosixFilePermissions.fromString("rwxrwxrwx"))
+
+        then: "the directory should not be used"
+        !new RulesModuleCache(cacheDirectory).init()
+
+        cleanup: "the directory should be removed"
+        parentDirectory.toFile().deleteDir()
+    }
+}
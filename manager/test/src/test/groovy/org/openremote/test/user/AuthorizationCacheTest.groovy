@@ -0,0 +1,84 @@
+package org.openremote.test.user
+
+import org.openremote.container.persistence.PersistenceService
+import org.openremote.manager.server.asset.AssetStorageService
+import org.openremote.manager.server.security.ManagerIdentityService
+import org.openremote.manager.server.security.UserConfiguration
+import org.openremote.manager.server.setup.SetupService
+import org.openremote.manager.server.setup.builtin.KeycloakDemoSetup
+import org.openremote.manager.server.setup.builtin.ManagerDemoSetup
+import org.openremote.model.asset.UserAsset
+import org.openremote.test.ManagerContainerTrait
+import spock.lang.Specification
+import spock.util.concurrent.PollingConditions
+
+import static org.openremote.manager.server.security.ManagerIdentityService.AUTHORIZATION_CACHE_TTL_MILLIS
+
+class AuthorizationCacheTest extends Specification implements ManagerContainerTrait {
+
+    def "Cache authorization data and tenants, invalidate them on persistence events"() {
+
+        given: "expected conditions"
+        def conditions = new PollingConditions(timeout: 10, delay: 0.2)
+
+        and: "the container is started with a short authorization cache time-to-live"
+        def serverPort = findEphemeralPort()
+        def container = startContainer(
+                defaultConfig(serverPort) << [(AUTHORIZATION_CACHE_TTL_MILLIS): "3000"],
+                defaultServices()
+        )
+        def keycloakDemoSetup = container.getService(SetupService.class).getTaskOfType(KeycloakDemoSetup.class)
+        def managerDemoSetup = container.getService(SetupService.class).getTaskOfType(ManagerDemoSetup.class)
+        def identityService = container.getService(ManagerIdentityService.class)
+        def assetStorageService = container.getService(AssetStorageService.class)
+        def persistenceService = container.getService(PersistenceService.class)
+        def authorizationCache = identityService.authorizationCache
+
+        expect: "the demo authorization data to be loaded and cached"
+        identityService.identityProvider.isRestrictedUser(keycloakDemoSetup.testuser3Id)
+        assetStorageService.isUserAsset(keycloakDemoSetup.testuser3Id, managerDemoSetup.apartment1Id)
+        !assetStorageService.isUserAsset(keycloakDemoSetup.testuser3Id, managerDemoSetup.apartment3Id)
+        identityService.identityProvider.isActiveTenant(keycloakDemoSetup.customerATenant.id)
+        authorizationCache.restrictedUsers.getIfPresent(keycloakDemoSetup.testuser3Id)
+        authorizationCache.userAssets.getIfPresent(new UserAsset(keycloakDemoSetup.testuser3Id, managerDemoSetup.apartment1Id))
+
+        and: "the tenants to be served from the registry"
+        identityService.tenantRegistry.stalenessMillis >= 0
+        identityService.identityProvider.getTenantForRealm(keycloakDemoSetup.customerATenant.realm).id == keycloakDemoSetup.customerATenant.id
+        identityService.identityProvider.activeTenantIds.toList().containsAll([
+                keycloakDemoSetup.masterTenant.id, keycloakDemoSetup.customerATenant.id, keycloakDemoSetup.customerBTenant.id
+        ])
+
+        when: "the user configuration and a user asset link are changed in the database"
+        persistenceService.doTransaction { em ->
+            em.find(UserConfiguration.class, keycloakDemoSetup.testuser3Id).setRestricted(false)
+            em.merge(new UserAsset(keycloakDemoSetup.testuser3Id, managerDemoSetup.apartment3Id))
+        }
+
+        then: "the cached entries should be invalidated"
+        conditions.eventually {
+            assert !identityService.identityProvider.isRestrictedUser(keycloakDemoSetup.testuser3Id)
+            assert assetStorageService.isUserAsset(keycloakDemoSetup.testuser3Id, managerDemoSetup.apartment3Id)
+        }
+
+        when: "a cached user asset link is deleted without persistence event"
+        assert assetStorageService.isUserAsset(keycloakDemoSetup.testuser3Id, managerDemoSetup.apartment1Id)
+        persistenceService.doTransaction { em ->
+            em.createNativeQuery("delete from USER_ASSET where USER_ID = :userId and ASSET_ID = :assetId")
+                    .setParameter("userId", keycloakDemoSetup.testuser3Id)
+                    .setParameter("assetId", managerDemoSetup.apartment1Id)
+                    .executeUpdate()
+        }
+
+        then: "the cached link should still be used"
+        assetStorageService.isUserAsset(keycloakDemoSetup.testuser3Id, managerDemoSetup.apartment1Id)
+
+        and: "the deletion should be visible after the time-to-live"
+        conditions.eventually {
+            assert !assetStorageService.isUserAsset(keycloakDemoSetup.testuser3Id, managerDemoSetup.apartment1Id)
+        }
+
+        cleanup: "the server should be stopped"
+        stopContainer(container)
+    }
+}
@@ -0,0 +1,62 @@
+package org.openremote.test.user
+
+import groovy.json.JsonSlurper
+import org.openremote.manager.server.security.ManagerIdentityService
+import org.openremote.manager.shared.metrics.MetricsResource
+import org.openremote.test.ManagerContainerTrait
+import spock.lang.Specification
+
+import static org.openremote.container.util.MapAccess.getString
+import static org.openremote.manager.server.security.ManagerIdentityService.TENANT_REGISTRY_REFRESH_MILLIS
+import static org.openremote.manager.server.setup.AbstractKeycloakSetup.SETUP_KEYCLOAK_ADMIN_PASSWORD
+import static org.openremote.manager.server.setup.AbstractKeycloakSetup.SETUP_KEYCLOAK_ADMIN_PASSWORD_DEFAULT
+import static org.openremote.model.Constants.*
+
+class TenantRegistryTest extends Specification implements ManagerContainerTrait {
+
+    def "Retrieve tenant registry metrics with periodic refresh disabled"() {
+
+        given: "the container is started without periodic refresh of the tenant registry"
+        def serverPort = findEphemeralPort()
+        def container = startContainerNoDemoAssets(
+                defaultConfig(serverPort) << [(TENANT_REGISTRY_REFRESH_MILLIS): "0"],
+                defaultServices()
+        )
+        def tenantRegistry = container.getService(ManagerIdentityService.class).tenantRegistry
+
+        and: "an authenticated admin user and the metrics resource"
+        def accessToken = authenticate(
+                container,
+                MASTER_REALM,
+                KEYCLOAK_CLIENT_ID,
+                MASTER_REALM_ADMIN_USER,
+                getString(container.getConfig(), SETUP_KEYCLOAK_ADMIN_PASSWORD, SETUP_KEYCLOAK_ADMIN_PASSWORD_DEFAULT)
+        ).token
+        def metricsResource = getClientTarget(serverUri(serverPort), MASTER_REALM, accessToken).proxy(MetricsResource.class)
+
+        expect: "the tenants to be loaded"
+        tenantRegistry.getTenantForRealm(MASTER_REALM) != null
+
+        when: "the tenant registry metrics are retrieved"
+        def metrics = new JsonSlurper().parseText(metricsResource.getTenantRegistryMetrics(null).toJson())
+
+        then: "the loaded tenants and their staleness should be reported"
+        metrics.tenants == tenantRegistry.tenantCount
+        metrics.tenants > 0
+        metrics.stalenessMillis >= 0
+        metrics.refreshes >= 1
+        metrics.refreshFailures == 0
+
+        when: "the tenant registry is refreshed"
+        def refreshes = metrics.refreshes
+        tenantRegistry.refresh()
+        metrics = new JsonSlurper().parseText(metricsResource.getTenantRegistryMetrics(null).toJson())
+
+        then: "the refresh should be counted"
+        metrics.refreshes == refreshes + 1
+        metrics.refreshFailures == 0
+
+        cleanup: "the server should be stopped"
+        stopContainer(container)
+    }
+}
@@ -91,7 +91,12 @@ public class AbstractAssetQuery<CHILD extends AbstractAssetQuery<CHILD>> {
         EXACT,
         BEGIN,
         END,
-        CONTAINS;
+        CONTAINS,
+        /**
+         * Similar strings, ranked by similarity. Always case-insensitive, only supported for asset names,
+         * other predicates treat this as {@link #EXACT}.
+         */
+        FUZZY;
 
         public String prepare(String string) {
             if (string == null)
@@ -386,6 +391,113 @@ public class AbstractAssetQuery<CHILD extends AbstractAssetQuery<CHILD>> {
         }
     }
 
+    /**
+     * Restricts the assets to those with a location, coordinates are longitude and latitude in degrees.
+     */
+    @JsonSubTypes({
+        @JsonSubTypes.Type(value = BoundingBoxPredicate.class, name = "bounding-box"),
+        @JsonSubTypes.Type(value = RadiusPredicate.class, name = "radius"),
+        @JsonSubTypes.Type(value = NearestPredicate.class, name = "nearest")
+    })
+    @JsonTypeInfo(
+        use = JsonTypeInfo.Id.NAME,
+        include = JsonTypeInfo.As.PROPERTY,
+        property = "predicateType"
+    )
+    public interface LocationPredicate {
+    }
+
+    /**
+     * Assets located within the rectangle, for example the viewport of a map.
+     */
+    public static class BoundingBoxPredicate implements LocationPredicate {
+        public double minLng;
+        public double minLat;
+        public double maxLng;
+        public double maxLat;
+
+        public BoundingBoxPredicate() {
+        }
+
+        public BoundingBoxPredicate(double minLng, double minLat, double maxLng, double maxLat) {
+            this.minLng = minLng;
+            this.minLat = minLat;
+            this.maxLng = maxLng;
+            this.maxLat = maxLat;
+        }
+
+        public BoundingBoxPredicate min(double lng, double lat) {
+            this.minLng = lng;
+            this.minLat = lat;
+            return this;
+        }
+
+        public BoundingBoxPredicate max(double lng, double lat) {
+            this.maxLng = lng;
+            this.maxLat = lat;
+            return this;
+        }
+    }
+
+    /**
+     * Assets located within the radius (in meters) around the center.
+     */
+    public static class RadiusPredicate implements LocationPredicate {
+        public double lng;
+        public double lat;
+        public double radius;
+
+        public RadiusPredicate() {
+        }
+
+        public RadiusPredicate(double lng, double lat, double radius) {
+            this.lng = lng;
+            this.lat = lat;
+            this.radius = radius;
+        }
+
+        public RadiusPredicate center(double lng, double lat) {
+            this.lng = lng;
+            this.lat = lat;
+            return this;
+        }
+
+        public RadiusPredicate radius(double radius) {
+            this.radius = radius;
+            return this;
+        }
+    }
+
+    /**
+     * The assets located nearest to the point, at most {@link #count} of them, ordered by distance in meters before
+     * any other {@link OrderBy}. Can be combined with a {@link Page} size but not with a page cursor.
+     */
+    public static class NearestPredicate implements LocationPredicate {
+        public double lng;
+        public double lat;
+        public int count;
+
+        public NearestPredicate() {
+        }
+
+        public NearestPredicate(double lng, double lat, int count) {
+            this.lng = lng;
+            this.lat = lat;
+            this.count = count;
+        }
+
+        public NearestPredicate point(double lng, double lat) {
+            this.lng = lng;
+            this.lat = lat;
+            return this;
+        }
+
+        public NearestPredicate count(int count) {
+            this.count = count;
+            return this;
+        }
+    }
+
     public static class AttributeMetaPredicate {
         public StringPredicate itemNamePredicate;
         public ValuePredicate itemValuePredicate;
@@ -568,6 +680,39 @@ public class AbstractAssetQuery<CHILD extends AbstractAssetQuery<CHILD>> {
         }
     }
 
+    /**
+     * Keyset pagination, selects at most {@link #size} assets which follow the asset with the {@link #after}
+     * identifier in the {@link OrderBy} order, ties are ordered by asset identifier. The identifier of the last
+     * asset of a page is the cursor of the next page. A page with less than {@link #size} assets is the last page.
+     * If the cursor asset has been deleted, the page is empty.
+     */
+    public static class Page {
+        public int size;
+        public String after;
+
+        public Page() {
+        }
+
+        public Page(int size) {
+            this.size = size;
+        }
+
+        public Page(int size, String after) {
+            this.size = size;
+            this.after = after;
+        }
+
+        public Page size(int size) {
+            this.size = size;
+            return this;
+        }
+
+        public Page after(String after) {
+            this.after = after;
+            return this;
+        }
+    }
+
     // Projection
     public Select select = new Select();
 
@@ -581,10 +726,14 @@ public class AbstractAssetQuery<CHILD extends AbstractAssetQuery<CHILD>> {
     public StringPredicate type;
     public AttributeMetaPredicate attributeMetaPredicate;
     public AttributePredicateArray attributePredicateArray;
+    public LocationPredicate locationPredicate;
 
     // Ordering
     public OrderBy orderBy = new OrderBy(OrderBy.Property.CREATED_ON);
 
+    // Pagination
+    public Page page;
+
     protected AbstractAssetQuery() {
     }
 
@@ -658,8 +807,18 @@ public class AbstractAssetQuery<CHILD extends AbstractAssetQuery<CHILD>> {
         return (CHILD) this;
     }
 
+    public CHILD location(LocationPredicate locationPredicate) {
+        this.locationPredicate = locationPredicate;
+        return (CHILD) this;
+    }
+
     public CHILD orderBy(OrderBy orderBy) {
         this.orderBy = orderBy;
         return (CHILD) this;
     }
+
+    public CHILD page(Page page) {
+        this.page = page;
+        return (CHILD) this;
+    }
 }
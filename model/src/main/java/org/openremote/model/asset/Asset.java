@@ -20,7 +20,7 @@
 package org.openremote.model.asset;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
-import org.hibernate.annotations.Formula;
+import org.hibernate.annotations.GenerationTime;
 import org.openremote.model.IdentifiableEntity;
 import org.openremote.model.attribute.Attribute;
 import org.openremote.model.geo.GeoJSON;
@@ -270,7 +270,9 @@ public class Asset implements IdentifiableEntity {
 
     // The following are expensive to query, so if they are null, they might not have been loaded
 
-    @Formula("get_asset_tree_path(ID)")
+    // Maintained by the database when the asset is stored or moved, see UpdateAssetPath.sql
+    @Column(name = "PATH", columnDefinition = "text[]", insertable = false, updatable = false)
+    @org.hibernate.annotations.Generated(GenerationTime.ALWAYS)
     @org.hibernate.annotations.Type(type = "org.openremote.container.persistence.ArrayUserType")
     protected String[] path;
 
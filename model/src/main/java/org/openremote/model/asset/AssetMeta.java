@@ -34,6 +34,7 @@ import java.util.function.Function;
 import static org.openremote.model.Constants.ASSET_META_NAMESPACE;
 import static org.openremote.model.attribute.MetaItem.MetaItemFailureReason.META_ITEM_VALUE_MISMATCH;
 import static org.openremote.model.util.TextUtil.REGEXP_PATTERN_DOUBLE;
+import static org.openremote.model.util.TextUtil.REGEXP_PATTERN_INTEGER_POSITIVE_NON_ZERO;
 import static org.openremote.model.util.TextUtil.isNullOrEmpty;
 
 /**
@@ -246,6 +247,18 @@ public enum AssetMeta implements MetaItemDescriptor {
         Values.create(true),
         true),
 
+    /**
+     * Number of days the stored data points of the attribute are kept, overrides the global default.
+     */
+    DATA_POINTS_MAX_AGE_DAYS(
+        ASSET_META_NAMESPACE + ":dataPointsMaxAgeDays",
+        new Access(true, false, true),
+        ValueType.NUMBER,
+        REGEXP_PATTERN_INTEGER_POSITIVE_NON_ZERO,
+        PatternFailure.INTEGER_POSITIVE_NON_ZERO.name(),
+        null,
+        false),
+
     /**
      * Should attribute writes be processed by the rules engines as {@link AssetState} facts in knowledge sessions,
      * with a lifecycle that reflects the state of the asset attribute. The state facts in the rules sessions are kept
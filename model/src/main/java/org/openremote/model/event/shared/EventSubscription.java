@@ -28,14 +28,33 @@ import org.openremote.model.event.Event;
  * <p>
  * Subscriptions must be refreshed by the client every {@link #RENEWAL_PERIOD_SECONDS}
  * or the server will expire and remove the subscription.
+ * <p>
+ * A client which doesn't need every update, such as a dashboard, can set a minimum interval. The
+ * server then sends at most one event of the same entity attribute per interval, always the latest.
+ * <p>
+ * A client can select the {@link Encoding} of the events it receives for a subscription. The default are
+ * JSON text messages, binary messages are smaller and faster to parse.
  */
 public class EventSubscription<E extends SharedEvent> {
 
     public static final String MESSAGE_PREFIX = "SUBSCRIBE";
     public static final int RENEWAL_PERIOD_SECONDS = 300;
 
+    public enum Encoding {
+        /**
+         * A text message <code>EVENT{...}</code> or <code>EVENT[...]</code> with JSON payload.
+         */
+        JSON,
+        /**
+         * A binary message with the event encoded as CBOR (RFC 7049), without message prefix.
+         */
+        CBOR
+    }
+
     protected String eventType;
     protected EventFilter<E> filter;
+    protected int minIntervalMillis;
+    protected Encoding encoding;
 
     protected EventSubscription() {
     }
@@ -73,6 +92,26 @@ public class EventSubscription<E extends SharedEvent> {
         this.filter = filter;
     }
 
+    public int getMinIntervalMillis() {
+        return minIntervalMillis;
+    }
+
+    /**
+     * @param minIntervalMillis The minimum time between two events of the same entity attribute, <code>0</code>
+     *                          delivers all events.
+     */
+    public void setMinIntervalMillis(int minIntervalMillis) {
+        this.minIntervalMillis = minIntervalMillis;
+    }
+
+    public Encoding getEncoding() {
+        return encoding != null ? encoding : Encoding.JSON;
+    }
+
+    public void setEncoding(Encoding encoding) {
+        this.encoding = encoding;
+    }
+
     public boolean isEventType(Class<? extends Event> eventClass) {
         return Event.getEventType(eventClass).equals(getEventType());
     }
@@ -82,6 +121,8 @@ public class EventSubscription<E extends SharedEvent> {
         return getClass().getSimpleName() + "{" +
             "eventType='" + eventType + '\'' +
             ", filter=" + filter +
+            ", minIntervalMillis=" + minIntervalMillis +
+            ", encoding=" + getEncoding() +
             '}';
     }
 }